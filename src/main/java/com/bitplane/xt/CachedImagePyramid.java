@@ -35,14 +35,19 @@ import bdv.img.cache.VolatileCachedCellImg;
 import bdv.util.AxisOrder;
 import bdv.util.volatiles.SharedQueue;
 import bdv.util.volatiles.VolatileTypeMatcher;
+import com.bitplane.xt.util.ArrayPool;
+import com.bitplane.xt.util.CellArrayRecycler;
+import com.bitplane.xt.util.ConnectionLanes;
 import com.bitplane.xt.util.ImarisDirtyLoaderRemover;
 import com.bitplane.xt.util.ImarisLoader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.Volatile;
 import net.imglib2.cache.Cache;
 import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.CacheRemover;
 import net.imglib2.cache.IoSync;
 import net.imglib2.cache.LoaderCache;
 import net.imglib2.cache.LoaderRemoverCache;
@@ -122,6 +127,8 @@ class CachedImagePyramid< T extends NativeType< T > & RealType< T >, V extends V
 
 	private final int numTimepoints;
 
+	private final ConnectionLanes lanes;
+
 	/**
 	 * TODO
 	 */
@@ -172,6 +179,11 @@ class CachedImagePyramid< T extends NativeType< T > & RealType< T >, V extends V
 		imgs = new CachedCellImg[ numResolutions ];
 		vimgs = new VolatileCachedCellImg[ numResolutions ];
 
+		// With more than one connection, volatile images load through a
+		// separate view of the same cache, which uses the INTERACTIVE lane.
+		lanes = ConnectionLanes.create( dataset, options.values.numConnections(), options.values.compression(), options.values.requestPolicy() );
+		final boolean separateInteractiveLane = lanes.numConnections() > 1;
+
 		for ( int resolution = 0; resolution < numResolutions; ++resolution )
 		{
 			final CellGrid grid = new CellGrid( dimensions[ resolution ], cellDimensions[ resolution ] );
@@ -181,6 +193,7 @@ class CachedImagePyramid< T extends NativeType< T > & RealType< T >, V extends V
 					index -> new Key( level, index ),
 					key -> key.level == level ? key.index : null );
 			final Cache< Long, Cell< A > > cache;
+			final Cache< Long, Cell< A > > volatileBackingCache;
 			if ( level == 0 && writable )
 			{
 				final CacheLoader< Long, Cell< A > > backingLoader = isEmptyDataset
@@ -188,16 +201,29 @@ class CachedImagePyramid< T extends NativeType< T > & RealType< T >, V extends V
 						: null;
 
 				// raw types because ImarisDirtyLoaderRemover<A> requires A extends Dirty
-				final ImarisDirtyLoaderRemover loader = new ImarisDirtyLoaderRemover( dataset, mapDimensions, grid, backingLoader, false );
+				// NB: only cells that are assembled from several Imaris slices are filled into pooled arrays
+				final ArrayPool cellArrayPool = ImarisLoader.assemblesCells( mapDimensions, grid )
+						? CellArrayRecycler.createPool( options.values.maxRecycledCellArrays() )
+						: null;
+				final ImarisDirtyLoaderRemover loader = new ImarisDirtyLoaderRemover( lanes, mapDimensions, grid, backingLoader, false, cellArrayPool );
 				final int numIoThreads = options.values.numIoThreads();
 				final int maxIoQueueSize = options.values.maxIoQueueSize();
 				final IoSync< Long, Cell< A >, A > iosync = new IoSync<>( loader, numIoThreads, maxIoQueueSize );
-				cache = writableCache.withLoader( iosync ).withRemover( iosync );
+				final CacheRemover< Long, Cell< A >, A > remover = cellArrayPool == null
+						? iosync
+						: new CellArrayRecycler( iosync, cellArrayPool, null, ( Predicate< Long > ) loader::isAssembled );
+				cache = writableCache.withLoader( iosync ).withRemover( remover );
+				volatileBackingCache = separateInteractiveLane
+						? writableCache.withLoader( ConnectionLanes.interactive( iosync ) ).withRemover( remover )
+						: cache;
 			}
 			else
 			{
-				final ImarisLoader< A > loader = new ImarisLoader<>( dataset, mapDimensions, grid, level );
+				final ImarisLoader< A > loader = new ImarisLoader<>( lanes, mapDimensions, grid, level );
 				cache = backingCache.mapKeys( bimap ).withLoader( loader );
+				volatileBackingCache = separateInteractiveLane
+						? backingCache.mapKeys( bimap ).withLoader( ConnectionLanes.interactive( loader ) )
+						: cache;
 			}
 
 			final int priority = numResolutions - resolution - 1;
@@ -209,7 +235,7 @@ class CachedImagePyramid< T extends NativeType< T > & RealType< T >, V extends V
 			img.setLinkedType( typeFactory.createLinkedType( img ) );
 
 			final CreateInvalidVolatileCell< A > createInvalid = CreateInvalidVolatileCell.get( grid, volatileType, false );
-			final VolatileCache< Long, Cell< A > > vcache = new WeakRefVolatileCache<>( cache, queue, createInvalid );
+			final VolatileCache< Long, Cell< A > > vcache = new WeakRefVolatileCache<>( volatileBackingCache, queue, createInvalid );
 			final VolatileCachedCellImg< V, A > vimg = new VolatileCachedCellImg<>( grid, volatileType, hints, vcache );
 
 			imgs[ resolution ] = img;
@@ -264,6 +290,14 @@ class CachedImagePyramid< T extends NativeType< T > & RealType< T >, V extends V
 		}
 	}
 
+	/**
+	 * Get the proxies used for transferring blocks from/to Imaris.
+	 */
+	ConnectionLanes getConnectionLanes()
+	{
+		return lanes;
+	}
+
 	@Override
 	public int numResolutions()
 	{
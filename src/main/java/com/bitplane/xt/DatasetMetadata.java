@@ -0,0 +1,205 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt;
+
+import Imaris.Error;
+import Imaris.IDataSetPrx;
+import Imaris.cColorTable;
+import Imaris.tType;
+import com.bitplane.xt.util.BoundedTaskExecutor;
+
+/**
+ * Snapshot of the metadata of an Imaris dataset that is needed to set up an
+ * {@link ImarisDataset}: name, pixel type, resolution pyramid, calibration
+ * extents, and per-channel name, display range, and colors.
+ * <p>
+ * All values are fetched once, with independent ICE calls issued in parallel,
+ * and then shared by the {@code ImgPlus}, converters, and sources. This
+ * replaces many sequential round trips, which dominate opening time for
+ * datasets with many channels on a remote Imaris.
+ *
+ * @author Tobias Pietzsch
+ */
+final class DatasetMetadata
+{
+	/**
+	 * Maximum number of threads used for fetching.
+	 */
+	private static final int MAX_FETCH_THREADS = 16;
+
+	private String name;
+
+	private tType type;
+
+	private int[][] pyramidSizes;
+
+	private int[][] pyramidBlockSizes;
+
+	private String unit;
+
+	/**
+	 * Imaris extents {@code minX, maxX, minY, maxY, minZ, maxZ}.
+	 */
+	private final float[] extents = new float[ 6 ];
+
+	private final String[] channelNames;
+
+	private final double[] channelRangeMin;
+
+	private final double[] channelRangeMax;
+
+	private final cColorTable[] channelColorTables;
+
+	private final int[] channelColorsRGBA;
+
+	private DatasetMetadata( final int numChannels )
+	{
+		channelNames = new String[ numChannels ];
+		channelRangeMin = new double[ numChannels ];
+		channelRangeMax = new double[ numChannels ];
+		channelColorTables = new cColorTable[ numChannels ];
+		channelColorsRGBA = new int[ numChannels ];
+	}
+
+	/**
+	 * Fetch metadata of {@code dataset}.
+	 *
+	 * @param dataset
+	 * 		the Imaris dataset
+	 * @param numChannels
+	 * 		number of channels of the dataset
+	 */
+	static DatasetMetadata fetch( final IDataSetPrx dataset, final int numChannels ) throws Error
+	{
+		final DatasetMetadata m = new DatasetMetadata( numChannels );
+		final int numTasks = 11 + 5 * numChannels;
+		final int numThreads = Math.min( MAX_FETCH_THREADS, numTasks );
+		try ( final BoundedTaskExecutor executor = new BoundedTaskExecutor( "imaris-metadata", numThreads, numTasks ) )
+		{
+			executor.submit( () -> m.name = dataset.GetParameter( "Image", "Name" ) );
+			executor.submit( () -> m.type = dataset.GetType() );
+			executor.submit( () -> m.pyramidSizes = dataset.GetPyramidSizes() );
+			executor.submit( () -> m.pyramidBlockSizes = dataset.GetPyramidBlockSizes() );
+			executor.submit( () -> m.unit = dataset.GetUnit() );
+			executor.submit( () -> m.extents[ 0 ] = dataset.GetExtendMinX() );
+			executor.submit( () -> m.extents[ 1 ] = dataset.GetExtendMaxX() );
+			executor.submit( () -> m.extents[ 2 ] = dataset.GetExtendMinY() );
+			executor.submit( () -> m.extents[ 3 ] = dataset.GetExtendMaxY() );
+			executor.submit( () -> m.extents[ 4 ] = dataset.GetExtendMinZ() );
+			executor.submit( () -> m.extents[ 5 ] = dataset.GetExtendMaxZ() );
+			for ( int c = 0; c < numChannels; ++c )
+			{
+				final int channel = c;
+				executor.submit( () -> m.channelNames[ channel ] = dataset.GetChannelName( channel ) );
+				executor.submit( () -> m.channelRangeMin[ channel ] = dataset.GetChannelRangeMin( channel ) );
+				executor.submit( () -> m.channelRangeMax[ channel ] = dataset.GetChannelRangeMax( channel ) );
+				executor.submit( () -> m.channelColorTables[ channel ] = dataset.GetChannelColorTable( channel ) );
+				executor.submit( () -> m.channelColorsRGBA[ channel ] = dataset.GetChannelColorRGBA( channel ) );
+			}
+			// awaitCompletion() establishes happens-before with all tasks
+			executor.awaitCompletion( Error.class );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( "Interrupted while fetching dataset metadata", e );
+		}
+		return m;
+	}
+
+	/**
+	 * Get the {@code "Image > Name"} parameter of the dataset.
+	 */
+	String name()
+	{
+		return name;
+	}
+
+	tType type()
+	{
+		return type;
+	}
+
+	int[][] pyramidSizes()
+	{
+		return pyramidSizes;
+	}
+
+	int[][] pyramidBlockSizes()
+	{
+		return pyramidBlockSizes;
+	}
+
+	/**
+	 * Create a {@code DatasetCalibration} from the fetched unit and extents.
+	 *
+	 * @param size
+	 * 		XYZ size of the dataset (in voxels)
+	 */
+	DatasetCalibration calibration( final int[] size )
+	{
+		final DatasetCalibration calib = new DatasetCalibration();
+		calib.setExtends( unit,
+				extents[ 0 ], extents[ 1 ],
+				extents[ 2 ], extents[ 3 ],
+				extents[ 4 ], extents[ 5 ],
+				size );
+		return calib;
+	}
+
+	int numChannels()
+	{
+		return channelNames.length;
+	}
+
+	String channelName( final int channel )
+	{
+		return channelNames[ channel ];
+	}
+
+	double channelRangeMin( final int channel )
+	{
+		return channelRangeMin[ channel ];
+	}
+
+	double channelRangeMax( final int channel )
+	{
+		return channelRangeMax[ channel ];
+	}
+
+	cColorTable channelColorTable( final int channel )
+	{
+		return channelColorTables[ channel ];
+	}
+
+	int channelColorRGBA( final int channel )
+	{
+		return channelColorsRGBA[ channel ];
+	}
+}
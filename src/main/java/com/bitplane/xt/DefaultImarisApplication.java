@@ -28,11 +28,18 @@
  */
 package com.bitplane.xt;
 
+import Ice.Identity;
 import Imaris.Error;
 import Imaris.IApplicationPrx;
 import Imaris.IDataSetPrx;
 import com.bitplane.xt.util.ImarisUtils;
 import com.bitplane.xt.util.TypeUtils;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import org.scijava.AbstractContextual;
@@ -49,6 +56,20 @@ public class DefaultImarisApplication extends AbstractContextual implements Imar
 
 	private int applicationId;
 
+	/**
+	 * {@code ImarisDataset}s previously returned by {@link #getImage}, by
+	 * image index, dataset identity, and options. Datasets are softly
+	 * referenced, so that they (and their caches) can be garbage-collected
+	 * under memory pressure.
+	 */
+	private final Map< DatasetKey, DatasetRef > datasets = new ConcurrentHashMap<>();
+
+	/**
+	 * {@code DatasetRef}s that have been cleared by the garbage collector,
+	 * to be removed from {@link #datasets}.
+	 */
+	private final ReferenceQueue< ImarisDataset< ? > > clearedDatasets = new ReferenceQueue<>();
+
 	public DefaultImarisApplication(
 			final IApplicationPrx iApplicationPrx,
 			final int applicationId )
@@ -89,8 +110,41 @@ public class DefaultImarisApplication extends AbstractContextual implements Imar
 		{
 			final IDataSetPrx datasetPrx = getIApplicationPrx().GetImage( imageIndex );
 			if ( datasetPrx == null )
+			{
+				invalidateDatasetCache( imageIndex );
 				return null;
-			return new ImarisDataset<>( getContext(), datasetPrx, options );
+			}
+
+			purgeClearedDatasets();
+
+			final Identity identity = datasetPrx.ice_getIdentity();
+			final DatasetKey key = new DatasetKey( imageIndex, identity, options );
+			final DatasetRef cachedRef = datasets.get( key );
+			final ImarisDataset< ? > cached = cachedRef == null ? null : cachedRef.get();
+			if ( cached != null )
+			{
+				if ( hasSameGeometry( cached, datasetPrx ) )
+					return cached;
+				// the image has been resized or retyped in place
+				datasets.remove( key, cachedRef );
+			}
+
+			// the image at imageIndex has been replaced: forget previous datasets
+			datasets.keySet().removeIf( k -> k.imageIndex == imageIndex && !k.identity.equals( identity ) );
+
+			final ImarisDataset< ? > dataset = new ImarisDataset<>( getContext(), datasetPrx, options );
+			final DatasetRef ref = new DatasetRef( key, dataset, clearedDatasets );
+			while ( true )
+			{
+				final DatasetRef previousRef = datasets.putIfAbsent( key, ref );
+				if ( previousRef == null )
+					return dataset;
+				final ImarisDataset< ? > previous = previousRef.get();
+				if ( previous != null )
+					return previous;
+				if ( datasets.replace( key, previousRef, ref ) )
+					return dataset;
+			}
 		}
 		catch ( final Error error )
 		{
@@ -104,6 +158,7 @@ public class DefaultImarisApplication extends AbstractContextual implements Imar
 		try
 		{
 			iApplicationPrx.SetImage( imageIndex, dataset.getIDataSetPrx() );
+			invalidateDatasetCache( imageIndex );
 		}
 		catch ( final Error error )
 		{
@@ -137,4 +192,114 @@ public class DefaultImarisApplication extends AbstractContextual implements Imar
 			throw new RuntimeException( error ); // TODO: revise exception handling
 		}
 	}
+
+	@Override
+	public void invalidateDatasetCache()
+	{
+		datasets.clear();
+	}
+
+	private void invalidateDatasetCache( final int imageIndex )
+	{
+		datasets.keySet().removeIf( k -> k.imageIndex == imageIndex );
+	}
+
+	/**
+	 * Remove entries whose {@code ImarisDataset} has been garbage-collected.
+	 */
+	private void purgeClearedDatasets()
+	{
+		Reference< ? > ref;
+		while ( ( ref = clearedDatasets.poll() ) != null )
+			datasets.remove( ( ( DatasetRef ) ref ).key, ref );
+	}
+
+	/**
+	 * Check whether size and type of {@code datasetPrx} still match the
+	 * cached {@code dataset}. (Imaris can resize or retype a dataset in place,
+	 * without changing its identity.)
+	 */
+	private static boolean hasSameGeometry( final ImarisDataset< ? > dataset, final IDataSetPrx datasetPrx ) throws Error
+	{
+		final int[] size = dataset.getDatasetDimensions().getImarisDimensions();
+		return size[ 0 ] == datasetPrx.GetSizeX()
+				&& size[ 1 ] == datasetPrx.GetSizeY()
+				&& size[ 2 ] == datasetPrx.GetSizeZ()
+				&& size[ 3 ] == datasetPrx.GetSizeC()
+				&& size[ 4 ] == datasetPrx.GetSizeT()
+				&& TypeUtils.imarisTypeFor( dataset.getType() ) == datasetPrx.GetType();
+	}
+
+	private static final class DatasetRef extends SoftReference< ImarisDataset< ? > >
+	{
+		private final DatasetKey key;
+
+		DatasetRef( final DatasetKey key, final ImarisDataset< ? > dataset, final ReferenceQueue< ImarisDataset< ? > > queue )
+		{
+			super( dataset, queue );
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Key for cached {@code ImarisDataset}s: image index, identity of the
+	 * {@code IDataSetPrx}, and a canonical representation of the options.
+	 */
+	private static final class DatasetKey
+	{
+		private final int imageIndex;
+
+		private final Identity identity;
+
+		private final String options;
+
+		private final int hashcode;
+
+		DatasetKey( final int imageIndex, final Identity identity, final ImarisDatasetOptions options )
+		{
+			this.imageIndex = imageIndex;
+			this.identity = identity;
+			this.options = canonicalString( options );
+			hashcode = 31 * ( 31 * imageIndex + identity.hashCode() ) + this.options.hashCode();
+		}
+
+		/**
+		 * Options do not implement {@code equals()}, so they are compared by
+		 * their values (with arrays compared element-wise).
+		 */
+		private static String canonicalString( final ImarisDatasetOptions options )
+		{
+			final StringBuilder sb = new StringBuilder();
+			options.values.forEach( ( name, value ) -> {
+				sb.append( name ).append( '=' );
+				if ( value instanceof int[] )
+					sb.append( Arrays.toString( ( int[] ) value ) );
+				else if ( value instanceof Object[] )
+					sb.append( Arrays.toString( ( Object[] ) value ) );
+				else
+					sb.append( value );
+				sb.append( ';' );
+			} );
+			return sb.toString();
+		}
+
+		@Override
+		public boolean equals( final Object other )
+		{
+			if ( this == other )
+				return true;
+			if ( !( other instanceof DatasetKey ) )
+				return false;
+			final DatasetKey that = ( DatasetKey ) other;
+			return imageIndex == that.imageIndex
+					&& identity.equals( that.identity )
+					&& options.equals( that.options );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashcode;
+		}
+	}
 }
@@ -32,10 +32,19 @@ import Imaris.Error;
 import Imaris.IApplicationPrx;
 import ImarisServer.IServerPrx;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import net.imagej.DatasetService;
 import org.scijava.Priority;
 import org.scijava.plugin.Parameter;
@@ -48,6 +57,13 @@ import static Imaris.IApplicationPrxHelper.checkedCast;
 /**
  * Default implementation of {@code ImarisService} for connecting to the Imaris
  * XT API, and providing access to the running Imaris instance(s).
+ * <p>
+ * Applications are kept in a concurrent registry. Each application is
+ * initialized (including the {@code checkedCast} of its proxy) exactly once,
+ * by whichever thread first requests it, without blocking requests for other
+ * applications. {@link #getApplications()} initializes unknown applications in
+ * parallel. Known applications are probed periodically in the background, and
+ * removed from the registry if they repeatedly do not respond.
  *
  * @author Tobias Pietzsch
  */
@@ -58,59 +74,115 @@ public class DefaultImarisService extends AbstractService implements ImarisServi
 	private DatasetService datasetService;
 
 	@Override
-	public synchronized void disconnect()
+	public void disconnect()
 	{
 		closeIceClient();
 	}
 
 	@Override
-	public synchronized List< ImarisApplication > getApplications()
+	public void setConnectionOptions( final ImarisServiceOptions options )
 	{
-		final List< ImarisApplication > apps = new ArrayList<>();
+		synchronized ( connectionLock )
+		{
+			closeIceClient();
+			connectionOptions = options;
+		}
+	}
+
+	@Override
+	public ImarisServiceOptions getConnectionOptions()
+	{
+		return connectionOptions;
+	}
 
+	@Override
+	public List< ImarisApplication > getApplications()
+	{
 		final IServerPrx server = getServer();
 		final int numObjects = server.GetNumberOfObjects();
+		final List< CompletableFuture< ImarisApplication > > futures = new ArrayList<>( numObjects );
 		for ( int i = 0; i < numObjects; i++ )
 		{
 			final int applicationId = server.GetObjectID( i );
-			final ImarisApplication app = getApplicationByID( applicationId, server );
+			futures.add( getApplicationFuture( applicationId, server ) );
+		}
+
+		final List< ImarisApplication > apps = new ArrayList<>( numObjects );
+		for ( final CompletableFuture< ImarisApplication > future : futures )
+		{
+			final ImarisApplication app = future.join();
 			if ( app != null )
 				apps.add( app );
 		}
-
 		return apps;
 	}
 
 	@Override
-	public synchronized ImarisApplication getApplication()
+	public ImarisApplication getApplication()
 	{
 		final IServerPrx server = getServer();
 		final int applicationId = server.GetObjectID( 0 );
-		return getApplicationByID( applicationId, server );
+		return getApplicationFuture( applicationId, server ).join();
+	}
+
+	@Override
+	public ImarisApplication getApplicationByID( int applicationId )
+	{
+		return getApplicationFuture( applicationId, getServer() ).join();
 	}
 
 	@Override
-	public synchronized ImarisApplication getApplicationByID( int applicationId )
+	public void dispose()
 	{
-		return getApplicationByID( applicationId, getServer() );
+		closeIceClient();
+		executor.shutdown();
+		scheduler.shutdown();
 	}
 
 	//
 	// ========================================================================
 	//
 
-	private final Map< Integer, ImarisApplication > idToApp = new HashMap<>();
+	/**
+	 * Maps application ID to the (possibly still running) initialization of
+	 * the application. Initialization completes with {@code null} if it
+	 * failed, in which case the entry is removed again.
+	 */
+	private final Map< Integer, CompletableFuture< ImarisApplication > > idToApp = new ConcurrentHashMap<>();
+
+	/**
+	 * Runs application initialization and liveness probes.
+	 */
+	private final ExecutorService executor = Executors.newCachedThreadPool( threadFactory( "imaris-service" ) );
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor( threadFactory( "imaris-liveness-probe" ) );
 
-	private ImarisApplication getApplicationByID( int applicationId, IServerPrx server )
+	private CompletableFuture< ImarisApplication > getApplicationFuture( final int applicationId, final IServerPrx server )
 	{
-		ImarisApplication app = idToApp.get( applicationId );
-		if ( app == null )
+		final CompletableFuture< ImarisApplication > existing = idToApp.get( applicationId );
+		if ( existing != null )
+			return existing;
+
+		final CompletableFuture< ImarisApplication > created = new CompletableFuture<>();
+		final CompletableFuture< ImarisApplication > previous = idToApp.putIfAbsent( applicationId, created );
+		if ( previous != null )
+			return previous;
+
+		try
 		{
-			app = initApplication( applicationId, server );
-			if ( app != null )
-				idToApp.put( applicationId, app );
+			executor.execute( () -> {
+				final ImarisApplication app = initApplication( applicationId, server );
+				if ( app == null )
+					idToApp.remove( applicationId, created );
+				created.complete( app );
+			} );
 		}
-		return app;
+		catch ( final RejectedExecutionException e )
+		{
+			idToApp.remove( applicationId, created );
+			created.completeExceptionally( new IllegalStateException( "ImarisService has been disposed", e ) );
+		}
+		return created;
 	}
 
 	private ImarisApplication initApplication( int applicationId, IServerPrx server )
@@ -129,36 +201,155 @@ public class DefaultImarisService extends AbstractService implements ImarisServi
 		return null;
 	}
 
+	/**
+	 * Liveness probe state of one entry in {@link #idToApp}.
+	 */
+	private static final class Liveness
+	{
+		final CompletableFuture< ImarisApplication > future;
+
+		/**
+		 * Whether a ping is currently running.
+		 */
+		final AtomicBoolean pinging = new AtomicBoolean();
+
+		/**
+		 * Number of consecutive failed pings. Only modified by the running ping.
+		 */
+		volatile int failures;
+
+		Liveness( final CompletableFuture< ImarisApplication > future )
+		{
+			this.future = future;
+		}
+	}
+
+	/**
+	 * Maps application ID to liveness probe state of the entry in {@link #idToApp}.
+	 */
+	private final Map< Integer, Liveness > idToLiveness = new ConcurrentHashMap<>();
+
+	/**
+	 * Ping all initialized applications, and remove the ones that failed to
+	 * respond {@code failureThreshold} consecutive times from the registry.
+	 * Applications for which the previous ping is still running are skipped.
+	 *
+	 * @param timeoutMillis
+	 * 		invocation timeout of each ping
+	 * @param failureThreshold
+	 * 		number of consecutive failures after which an application is removed
+	 */
+	private void probeApplications( final int timeoutMillis, final int failureThreshold )
+	{
+		idToLiveness.entrySet().removeIf( entry -> idToApp.get( entry.getKey() ) != entry.getValue().future );
+		idToApp.forEach( ( applicationId, future ) -> {
+			final ImarisApplication app = future.getNow( null );
+			if ( app == null )
+				return;
+
+			final Liveness liveness = idToLiveness.compute( applicationId,
+					( id, l ) -> l != null && l.future == future ? l : new Liveness( future ) );
+			if ( !liveness.pinging.compareAndSet( false, true ) )
+				return;
+
+			try
+			{
+				executor.execute( () -> {
+					try
+					{
+						app.getIApplicationPrx().ice_invocationTimeout( timeoutMillis ).ice_ping();
+						liveness.failures = 0;
+					}
+					catch ( final Exception e )
+					{
+						if ( ++liveness.failures >= failureThreshold )
+						{
+							idToApp.remove( applicationId, future );
+							idToLiveness.remove( applicationId, liveness );
+						}
+					}
+					finally
+					{
+						liveness.pinging.set( false );
+					}
+				} );
+			}
+			catch ( final RejectedExecutionException e )
+			{
+				// service has been disposed
+				liveness.pinging.set( false );
+			}
+		} );
+	}
+
+	/**
+	 * Guards connecting and disconnecting. Requests for applications do not
+	 * hold this lock while talking to Imaris.
+	 */
+	private final Object connectionLock = new Object();
+
 	private IceClient mIceClient;
 
+	private volatile IServerPrx mServer;
+
+	private volatile ImarisServiceOptions connectionOptions = ImarisServiceOptions.options();
+
+	private ScheduledFuture< ? > livenessProbe;
+
 	private IServerPrx getServer()
 	{
-		try
-		{
-			if ( mIceClient == null )
-				mIceClient = new IceClient( "ImarisServer", "default -p 4029", 1000 );
-			return mIceClient.GetServer();
-		}
-		catch( Error e )
+		final IServerPrx server = mServer;
+		if ( server != null )
+			return server;
+
+		synchronized ( connectionLock )
 		{
-			throw error( "Could not connect to Imaris", e );
+			try
+			{
+				if ( mIceClient == null )
+				{
+					mIceClient = new IceClient( "ImarisServer", connectionOptions );
+					mServer = mIceClient.GetServer();
+					final int interval = connectionOptions.values.livenessProbeIntervalMillis();
+					final int failureThreshold = Math.max( 1, connectionOptions.values.livenessProbeFailureThreshold() );
+					if ( interval > 0 && !scheduler.isShutdown() )
+						livenessProbe = scheduler.scheduleWithFixedDelay(
+								() -> probeApplications( interval, failureThreshold ),
+								interval, interval, TimeUnit.MILLISECONDS );
+				}
+				return mIceClient.GetServer();
+			}
+			catch( Error e )
+			{
+				throw error( "Could not connect to Imaris", e );
+			}
 		}
 	}
 
 	private void closeIceClient()
 	{
-		if ( mIceClient != null )
+		synchronized ( connectionLock )
 		{
-			try
+			if ( livenessProbe != null )
 			{
-				mIceClient.Terminate();
+				livenessProbe.cancel( false );
+				livenessProbe = null;
 			}
-			catch( Error e )
+			if ( mIceClient != null )
 			{
-				e.printStackTrace();
+				try
+				{
+					mIceClient.Terminate();
+				}
+				catch( Error e )
+				{
+					e.printStackTrace();
+				}
+				mIceClient = null;
+				mServer = null;
+				idToApp.clear();
+				idToLiveness.clear();
 			}
-			mIceClient = null;
-			idToApp.clear();
 		}
 	}
 
@@ -175,4 +366,14 @@ public class DefaultImarisService extends AbstractService implements ImarisServi
 		else
 			return new RuntimeException( message, error );
 	}
+
+	private static ThreadFactory threadFactory( final String name )
+	{
+		final AtomicInteger threadNumber = new AtomicInteger( 1 );
+		return r -> {
+			final Thread thread = new Thread( r, name + "-" + threadNumber.getAndIncrement() );
+			thread.setDaemon( true );
+			return thread;
+		};
+	}
 }
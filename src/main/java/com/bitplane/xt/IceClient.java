@@ -46,20 +46,25 @@ class IceClient
 	private IServerPrx mServer = null;
 
 	public IceClient( String aName, String aEndPoints, int aServerTimeoutMillisec ) throws Error
+	{
+		this( aName, aEndPoints, createProperties( aServerTimeoutMillisec ) );
+	}
+
+	/**
+	 * Connect to the Imaris server with ICE endpoint and client properties
+	 * according to {@code aOptions}.
+	 */
+	public IceClient( String aName, ImarisServiceOptions aOptions ) throws Error
+	{
+		this( aName, getEndPoints( aOptions ), createProperties( aOptions ) );
+	}
+
+	private IceClient( String aName, String aEndPoints, Properties aProperties ) throws Error
 	{
 		try
 		{
 			InitializationData vData = new InitializationData();
-			Properties vProperties = Ice.Util.createProperties();
-			vProperties.setProperty( "Ice.Default.EncodingVersion", "1.0" );
-			vProperties.setProperty( "Ice.MessageSizeMax", "1000000000" );
-			String vRetryIntervals = "0";
-			for ( int vIndex = 0; vIndex < 5; vIndex++ )
-			{
-				vRetryIntervals += " " + ( aServerTimeoutMillisec * ( vIndex * 2 + 1 ) / 25 );
-			}
-			vProperties.setProperty( "Ice.RetryIntervals", vRetryIntervals );
-			vData.properties = vProperties;
+			vData.properties = aProperties;
 			mCommunicator = Ice.Util.initialize( vData );
 			Ice.ObjectPrx vObject = mCommunicator.stringToProxy( aName + ":" + aEndPoints );
 			mServer = IServerPrxHelper.checkedCast( vObject );
@@ -70,6 +75,70 @@ class IceClient
 		}
 	}
 
+	private static Properties createProperties( int aServerTimeoutMillisec )
+	{
+		return createProperties( ImarisServiceOptions.options().serverTimeoutMillis( aServerTimeoutMillisec ) );
+	}
+
+	private static Properties createProperties( ImarisServiceOptions aOptions )
+	{
+		final ImarisServiceOptions.Values vOptions = aOptions.values;
+		Properties vProperties = Ice.Util.createProperties();
+		vProperties.setProperty( "Ice.Default.EncodingVersion", "1.0" );
+		vProperties.setProperty( "Ice.MessageSizeMax", Integer.toString( vOptions.messageSizeMaxKB() ) );
+
+		String vRetryIntervals = "0";
+		final int[] vIntervals = vOptions.retryIntervals();
+		if ( vIntervals == null )
+		{
+			final int vServerTimeoutMillisec = vOptions.serverTimeoutMillis();
+			for ( int vIndex = 0; vIndex < 5; vIndex++ )
+			{
+				vRetryIntervals += " " + ( vServerTimeoutMillisec * ( vIndex * 2 + 1 ) / 25 );
+			}
+		}
+		else if ( vIntervals.length == 0 )
+		{
+			vRetryIntervals = "-1";
+		}
+		else
+		{
+			for ( int vInterval : vIntervals )
+			{
+				vRetryIntervals += " " + vInterval;
+			}
+		}
+		vProperties.setProperty( "Ice.RetryIntervals", vRetryIntervals );
+
+		final int vPoolSize = vOptions.clientThreadPoolSize();
+		final int vPoolSizeMax = Math.max( vPoolSize, vOptions.clientThreadPoolSizeMax() );
+		vProperties.setProperty( "Ice.ThreadPool.Client.Size", Integer.toString( vPoolSize ) );
+		vProperties.setProperty( "Ice.ThreadPool.Client.SizeMax", Integer.toString( vPoolSizeMax ) );
+
+		if ( vOptions.invocationTimeoutMillis() >= 0 )
+			vProperties.setProperty( "Ice.Default.InvocationTimeout", Integer.toString( vOptions.invocationTimeoutMillis() ) );
+		if ( vOptions.acmTimeoutSeconds() >= 0 )
+			vProperties.setProperty( "Ice.ACM.Client.Timeout", Integer.toString( vOptions.acmTimeoutSeconds() ) );
+		final String vHeartbeat = vOptions.acmHeartbeat().property();
+		if ( vHeartbeat != null )
+			vProperties.setProperty( "Ice.ACM.Client.Heartbeat", vHeartbeat );
+
+		return vProperties;
+	}
+
+	/**
+	 * Get the ICE endpoint string for host and port of {@code aOptions}, for
+	 * example {@code "default -h imaris-host -p 4029"}.
+	 */
+	static String getEndPoints( ImarisServiceOptions aOptions )
+	{
+		final String vHost = aOptions.values.host();
+		final int vPort = aOptions.values.port();
+		return vHost == null
+				? "default -p " + vPort
+				: "default -h " + vHost + " -p " + vPort;
+	}
+
 	public void Terminate() throws Error
 	{
 		if ( mCommunicator != null )
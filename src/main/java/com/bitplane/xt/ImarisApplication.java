@@ -57,6 +57,13 @@ public interface ImarisApplication
 
 	/**
 	 * Get the Imaris image at {@code imageIndex} as an {@code ImarisDataset}.
+	 * <p>
+	 * Repeated calls with equivalent {@code options} may return the same
+	 * {@code ImarisDataset} (with its warm cache), as long as the image at
+	 * {@code imageIndex} has not been replaced, resized, or retyped in
+	 * Imaris. Use {@link
+	 * #invalidateDatasetCache()} to force creating a new {@code ImarisDataset}
+	 * (e.g., to pick up changed metadata).
 	 */
 	ImarisDataset< ? > getImage( int imageIndex, ImarisDatasetOptions options );
 
@@ -86,6 +93,18 @@ public interface ImarisApplication
 		return getImage( 0, options );
 	}
 
+	/**
+	 * Forget all {@code ImarisDataset}s previously returned by {@link
+	 * #getImage}. Subsequent calls to {@link #getImage} create new {@code
+	 * ImarisDataset}s.
+	 * <p>
+	 * The default implementation does nothing, for implementations that do
+	 * not cache {@code ImarisDataset}s.
+	 */
+	default void invalidateDatasetCache()
+	{
+	}
+
 	/**
 	 * Set an image to the application. Image index is clamped to be at most the
 	 * current number of images in the application.
@@ -30,13 +30,17 @@ package com.bitplane.xt;
 
 import Imaris.Error;
 import Imaris.IDataSetPrx;
+import Imaris.cColorTable;
 import bdv.util.AxisOrder;
 import bdv.util.ChannelSources;
 import bdv.util.volatiles.SharedQueue;
 import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
+import com.bitplane.xt.options.ImarisCacheOptions;
 import com.bitplane.xt.util.ColorTableUtils;
+import com.bitplane.xt.util.PlaneReader;
 import com.bitplane.xt.util.TypeUtils;
+import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -47,15 +51,20 @@ import net.imagej.ImgPlus;
 import net.imagej.axis.Axes;
 import net.imagej.axis.CalibratedAxis;
 import net.imagej.axis.DefaultLinearAxis;
+import net.imglib2.Cursor;
 import net.imglib2.EuclideanSpace;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.Volatile;
 import net.imglib2.cache.img.CachedCellImg;
 import net.imglib2.display.ColorTable8;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.basictypeaccess.volatiles.VolatileArrayDataAccess;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
 import org.scijava.Context;
 
 /**
@@ -76,6 +85,7 @@ import org.scijava.Context;
  *     <li>a list of BigDataViewer sources (one for each channel), via the
  *         {@link #getSources} method. The sources are multi-resolution and have
  *         volatile versions for non-blocking display in BDV.</li>
+ *     <li>copies of single XY planes, via the {@link #getPlane} methods.</li>
  * </ul>
  * <p>
  * All these are views on the same data, backed by a common cache. Note, that
@@ -127,11 +137,18 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 	 */
 	private final CachedImagePyramid< T, ?, ? > imagePyramid;
 
+	/**
+	 * Metadata snapshot fetched at construction.
+	 * Used for setting up {@link #imp} and {@link #sources}.
+	 */
+	private final DatasetMetadata metadata;
+
 	/**
 	 * ImgPlus wrapping full resolution image.
 	 * Metadata and color tables are set up according to Imaris (at the time of construction of this {@code ImarisDataset}).
+	 * Lazily initialized.
 	 */
-	private final ImgPlus< T > imp;
+	private volatile ImarisImgPlus< T > imp;
 
 	/**
 	 * IJ2 Dataset wrapping {@link #imp}. Lazily initialized.
@@ -141,8 +158,20 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 	/**
 	 * List of sources, one for each channel of the dataset.
 	 * The sources provide nested volatile versions.
+	 * Lazily initialized.
+	 */
+	private volatile List< SourceAndConverter< T > > sources;
+
+	/**
+	 * Reads XY planes directly from Imaris for {@link #getPlane}, or {@code
+	 * null} if planes are copied from the cached image instead.
 	 */
-	private final List< SourceAndConverter< T > > sources;
+	private final PlaneReader planeReader;
+
+	/**
+	 * Maps Imaris dimension indices to imglib2 dimension indices.
+	 */
+	private final int[] mapDimensions;
 
 	// open existing
 
@@ -188,20 +217,25 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 	{
 		this.context = context;
 		this.dataset = dataset;
-		this.calib = new DatasetCalibration( dataset );
 		this.datasetDimensions = datasetDimensions;
 		this.writable = !options.values.readOnly();
 
+		// --------------------------------------------------------------------
+		// Fetch metadata (in parallel) shared by ImgPlus, converters, and sources.
+
+		final int[] imarisDimensions = datasetDimensions.getImarisDimensions();
+		final DatasetMetadata metadata = DatasetMetadata.fetch( dataset, imarisDimensions[ 3 ] );
+		this.calib = metadata.calibration( imarisDimensions );
+
 		// --------------------------------------------------------------------
 		// Determine imglib2 dimensions/cellDimensions for all pyramid levels.
 
-		final int[][] pyramidSizes = dataset.GetPyramidSizes();
-		final int[][] pyramidBlockSizes = dataset.GetPyramidBlockSizes();
+		final int[][] pyramidSizes = metadata.pyramidSizes();
+		final int[][] pyramidBlockSizes = metadata.pyramidBlockSizes();
 		final int numResolutions = pyramidSizes.length;
 		final AxisOrder axisOrder = datasetDimensions.getAxisOrder();
 		final int numDimensions = axisOrder.numDimensions();
 		final int[] mapDimensions = datasetDimensions.getMapDimensions();
-		final int[] imarisDimensions = datasetDimensions.getImarisDimensions();
 
 		final long[][] dimensions = new long[ numResolutions ][ numDimensions ];
 		final int[][] cellDimensions = new int[ numResolutions ][ numDimensions ];
@@ -243,7 +277,7 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 		// --------------------------------------------------------------------
 		// Create cached images.
 
-		final T type = TypeUtils.imglibTypeFor( dataset.GetType() );
+		final T type = TypeUtils.imglibTypeFor( metadata.type() );
 		final SharedQueue queue = new SharedQueue( 16, numResolutions );
 		final CachedImagePyramid< T, V, A > imagePyramid = new CachedImagePyramid<>(
 				type, axisOrder, dataset,
@@ -255,23 +289,63 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 		);
 		this.imagePyramid = imagePyramid;
 
-
 		// --------------------------------------------------------------------
-		// Create ImgPlus with metadata and color tables.
+		// Set up direct reading of XY planes for getPlane(), if requested.
 
-		final Img< T > img = asImg();
-		imp = new ImgPlus<>( img );
-		imp.setName( getName() );
-		updateImpAxes();
-		updateImpColorTables();
-		updateImpChannelMinMax();
+		final int zDimension = mapDimensions[ 2 ];
+		final int cellDepth = zDimension < 0 ? 1 : cellDimensions[ 0 ][ zDimension ];
+		final boolean directPlaneAccess;
+		switch ( options.values.getPlaneMode() )
+		{
+		case DIRECT:
+			directPlaneAccess = true;
+			break;
+		case CELLS:
+			directPlaneAccess = false;
+			break;
+		case DIRECT_IF_READ_ONLY:
+		default:
+			// (planes that do not fit into one array cannot be read directly)
+			directPlaneAccess = !writable && cellDepth > 1
+					&& ( long ) imarisDimensions[ 0 ] * imarisDimensions[ 1 ] <= Integer.MAX_VALUE - 8;
+			break;
+		}
+		planeReader = directPlaneAccess
+				? new PlaneReader( imagePyramid.getConnectionLanes(), metadata.type(), imarisDimensions, cellDepth, options.values.getPlaneCacheSize() )
+				: null;
 
+		// ImgPlus and sources are created lazily, see asImgPlus() and getSources()
+		this.metadata = metadata;
+		this.mapDimensions = mapDimensions;
+	}
 
-		// --------------------------------------------------------------------
-		// Instantiate multi-resolution sources.
+	/**
+	 * Create ImgPlus with metadata and color tables.
+	 */
+	private ImarisImgPlus< T > createImgPlus()
+	{
+		// For read-only datasets with direct plane access, accessors that are
+		// restricted to one Z plane (e.g., IJ1 virtual stacks) read XY planes
+		// directly instead of whole 3D cells.
+		final ImarisImgPlus< T > imp = planeReader != null && !writable && mapDimensions[ 2 ] >= 0
+				? new ImarisImgPlus<>( PlanarAccessCachedCellImg.wrap( asImg(), getType(), planeReader, mapDimensions ) )
+				: new ImarisImgPlus<>( asImg() );
+		imp.setName( metadata.name() );
+		updateImpAxes( imp );
+		updateImpColorTables( imp );
+		updateImpChannelMinMax( imp );
+		return imp;
+	}
 
-		sources = new ArrayList<>();
+	/**
+	 * Instantiate multi-resolution sources, one for each channel.
+	 */
+	private < V extends Volatile< T > & NativeType< V > & RealType< V > > List< SourceAndConverter< T > > createSources( final CachedImagePyramid< T, V, ? > imagePyramid )
+	{
+		final List< SourceAndConverter< T > > sources = new ArrayList<>();
 
+		final int[][] pyramidSizes = metadata.pyramidSizes();
+		final int numResolutions = pyramidSizes.length;
 		final double[][] mipmapScales = new double[ numResolutions ][ 3 ];
 		Arrays.fill( mipmapScales[ 0 ], 1 );
 		for ( int level = 1; level < numResolutions; ++level )
@@ -285,12 +359,13 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 		}
 
 		final List< ImagePyramid< T, V > > channelPyramids = imagePyramid.splitIntoSourceStacks();
+		final T type = imagePyramid.getType();
 		final V volatileType = imagePyramid.getVolatileType();
-		final boolean hasTimepoints = axisOrder.hasTimepoints();
-		final int sc = imarisDimensions[ 3 ];
+		final boolean hasTimepoints = datasetDimensions.getAxisOrder().hasTimepoints();
+		final int sc = datasetDimensions.getImarisDimensions()[ 3 ];
 		for ( int c = 0; c < sc; ++c )
 		{
-			final String name = String.format( "%s - %s", getName(), dataset.GetChannelName( c ) );
+			final String name = String.format( "%s - %s", metadata.name(), metadata.channelName( c ) );
 			final ImagePyramid< T, V > channelPyramid = channelPyramids.get( c );
 			final Source< T > source = hasTimepoints
 					? new ImarisSource4D<>( calib, type, channelPyramid.getImgs(), mipmapScales, name )
@@ -298,50 +373,51 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 			final Source< V > volatileSource = hasTimepoints
 					? new ImarisSource4D<>( calib, volatileType, channelPyramid.getVolatileImgs(), mipmapScales, name )
 					: new ImarisSource3D<>( calib, volatileType, channelPyramid.getVolatileImgs(), mipmapScales, name );
-			final SourceAndConverter< V > vsoc = new SourceAndConverter<>( volatileSource, ColorTableUtils.createChannelConverterToARGB( volatileType, dataset, c ) );
-			final SourceAndConverter< T > soc = new SourceAndConverter<>( source, ColorTableUtils.createChannelConverterToARGB( type, dataset, c ), vsoc );
+			final double min = metadata.channelRangeMin( c );
+			final double max = metadata.channelRangeMax( c );
+			final cColorTable colorTable = metadata.channelColorTable( c );
+			final int color = metadata.channelColorRGBA( c );
+			final SourceAndConverter< V > vsoc = new SourceAndConverter<>( volatileSource, ColorTableUtils.createChannelConverterToARGB( volatileType, min, max, colorTable, color ) );
+			final SourceAndConverter< T > soc = new SourceAndConverter<>( source, ColorTableUtils.createChannelConverterToARGB( type, min, max, colorTable, color ), vsoc );
 			sources.add( soc );
 		}
+		return sources;
 	}
 
 	/**
 	 * Transfer Imaris channel min/max settings to ImgPlus.
 	 */
-	private void updateImpChannelMinMax() throws Error
+	private void updateImpChannelMinMax( final ImgPlus< T > imp )
 	{
 		final int sc = datasetDimensions.getImarisDimensions()[ 3 ];
 		for ( int c = 0; c < sc; ++c )
 		{
-			final double min = dataset.GetChannelRangeMin( c );
-			final double max = dataset.GetChannelRangeMax( c );
-			imp.setChannelMinimum( c, min );
-			imp.setChannelMaximum( c, max );
+			imp.setChannelMinimum( c, metadata.channelRangeMin( c ) );
+			imp.setChannelMaximum( c, metadata.channelRangeMax( c ) );
 		}
 	}
 
 	/**
 	 * Create/update color tables for ImgPlus.
+	 * Only one color table per channel is created, plane color tables are
+	 * resolved on demand by {@link ImarisImgPlus}.
 	 */
-	private void updateImpColorTables() throws Error
+	private void updateImpColorTables( final ImarisImgPlus< T > imp )
 	{
 		final int[] imarisDimensions = datasetDimensions.getImarisDimensions();
 		final int sz = imarisDimensions[ 2 ];
 		final int sc = imarisDimensions[ 3 ];
 		final int st = imarisDimensions[ 4 ];
-		imp.initializeColorTables( sc * sz * st );
+		final ColorTable8[] channelTables = new ColorTable8[ sc ];
 		for ( int c = 0; c < sc; ++c )
-		{
-			final ColorTable8 cT = ColorTableUtils.createChannelColorTable( dataset, c );
-			for ( int t = 0; t < st; ++t )
-				for ( int z = 0; z < sz; ++z )
-					imp.setColorTable( cT, z + sz * ( c + sc * t ) );
-		}
+			channelTables[ c ] = ColorTableUtils.createChannelColorTable( metadata.channelColorTable( c ), metadata.channelColorRGBA( c ) );
+		imp.setChannelColorTables( channelTables, sz, st );
 	}
 
 	/**
 	 * Create/update calibrated axes for ImgPlus.
 	 */
-	private void updateImpAxes()
+	private void updateImpAxes( final ImgPlus< T > imp )
 	{
 		final ArrayList< CalibratedAxis > axes = new ArrayList<>();
 		axes.add( new DefaultLinearAxis( Axes.X, calib.unit(), calib.voxelSize( 0 ) ) );
@@ -359,11 +435,16 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 	}
 
 	/**
-	 * Update all sources with the current {@link #calib}.
+	 * Update all sources and the ImgPlus (if they have been created already)
+	 * with the current {@link #calib}.
 	 * (This is called after {@link #setCalibration}.)
 	 */
-	private void updateSourceCalibrations()
+	private synchronized void updateCalibratedViews()
 	{
+		if ( imp != null )
+			updateImpAxes( imp );
+		if ( sources == null )
+			return;
 		for ( SourceAndConverter< T > soc : sources )
 		{
 			final AbstractImarisSource< ? > source = ( AbstractImarisSource< ? > ) soc.getSpimSource();
@@ -402,8 +483,7 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 		ensureWritable();
 		final int[] size = datasetDimensions.getImarisDimensions();
 		calib.setExtends( unit, extendMinX, extendMaxX, extendMinY, extendMaxY, extendMinZ, extendMaxZ, size );
-		updateSourceCalibrations();
-		updateImpAxes();
+		updateCalibratedViews();
 		calib.applyToDataset( dataset, size );
 	}
 
@@ -415,8 +495,7 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 	{
 		ensureWritable();
 		calib.setVoxelDimensions( voxelDimensions );
-		updateSourceCalibrations();
-		updateImpAxes();
+		updateCalibratedViews();
 		final int[] size = datasetDimensions.getImarisDimensions();
 		calib.applyToDataset( dataset, size );
 	}
@@ -439,8 +518,7 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 		ensureWritable();
 		calib.setMin( minX, minY, minZ );
 		calib.setVoxelDimensions( voxelDimensions );
-		updateSourceCalibrations();
-		updateImpAxes();
+		updateCalibratedViews();
 		final int[] size = datasetDimensions.getImarisDimensions();
 		calib.applyToDataset( dataset, size );
 	}
@@ -459,8 +537,7 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 	{
 		ensureWritable();
 		calib.set( calibration );
-		updateSourceCalibrations();
-		updateImpAxes();
+		updateCalibratedViews();
 		final int[] size = datasetDimensions.getImarisDimensions();
 		calib.applyToDataset( dataset, size );
 	}
@@ -492,10 +569,26 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 	 * Get an {@code ImgPlus} wrapping the full resolution image (see {@link
 	 * #asImg}). Metadata and color tables are set up according to Imaris (at
 	 * the time of construction of this {@code ImarisDataset}).
+	 * <p>
+	 * If the dataset is read-only and XY planes are read directly (see {@link
+	 * ImarisCacheOptions#getPlaneMode}), accessors that are restricted to a
+	 * single Z plane read whole XY planes from Imaris instead of 3D cells.
+	 * This speeds up slice-oriented consumers, such as IJ1 virtual stacks of
+	 * {@link #asDataset}.
 	 */
 	public ImgPlus< T > asImgPlus()
 	{
-		return imp;
+		ImarisImgPlus< T > result = imp;
+		if ( result == null )
+		{
+			synchronized ( this )
+			{
+				result = imp;
+				if ( result == null )
+					imp = result = createImgPlus();
+			}
+		}
+		return result;
 	}
 
 	/**
@@ -506,6 +599,7 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 	 */
 	public Dataset asDataset()
 	{
+		final ImgPlus< T > imp = asImgPlus();
 		synchronized ( imp )
 		{
 			if ( ijDataset == null )
@@ -528,7 +622,121 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 	@Override
 	public List< SourceAndConverter< T > > getSources()
 	{
-		return sources;
+		List< SourceAndConverter< T > > result = sources;
+		if ( result == null )
+		{
+			synchronized ( this )
+			{
+				result = sources;
+				if ( result == null )
+					sources = result = createSources( imagePyramid );
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get XY plane {@code z} of channel {@code c} and timepoint {@code t} at
+	 * full resolution, as a 2D {@code Img}.
+	 * <p>
+	 * Depending on {@link ImarisCacheOptions#getPlaneMode}, the plane is
+	 * either copied from {@link #asImg}, or requested directly from Imaris.
+	 * The latter avoids loading whole 3D cells, when only single planes are
+	 * needed (e.g., for 2D processing). For read-only datasets, the {@link
+	 * #asImgPlus} and {@link #asDataset} views read planes in the same way,
+	 * see {@link #asImgPlus}.
+	 *
+	 * @return a copy of the plane.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 * 		if {@code z}, {@code c}, or {@code t} is outside the dataset.
+	 */
+	public Img< T > getPlane( final int z, final int c, final int t ) throws Error
+	{
+		final int[] size = datasetDimensions.getImarisDimensions();
+		checkPlaneIndex( z, t, size );
+		if ( c < 0 || c >= size[ 3 ] )
+			throw new IndexOutOfBoundsException( "channel " + c + " out of bounds for size " + size[ 3 ] );
+		return getPlanes( z, c, 1, t, size[ 0 ], size[ 1 ] );
+	}
+
+	/**
+	 * Get XY plane {@code z} of all channels at timepoint {@code t} at full
+	 * resolution, as a 3D {@code Img} (XYC).
+	 *
+	 * @return a copy of the planes.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 * 		if {@code z} or {@code t} is outside the dataset.
+	 *
+	 * @see #getPlane(int, int, int)
+	 */
+	public Img< T > getPlane( final int z, final int t ) throws Error
+	{
+		final int[] size = datasetDimensions.getImarisDimensions();
+		checkPlaneIndex( z, t, size );
+		return getPlanes( z, 0, size[ 3 ], t, size[ 0 ], size[ 1 ], size[ 3 ] );
+	}
+
+	private static void checkPlaneIndex( final int z, final int t, final int[] size )
+	{
+		if ( z < 0 || z >= size[ 2 ] )
+			throw new IndexOutOfBoundsException( "z " + z + " out of bounds for size " + size[ 2 ] );
+		if ( t < 0 || t >= size[ 4 ] )
+			throw new IndexOutOfBoundsException( "timepoint " + t + " out of bounds for size " + size[ 4 ] );
+	}
+
+	/**
+	 * Get XY plane {@code z} of channels {@code c0} to {@code c0 + nc - 1} at
+	 * timepoint {@code t}, as an {@code Img} with the given {@code
+	 * dimensions}.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private Img< T > getPlanes( final int z, final int c0, final int nc, final int t, final long... dimensions ) throws Error
+	{
+		if ( planeReader != null )
+		{
+			final int planeSize = ( int ) ( dimensions[ 0 ] * dimensions[ 1 ] );
+			if ( ( long ) planeSize * nc > Integer.MAX_VALUE - 8 )
+				throw new IllegalArgumentException( "XY planes of " + nc + " channels do not fit into one array" );
+			Object data = null;
+			for ( int i = 0; i < nc; ++i )
+			{
+				final Object plane = planeReader.getPlane( z, c0 + i, t );
+				if ( data == null )
+					data = Array.newInstance( plane.getClass().getComponentType(), planeSize * nc );
+				System.arraycopy( plane, 0, data, i * planeSize, planeSize );
+			}
+			if ( data instanceof byte[] )
+				return ( Img< T > ) ArrayImgs.unsignedBytes( ( byte[] ) data, dimensions );
+			else if ( data instanceof short[] )
+				return ( Img< T > ) ArrayImgs.unsignedShorts( ( short[] ) data, dimensions );
+			else
+				return ( Img< T > ) ArrayImgs.floats( ( float[] ) data, dimensions );
+		}
+		else
+		{
+			final Img< T > img = new ArrayImgFactory<>( getType() ).create( dimensions );
+			final int[] mapDimensions = datasetDimensions.getMapDimensions();
+			for ( int i = 0; i < nc; ++i )
+			{
+				// slice Z, C, T (in descending order, so that indices of remaining dimensions don't change)
+				RandomAccessibleInterval< T > source = asImg();
+				final int[] pos = { z, c0 + i, t };
+				for ( int j = 4; j >= 2; --j )
+				{
+					final int d = mapDimensions[ j ];
+					if ( d >= 0 )
+						source = Views.hyperSlice( source, d, pos[ j - 2 ] );
+				}
+				final RandomAccessibleInterval< T > target = dimensions.length == 2 ? img : Views.hyperSlice( img, 2, i );
+				final Cursor< T > in = Views.flatIterable( source ).cursor();
+				final Cursor< T > out = Views.flatIterable( target ).cursor();
+				while ( out.hasNext() )
+					out.next().set( in.next() );
+			}
+			return img;
+		}
 	}
 
 	/**
@@ -632,6 +840,8 @@ public class ImarisDataset< T extends NativeType< T > & RealType< T > > implemen
 	{
 		ensureWritable();
 		this.imagePyramid.persist();
+		if ( planeReader != null )
+			planeReader.invalidate();
 	}
 
 	/**
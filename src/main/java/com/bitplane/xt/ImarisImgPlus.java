@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt;
+
+import java.util.concurrent.ConcurrentHashMap;
+import net.imagej.ImgPlus;
+import net.imglib2.display.ColorTable;
+import net.imglib2.img.Img;
+
+/**
+ * {@code ImgPlus} that resolves color tables per channel instead of per plane.
+ * <p>
+ * {@code ImgPlus} stores one color table for each 2D plane, so for an Imaris
+ * dataset with {@code sz * sc * st} planes the usual setup builds (and keeps)
+ * {@code sz * sc * st} references at opening time. Here, only the {@code sc}
+ * channel color tables are stored. The table for plane {@code no} is looked up
+ * as the table of channel {@code (no / sz) % sc}, on demand.
+ * <p>
+ * Tables explicitly set via {@link #setColorTable} override the channel table
+ * for that plane. Setting {@code null} removes the override, so that the plane
+ * falls back to its channel table again. After {@link #initializeColorTables},
+ * this falls back to the default per-plane storage of {@code ImgPlus}.
+ *
+ * @param <T>
+ * 		imglib2 pixel type
+ *
+ * @author Tobias Pietzsch
+ */
+class ImarisImgPlus< T > extends ImgPlus< T >
+{
+	/**
+	 * Color tables by channel.
+	 */
+	private static final class ChannelColorTables
+	{
+		final ColorTable[] channelTables;
+
+		final int sz;
+
+		final int numPlanes;
+
+		/**
+		 * Plane color tables set explicitly via {@link ImarisImgPlus#setColorTable}.
+		 */
+		final ConcurrentHashMap< Integer, ColorTable > overrides = new ConcurrentHashMap<>();
+
+		ChannelColorTables( final ColorTable[] channelTables, final int sz, final int st )
+		{
+			this.channelTables = channelTables;
+			this.sz = sz;
+			this.numPlanes = sz * channelTables.length * st;
+		}
+
+		ColorTable get( final int no )
+		{
+			final ColorTable lut = overrides.get( no );
+			return lut != null ? lut : channelTables[ ( no / sz ) % channelTables.length ];
+		}
+	}
+
+	/**
+	 * Plane color tables are resolved from this, or from the default
+	 * per-plane storage of {@code ImgPlus} if {@code null}.
+	 * <p>
+	 * All per-channel state is replaced at once, so that readers never see
+	 * partially initialized (or partially reset) state.
+	 */
+	private volatile ChannelColorTables perChannel;
+
+	public ImarisImgPlus( final Img< T > img )
+	{
+		super( img );
+	}
+
+	/**
+	 * Set the color tables of all planes, by channel.
+	 *
+	 * @param channelTables
+	 * 		color table for each channel
+	 * @param sz
+	 * 		number of Z planes
+	 * @param st
+	 * 		number of timepoints
+	 */
+	public synchronized void setChannelColorTables( final ColorTable[] channelTables, final int sz, final int st )
+	{
+		super.initializeColorTables( 0 );
+		perChannel = new ChannelColorTables( channelTables.clone(), sz, st );
+	}
+
+	@Override
+	public ColorTable getColorTable( final int no )
+	{
+		final ChannelColorTables tables = perChannel;
+		if ( tables == null )
+			return super.getColorTable( no );
+		if ( no < 0 || no >= tables.numPlanes )
+			return null;
+		return tables.get( no );
+	}
+
+	/**
+	 * Set the color table of plane {@code no}.
+	 * <p>
+	 * While color tables are resolved by channel, {@code lut} overrides the
+	 * channel table for plane {@code no}, and setting {@code lut = null}
+	 * removes the override, that is, plane {@code no} falls back to its
+	 * channel table.
+	 */
+	@Override
+	public void setColorTable( final ColorTable lut, final int no )
+	{
+		final ChannelColorTables tables = perChannel;
+		if ( tables == null )
+			super.setColorTable( lut, no );
+		else if ( no < 0 || no >= tables.numPlanes )
+			throw new IndexOutOfBoundsException( "Index: " + no + ", Size: " + tables.numPlanes );
+		else if ( lut == null )
+			tables.overrides.remove( no );
+		else
+			tables.overrides.put( no, lut );
+	}
+
+	@Override
+	public int getColorTableCount()
+	{
+		final ChannelColorTables tables = perChannel;
+		return tables != null ? tables.numPlanes : super.getColorTableCount();
+	}
+
+	@Override
+	public synchronized void initializeColorTables( final int count )
+	{
+		perChannel = null;
+		super.initializeColorTables( count );
+	}
+}
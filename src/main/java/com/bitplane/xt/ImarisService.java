@@ -55,6 +55,19 @@ public interface ImarisService extends ImageJService
 	 */
 	ImarisApplication getApplicationByID( int applicationId );
 
+	/**
+	 * Set options for connecting to the ICE server (endpoint, ICE client
+	 * thread pools, timeouts, etc). If currently connected, this disconnects.
+	 * The options are applied when re-connecting, e.g., on the next call to
+	 * {@link #getApplication()}.
+	 */
+	void setConnectionOptions( ImarisServiceOptions options );
+
+	/**
+	 * Get the options used for connecting to the ICE server.
+	 */
+	ImarisServiceOptions getConnectionOptions();
+
 	/**
 	 * Disconnect from the ICE server. Using other methods, e.g. {@link
 	 * #getApplication()}, after this will re-connect.
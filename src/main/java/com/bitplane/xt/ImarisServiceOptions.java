@@ -0,0 +1,82 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt;
+
+import com.bitplane.xt.options.ImarisConnectionOptions;
+import java.util.function.BiConsumer;
+import org.scijava.optional.AbstractOptions;
+
+/**
+ * Optional parameters for the connection of {@link ImarisService} to the
+ * Imaris server. This allows to tweak the endpoint, ICE client thread pools,
+ * timeouts, etc.
+ *
+ * @author Tobias Pietzsch
+ */
+public class ImarisServiceOptions extends AbstractOptions< ImarisServiceOptions >
+		implements
+		ImarisConnectionOptions< ImarisServiceOptions >
+{
+	public final Values values = new Values();
+
+	public ImarisServiceOptions()
+	{
+	}
+
+	/**
+	 * Create default {@link ImarisServiceOptions}.
+	 *
+	 * @return default {@link ImarisServiceOptions}.
+	 */
+	public static ImarisServiceOptions options()
+	{
+		return new ImarisServiceOptions();
+	}
+
+	private ImarisServiceOptions( final ImarisServiceOptions that )
+	{
+		super( that );
+	}
+
+	@Override
+	protected ImarisServiceOptions copyOrThis()
+	{
+		return new ImarisServiceOptions( this );
+	}
+
+	public class Values extends AbstractValues implements
+			ImarisConnectionOptions.Val
+	{
+		@Override
+		public void forEach( final BiConsumer< String, Object > action )
+		{
+			ImarisConnectionOptions.Val.super.forEach( action );
+		}
+	}
+}
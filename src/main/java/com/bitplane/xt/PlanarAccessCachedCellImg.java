@@ -0,0 +1,208 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt;
+
+import com.bitplane.xt.util.CellGeometry;
+import com.bitplane.xt.util.PlaneReader;
+import java.util.Arrays;
+import net.imglib2.Interval;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.ref.SoftRefLoaderCache;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.CellRandomAccess;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.NativeTypeFactory;
+
+/**
+ * A {@code CachedCellImg} that shares the cells (and cache) of the full
+ * resolution image of an {@link ImarisDataset}, but serves accessors that are
+ * restricted to a single XY plane from whole XY planes read by a {@link
+ * PlaneReader}.
+ * <p>
+ * Slice-oriented consumers, such as IJ1 virtual stacks of {@link
+ * ImarisDataset#asDataset()}, or 2D processing of hyperslices, access the
+ * image through views that ask for a {@code randomAccess(Interval)} with an
+ * interval that spans a single Z plane. Reading such a plane from 3D
+ * cells loads whole cells (of depth 32-64) from Imaris. If that would transfer
+ * more voxels than the XY plane itself, the accessor reads from a second image
+ * whose cells are whole XY planes instead. Each plane is requested from Imaris
+ * with one {@code GetDataSubVolume} call, and following planes are read ahead
+ * when a Z-stack is traversed. All other accessors use the 3D cells.
+ * <p>
+ * Plane cells are copies of the data in Imaris, that is, modifications of the
+ * 3D cells are not visible through plane accessors and vice versa. This is
+ * therefore only used for read-only datasets.
+ *
+ * @param <T>
+ * 		pixel type
+ * @param <A>
+ * 		access type
+ *
+ * @author Tobias Pietzsch
+ */
+class PlanarAccessCachedCellImg< T extends NativeType< T >, A > extends CachedCellImg< T, A >
+{
+	private final CachedCellImg< T, A > planes;
+
+	private final int zDimension;
+
+	private final int cellDepth;
+
+	/**
+	 * Wrap the full resolution image {@code cells} of an {@link
+	 * ImarisDataset}.
+	 *
+	 * @param cells
+	 * 		the full resolution image, with volatile array accesses.
+	 * @param type
+	 * 		pixel type
+	 * @param planeReader
+	 * 		reads XY planes from Imaris
+	 * @param mapDimensions
+	 * 		maps Imaris dimension indices to imglib2 dimension indices. Imaris
+	 * 		Z must be present in the image.
+	 */
+	@SuppressWarnings( "unchecked" )
+	static < T extends NativeType< T >, A > PlanarAccessCachedCellImg< T, A > wrap(
+			final CachedCellImg< T, A > cells,
+			final T type,
+			final PlaneReader planeReader,
+			final int[] mapDimensions )
+	{
+		final NativeTypeFactory< T, A > typeFactory = ( NativeTypeFactory< T, A > ) type.getNativeTypeFactory();
+		final CachedCellImg< T, A > planes = createPlaneImg( cells.getCellGrid(), type, cells.getAccessType(), planeReader, mapDimensions );
+		planes.setLinkedType( typeFactory.createLinkedType( planes ) );
+		final PlanarAccessCachedCellImg< T, A > img = new PlanarAccessCachedCellImg<>( cells, type, planes, mapDimensions[ 2 ] );
+		img.setLinkedType( typeFactory.createLinkedType( img ) );
+		return img;
+	}
+
+	private PlanarAccessCachedCellImg(
+			final CachedCellImg< T, A > cells,
+			final T type,
+			final CachedCellImg< T, A > planes,
+			final int zDimension )
+	{
+		super( cells.getCellGrid(), type, cells.getCache(), cells.getAccessType() );
+		this.planes = planes;
+		this.zDimension = zDimension;
+		cellDepth = cells.getCellGrid().cellDimension( zDimension );
+	}
+
+	/**
+	 * Create an image with the same dimensions as {@code grid}, whose cells
+	 * are whole XY planes read by {@code planeReader}.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private static < T extends NativeType< T >, A > CachedCellImg< T, A > createPlaneImg(
+			final CellGrid grid,
+			final T type,
+			final A accessType,
+			final PlaneReader planeReader,
+			final int[] mapDimensions )
+	{
+		final int n = grid.numDimensions();
+		final long[] dimensions = grid.getImgDimensions();
+		final int[] cellDimensions = new int[ n ];
+		Arrays.fill( cellDimensions, 1 );
+		for ( int i = 0; i < 2; ++i )
+		{
+			final int d = mapDimensions[ i ];
+			if ( d >= 0 )
+				cellDimensions[ d ] = ( int ) dimensions[ d ];
+		}
+		final CellGrid planeGrid = new CellGrid( dimensions, cellDimensions );
+		final CellGeometry geometry = new CellGeometry( planeGrid, mapDimensions );
+
+		final CacheLoader< Long, Cell< A > > loader = key -> {
+			final int[] region = new int[ CellGeometry.REGION_SIZE ];
+			geometry.imarisRegion( key, region );
+			final Object plane = planeReader.getPlane( region[ 2 ], region[ 3 ], region[ 4 ] );
+			final long[] cellMin = new long[ n ];
+			final int[] cellDims = new int[ n ];
+			geometry.cellInterval( key, cellMin, cellDims );
+			return new Cell<>( cellDims, cellMin, ( A ) wrapPlane( plane ) );
+		};
+		final Cache< Long, Cell< A > > cache = new SoftRefLoaderCache< Long, Cell< A > >().withLoader( loader );
+		return new CachedCellImg<>( planeGrid, type, cache, accessType );
+	}
+
+	/**
+	 * Wrap a copy of {@code plane} (which is shared with the {@link
+	 * PlaneReader} cache) into a volatile array access.
+	 */
+	private static Object wrapPlane( final Object plane )
+	{
+		if ( plane instanceof byte[] )
+			return new VolatileByteArray( ( ( byte[] ) plane ).clone(), true );
+		else if ( plane instanceof short[] )
+			return new VolatileShortArray( ( ( short[] ) plane ).clone(), true );
+		else
+			return new VolatileFloatArray( ( ( float[] ) plane ).clone(), true );
+	}
+
+	/**
+	 * Whether accessors for {@code interval} should read from {@link #planes}:
+	 * {@code interval} spans a single Z plane, and the 3D cells intersecting
+	 * it contain more voxels (per channel and timepoint) than an XY plane.
+	 */
+	private boolean isPlanar( final Interval interval )
+	{
+		if ( cellDepth <= 1 || interval.dimension( zDimension ) != 1 )
+			return false;
+
+		final CellGrid grid = getCellGrid();
+		long cellVoxels = cellDepth;
+		long planeVoxels = 1;
+		for ( int d = 0; d < numDimensions(); ++d )
+		{
+			final int planeCellSize = planes.getCellGrid().cellDimension( d );
+			if ( planeCellSize > 1 )
+			{
+				final int cellSize = grid.cellDimension( d );
+				final long numCells = interval.max( d ) / cellSize - interval.min( d ) / cellSize + 1;
+				cellVoxels *= numCells * cellSize;
+				planeVoxels *= planeCellSize;
+			}
+		}
+		return cellVoxels > planeVoxels;
+	}
+
+	@Override
+	public CellRandomAccess< T, Cell< A > > randomAccess( final Interval interval )
+	{
+		return isPlanar( interval ) ? planes.randomAccess() : super.randomAccess();
+	}
+}
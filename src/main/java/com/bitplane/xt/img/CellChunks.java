@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.img;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Splits the voxel range of a cell into chunks that are processed in parallel
+ * on the common {@link ForkJoinPool}.
+ * <p>
+ * This is used for decoding cells after all channel slices have arrived from
+ * Imaris. The decoding kernels work on independent voxel ranges, so the XYZ
+ * range of a cell can be split freely. Small cells are processed on the
+ * calling thread, because forking would cost more than it saves. Large cells
+ * are split into chunks of roughly {@link #CHUNK_WORK} channel-voxels, aligned
+ * to {@link LabelKernels#TILE_SIZE}.
+ *
+ * @author Tobias Pietzsch
+ */
+final class CellChunks
+{
+	/**
+	 * Below this number of channel-voxels, a cell is processed on the calling
+	 * thread.
+	 */
+	static final long MIN_PARALLEL_WORK = 1 << 18;
+
+	/**
+	 * Target number of channel-voxels per chunk.
+	 */
+	static final long CHUNK_WORK = 1 << 16;
+
+	@FunctionalInterface
+	interface Chunk
+	{
+		/**
+		 * Process voxels {@code [from, to)}.
+		 *
+		 * @return a count that is summed over all chunks.
+		 */
+		long process( int from, int to );
+	}
+
+	/**
+	 * Process voxels {@code [0, length)} by calling {@code chunk} for disjoint
+	 * sub-ranges, potentially in parallel.
+	 *
+	 * @param length
+	 * 		number of voxels
+	 * @param numChannels
+	 * 		number of channels that are processed per voxel, used to
+	 * 		estimate the amount of work.
+	 * @param chunk
+	 * 		processes a sub-range of voxels
+	 *
+	 * @return the sum of the values returned by {@code chunk}.
+	 */
+	static long process( final int length, final int numChannels, final Chunk chunk )
+	{
+		final long work = ( long ) length * Math.max( 1, numChannels );
+		if ( work < MIN_PARALLEL_WORK || ForkJoinPool.getCommonPoolParallelism() < 2 )
+			return chunk.process( 0, length );
+
+		final int tile = LabelKernels.TILE_SIZE;
+		final long chunkLength = Math.max( 1, CHUNK_WORK / Math.max( 1, numChannels ) );
+		final int grain = ( int ) Math.max( tile, ( chunkLength + tile - 1 ) / tile * tile );
+		return ForkJoinPool.commonPool().invoke( new ChunkTask( chunk, 0, length, grain ) );
+	}
+
+	private static final class ChunkTask extends RecursiveTask< Long >
+	{
+		private final Chunk chunk;
+
+		private final int from;
+
+		private final int to;
+
+		private final int grain;
+
+		ChunkTask( final Chunk chunk, final int from, final int to, final int grain )
+		{
+			this.chunk = chunk;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected Long compute()
+		{
+			if ( to - from <= grain )
+				return chunk.process( from, to );
+
+			// split at a multiple of grain, so that chunks are tile-aligned
+			final int numGrains = ( to - from + grain - 1 ) / grain;
+			final int mid = from + numGrains / 2 * grain;
+			final ChunkTask right = new ChunkTask( chunk, mid, to, grain );
+			right.fork();
+			final long left = new ChunkTask( chunk, from, mid, grain ).compute();
+			return left + right.join();
+		}
+	}
+
+	private CellChunks() {}
+}
@@ -32,16 +32,22 @@ import Imaris.Error;
 import Imaris.IDataSetPrx;
 import com.bitplane.xt.DatasetDimensions;
 import com.bitplane.xt.ImarisApplication;
+import com.bitplane.xt.util.ArrayPool;
+import com.bitplane.xt.util.CellArrayRecycler;
 import com.bitplane.xt.util.ImarisDirtyLoaderRemover;
+import com.bitplane.xt.util.ImarisLoader;
 import com.bitplane.xt.util.ImarisLoaderRemover;
 import com.bitplane.xt.util.CellGridUtils;
+import com.bitplane.xt.util.ConnectionLanes;
 import com.bitplane.xt.util.ImarisUtils;
 import com.bitplane.xt.util.MapDimensions;
 import com.bitplane.xt.util.TypeUtils;
 import java.util.Arrays;
+import java.util.function.Predicate;
 import net.imglib2.Dimensions;
 import net.imglib2.cache.Cache;
 import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.CacheRemover;
 import net.imglib2.cache.IoSync;
 import net.imglib2.cache.LoaderRemoverCache;
 import net.imglib2.cache.img.CellLoader;
@@ -419,10 +425,17 @@ public class ImarisCachedCellImgFactory< T extends NativeType< T > > extends Nat
 				backingLoader = EmptyCellCacheLoader.get( grid, type, options.accessFlags() );
 		}
 
+		// NB: only cells that are assembled from several Imaris slices are filled into pooled arrays
+		final ArrayPool cellArrayPool = options.dirtyAccesses() && ImarisLoader.assemblesCells( mapDimensions, grid )
+				? CellArrayRecycler.createPool( options.maxRecycledCellArrays() )
+				: null;
+
+		final ConnectionLanes lanes = ConnectionLanes.create( dataset, options.numConnections(), options.compression(), options.requestPolicy() );
+
 		@SuppressWarnings( { "rawtypes", "unchecked" } )
 		final ImarisLoaderRemover< A > imarisCache = options.dirtyAccesses()
-				? new ImarisDirtyLoaderRemover( dataset, mapDimensions, grid, backingLoader, options.persistOnLoad() )
-				: new ImarisLoaderRemover( dataset, mapDimensions, grid, backingLoader, options.persistOnLoad() );
+				? new ImarisDirtyLoaderRemover( lanes, mapDimensions, grid, backingLoader, options.persistOnLoad(), cellArrayPool )
+				: new ImarisLoaderRemover( lanes, mapDimensions, grid, backingLoader, options.persistOnLoad() );
 
 		final IoSync< Long, Cell< A >, A > iosync = new IoSync<>(
 				imarisCache,
@@ -441,8 +454,13 @@ public class ImarisCachedCellImgFactory< T extends NativeType< T > > extends Nat
 			break;
 		}
 
+		@SuppressWarnings( { "rawtypes", "unchecked" } )
+		final CacheRemover< Long, Cell< A >, A > remover = cellArrayPool == null
+				? iosync
+				: new CellArrayRecycler( iosync, cellArrayPool, null, ( Predicate< Long > ) imarisCache::isAssembled );
+
 		final Cache< Long, Cell< A > > cache = listenableCache
-				.withRemover( iosync )
+				.withRemover( remover )
 				.withLoader( iosync );
 
 		final A accessType = ArrayDataAccessFactory.get( typeFactory, options.accessFlags() );
@@ -29,6 +29,8 @@
 package com.bitplane.xt.img;
 
 import com.bitplane.xt.options.ImarisCacheOptions;
+import com.bitplane.xt.options.ImarisLabelOptions;
+import com.bitplane.xt.options.ImarisProbabilitiesOptions;
 import java.util.Set;
 import java.util.function.BiConsumer;
 import net.imglib2.Dirty;
@@ -48,7 +50,9 @@ public class ImarisCachedCellImgOptions extends AbstractOptions< ImarisCachedCel
 		AccessOptions< ImarisCachedCellImgOptions >,
 		CellDimensionsOptions< ImarisCachedCellImgOptions >,
 		CacheOptions< ImarisCachedCellImgOptions >,
-		ImarisCacheOptions< ImarisCachedCellImgOptions >
+		ImarisCacheOptions< ImarisCachedCellImgOptions >,
+		ImarisLabelOptions< ImarisCachedCellImgOptions >,
+		ImarisProbabilitiesOptions< ImarisCachedCellImgOptions >
 {
 	public final Values values = new Values();
 
@@ -106,7 +110,9 @@ public class ImarisCachedCellImgOptions extends AbstractOptions< ImarisCachedCel
 			AccessOptions.Val,
 			CellDimensionsOptions.Val,
 			CacheOptions.Val,
-			ImarisCacheOptions.Val
+			ImarisCacheOptions.Val,
+			ImarisLabelOptions.Val,
+			ImarisProbabilitiesOptions.Val
 	{
 		// NB overrides default value
 		@Override
@@ -134,6 +140,8 @@ public class ImarisCachedCellImgOptions extends AbstractOptions< ImarisCachedCel
 			CellDimensionsOptions.Val.super.forEach( action );
 			CacheOptions.Val.super.forEach( action );
 			ImarisCacheOptions.Val.super.forEach( action );
+			ImarisLabelOptions.Val.super.forEach( action );
+			ImarisProbabilitiesOptions.Val.super.forEach( action );
 		}
 	}
 }
@@ -64,6 +64,8 @@ public class ImarisCachedLabelImg< T extends NativeType< T >, A > extends Cached
 
 	private final IoSync< ?, ?, ? > iosync;
 
+	private final LabelInventory inventory;
+
 	public ImarisCachedLabelImg(
 			final ImarisCachedLabelImgFactory< T > factory,
 			final IDataSetPrx dataset,
@@ -72,12 +74,38 @@ public class ImarisCachedLabelImg< T extends NativeType< T >, A > extends Cached
 			final Cache< Long, Cell< A > > cache,
 			final IoSync< ?, ?, ? > iosync,
 			final A accessType )
+	{
+		this( factory, dataset, grid, entitiesPerPixel, cache, iosync, null, accessType );
+	}
+
+	public ImarisCachedLabelImg(
+			final ImarisCachedLabelImgFactory< T > factory,
+			final IDataSetPrx dataset,
+			final CellGrid grid,
+			final Fraction entitiesPerPixel,
+			final Cache< Long, Cell< A > > cache,
+			final IoSync< ?, ?, ? > iosync,
+			final LabelInventory inventory,
+			final A accessType )
 	{
 		super( grid, entitiesPerPixel, cache, accessType );
 		this.factory = factory;
 		this.dataset = dataset;
 		this.cache = cache;
 		this.iosync = iosync;
+		this.inventory = inventory;
+	}
+
+	/**
+	 * Get the index of labels present in each cell. Use {@link
+	 * LabelInventory#cellsContaining(long)} to find the cells that need to be
+	 * loaded to find all voxels of a label.
+	 *
+	 * @return the label inventory, or {@code null} if this image does not maintain one.
+	 */
+	public LabelInventory getLabelInventory()
+	{
+		return inventory;
 	}
 
 	@Override
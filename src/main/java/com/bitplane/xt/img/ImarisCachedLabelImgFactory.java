@@ -31,10 +31,14 @@ package com.bitplane.xt.img;
 import Imaris.Error;
 import Imaris.IDataSetPrx;
 import com.bitplane.xt.ImarisApplication;
+import com.bitplane.xt.util.ArrayPool;
+import com.bitplane.xt.util.CellArrayRecycler;
 import com.bitplane.xt.util.MapDimensions;
+import java.util.function.Consumer;
 import net.imglib2.Dimensions;
 import net.imglib2.cache.Cache;
 import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.CacheRemover;
 import net.imglib2.cache.IoSync;
 import net.imglib2.cache.LoaderRemoverCache;
 import net.imglib2.cache.img.CellLoader;
@@ -65,7 +69,10 @@ import static com.bitplane.xt.util.CellGridUtils.createCellGrid;
  * defaults.
  * <p>
  * Integer labels on the ImgLib2 side are translated into channels on the Imaris side.
- * Therefore, because the channel dimension is used to decompose the labels (values), this factory can create at most 4D images.
+ * By default, there is one Imaris channel per label. Alternatively, labels can be stored
+ * as values in a single Imaris channel (see {@link ImarisCachedCellImgOptions#labelLayout}).
+ * {@link LabelLayoutConverter} converts existing datasets between the two layouts.
+ * Because the channel dimension is used to decompose the labels (values), this factory can create at most 4D images.
  * <p>
  * Images can only be created with existing Imaris dataset.
  *
@@ -263,10 +270,15 @@ public class ImarisCachedLabelImgFactory< T extends NativeType< T > > extends Na
 				backingLoader = EmptyCellCacheLoader.get( grid, type, options.accessFlags() );
 		}
 
+		final boolean unsignedLabels = ( ( IntegerType< ? > ) type ).getMinValue() >= 0;
+		final LabelInventory inventory = new LabelInventory( grid, unsignedLabels );
+
+		final ArrayPool cellArrayPool = options.dirtyAccesses() ? CellArrayRecycler.createPool( options.maxRecycledCellArrays() ) : null;
+
 		@SuppressWarnings( { "rawtypes", "unchecked" } )
 		final ImarisLabelCache< A > imarisCache = options.dirtyAccesses()
-				? new ImarisDirtyLabelCache( dataset, typeFactory.getPrimitiveType(), mapDimensions, grid, backingLoader, options.persistOnLoad() )
-				: new ImarisLabelCache( dataset, typeFactory.getPrimitiveType(), mapDimensions, grid, backingLoader, options.persistOnLoad() );
+				? new ImarisDirtyLabelCache( dataset, typeFactory.getPrimitiveType(), mapDimensions, grid, backingLoader, options.persistOnLoad(), options.skipEmptyChannels(), options.labelLayout(), inventory, unsignedLabels, cellArrayPool )
+				: new ImarisLabelCache( dataset, typeFactory.getPrimitiveType(), mapDimensions, grid, backingLoader, options.persistOnLoad(), options.skipEmptyChannels(), options.labelLayout(), inventory, unsignedLabels );
 
 		final IoSync< Long, Cell< A >, A > iosync = new IoSync<>(
 				imarisCache,
@@ -285,8 +297,14 @@ public class ImarisCachedLabelImgFactory< T extends NativeType< T > > extends Na
 			break;
 		}
 
+		// NB: recycled (clean) cells bypass imarisCache.onRemoval(), so their label signature is discarded here
+		@SuppressWarnings( { "rawtypes", "unchecked" } )
+		final CacheRemover< Long, Cell< A >, A > remover = cellArrayPool == null
+				? iosync
+				: new CellArrayRecycler( iosync, cellArrayPool, ( Consumer< Long > ) imarisCache::discard );
+
 		final Cache< Long, Cell< A > > cache = listenableCache
-				.withRemover( iosync )
+				.withRemover( remover )
 				.withLoader( iosync );
 
 		final A accessType = ArrayDataAccessFactory.get( typeFactory, options.accessFlags() );
@@ -297,6 +315,7 @@ public class ImarisCachedLabelImgFactory< T extends NativeType< T > > extends Na
 				entitiesPerPixel,
 				cache,
 				iosync,
+				inventory,
 				accessType );
 		img.setLinkedType( typeFactory.createLinkedType( img ) );
 		return img;
@@ -69,6 +69,14 @@ public class ImarisCachedProbabilitiesImg< T extends NativeType< T >, A > extend
 
 	private final IoSync< ?, ?, ? > iosync;
 
+	private final double quantizationError;
+
+	private final int numChannels;
+
+	/**
+	 * The quantization error is computed from the {@code dataset} type and
+	 * the factory options.
+	 */
 	public ImarisCachedProbabilitiesImg(
 			final ImarisCachedProbabilitiesImgFactory< T > factory,
 			final IDataSetPrx dataset,
@@ -77,12 +85,62 @@ public class ImarisCachedProbabilitiesImg< T extends NativeType< T >, A > extend
 			final Cache< Long, Cell< A > > cache,
 			final IoSync< ?, ?, ? > iosync,
 			final A accessType )
+	{
+		this( factory, dataset, grid, entitiesPerPixel, cache, iosync, accessType,
+				factory.quantizationError( dataset ),
+				( int ) grid.imgDimension( grid.numDimensions() - 1 ) );
+	}
+
+	/**
+	 * @param quantizationError
+	 * 		maximum absolute error of (non-background) probabilities, see
+	 * 		{@link #quantizationError()}.
+	 * @param numChannels
+	 * 		number of channels (including background)
+	 */
+	public ImarisCachedProbabilitiesImg(
+			final ImarisCachedProbabilitiesImgFactory< T > factory,
+			final IDataSetPrx dataset,
+			final CellGrid grid,
+			final Fraction entitiesPerPixel,
+			final Cache< Long, Cell< A > > cache,
+			final IoSync< ?, ?, ? > iosync,
+			final A accessType,
+			final double quantizationError,
+			final int numChannels )
 	{
 		super( grid, entitiesPerPixel, cache, accessType );
 		this.factory = factory;
 		this.dataset = dataset;
 		this.cache = cache;
 		this.iosync = iosync;
+		this.quantizationError = quantizationError;
+		this.numChannels = numChannels;
+	}
+
+	/**
+	 * Get the maximum absolute error of (non-background) probabilities that
+	 * are stored to and loaded back from the Imaris dataset, according to the
+	 * dataset type and the options this image was created with.
+	 *
+	 * @see ImarisCachedProbabilitiesImgFactory#quantizationError(IDataSetPrx)
+	 */
+	public double quantizationError()
+	{
+		return quantizationError;
+	}
+
+	/**
+	 * Get the maximum absolute error of the background probability. The
+	 * background channel is computed from the other channels when loading,
+	 * so this is up to {@code (numChannels - 1)} times {@link
+	 * #quantizationError()}.
+	 *
+	 * @see ImarisCachedProbabilitiesImgFactory#backgroundQuantizationError
+	 */
+	public double backgroundQuantizationError()
+	{
+		return Math.max( 0, numChannels - 1 ) * quantizationError;
 	}
 
 	@Override
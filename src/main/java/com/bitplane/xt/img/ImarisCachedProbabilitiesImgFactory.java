@@ -30,11 +30,18 @@ package com.bitplane.xt.img;
 
 import Imaris.Error;
 import Imaris.IDataSetPrx;
+import Imaris.tType;
 import com.bitplane.xt.ImarisApplication;
+import com.bitplane.xt.options.ImarisProbabilitiesOptions.Quantization;
+import com.bitplane.xt.options.ImarisProbabilitiesOptions.Rounding;
+import com.bitplane.xt.util.ArrayPool;
+import com.bitplane.xt.util.CellArrayRecycler;
+import com.bitplane.xt.util.ImarisUtils;
 import com.bitplane.xt.util.MapDimensions;
 import net.imglib2.Dimensions;
 import net.imglib2.cache.Cache;
 import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.CacheRemover;
 import net.imglib2.cache.IoSync;
 import net.imglib2.cache.LoaderRemoverCache;
 import net.imglib2.cache.img.CellLoader;
@@ -56,6 +63,7 @@ import net.imglib2.type.NativeTypeFactory;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Fraction;
+import net.imglib2.util.Intervals;
 
 import static com.bitplane.xt.util.CellGridUtils.computeCellDimensions;
 import static com.bitplane.xt.util.CellGridUtils.createCellGrid;
@@ -70,11 +78,14 @@ import static com.bitplane.xt.util.CellGridUtils.createCellGrid;
  * first channel ("background") is removed (only the other channels are stored).
  * If the dataset has UINT8 or UINT16 type, the [0, 1] range is scaled to the
  * [0, 2^8-1] or [0, 2^16-1], respectively. For loading data back from the cache
- * this operation is reversed.
+ * this operation is reversed. See {@link #quantizationError} for the resulting
+ * precision.
  * <p>
- * Images can only be created with existing Imaris dataset. The number of
- * channels in the Imaris dataset + 1 must be equal to the number of channels in
- * the imglib dimensions.
+ * Images can be created with existing Imaris dataset, or with a new dataset
+ * created by the factory. The type of new datasets is specified by the {@link
+ * ImarisCachedCellImgOptions#probabilityQuantization probabilityQuantization}
+ * option. The number of channels in the Imaris dataset + 1 must be equal to the
+ * number of channels in the imglib dimensions.
  * TODO: For now, tt is assumed that in the imglib dimensions, the last dimension represents the channel.
  *
  *
@@ -120,16 +131,159 @@ public class ImarisCachedProbabilitiesImgFactory< T extends NativeType< T > > ex
 		throw new IllegalArgumentException( "Only DoubleType and FloatType are supported (not " + type.getClass().getSimpleName() + ")" );
 	}
 
+	/**
+	 * Create image with a new Imaris dataset. The type of the dataset is
+	 * specified by the {@link
+	 * ImarisCachedCellImgOptions#probabilityQuantization
+	 * probabilityQuantization} option.
+	 * <p>
+	 * The last dimension is the channel dimension (including background).
+	 * The other dimensions are XY, XYZ, or XYZT.
+	 */
 	@Override
 	public ImarisCachedProbabilitiesImg< T, ? > create( final long... dimensions )
 	{
-		throw new UnsupportedOperationException();
+		return create( null, dimensions, null, null, type(), null );
 	}
 
+	/**
+	 * @see #create(long...)
+	 */
 	@Override
 	public ImarisCachedProbabilitiesImg< T, ? > create( final Dimensions dimensions )
 	{
-		throw new UnsupportedOperationException();
+		return create( Intervals.dimensionsAsLongArray( dimensions ) );
+	}
+
+	/**
+	 * @see #create(long...)
+	 */
+	public ImarisCachedProbabilitiesImg< T, ? > create( final long[] dimensions, final ImarisCachedCellImgOptions additionalOptions )
+	{
+		return create( null, dimensions, null, null, type(), additionalOptions );
+	}
+
+	/**
+	 * Get the maximum absolute error of (non-background) probabilities that
+	 * are stored to and loaded back from {@code dataset}, using the rounding
+	 * specified in the factory options.
+	 * <p>
+	 * For images that have already been created, prefer {@link
+	 * ImarisCachedProbabilitiesImg#quantizationError()}, which takes into
+	 * account the options the image was created with.
+	 *
+	 * @see #backgroundQuantizationError
+	 */
+	public double quantizationError( final IDataSetPrx dataset )
+	{
+		return quantizationError( dataset, null );
+	}
+
+	/**
+	 * Get the maximum absolute error of (non-background) probabilities that
+	 * are stored to and loaded back from {@code dataset}, using the rounding
+	 * specified in the factory options, overridden by {@code
+	 * additionalOptions}.
+	 *
+	 * @param additionalOptions
+	 * 		options that override the factory options, or {@code null}.
+	 *
+	 * @see #backgroundQuantizationError
+	 */
+	public double quantizationError( final IDataSetPrx dataset, final ImarisCachedCellImgOptions additionalOptions )
+	{
+		try
+		{
+			return quantizationError( dataset.GetType(), factoryOptions.append( additionalOptions ).values.probabilityRounding() );
+		}
+		catch ( Error error )
+		{
+			throw new ImgLibException( error );
+		}
+	}
+
+	/**
+	 * Get the maximum absolute error of (non-background) probabilities that
+	 * are stored to and loaded back from datasets created by this factory
+	 * (according to the {@link
+	 * ImarisCachedCellImgOptions#probabilityQuantization
+	 * probabilityQuantization} and {@link
+	 * ImarisCachedCellImgOptions#probabilityRounding probabilityRounding}
+	 * factory options).
+	 *
+	 * @see #backgroundQuantizationError
+	 */
+	public double quantizationError()
+	{
+		return quantizationError( ( ImarisCachedCellImgOptions ) null );
+	}
+
+	/**
+	 * Get the maximum absolute error of (non-background) probabilities that
+	 * are stored to and loaded back from datasets created by this factory
+	 * with {@code additionalOptions} (according to the {@link
+	 * ImarisCachedCellImgOptions#probabilityQuantization
+	 * probabilityQuantization} and {@link
+	 * ImarisCachedCellImgOptions#probabilityRounding probabilityRounding}
+	 * options).
+	 *
+	 * @param additionalOptions
+	 * 		options that override the factory options, or {@code null}.
+	 *
+	 * @see #backgroundQuantizationError
+	 */
+	public double quantizationError( final ImarisCachedCellImgOptions additionalOptions )
+	{
+		final ImarisCachedCellImgOptions.Values options = factoryOptions.append( additionalOptions ).values;
+		return quantizationError( imarisTypeFor( options.probabilityQuantization() ), options.probabilityRounding() );
+	}
+
+	/**
+	 * Get the maximum absolute error of probabilities in {@code [0, 1]} that
+	 * are stored to and loaded back from an Imaris dataset of the given {@code
+	 * datasetType}, using the given {@code rounding}.
+	 * <p>
+	 * This is {@code 0} for FLOAT datasets (ignoring {@code double} to
+	 * {@code float} conversion), one quantization step ({@code 1/255}, {@code
+	 * 1/65535}) for UINT8, UINT16 datasets with {@link Rounding#TRUNCATE
+	 * TRUNCATE} rounding, and half a step with {@link Rounding#NEAREST
+	 * NEAREST} rounding.
+	 * <p>
+	 * This applies to all channels except the background channel, see {@link
+	 * #backgroundQuantizationError}.
+	 */
+	public static double quantizationError( final tType datasetType, final Rounding rounding )
+	{
+		final double step;
+		switch ( datasetType )
+		{
+		case eTypeUInt8:
+			step = 1.0 / 255;
+			break;
+		case eTypeUInt16:
+			step = 1.0 / 65535;
+			break;
+		case eTypeFloat:
+			return 0;
+		default:
+			throw new IllegalArgumentException();
+		}
+		return rounding == Rounding.NEAREST ? 0.5 * step : step;
+	}
+
+	/**
+	 * Get the maximum absolute error of the background probability, for an
+	 * image with {@code numChannels} channels (including background).
+	 * <p>
+	 * The background channel is not stored, but computed as {@code 1} minus
+	 * the sum of the other {@code numChannels - 1} channels when loading. The
+	 * errors of these channels accumulate, so the background error is up to
+	 * {@code (numChannels - 1)} times the {@link #quantizationError(tType,
+	 * Rounding) error} of the other channels.
+	 */
+	public static double backgroundQuantizationError( final tType datasetType, final Rounding rounding, final int numChannels )
+	{
+		return Math.max( 0, numChannels - 1 ) * quantizationError( datasetType, rounding );
 	}
 
 	/**
@@ -188,6 +342,7 @@ public class ImarisCachedProbabilitiesImgFactory< T extends NativeType< T > > ex
 	 * @param dataset
 	 * 		Imaris dataset to use as backing cache.
 	 * 		If {@code dataset == null}, a new one is created.
+	 * 		The type of the new dataset is specified by the {@code probabilityQuantization} option.
 	 * @param dimensions
 	 * 		dimensions of the image to create.
 	 * 		Must match the dataset dimensions, but is allowed to strip dimensions with extent 1.
@@ -214,8 +369,8 @@ public class ImarisCachedProbabilitiesImgFactory< T extends NativeType< T > > ex
 		{
 			@SuppressWarnings( { "unchecked", "rawtypes" } )
 			final ImarisCachedProbabilitiesImg< T, A > img = create(
-					dataset,
-					cellLoader != null || cacheLoader != null,
+					dataset != null ? dataset : createDataset( dimensions, additionalOptions ),
+					dataset == null || cellLoader != null || cacheLoader != null,
 					dimensions,
 					cacheLoader,
 					cellLoader,
@@ -272,10 +427,12 @@ public class ImarisCachedProbabilitiesImgFactory< T extends NativeType< T > > ex
 				backingLoader = EmptyCellCacheLoader.get( grid, type, options.accessFlags() );
 		}
 
+		final ArrayPool cellArrayPool = options.dirtyAccesses() ? CellArrayRecycler.createPool( options.maxRecycledCellArrays() ) : null;
+
 		@SuppressWarnings( { "rawtypes", "unchecked" } )
 		final ImarisProbabilitiesCache< A > imarisCache = options.dirtyAccesses()
-				? new ImarisDirtyProbabilitiesCache( dataset, typeFactory.getPrimitiveType(), mapDimensions, grid, backingLoader, options.persistOnLoad() )
-				: new ImarisProbabilitiesCache( dataset, typeFactory.getPrimitiveType(), mapDimensions, grid, backingLoader, options.persistOnLoad() );
+				? new ImarisDirtyProbabilitiesCache( dataset, typeFactory.getPrimitiveType(), mapDimensions, grid, backingLoader, options.persistOnLoad(), options.probabilityRounding(), cellArrayPool )
+				: new ImarisProbabilitiesCache( dataset, typeFactory.getPrimitiveType(), mapDimensions, grid, backingLoader, options.persistOnLoad(), options.probabilityRounding() );
 
 		final IoSync< Long, Cell< A >, A > iosync = new IoSync<>(
 				imarisCache,
@@ -294,8 +451,13 @@ public class ImarisCachedProbabilitiesImgFactory< T extends NativeType< T > > ex
 			break;
 		}
 
+		@SuppressWarnings( { "rawtypes", "unchecked" } )
+		final CacheRemover< Long, Cell< A >, A > remover = cellArrayPool == null
+				? iosync
+				: new CellArrayRecycler( iosync, cellArrayPool );
+
 		final Cache< Long, Cell< A > > cache = listenableCache
-				.withRemover( iosync )
+				.withRemover( remover )
 				.withLoader( iosync );
 
 		final A accessType = ArrayDataAccessFactory.get( typeFactory, options.accessFlags() );
@@ -306,11 +468,50 @@ public class ImarisCachedProbabilitiesImgFactory< T extends NativeType< T > > ex
 				entitiesPerPixel,
 				cache,
 				iosync,
-				accessType );
+				accessType,
+				quantizationError( dataset.GetType(), options.probabilityRounding() ),
+				imarisDims[ 3 ] + 1 );
 		img.setLinkedType( typeFactory.createLinkedType( img ) );
 		return img;
 	}
 
+	/**
+	 * Create a new Imaris dataset for probabilities with the given imglib
+	 * {@code dimensions}. The last dimension is the channel dimension
+	 * (including background). The other dimensions are XY, XYZ, or XYZT.
+	 */
+	private IDataSetPrx createDataset( final long[] dimensions, final ImarisCachedCellImgOptions additionalOptions ) throws Error
+	{
+		if ( dimensions.length < 3 || dimensions.length > 5 )
+			throw new IllegalArgumentException( "image must not have more than 5 or less than 3 dimensions" );
+		final int nc = dimensions.length - 1;
+		if ( dimensions[ nc ] < 2 )
+			throw new IllegalArgumentException( "image must have at least 2 channels (including background)" );
+
+		final int sx = ( int ) dimensions[ 0 ];
+		final int sy = ( int ) dimensions[ 1 ];
+		final int sz = nc > 2 ? ( int ) dimensions[ 2 ] : 1;
+		final int sc = ( int ) dimensions[ nc ] - 1;
+		final int st = nc > 3 ? ( int ) dimensions[ 3 ] : 1;
+
+		final Quantization quantization = factoryOptions.append( additionalOptions ).values.probabilityQuantization();
+		return ImarisUtils.createDataset( imaris.getIApplicationPrx(), imarisTypeFor( quantization ), sx, sy, sz, sc, st );
+	}
+
+	private static tType imarisTypeFor( final Quantization quantization )
+	{
+		switch ( quantization )
+		{
+		case UINT8:
+			return tType.eTypeUInt8;
+		case UINT16:
+			return tType.eTypeUInt16;
+		case NONE:
+		default:
+			return tType.eTypeFloat;
+		}
+	}
+
 	/**
 	 * Modified version of {@link MapDimensions#createMapDimensions}.
 	 * We assume that the channel dimensions is the last of {@code imgDims}.
@@ -30,6 +30,9 @@ package com.bitplane.xt.img;
 
 import Imaris.Error;
 import Imaris.IDataSetPrx;
+import com.bitplane.xt.options.ImarisLabelOptions.LabelLayout;
+import com.bitplane.xt.util.ArrayPool;
+import com.bitplane.xt.util.CellArrayRecycler;
 import java.util.concurrent.CompletableFuture;
 import net.imglib2.Dirty;
 import net.imglib2.cache.CacheLoader;
@@ -48,6 +51,10 @@ import net.imglib2.type.PrimitiveType;
  */
 public class ImarisDirtyLabelCache< A extends Dirty > extends ImarisLabelCache< A >
 {
+	/**
+	 * Create a cache with {@code ONE_HOT} label layout. {@code byte} and
+	 * {@code short} labels are interpreted as unsigned.
+	 */
 	public ImarisDirtyLabelCache(
 			final IDataSetPrx dataset,
 			final PrimitiveType primitiveType, // primitive type underlying accesses
@@ -56,7 +63,51 @@ public class ImarisDirtyLabelCache< A extends Dirty > extends ImarisLabelCache<
 			final CacheLoader< Long, Cell< A > > backingLoader,
 			final boolean persistOnLoad ) throws Error
 	{
-		super( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, true );
+		this( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, false, LabelLayout.ONE_HOT, null, true );
+	}
+
+	/**
+	 * @param unsignedLabels
+	 * 		whether {@code byte} and {@code short} labels are unsigned (e.g.,
+	 * 		{@code UnsignedByteType}) or signed (e.g., {@code ByteType}).
+	 */
+	public ImarisDirtyLabelCache(
+			final IDataSetPrx dataset,
+			final PrimitiveType primitiveType, // primitive type underlying accesses
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< A > > backingLoader,
+			final boolean persistOnLoad,
+			final boolean skipEmptyChannels,
+			final LabelLayout layout,
+			final LabelInventory inventory,
+			final boolean unsignedLabels ) throws Error
+	{
+		super( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, skipEmptyChannels, layout, inventory, unsignedLabels, true );
+	}
+
+	/**
+	 * @param unsignedLabels
+	 * 		whether {@code byte} and {@code short} labels are unsigned (e.g.,
+	 * 		{@code UnsignedByteType}) or signed (e.g., {@code ByteType}).
+	 * @param cellArrayPool
+	 * 		if not {@code null}, arrays for loaded cells are taken from this
+	 * 		pool where possible. See {@link CellArrayRecycler}.
+	 */
+	public ImarisDirtyLabelCache(
+			final IDataSetPrx dataset,
+			final PrimitiveType primitiveType, // primitive type underlying accesses
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< A > > backingLoader,
+			final boolean persistOnLoad,
+			final boolean skipEmptyChannels,
+			final LabelLayout layout,
+			final LabelInventory inventory,
+			final boolean unsignedLabels,
+			final ArrayPool cellArrayPool ) throws Error
+	{
+		super( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, skipEmptyChannels, layout, inventory, unsignedLabels, cellArrayPool, true );
 	}
 
 	@Override
@@ -64,6 +115,8 @@ public class ImarisDirtyLabelCache< A extends Dirty > extends ImarisLabelCache<
 	{
 		if ( valueData.isDirty() )
 			super.onRemoval( key, valueData );
+		else
+			discard( key );
 	}
 
 	@Override
@@ -30,6 +30,9 @@ package com.bitplane.xt.img;
 
 import Imaris.Error;
 import Imaris.IDataSetPrx;
+import com.bitplane.xt.options.ImarisProbabilitiesOptions.Rounding;
+import com.bitplane.xt.util.ArrayPool;
+import com.bitplane.xt.util.CellArrayRecycler;
 import java.util.concurrent.CompletableFuture;
 import net.imglib2.Dirty;
 import net.imglib2.cache.CacheLoader;
@@ -56,7 +59,37 @@ public class ImarisDirtyProbabilitiesCache< A extends Dirty > extends ImarisProb
 			final CacheLoader< Long, Cell< A > > backingLoader,
 			final boolean persistOnLoad ) throws Error
 	{
-		super( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, true );
+		super( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, Rounding.TRUNCATE, true );
+	}
+
+	public ImarisDirtyProbabilitiesCache(
+			final IDataSetPrx dataset,
+			final PrimitiveType primitiveType, // primitive type underlying accesses
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< A > > backingLoader,
+			final boolean persistOnLoad,
+			final Rounding rounding ) throws Error
+	{
+		super( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, rounding, true );
+	}
+
+	/**
+	 * @param cellArrayPool
+	 * 		if not {@code null}, arrays for loaded cells are taken from this
+	 * 		pool where possible. See {@link CellArrayRecycler}.
+	 */
+	public ImarisDirtyProbabilitiesCache(
+			final IDataSetPrx dataset,
+			final PrimitiveType primitiveType, // primitive type underlying accesses
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< A > > backingLoader,
+			final boolean persistOnLoad,
+			final Rounding rounding,
+			final ArrayPool cellArrayPool ) throws Error
+	{
+		super( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, rounding, cellArrayPool, true );
 	}
 
 	@Override
@@ -31,13 +31,14 @@ package com.bitplane.xt.img;
 import Imaris.Error;
 import Imaris.IDataSetPrx;
 import Imaris.tType;
+import com.bitplane.xt.options.ImarisLabelOptions.LabelLayout;
+import com.bitplane.xt.util.ArrayPool;
+import com.bitplane.xt.util.AtomicBitmap;
 import com.bitplane.xt.util.MapDimensions.SelectIntervalDimension;
 import com.bitplane.xt.util.SetDataSubVolume;
 import com.bitplane.xt.util.GetDataSubVolume;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
 import java.util.function.IntFunction;
 import java.util.function.Predicate;
 import net.imglib2.cache.CacheLoader;
@@ -55,13 +56,15 @@ import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
 import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
 import net.imglib2.type.PrimitiveType;
+import net.imglib2.util.Intervals;
 
 import static com.bitplane.xt.util.MapDimensions.selectIntervalDimension;
 
 /**
  * A {@link CacheRemover}/{@link CacheLoader} for writing/reading cells
  * to an Imaris {@code IDataset}. It translates integer labels on the ImgLib2 side to
- * channels on the Imaris side.
+ * channels on the Imaris side: either one channel per label, or a single
+ * channel containing label values (see {@link LabelLayout}).
  * <p>
  * Blocks which are not in the cache (yet) are obtained from a backing
  * {@link CacheLoader}. Typically the backing loader will just create empty cells.
@@ -110,22 +113,77 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 	private final boolean persistOnLoad;
 
 	/**
-	 * Contains the keys that have been stored to Imaris (via {@link #onRemoval}).
-	 * If a key is present in this set, the corresponding Cell is loaded from Imaris.
+	 * Marks the keys that have been stored to Imaris (via {@link #onRemoval}).
+	 * If the bit for a key is set, the corresponding Cell is loaded from Imaris.
 	 * Otherwise, it is obtained from the {@code backingLoader}.
 	 * <p>
 	 * If there is no {@code backingLoader}, this is {@code null}, and all Cells
 	 * are loaded from Imaris.
 	 */
-	// TODO
-	//  This should be eventually replaced by something with a smaller memory footprint,
-	//  for example a BitSet. But then we need to take care of concurrency ourselves, so...
-	private final Set< Long > written;
+	private final AtomicBitmap written;
 
+	/**
+	 * Tracks which label channels are empty in which cells, so that they can
+	 * be skipped when loading cells from Imaris. {@code null} if channels
+	 * should not be skipped.
+	 */
+	private final LabelChannelOccupancy occupancy;
+
+	/**
+	 * Reads single label channels, to {@link #mergeGuessedChannels merge}
+	 * channels that were skipped when loading a cell. {@code null} if {@link
+	 * #occupancy} is {@code null}.
+	 */
+	private final GetDataSubVolume guessedChannelSlice;
+
+	/**
+	 * Signatures of the labels of the cells, as they are currently stored in
+	 * Imaris. Signatures are taken when a cell is loaded from or written to
+	 * Imaris, and compared when the cell is written, to only write the
+	 * channels that actually changed.
+	 * <p>
+	 * If there is no signature for a cell that has been {@link #written}, all
+	 * channels are written. If there is no signature for a cell that has not
+	 * been written, the cell is assumed to be empty in Imaris.
+	 */
+	private final ConcurrentHashMap< Long, LabelSignature > signatures = new ConcurrentHashMap<>();
+
+	/**
+	 * Signature of a cell that is empty in all channels.
+	 */
+	private final LabelSignature emptySignature;
+
+	/**
+	 * Labels present in each cell. Updated when cells are loaded or written.
+	 * May be {@code null}.
+	 */
+	private final LabelInventory inventory;
 
 	// TODO: into how many channels to split
 	private final int numChannels;
 
+	/**
+	 * Whether labels are stored as values in a single Imaris channel ({@link
+	 * LabelLayout#INDEXED}), instead of one channel per label.
+	 */
+	private final boolean indexed;
+
+	/**
+	 * Whether {@code byte[]} and {@code short[]} labels are unsigned (e.g.,
+	 * {@code UnsignedByteType}) or signed (e.g., {@code ByteType}).
+	 */
+	private final boolean unsignedLabels;
+
+	/**
+	 * If not {@code null}, arrays for loaded cells are taken from this pool
+	 * (recycled arrays of evicted cells) instead of being allocated.
+	 */
+	private final ArrayPool cellArrayPool;
+
+	/**
+	 * Create a cache with {@code ONE_HOT} label layout. {@code byte} and
+	 * {@code short} labels are interpreted as unsigned.
+	 */
 	public ImarisLabelCache(
 			final IDataSetPrx dataset,
 			final PrimitiveType primitiveType, // primitive type underlying accesses
@@ -134,7 +192,27 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 			final CacheLoader< Long, Cell< A > > backingLoader,
 			final boolean persistOnLoad ) throws Error
 	{
-		this( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, false );
+		this( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, false, LabelLayout.ONE_HOT, null, true );
+	}
+
+	/**
+	 * @param unsignedLabels
+	 * 		whether {@code byte} and {@code short} labels are unsigned (e.g.,
+	 * 		{@code UnsignedByteType}) or signed (e.g., {@code ByteType}).
+	 */
+	public ImarisLabelCache(
+			final IDataSetPrx dataset,
+			final PrimitiveType primitiveType, // primitive type underlying accesses
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< A > > backingLoader,
+			final boolean persistOnLoad,
+			final boolean skipEmptyChannels,
+			final LabelLayout layout,
+			final LabelInventory inventory,
+			final boolean unsignedLabels ) throws Error
+	{
+		this( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, skipEmptyChannels, layout, inventory, unsignedLabels, false );
 	}
 
 	protected ImarisLabelCache(
@@ -144,20 +222,52 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 			final CellGrid grid,
 			final CacheLoader< Long, Cell< A > > backingLoader,
 			final boolean persistOnLoad,
+			final boolean skipEmptyChannels,
+			final LabelLayout layout,
+			final LabelInventory inventory,
+			final boolean unsignedLabels,
 			final boolean withDirtyFlag ) throws Error
 	{
+		this( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, skipEmptyChannels, layout, inventory, unsignedLabels, null, withDirtyFlag );
+	}
+
+	protected ImarisLabelCache(
+			final IDataSetPrx dataset,
+			final PrimitiveType primitiveType, // primitive type underlying accesses
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< A > > backingLoader,
+			final boolean persistOnLoad,
+			final boolean skipEmptyChannels,
+			final LabelLayout layout,
+			final LabelInventory inventory,
+			final boolean unsignedLabels,
+			final ArrayPool cellArrayPool,
+			final boolean withDirtyFlag ) throws Error
+	{
+		this.cellArrayPool = cellArrayPool;
 		this.dataset = dataset;
 		datasetType = dataset.GetType();
 		numChannels = dataset.GetSizeC();
+		indexed = layout == LabelLayout.INDEXED;
+		this.unsignedLabels = unsignedLabels;
+		if ( indexed && numChannels != 1 )
+			throw new IllegalArgumentException( "INDEXED label layout requires a dataset with 1 channel (not " + numChannels + ")" );
 		this.primitiveType = primitiveType;
 		this.grid = grid;
 		n = grid.numDimensions();
 		this.mapDimensions = mapDimensions;
 		this.backingLoader = backingLoader;
 		this.persistOnLoad = persistOnLoad;
+		this.inventory = inventory;
+		emptySignature = LabelSignature.empty( numChannels );
 		volatileArraySource = volatileArraySource( withDirtyFlag );
 		volatileArraySink = volatileArraySink();
-		written = backingLoader == null ? null : ConcurrentHashMap.newKeySet();
+		written = backingLoader == null ? null : new AtomicBitmap( Intervals.numElements( grid.getGridDimensions() ) );
+		// With a backingLoader, only cells that were written (and recorded) are loaded from Imaris.
+		// Otherwise, occupancy of existing data is seeded from the pyramid.
+		occupancy = skipEmptyChannels && !indexed ? new LabelChannelOccupancy( dataset, mapDimensions, grid, numChannels, backingLoader == null ) : null;
+		guessedChannelSlice = occupancy == null ? null : GetDataSubVolume.forDataSet( dataset, datasetType );
 	}
 
 	// ===================================================================
@@ -190,6 +300,8 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 		/**
 		 * Get sub-volume as flattened primitive array.
 		 *
+		 * @param index
+		 * 		flattened grid index of the cell
 		 * @param min
 		 * 		minimum of interval in {@code Img} space.
 		 * 		Will be augmented to 5D if necessary (See {@link #mapDimensions}).
@@ -199,7 +311,7 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 		 *
 		 * @return {@code byte[]}, {@code short[]}, {@code float[]}, depending on dataset type.
 		 */
-		A get( long[] min, int[] size ) throws Error;
+		A get( long index, long[] min, int[] size ) throws Error;
 	}
 
 	/**
@@ -212,48 +324,23 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 
 		// creates output arrays (to be used by imglib)
 		// Object is byte[], short[], int[], long[], depending on primitiveType
+		// NB: decoding overwrites every element, so recycled arrays need not be cleared
 		final IntFunction< Object > arrayFactory;
-
-		// creates a GetLabel to read from input arrays (one per channel, from imaris)
-		// Object is byte[], short[], float[] depending on datasetType
-		final Function< Object[], GetLabel > getLabelFactory;
-
-		// creates a SetLabel to write to output array (created by arrayFactory)
-		final Function< Object, SetLabel > setLabelFactory;
-
+		final ArrayPool recycled = cellArrayPool;
 
 		switch ( primitiveType )
 		{
 		case BYTE:
-			arrayFactory = byte[]::new;
-			setLabelFactory = SetCompositeLabelByte::new;
+			arrayFactory = recycled == null ? byte[]::new : recycled::bytes;
 			break;
 		case SHORT:
-			arrayFactory = short[]::new;
-			setLabelFactory = SetCompositeLabelShort::new;
+			arrayFactory = recycled == null ? short[]::new : recycled::shorts;
 			break;
 		case INT:
-			arrayFactory = int[]::new;
-			setLabelFactory = SetCompositeLabelInt::new;
+			arrayFactory = recycled == null ? int[]::new : recycled::ints;
 			break;
 		case LONG:
-			arrayFactory = long[]::new;
-			setLabelFactory = SetCompositeLabelLong::new;
-			break;
-		default:
-			throw new IllegalArgumentException();
-		}
-
-		switch ( datasetType )
-		{
-		case eTypeUInt8:
-			getLabelFactory = GetChannelLabelByte::new;
-			break;
-		case eTypeUInt16:
-			getLabelFactory = GetChannelLabelShort::new;
-			break;
-		case eTypeFloat:
-			getLabelFactory = GetChannelLabelFloat::new;
+			arrayFactory = recycled == null ? long[]::new : recycled::longs;
 			break;
 		default:
 			throw new IllegalArgumentException();
@@ -264,7 +351,9 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 		final SelectIntervalDimension z = selectIntervalDimension( mapDimensions[ 2 ] );
 		final SelectIntervalDimension t = selectIntervalDimension( mapDimensions[ 4 ] );
 
-		return ( min, size ) -> {
+		final ArrayPool pool = ArrayPool.getInstance();
+
+		return ( index, min, size ) -> {
 
 			final int ox = x.min( min );
 			final int oy = y.min( min );
@@ -280,29 +369,56 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 
 			final int slicelength = sx * sy * sz;
 			final Object data = arrayFactory.apply( sx * sy * sz * st );
-			final SetLabel output = setLabelFactory.apply( data );
-			final Object[] slicedata = new Object[ sc ];
 
-			if ( st == 1 )
+			if ( indexed )
 			{
-				for ( int dc = 0; dc < sc; ++dc )
-					slicedata[ dc ] = slice.get( ox, oy, oz, oc + dc, ot, 0, sx, sy, sz );
-				final GetLabel input = getLabelFactory.apply( slicedata );
-				for ( int i = 0; i < slicelength; ++i )
-					output.set( i, input.get( i ) );
+				for ( int dt = 0; dt < st; ++dt )
+				{
+					final Object slicedata = slice.get( ox, oy, oz, oc, ot + dt, 0, sx, sy, sz );
+					final int outOffset = dt * slicelength;
+					CellChunks.process( slicelength, 1, ( from, to ) -> {
+						LabelKernels.decodeIndexed( slicedata, data, outOffset, from, to );
+						return 0;
+					} );
+				}
+				if ( inventory != null )
+					inventory.update( index, data );
+				return data;
 			}
-			else
+
+			final Object[] slicedata = pool.objects( sc );
+			long numChannelValues = 0;
+			try
 			{
 				for ( int dt = 0; dt < st; ++dt )
 				{
 					for ( int dc = 0; dc < sc; ++dc )
-						slicedata[ dc ] = slice.get( ox, oy, oz, oc + dc, ot + dt, 0, sx, sy, sz );
-					final GetLabel input = getLabelFactory.apply( slicedata );
-					final int destpos = dt * slicelength;
-					for ( int i = 0; i < slicelength; ++i )
-						output.set( i + destpos, input.get( i ) );
+						slicedata[ dc ] = occupancy != null && occupancy.isEmpty( index, dc )
+								? null
+								: slice.get( ox, oy, oz, oc + dc, ot + dt, 0, sx, sy, sz );
+					final int outOffset = dt * slicelength;
+					numChannelValues += CellChunks.process( slicelength, sc,
+							( from, to ) -> LabelKernels.decode( slicedata, data, outOffset, from, to ) );
 				}
 			}
+			finally
+			{
+				pool.release( slicedata );
+			}
+
+			// If some voxels are non-zero in more than one channel, the
+			// decoded labels don't represent the channels on the Imaris side.
+			// Then we don't remember a signature, such that all channels will
+			// be written when the cell is written back.
+			final LabelSignature signature = LabelSignature.of( data, unsignedLabels, numChannels );
+			if ( signature.numLabeled() == numChannelValues )
+				signatures.put( index, signature );
+			else
+				signatures.remove( index );
+
+			if ( inventory != null )
+				inventory.update( index, data );
+
 			return data;
 		};
 	}
@@ -319,13 +435,13 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 			switch ( primitiveType )
 			{
 			case BYTE:
-				return ( min, size ) -> ( A ) new DirtyVolatileByteArray( ( byte[] ) ( pixels.get( min, size ) ), true );
+				return ( index, min, size ) -> ( A ) new DirtyVolatileByteArray( ( byte[] ) ( pixels.get( index, min, size ) ), true );
 			case SHORT:
-				return ( min, size ) -> ( A ) new DirtyVolatileShortArray( ( short[] ) ( pixels.get( min, size ) ), true );
+				return ( index, min, size ) -> ( A ) new DirtyVolatileShortArray( ( short[] ) ( pixels.get( index, min, size ) ), true );
 			case INT:
-				return ( min, size ) -> ( A ) new DirtyVolatileIntArray( ( int[] ) ( pixels.get( min, size ) ), true );
+				return ( index, min, size ) -> ( A ) new DirtyVolatileIntArray( ( int[] ) ( pixels.get( index, min, size ) ), true );
 			case LONG:
-				return ( min, size ) -> ( A ) new DirtyVolatileLongArray( ( long[] ) ( pixels.get( min, size ) ), true );
+				return ( index, min, size ) -> ( A ) new DirtyVolatileLongArray( ( long[] ) ( pixels.get( index, min, size ) ), true );
 			default:
 				throw new IllegalArgumentException();
 			}
@@ -333,302 +449,23 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 			switch ( primitiveType )
 			{
 			case BYTE:
-				return ( min, size ) -> ( A ) new VolatileByteArray( ( byte[] ) ( pixels.get( min, size ) ), true );
+				return ( index, min, size ) -> ( A ) new VolatileByteArray( ( byte[] ) ( pixels.get( index, min, size ) ), true );
 			case SHORT:
-				return ( min, size ) -> ( A ) new VolatileShortArray( ( short[] ) ( pixels.get( min, size ) ), true );
+				return ( index, min, size ) -> ( A ) new VolatileShortArray( ( short[] ) ( pixels.get( index, min, size ) ), true );
 			case INT:
-				return ( min, size ) -> ( A ) new VolatileIntArray( ( int[] ) ( pixels.get( min, size ) ), true );
+				return ( index, min, size ) -> ( A ) new VolatileIntArray( ( int[] ) ( pixels.get( index, min, size ) ), true );
 			case LONG:
-				return ( min, size ) -> ( A ) new VolatileLongArray( ( long[] ) ( pixels.get( min, size ) ), true );
+				return ( index, min, size ) -> ( A ) new VolatileLongArray( ( long[] ) ( pixels.get( index, min, size ) ), true );
 			default:
 				throw new IllegalArgumentException();
 			}
 	}
 
-	private interface GetLabel
-	{
-		int get( final int index );
-	}
-
-	private interface SetLabel
-	{
-		void set( final int index, final int label );
-	}
-
-	static class SetCompositeLabelByte implements SetLabel
-	{
-		private final byte[] output;
-
-		SetCompositeLabelByte( final Object output )
-		{
-			this.output = ( byte[] ) output;
-		}
-
-		@Override
-		public void set( final int index, final int label )
-		{
-			output[ index ] = ( byte ) label;
-		}
-	}
-
-	static class SetCompositeLabelShort implements SetLabel
-	{
-		private final short[] output;
-
-		SetCompositeLabelShort( final Object output )
-		{
-			this.output = ( short[] ) output;
-		}
-
-		@Override
-		public void set( final int index, final int label )
-		{
-			output[ index ] = ( short ) label;
-		}
-	}
-
-	static class SetCompositeLabelInt implements SetLabel
-	{
-		private final int[] output;
-
-		SetCompositeLabelInt( final Object output )
-		{
-			this.output = ( int[] ) output;
-		}
-
-		@Override
-		public void set( final int index, final int label )
-		{
-			output[ index ] = ( int ) label;
-		}
-	}
-
-	static class SetCompositeLabelLong implements SetLabel
-	{
-		private final long[] output;
-
-		SetCompositeLabelLong( final Object output )
-		{
-			this.output = ( long[] ) output;
-		}
-
-		@Override
-		public void set( final int index, final int label )
-		{
-			output[ index ] = ( long ) label;
-		}
-	}
-
-	static class GetChannelLabelByte implements GetLabel
-	{
-		private final byte[][] channels;
-
-		private final int numChannels;
-
-		GetChannelLabelByte( final Object[] input )
-		{
-			numChannels = input.length;
-			channels = new byte[ numChannels ][];
-			for ( int c = 0; c < numChannels; ++c )
-				channels[ c ] = ( byte[] ) input[ c ];
-		}
-
-		@Override
-		public int get( final int index )
-		{
-			for ( int c = 0; c < numChannels; ++c )
-				if ( channels[ c ][ index ] != 0 )
-					return c + 1;
-			return 0;
-		}
-	}
-
-	static class GetChannelLabelShort implements GetLabel
-	{
-		private final short[][] channels;
-
-		private final int numChannels;
-
-		GetChannelLabelShort( final Object[] input )
-		{
-			numChannels = input.length;
-			channels = new short[ numChannels ][];
-			for ( int c = 0; c < numChannels; ++c )
-				channels[ c ] = ( short[] ) input[ c ];
-		}
-
-		@Override
-		public int get( final int index )
-		{
-			for ( int c = 0; c < numChannels; ++c )
-				if ( channels[ c ][ index ] != 0 )
-					return c + 1;
-			return 0;
-		}
-	}
-
-	static class GetChannelLabelFloat implements GetLabel
-	{
-		private final float[][] channels;
-
-		private final int numChannels;
-
-		GetChannelLabelFloat( final Object[] input )
-		{
-			numChannels = input.length;
-			channels = new float[ numChannels ][];
-			for ( int c = 0; c < numChannels; ++c )
-				channels[ c ] = ( float[] ) input[ c ];
-		}
-
-		@Override
-		public int get( final int index )
-		{
-			for ( int c = 0; c < numChannels; ++c )
-				if ( channels[ c ][ index ] != 0 )
-					return c + 1;
-			return 0;
-		}
-	}
-
 	// -------------------------------------------------------------------
 	//  Writing Imaris blocks as primitive arrays
 	// -------------------------------------------------------------------
 
 
-	static class GetCompositeLabelByte implements GetLabel
-	{
-		private final byte[] input;
-
-		GetCompositeLabelByte( final Object input )
-		{
-			this.input = ( byte[] ) input;
-		}
-
-		@Override
-		public int get( final int index )
-		{
-			return input[ index ];
-		}
-	}
-
-	static class GetCompositeLabelShort implements GetLabel
-	{
-		private final short[] input;
-
-		GetCompositeLabelShort( final Object input )
-		{
-			this.input = ( short[] ) input;
-		}
-
-		@Override
-		public int get( final int index )
-		{
-			return input[ index ];
-		}
-	}
-
-	static class GetCompositeLabelInt implements GetLabel
-	{
-		private final int[] input;
-
-		GetCompositeLabelInt( final Object input )
-		{
-			this.input = ( int[] ) input;
-		}
-
-		@Override
-		public int get( final int index )
-		{
-			return input[ index ];
-		}
-	}
-
-	static class GetCompositeLabelLong implements GetLabel
-	{
-		private final long[] input;
-
-		GetCompositeLabelLong( final Object input )
-		{
-			this.input = ( long[] ) input;
-		}
-
-		@Override
-		public int get( final int index )
-		{
-			return ( int ) input[ index ];
-		}
-	}
-
-	static class SetChannelLabelByte implements SetLabel
-	{
-		private final byte[][] channels;
-
-		private final int numChannels;
-
-		SetChannelLabelByte( final Object[] output )
-		{
-			numChannels = output.length;
-			channels = new byte[ numChannels ][];
-			for ( int c = 0; c < numChannels; ++c )
-				channels[ c ] = ( byte[] ) output[ c ];
-		}
-
-		@Override
-		public void set( final int index, final int label )
-		{
-			final int v = label - 1;
-			for ( int c = 0; c < numChannels; ++c )
-				channels[ c ][ index ] = v == c ? ( byte ) 1 : ( byte ) 0;
-		}
-	}
-
-	static class SetChannelLabelShort implements SetLabel
-	{
-		private final short[][] channels;
-
-		private final int numChannels;
-
-		SetChannelLabelShort( final Object[] output )
-		{
-			numChannels = output.length;
-			channels = new short[ numChannels ][];
-			for ( int c = 0; c < numChannels; ++c )
-				channels[ c ] = ( short[] ) output[ c ];
-		}
-
-		@Override
-		public void set( final int index, final int label )
-		{
-			final int v = label - 1;
-			for ( int c = 0; c < numChannels; ++c )
-				channels[ c ][ index ] = v == c ? ( short ) 1 : ( short ) 0;
-		}
-	}
-
-	static class SetChannelLabelFloat implements SetLabel
-	{
-		private final float[][] channels;
-
-		private final int numChannels;
-
-		SetChannelLabelFloat( final Object[] output )
-		{
-			numChannels = output.length;
-			channels = new float[ numChannels ][];
-			for ( int c = 0; c < numChannels; ++c )
-				channels[ c ] = ( float[] ) output[ c ];
-		}
-
-		@Override
-		public void set( final int index, final int label )
-		{
-			final int v = label - 1;
-			for ( int c = 0; c < numChannels; ++c )
-				channels[ c ][ index ] = v == c ? 1f : 0f;
-		}
-	}
-
 	@FunctionalInterface
 	// TODO: Rename. "Sink" is not the best name probably, despite pairing up with "Source" nicely?
 	private interface PixelSink< A >
@@ -644,8 +481,11 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 		 * @param size
 		 * 		size of interval in {@code Img} space.
 		 * 		Will be augmented to 5D if necessary (See {@link #mapDimensions}).
+		 * @param channels
+		 * 		which label channels to write (channel {@code c} is written if
+		 * 		{@code channels[c] == true}), or {@code null} to write all channels.
 		 */
-		void put( A data, long[] min, int[] size ) throws Error;
+		void put( A data, long[] min, int[] size, boolean[] channels ) throws Error;
 	}
 
 	/**
@@ -660,45 +500,20 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 
 		// creates output arrays (to be send to Imaris)
 		// Object is byte[], short[], float[], depending on datasetType
+		// (temporary arrays are taken from, and returned to, the pool)
+		final ArrayPool pool = ArrayPool.getInstance();
 		final IntFunction< Object > arrayFactory;
 
-		// creates a GetLabel to read from ArrayDataAccess.getCurrentStorageArray() of primitiveType
-		// Object is byte[], short[], int[], long[] (we only support IntegerType)
-		final Function< Object, GetLabel > getLabelFactory;
-
-		// creates a SetLabel to write to output array (created by arrayFactory)
-		final Function< Object[], SetLabel > setLabelFactory;
-
 		switch ( datasetType )
 		{
 		case eTypeUInt8:
-			arrayFactory = byte[]::new;
-			setLabelFactory = SetChannelLabelByte::new;
+			arrayFactory = pool::bytes;
 			break;
 		case eTypeUInt16:
-			arrayFactory = short[]::new;
-			setLabelFactory = SetChannelLabelShort::new;
+			arrayFactory = pool::shorts;
 			break;
 		case eTypeFloat:
-			arrayFactory = float[]::new;
-			setLabelFactory = SetChannelLabelFloat::new;
-			break;
-		default:
-			throw new IllegalArgumentException();
-		}
-		switch ( primitiveType )
-		{
-		case BYTE:
-			getLabelFactory = GetCompositeLabelByte::new;
-			break;
-		case SHORT:
-			getLabelFactory = GetCompositeLabelShort::new;
-			break;
-		case INT:
-			getLabelFactory = GetCompositeLabelInt::new;
-			break;
-		case LONG:
-			getLabelFactory = GetCompositeLabelLong::new;
+			arrayFactory = pool::floats;
 			break;
 		default:
 			throw new IllegalArgumentException();
@@ -712,10 +527,10 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 		final int oc = 0;
 		final int sc = numChannels;
 
-		return ( access, min, size ) ->
+		return ( access, min, size, channels ) ->
 		{
+			// byte[], short[], int[], long[] (we only support IntegerType)
 			final Object data = ( ( ArrayDataAccess ) access ).getCurrentStorageArray();
-			final GetLabel input = getLabelFactory.apply( data );
 
 			final int ox = x.min( min );
 			final int oy = y.min( min );
@@ -728,29 +543,35 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 			final int st = t.size( size );
 
 			final int slicelength = sx * sy * sz;
-			final Object[] slicedata = new Object[ sc ];
-			for ( int dc = 0; dc < sc; ++dc )
-				slicedata[ dc ] = arrayFactory.apply( slicelength );
-			final SetLabel output = setLabelFactory.apply( slicedata );
-
-			if ( st == 1 )
-			{
-				for ( int i = 0; i < slicelength; ++i )
-					output.set( i, input.get( i ) );
-				for ( int dc = 0; dc < sc; ++dc )
-					slice.set( slicedata[ dc ], ox, oy, oz, oc + dc, ot, sx, sy, sz );
-			}
-			else
+			final Object slicedata = arrayFactory.apply( slicelength );
+			try
 			{
+				if ( indexed )
+				{
+					for ( int dt = 0; dt < st; ++dt )
+					{
+						LabelKernels.encodeIndexed( data, unsignedLabels, dt * slicelength, slicedata, slicelength );
+						slice.set( slicedata, ox, oy, oz, oc, ot + dt, sx, sy, sz );
+					}
+					return;
+				}
+
 				for ( int dt = 0; dt < st; ++dt )
 				{
-					final int srcpos = dt * slicelength;
-					for ( int i = 0; i < slicelength; ++i )
-						output.set( i, input.get( i + srcpos ) );
 					for ( int dc = 0; dc < sc; ++dc )
-						slice.set( slicedata[ dc ], ox, oy, oz, oc + dc, ot + dt, sx, sy, sz );
+					{
+						if ( channels == null || channels[ dc ] )
+						{
+							LabelKernels.encode( data, unsignedLabels, dt * slicelength, dc + 1, slicedata, slicelength );
+							slice.set( slicedata, ox, oy, oz, oc + dc, ot + dt, sx, sy, sz );
+						}
+					}
 				}
 			}
+			finally
+			{
+				pool.release( slicedata );
+			}
 		};
 	}
 
@@ -768,19 +589,23 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 	public Cell< A > get( final Long key ) throws Exception
 	{
 		final long index = key;
-		if ( written == null || written.contains( key ) )
+		if ( written == null || written.get( index ) )
 		{
 			final long[] cellMin = new long[ n ];
 			final int[] cellDims = new int[ n ];
 			grid.getCellDimensions( index, cellMin, cellDims );
+			if ( occupancy != null )
+				occupancy.ensureSeeded( index );
 			return new Cell<>(
 					cellDims,
 					cellMin,
-					volatileArraySource.get( cellMin, cellDims ) );
+					volatileArraySource.get( index, cellMin, cellDims ) );
 		}
 		else
 		{
 			final Cell< A > cell = backingLoader.get( key );
+			if ( inventory != null )
+				inventory.update( index, ( ( ArrayDataAccess ) cell.getData() ).getCurrentStorageArray() );
 			if ( persistOnLoad )
 				onRemovalImp( key, cell.getData() );
 			return cell;
@@ -807,6 +632,16 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 	public void onRemoval( final Long key, final A valueData )
 	{
 		onRemovalImp( key, valueData );
+		discard( key );
+	}
+
+	/**
+	 * Forget the label signature of a cell that has been removed from the
+	 * cache (without being written).
+	 */
+	protected void discard( final Long key )
+	{
+		signatures.remove( key );
 	}
 
 	private void onRemovalImp( final Long key, final A valueData )
@@ -815,11 +650,54 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 		final long[] cellMin = new long[ n ];
 		final int[] cellDims = new int[ n ];
 		grid.getCellDimensions( index, cellMin, cellDims );
+
 		try
 		{
-			volatileArraySink.put( valueData, cellMin, cellDims );
+			// With INDEXED layout, there is only one channel, which is always written.
+			LabelSignature after;
+			final boolean[] channels;
+			boolean complete = true;
+			if ( indexed )
+			{
+				after = null;
+				channels = null;
+			}
+			else
+			{
+				final Object labels = ( ( ArrayDataAccess ) valueData ).getCurrentStorageArray();
+				after = LabelSignature.of( labels, unsignedLabels, numChannels );
+				LabelSignature before = signatures.get( key );
+				if ( before == null && written != null && !written.get( index ) )
+					before = emptySignature;
+				channels = before == null ? null : before.changedChannels( after );
+
+				// Guessed channels were not loaded, so their voxels are
+				// missing from the cell. Writing any channel without merging
+				// them first could erase them in Imaris.
+				if ( occupancy != null && occupancy.hasGuesses( index ) )
+				{
+					if ( channels == null || anyChannel( channels ) )
+					{
+						final boolean[] conflicts = mergeGuessedChannels( index, labels, cellMin, cellDims );
+						after = LabelSignature.of( labels, unsignedLabels, numChannels );
+						if ( channels != null )
+							for ( int c = 0; c < numChannels; ++c )
+								channels[ c ] |= conflicts[ c ];
+					}
+					else
+						complete = false;
+				}
+			}
+
+			volatileArraySink.put( valueData, cellMin, cellDims, channels );
+			if ( occupancy != null && complete )
+				occupancy.record( index, after.counts );
 			if ( written != null )
-				written.add( key );
+				written.set( index );
+			if ( after != null )
+				signatures.put( key, after );
+			if ( inventory != null )
+				inventory.update( index, ( ( ArrayDataAccess ) valueData ).getCurrentStorageArray() );
 		}
 		catch ( Error error )
 		{
@@ -827,10 +705,60 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 		}
 	}
 
+	/**
+	 * Fetch the {@link LabelChannelOccupancy#isGuess guessed} channels of a
+	 * cell from Imaris, and merge them into the cell {@code labels}: Voxels
+	 * that are unlabeled in {@code labels} get the label of the channel.
+	 *
+	 * @return for each channel, whether it is non-zero in Imaris at voxels
+	 * that have another label in {@code labels}. Such channels must be written
+	 * (to clear these voxels), even if their signature did not change.
+	 */
+	private boolean[] mergeGuessedChannels( final long index, final Object labels, final long[] min, final int[] size ) throws Error
+	{
+		final SelectIntervalDimension x = selectIntervalDimension( mapDimensions[ 0 ] );
+		final SelectIntervalDimension y = selectIntervalDimension( mapDimensions[ 1 ] );
+		final SelectIntervalDimension z = selectIntervalDimension( mapDimensions[ 2 ] );
+		final SelectIntervalDimension t = selectIntervalDimension( mapDimensions[ 4 ] );
+
+		final int ox = x.min( min );
+		final int oy = y.min( min );
+		final int oz = z.min( min );
+		final int ot = t.min( min );
+
+		final int sx = x.size( size );
+		final int sy = y.size( size );
+		final int sz = z.size( size );
+		final int st = t.size( size );
+
+		final int slicelength = sx * sy * sz;
+		final boolean[] conflicts = new boolean[ numChannels ];
+		for ( int dc = 0; dc < numChannels; ++dc )
+		{
+			if ( !occupancy.isGuess( index, dc ) )
+				continue;
+			for ( int dt = 0; dt < st; ++dt )
+			{
+				final Object slicedata = guessedChannelSlice.get( ox, oy, oz, dc, ot + dt, 0, sx, sy, sz );
+				if ( LabelKernels.mergeUnlabeled( slicedata, labels, dt * slicelength, dc + 1, slicelength ) > 0 )
+					conflicts[ dc ] = true;
+			}
+		}
+		return conflicts;
+	}
+
+	private static boolean anyChannel( final boolean[] channels )
+	{
+		for ( final boolean channel : channels )
+			if ( channel )
+				return true;
+		return false;
+	}
+
 	@Override
 	public CompletableFuture< Void > persist( final Long key, final A valueData )
 	{
-		onRemoval( key, valueData );
+		onRemovalImp( key, valueData );
 		return CompletableFuture.completedFuture( null );
 	}
 
@@ -861,4 +789,62 @@ public class ImarisLabelCache< A > implements CacheRemover< Long, Cell< A >, A >
 
 	// TODO there should be a method to say that the image has been modified on the imaris side.
 	//  This would then clear the cache and mark all cells as written, so that they will be loaded from Imaris always.
+
+	/**
+	 * For each label {@code 1..numChannels} of a cell, the number of voxels
+	 * with that label, and an order-independent hash of their indices.
+	 */
+	private static final class LabelSignature
+	{
+		final long[] counts;
+
+		final long[] hashes;
+
+		private LabelSignature( final int numChannels )
+		{
+			counts = new long[ numChannels ];
+			hashes = new long[ numChannels ];
+		}
+
+		static LabelSignature empty( final int numChannels )
+		{
+			return new LabelSignature( numChannels );
+		}
+
+		/**
+		 * @param labels
+		 * 		{@code byte[]}, {@code short[]}, {@code int[]}, or {@code long[]} labels
+		 * @param unsigned
+		 * 		whether {@code byte[]} and {@code short[]} labels are unsigned
+		 */
+		static LabelSignature of( final Object labels, final boolean unsigned, final int numChannels )
+		{
+			final LabelSignature signature = new LabelSignature( numChannels );
+			LabelKernels.signature( labels, unsigned, signature.counts, signature.hashes );
+			return signature;
+		}
+
+		/**
+		 * Number of voxels with any label {@code 1..numChannels}.
+		 */
+		long numLabeled()
+		{
+			long sum = 0;
+			for ( final long count : counts )
+				sum += count;
+			return sum;
+		}
+
+		/**
+		 * Returns which channels differ between {@code this} and {@code
+		 * other}. Channels that are empty in both are unchanged.
+		 */
+		boolean[] changedChannels( final LabelSignature other )
+		{
+			final boolean[] changed = new boolean[ counts.length ];
+			for ( int c = 0; c < counts.length; ++c )
+				changed[ c ] = counts[ c ] != other.counts[ c ] || hashes[ c ] != other.hashes[ c ];
+			return changed;
+		}
+	}
 }
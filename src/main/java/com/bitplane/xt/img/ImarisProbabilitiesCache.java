@@ -31,13 +31,13 @@ package com.bitplane.xt.img;
 import Imaris.Error;
 import Imaris.IDataSetPrx;
 import Imaris.tType;
+import com.bitplane.xt.options.ImarisProbabilitiesOptions.Rounding;
+import com.bitplane.xt.util.ArrayPool;
+import com.bitplane.xt.util.AtomicBitmap;
 import com.bitplane.xt.util.MapDimensions.SelectIntervalDimension;
 import com.bitplane.xt.util.SetDataSubVolume;
 import com.bitplane.xt.util.GetDataSubVolume;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
 import java.util.function.IntFunction;
 import java.util.function.Predicate;
 import net.imglib2.cache.CacheLoader;
@@ -51,6 +51,7 @@ import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
 import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
 import net.imglib2.type.PrimitiveType;
+import net.imglib2.util.Intervals;
 
 import static com.bitplane.xt.util.MapDimensions.selectIntervalDimension;
 
@@ -106,18 +107,25 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 	private final boolean persistOnLoad;
 
 	/**
-	 * Contains the keys that have been stored to Imaris (via {@link #onRemoval}).
-	 * If a key is present in this set, the corresponding Cell is loaded from Imaris.
+	 * Marks the keys that have been stored to Imaris (via {@link #onRemoval}).
+	 * If the bit for a key is set, the corresponding Cell is loaded from Imaris.
 	 * Otherwise, it is obtained from the {@code backingLoader}.
 	 * <p>
 	 * If there is no {@code backingLoader}, this is {@code null}, and all Cells
 	 * are loaded from Imaris.
 	 */
-	// TODO
-	//  This should be eventually replaced by something with a smaller memory footprint,
-	//  for example a BitSet. But then we need to take care of concurrency ourselves, so...
-	private final Set< Long > written;
+	private final AtomicBitmap written;
 
+	/**
+	 * How probabilities are rounded when storing to UINT8 or UINT16 datasets.
+	 */
+	private final Rounding rounding;
+
+	/**
+	 * If not {@code null}, arrays for loaded cells are taken from this pool
+	 * (recycled arrays of evicted cells) instead of being allocated.
+	 */
+	private final ArrayPool cellArrayPool;
 
 	// TODO: into how many channels to split
 	private final int numChannels;
@@ -130,7 +138,19 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 			final CacheLoader< Long, Cell< A > > backingLoader,
 			final boolean persistOnLoad ) throws Error
 	{
-		this( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, false );
+		this( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, Rounding.TRUNCATE, false );
+	}
+
+	public ImarisProbabilitiesCache(
+			final IDataSetPrx dataset,
+			final PrimitiveType primitiveType, // primitive type underlying accesses
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< A > > backingLoader,
+			final boolean persistOnLoad,
+			final Rounding rounding ) throws Error
+	{
+		this( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, rounding, false );
 	}
 
 	protected ImarisProbabilitiesCache(
@@ -140,8 +160,25 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 			final CellGrid grid,
 			final CacheLoader< Long, Cell< A > > backingLoader,
 			final boolean persistOnLoad,
+			final Rounding rounding,
 			final boolean withDirtyFlag ) throws Error
 	{
+		this( dataset, primitiveType, mapDimensions, grid, backingLoader, persistOnLoad, rounding, null, withDirtyFlag );
+	}
+
+	protected ImarisProbabilitiesCache(
+			final IDataSetPrx dataset,
+			final PrimitiveType primitiveType, // primitive type underlying accesses
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< A > > backingLoader,
+			final boolean persistOnLoad,
+			final Rounding rounding,
+			final ArrayPool cellArrayPool,
+			final boolean withDirtyFlag ) throws Error
+	{
+		this.rounding = rounding;
+		this.cellArrayPool = cellArrayPool;
 		this.dataset = dataset;
 		datasetType = dataset.GetType();
 		numChannels = dataset.GetSizeC();
@@ -153,7 +190,7 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 		this.persistOnLoad = persistOnLoad;
 		volatileArraySource = volatileArraySource( withDirtyFlag );
 		volatileArraySink = volatileArraySink();
-		written = backingLoader == null ? null : ConcurrentHashMap.newKeySet();
+		written = backingLoader == null ? null : new AtomicBitmap( Intervals.numElements( grid.getGridDimensions() ) );
 	}
 
 	// ===================================================================
@@ -208,40 +245,17 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 
 		// creates output arrays (to be used by imglib)
 		// Object is float[] or double[] depending on primitiveType
+		// NB: decoding overwrites every element, so recycled arrays need not be cleared
 		final IntFunction< Object > arrayFactory;
-
-		// creates a GetProbability to read from input array (from imaris)
-		// Object is byte[], short[], float[] depending on datasetType
-		final Function< Object, GetProbability > getProbabilityFactory;
-
-		// creates a SetLabel to write to output array (created by arrayFactory)
-		final Function< Object, SetProbability > setProbabilityFactory;
-
+		final ArrayPool recycled = cellArrayPool;
 
 		switch ( primitiveType )
 		{
 		case FLOAT:
-			arrayFactory = float[]::new;
-			setProbabilityFactory = SetProbabilityFloat::new;
+			arrayFactory = recycled == null ? float[]::new : recycled::floats;
 			break;
 		case DOUBLE:
-			arrayFactory = double[]::new;
-			setProbabilityFactory = SetProbabilityDouble::new;
-			break;
-		default:
-			throw new IllegalArgumentException();
-		}
-
-		switch ( datasetType )
-		{
-		case eTypeUInt8:
-			getProbabilityFactory = GetProbabilityByte::new;
-			break;
-		case eTypeUInt16:
-			getProbabilityFactory = GetProbabilityShort::new;
-			break;
-		case eTypeFloat:
-			getProbabilityFactory = GetProbabilityFloat::new;
+			arrayFactory = recycled == null ? double[]::new : recycled::doubles;
 			break;
 		default:
 			throw new IllegalArgumentException();
@@ -257,6 +271,8 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 		final int sc = numChannels + 1;
 		// NB: we assume always oc == 0 and sc == img.dim(C). TODO: check this?
 
+		final ArrayPool pool = ArrayPool.getInstance();
+
 		return ( min, size ) -> {
 
 			final int ox = x.min( min );
@@ -271,7 +287,6 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 
 			final int slicelength = sx * sy * sz;
 			final Object data = arrayFactory.apply( sx * sy * sz * sc * st );
-			final SetProbability output = setProbabilityFactory.apply( data );
 
 			final int tstep;
 			final int cstep;
@@ -288,31 +303,31 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 				cstep = slicelength * st;
 			}
 
-			final GetProbability[] slices = new GetProbability[ sc - 1 ]; // (-1 because no slice for background)
-			for ( int dt = 0; dt < st; ++dt )
+			final Object[] slicedata = pool.objects( sc - 1 );
+			try
 			{
-				final int toffset = dt * tstep;
-
-				// get all sc - 1 slices from imaris (no slice for background)
-				for ( int dc = 0; dc < sc - 1; ++dc )
+				for ( int dt = 0; dt < st; ++dt )
 				{
-					final Object slicedata = slice.get( ox, oy, oz, oc + dc, ot + dt, 0, sx, sy, sz );
-					slices[ dc ] = getProbabilityFactory.apply( slicedata );
-				}
+					final int toffset = dt * tstep;
 
-				// iterate over XYZ and write sc channels at T=t
-				for ( int xyz = 0; xyz < slicelength; ++xyz )
-				{
-					float bg = 1f;
+					// get all sc - 1 slices from imaris (no slice for background)
 					for ( int dc = 0; dc < sc - 1; ++dc )
-					{
-						final float p = slices[ dc ].get( xyz );
-						output.set( toffset + xyz + ( dc + 1 ) * cstep, p );
-						bg -= p;
-					}
-					output.set( toffset + xyz, bg );
+						slicedata[ dc ] = slice.get( ox, oy, oz, oc + dc, ot + dt, 0, sx, sy, sz );
+
+					// decode slices and compute background channel at T=t,
+					// splitting large cells into chunks that are decoded in parallel
+					CellChunks.process( slicelength, sc, ( from, to ) -> {
+						for ( int dc = 0; dc < sc - 1; ++dc )
+							ProbabilityKernels.decode( slicedata[ dc ], from, data, toffset + ( dc + 1 ) * cstep + from, to - from );
+						ProbabilityKernels.background( data, toffset + from, cstep, sc - 1, to - from );
+						return 0;
+					} );
 				}
 			}
+			finally
+			{
+				pool.release( slicedata );
+			}
 			return data;
 		};
 	}
@@ -347,148 +362,6 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 			}
 	}
 
-	private interface GetProbability
-	{
-		float get( final int index );
-	}
-
-	private interface SetProbability
-	{
-		void set( final int index, final float value );
-	}
-
-	static class SetProbabilityByte implements SetProbability
-	{
-		private final byte[] output;
-
-		SetProbabilityByte( final Object output )
-		{
-			this.output = ( byte[] ) output;
-		}
-
-		@Override
-		public void set( final int index, final float value )
-		{
-			final int unsigned = Math.min( 255, Math.max( 0, ( int ) ( value * 255f ) ) );
-			output[ index ] = ( byte ) ( unsigned & 0xff );
-		}
-
-	}
-
-	static class SetProbabilityShort implements SetProbability
-	{
-		private final short[] output;
-
-		SetProbabilityShort( final Object output )
-		{
-			this.output = ( short[] ) output;
-		}
-
-		@Override
-		public void set( final int index, final float value )
-		{
-			final int unsigned = Math.min( 65535, Math.max( 0, ( int ) ( value * 65535f ) ) );
-			output[ index ] = ( short ) ( unsigned & 0xffff );
-		}
-	}
-
-	static class SetProbabilityFloat implements SetProbability
-	{
-		private final float[] output;
-
-		SetProbabilityFloat( final Object output )
-		{
-			this.output = ( float[] ) output;
-		}
-
-		@Override
-		public void set( final int index, final float value )
-		{
-			output[ index ] = value;
-		}
-	}
-
-	static class SetProbabilityDouble implements SetProbability
-	{
-		private final double[] output;
-
-		SetProbabilityDouble( final Object output )
-		{
-			this.output = ( double[] ) output;
-		}
-
-		@Override
-		public void set( final int index, final float value )
-		{
-			output[ index ] = value;
-		}
-	}
-
-	static class GetProbabilityByte implements GetProbability
-	{
-		private final byte[] input;
-
-		GetProbabilityByte( final Object input )
-		{
-			this.input = ( byte[] ) input;
-		}
-
-		@Override
-		public float get( final int index )
-		{
-			return ( 1f / 255f ) * ( input[ index ] & 0xff );
-		}
-	}
-
-	static class GetProbabilityShort implements GetProbability
-	{
-		private final short[] input;
-
-		GetProbabilityShort( final Object input )
-		{
-			this.input = ( short[] ) input;
-		}
-
-		@Override
-		public float get( final int index )
-		{
-			return ( 1f / 65535f ) * ( input[ index ] & 0xffff );
-		}
-	}
-
-	static class GetProbabilityFloat implements GetProbability
-	{
-		private final float[] input;
-
-		GetProbabilityFloat( final Object input )
-		{
-			this.input = ( float[] ) input;
-		}
-
-		@Override
-		public float get( final int index )
-		{
-			return input[ index ];
-		}
-	}
-
-	static class GetProbabilityDouble implements GetProbability
-	{
-		private final double[] input;
-
-		GetProbabilityDouble( final Object input )
-		{
-			this.input = ( double[] ) input;
-		}
-
-		@Override
-		public float get( final int index )
-		{
-			return ( float ) input[ index ];
-		}
-	}
-
-
 	// -------------------------------------------------------------------
 	//  Writing Imaris blocks as primitive arrays
 	// -------------------------------------------------------------------
@@ -525,39 +398,20 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 
 		// creates output arrays (to be send to Imaris)
 		// Object is byte[], short[], float[], depending on datasetType
+		// (temporary arrays are taken from, and returned to, the pool)
+		final ArrayPool pool = ArrayPool.getInstance();
 		final IntFunction< Object > arrayFactory;
 
-		// creates a GetProbability to read from ArrayDataAccess.getCurrentStorageArray() of primitiveType
-		// Object is float[], double[] depending on primitiveType
-		final Function< Object, GetProbability > getProbabilityFactory;
-
-		// creates a SetProbability to write to output array (created by arrayFactory)
-		final Function< Object, SetProbability > setProbabilityFactory;
-
 		switch ( datasetType )
 		{
 		case eTypeUInt8:
-			arrayFactory = byte[]::new;
-			setProbabilityFactory = SetProbabilityByte::new;
+			arrayFactory = pool::bytes;
 			break;
 		case eTypeUInt16:
-			arrayFactory = short[]::new;
-			setProbabilityFactory = SetProbabilityShort::new;
+			arrayFactory = pool::shorts;
 			break;
 		case eTypeFloat:
-			arrayFactory = float[]::new;
-			setProbabilityFactory = SetProbabilityFloat::new;
-			break;
-		default:
-			throw new IllegalArgumentException();
-		}
-		switch ( primitiveType )
-		{
-		case FLOAT:
-			getProbabilityFactory = GetProbabilityFloat::new;
-			break;
-		case DOUBLE:
-			getProbabilityFactory = GetProbabilityDouble::new;
+			arrayFactory = pool::floats;
 			break;
 		default:
 			throw new IllegalArgumentException();
@@ -576,8 +430,8 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 		{
 			try
 			{
+				// float[], double[] depending on primitiveType
 				final Object data = ( ( ArrayDataAccess ) access ).getCurrentStorageArray();
-				final GetProbability input = getProbabilityFactory.apply( data );
 
 				final int ox = x.min( min );
 				final int oy = y.min( min );
@@ -590,13 +444,6 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 				final int st = t.size( size );
 
 				final int slicelength = sx * sy * sz;
-				final Object[] slicedata = new Object[ sc - 1 ]; // (-1 because no slice for background)
-				final SetProbability[] slices = new SetProbability[ sc - 1 ];
-				for ( int dc = 0; dc < sc - 1; ++dc )
-				{
-					slicedata[ dc ] = arrayFactory.apply( slicelength );
-					slices[ dc ] = setProbabilityFactory.apply( slicedata[ dc ] );
-				}
 
 				final int tstep;
 				final int cstep;
@@ -613,24 +460,24 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 					cstep = slicelength * st;
 				}
 
-				for ( int dt = 0; dt < st; ++dt )
+				final Object slicedata = arrayFactory.apply( slicelength );
+				try
 				{
-					final int toffset = dt * tstep;
-
-					// fill all slices[] with source data (ignore background channel)
-					// iterate over XYZ and write sc-1 channels at T=t
-					for ( int xyz = 0; xyz < slicelength; ++xyz )
+					for ( int dt = 0; dt < st; ++dt )
 					{
+						final int toffset = dt * tstep;
+
+						// encode and send sc-1 channels at T=t (ignore background channel)
 						for ( int dc = 0; dc < sc - 1; ++dc )
 						{
-							final float p = input.get( toffset + xyz + ( dc + 1 ) * cstep );
-							slices[ dc ].set( xyz, p );
+							ProbabilityKernels.encode( data, toffset + ( dc + 1 ) * cstep, slicedata, slicelength, rounding );
+							slice.set( slicedata, ox, oy, oz, oc + dc, ot + dt, sx, sy, sz );
 						}
 					}
-
-					// send all slices[] to Imaris
-					for ( int dc = 0; dc < sc - 1; ++dc )
-						slice.set( slicedata[ dc ], ox, oy, oz, oc + dc, ot + dt, sx, sy, sz );
+				}
+				finally
+				{
+					pool.release( slicedata );
 				}
 			} catch ( Exception e )
 			{
@@ -653,7 +500,7 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 	public Cell< A > get( final Long key ) throws Exception
 	{
 		final long index = key;
-		if ( written == null || written.contains( key ) )
+		if ( written == null || written.get( index ) )
 		{
 			final long[] cellMin = new long[ n ];
 			final int[] cellDims = new int[ n ];
@@ -704,7 +551,7 @@ public class ImarisProbabilitiesCache< A > implements CacheRemover< Long, Cell<
 		{
 			volatileArraySink.put( valueData, cellMin, cellDims );
 			if ( written != null )
-				written.add( key );
+				written.set( index );
 		}
 		catch ( Error error )
 		{
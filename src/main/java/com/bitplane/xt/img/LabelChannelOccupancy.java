@@ -0,0 +1,373 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.img;
+
+import Imaris.Error;
+import Imaris.IDataSetPrx;
+import com.bitplane.xt.util.AtomicBitmap;
+import com.bitplane.xt.util.GetDataSubVolume;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Tracks for each cell of a label image, which label channels of the backing
+ * Imaris dataset are empty (all zero) within the cell. Channels that are known
+ * to be empty in a cell do not need to be fetched from Imaris when the cell is
+ * loaded.
+ * <p>
+ * Occupancy of a cell becomes known in two ways:
+ * <ul>
+ * <li>When the cell is written to Imaris, its occupancy is {@link #record
+ * recorded} exactly.</li>
+ * <li>Before a cell that has not been written is loaded, the occupancy of all
+ * cells in the same time slab is seeded from a low-resolution pyramid level:
+ * If a channel is all zero over (a slightly enlarged) footprint of the cell
+ * at the coarse level, it is assumed to be empty at full resolution. Seeding
+ * is optional, because it relies on the pyramid being up-to-date and on label
+ * voxels surviving the downsampling. In particular, very small labels may be
+ * averaged and rounded to zero at coarse levels.</li>
+ * </ul>
+ * Occupancy of cells that are not known is conservatively assumed to be
+ * non-empty in all channels.
+ * <p>
+ * Channels that are empty only according to the seed are {@link #isGuess
+ * guesses}. Their voxels may be missing from a loaded cell, so they must be
+ * fetched before any channel of the cell is written back (otherwise writing
+ * would erase voxels that were never loaded).
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Tobias Pietzsch
+ */
+final class LabelChannelOccupancy
+{
+	private final CellGrid grid;
+
+	private final long[] gridDimensions;
+
+	private final int numChannels;
+
+	/**
+	 * Maps Imaris dimension indices to imglib2 dimension indices.
+	 * (See {@link ImarisLabelCache}).
+	 */
+	private final int[] mapDimensions;
+
+	/**
+	 * The bit for {@code cell * numChannels + channel} is set if the channel
+	 * is (potentially) non-empty in the cell. Only meaningful if {@link
+	 * #known} is set for the cell.
+	 */
+	private final AtomicBitmap occupied;
+
+	/**
+	 * The bit for {@code cell} is set if the occupancy of the cell is known.
+	 */
+	private final AtomicBitmap known;
+
+	/**
+	 * The bit for {@code cell} is set if the occupancy of the cell has been
+	 * {@link #record recorded} exactly (as opposed to seeded).
+	 */
+	private final AtomicBitmap exact;
+
+	/**
+	 * The bit for a grid time index is set if the cells in this time slab have
+	 * been seeded from the pyramid. {@code null} if seeding is disabled.
+	 */
+	private final AtomicBitmap seeded;
+
+	private final GetDataSubVolume slice;
+
+	/**
+	 * The pyramid level used for seeding.
+	 */
+	private final int level;
+
+	/**
+	 * Size of the seeding {@code level}, in Imaris X,Y,Z.
+	 */
+	private final int[] levelSize;
+
+	/**
+	 * Size of full resolution level, in Imaris X,Y,Z.
+	 */
+	private final int[] fullSize;
+
+	/**
+	 * Downsampling factors of the seeding {@code level}, in Imaris X,Y,Z.
+	 */
+	private final double[] factors;
+
+	/**
+	 * @param seedFromPyramid
+	 * 		whether to seed occupancy of cells that have not been written from a
+	 * 		low-resolution pyramid level of the dataset.
+	 */
+	LabelChannelOccupancy(
+			final IDataSetPrx dataset,
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final int numChannels,
+			final boolean seedFromPyramid ) throws Error
+	{
+		this.grid = grid;
+		this.mapDimensions = mapDimensions;
+		this.numChannels = numChannels;
+		gridDimensions = grid.getGridDimensions();
+		final long numCells = Intervals.numElements( gridDimensions );
+		occupied = new AtomicBitmap( numCells * numChannels );
+		known = new AtomicBitmap( numCells );
+		exact = new AtomicBitmap( numCells );
+
+		final int[][] pyramidSizes = dataset.GetPyramidSizes();
+		fullSize = pyramidSizes[ 0 ];
+		level = seedFromPyramid ? seedingLevel( pyramidSizes ) : 0;
+		levelSize = pyramidSizes[ level ];
+		factors = new double[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+			factors[ d ] = ( double ) fullSize[ d ] / levelSize[ d ];
+
+		// Seeding from the full resolution level would transfer the whole dataset.
+		if ( level > 0 )
+		{
+			slice = GetDataSubVolume.forDataSet( dataset );
+			seeded = new AtomicBitmap( mapDimensions[ 4 ] < 0 ? 1 : gridDimensions[ mapDimensions[ 4 ] ] );
+		}
+		else
+		{
+			slice = null;
+			seeded = null;
+		}
+	}
+
+	/**
+	 * Returns {@code true} if {@code channel} is known to be empty in {@code cell}.
+	 */
+	boolean isEmpty( final long cell, final int channel )
+	{
+		return known.get( cell ) && !occupied.get( cell * numChannels + channel );
+	}
+
+	/**
+	 * Returns {@code true} if {@code channel} is assumed to be empty in {@code
+	 * cell} only because of seeding from the pyramid.
+	 */
+	boolean isGuess( final long cell, final int channel )
+	{
+		return known.get( cell ) && !exact.get( cell ) && !occupied.get( cell * numChannels + channel );
+	}
+
+	/**
+	 * Returns {@code true} if any channel is a {@link #isGuess guess} in
+	 * {@code cell}.
+	 */
+	boolean hasGuesses( final long cell )
+	{
+		if ( !known.get( cell ) || exact.get( cell ) )
+			return false;
+		for ( int c = 0; c < numChannels; ++c )
+			if ( !occupied.get( cell * numChannels + c ) )
+				return true;
+		return false;
+	}
+
+	/**
+	 * Record the exact occupancy of {@code cell}, after it has been written to
+	 * Imaris. All {@link #isGuess guessed} channels of the cell must have been
+	 * merged into the written data.
+	 *
+	 * @param counts
+	 * 		{@code counts[c]} is the number of non-zero voxels of channel {@code c} in {@code cell}.
+	 */
+	void record( final long cell, final long[] counts )
+	{
+		for ( int c = 0; c < numChannels; ++c )
+			occupied.set( cell * numChannels + c, counts[ c ] > 0 );
+		exact.set( cell );
+		known.set( cell );
+	}
+
+	/**
+	 * Make sure that occupancy of {@code cell} is seeded from the pyramid (if
+	 * seeding is enabled and the occupancy of the cell is not known already).
+	 */
+	void ensureSeeded( final long cell ) throws Error
+	{
+		if ( seeded == null || known.get( cell ) )
+			return;
+
+		final int td = mapDimensions[ 4 ];
+		final long[] gridPosition = new long[ grid.numDimensions() ];
+		grid.getCellGridPositionFlat( cell, gridPosition );
+		final int slab = td < 0 ? 0 : ( int ) gridPosition[ td ];
+		if ( seeded.get( slab ) )
+			return;
+
+		synchronized ( this )
+		{
+			if ( !seeded.get( slab ) )
+			{
+				seed( slab );
+				seeded.set( slab );
+			}
+		}
+	}
+
+	/**
+	 * Select the coarsest pyramid level, where a single voxel is not larger
+	 * than a cell along any dimension. (Then a coarse voxel overlaps at most 2
+	 * cells along each dimension.)
+	 */
+	private int seedingLevel( final int[][] pyramidSizes )
+	{
+		int best = 0;
+		for ( int l = 1; l < pyramidSizes.length; ++l )
+		{
+			boolean fits = true;
+			for ( int d = 0; d < 3; ++d )
+			{
+				final double factor = ( double ) pyramidSizes[ 0 ][ d ] / pyramidSizes[ l ][ d ];
+				if ( factor > cellDimension( d ) )
+					fits = false;
+			}
+			if ( fits )
+				best = l;
+		}
+		return best;
+	}
+
+	/**
+	 * Cell size along Imaris dimension {@code d}.
+	 */
+	private int cellDimension( final int d )
+	{
+		final int gd = mapDimensions[ d ];
+		return gd < 0 ? 1 : grid.cellDimension( gd );
+	}
+
+	/**
+	 * Grid size along Imaris dimension {@code d}.
+	 */
+	private int gridDimension( final int d )
+	{
+		final int gd = mapDimensions[ d ];
+		return gd < 0 ? 1 : ( int ) gridDimensions[ gd ];
+	}
+
+	private void seed( final int slab ) throws Error
+	{
+		final int sx = levelSize[ 0 ];
+		final int sy = levelSize[ 1 ];
+		final int sz = levelSize[ 2 ];
+
+		// For each coarse voxel coordinate, the range of cell grid coordinates
+		// that its (enlarged) full-resolution footprint overlaps.
+		final int[][] gmin = new int[ 3 ][];
+		final int[][] gmax = new int[ 3 ][];
+		for ( int d = 0; d < 3; ++d )
+		{
+			final int size = levelSize[ d ];
+			final int cellSize = cellDimension( d );
+			final int lastCell = gridDimension( d ) - 1;
+			gmin[ d ] = new int[ size ];
+			gmax[ d ] = new int[ size ];
+			for ( int i = 0; i < size; ++i )
+			{
+				// Enlarge the footprint by one coarse voxel on both sides, to
+				// account for downsampling filter support and rounding.
+				final long min = ( long ) Math.floor( ( i - 1 ) * factors[ d ] );
+				final long max = ( long ) Math.ceil( ( i + 2 ) * factors[ d ] ) - 1;
+				gmin[ d ][ i ] = ( int ) Math.max( 0, min / cellSize );
+				gmax[ d ][ i ] = ( int ) Math.min( lastCell, Math.max( 0, max ) / cellSize );
+			}
+		}
+
+		final int td = mapDimensions[ 4 ];
+		final int tmin = td < 0 ? 0 : slab * grid.cellDimension( td );
+		final int tmax = td < 0 ? 0 : ( int ) Math.min( grid.imgDimension( td ), tmin + grid.cellDimension( td ) ) - 1;
+
+		final long[] gridPosition = new long[ grid.numDimensions() ];
+		if ( td >= 0 )
+			gridPosition[ td ] = slab;
+
+		for ( int t = tmin; t <= tmax; ++t )
+		{
+			for ( int c = 0; c < numChannels; ++c )
+			{
+				final Object data = slice.get( 0, 0, 0, c, t, level, sx, sy, sz );
+				int i = 0;
+				for ( int z = 0; z < sz; ++z )
+					for ( int y = 0; y < sy; ++y )
+						for ( int x = 0; x < sx; ++x, ++i )
+							if ( isNonZero( data, i ) )
+								for ( int gz = gmin[ 2 ][ z ]; gz <= gmax[ 2 ][ z ]; ++gz )
+									for ( int gy = gmin[ 1 ][ y ]; gy <= gmax[ 1 ][ y ]; ++gy )
+										for ( int gx = gmin[ 0 ][ x ]; gx <= gmax[ 0 ][ x ]; ++gx )
+										{
+											setGridPosition( gridPosition, gx, gy, gz );
+											final long cell = IntervalIndexer.positionToIndex( gridPosition, gridDimensions );
+											occupied.set( cell * numChannels + c );
+										}
+			}
+		}
+
+		final int gsx = gridDimension( 0 );
+		final int gsy = gridDimension( 1 );
+		final int gsz = gridDimension( 2 );
+		for ( int gz = 0; gz < gsz; ++gz )
+			for ( int gy = 0; gy < gsy; ++gy )
+				for ( int gx = 0; gx < gsx; ++gx )
+				{
+					setGridPosition( gridPosition, gx, gy, gz );
+					known.set( IntervalIndexer.positionToIndex( gridPosition, gridDimensions ) );
+				}
+	}
+
+	private void setGridPosition( final long[] gridPosition, final int gx, final int gy, final int gz )
+	{
+		if ( mapDimensions[ 0 ] >= 0 )
+			gridPosition[ mapDimensions[ 0 ] ] = gx;
+		if ( mapDimensions[ 1 ] >= 0 )
+			gridPosition[ mapDimensions[ 1 ] ] = gy;
+		if ( mapDimensions[ 2 ] >= 0 )
+			gridPosition[ mapDimensions[ 2 ] ] = gz;
+	}
+
+	private static boolean isNonZero( final Object data, final int i )
+	{
+		if ( data instanceof byte[] )
+			return ( ( byte[] ) data )[ i ] != 0;
+		else if ( data instanceof short[] )
+			return ( ( short[] ) data )[ i ] != 0;
+		else
+			return ( ( float[] ) data )[ i ] != 0;
+	}
+}
@@ -0,0 +1,566 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.img;
+
+import com.bitplane.xt.util.AtomicBitmap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import net.imglib2.Interval;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Intervals;
+
+/**
+ * Index of the labels present in each cell of an {@link ImarisCachedLabelImg}.
+ * <p>
+ * The labels of a cell are inventoried when the cell is loaded (from Imaris,
+ * or from the backing loader of a new image), and updated when the cell is
+ * written to Imaris. Note that the inventory therefore reflects the cells as
+ * they were last loaded or written. Modifications of cells in memory are only
+ * reflected after they have been {@link ImarisImg#persist() persisted}.
+ * <p>
+ * The inventory answers queries like "which cells contain label {@code k}",
+ * so that object-level analyses can restrict themselves to the covering
+ * cells. Cells that have not been inventoried yet may contain any label. For
+ * complete answers, all cells must be inventoried, for example by loading a
+ * previously {@link #save saved} inventory.
+ * <p>
+ * Labels are interpreted as signed or unsigned values of the underlying
+ * primitive type, depending on the label type of the image.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Tobias Pietzsch
+ */
+public class LabelInventory
+{
+	private static final int MAGIC = 0x4c424c49; // "LBLI"
+
+	private static final int VERSION = 1;
+
+	private final CellGrid grid;
+
+	private final long numCells;
+
+	private final boolean unsigned;
+
+	/**
+	 * Maps cell index to sorted array of (non-zero) labels in the cell.
+	 */
+	private final ConcurrentHashMap< Long, long[] > cellLabels = new ConcurrentHashMap<>();
+
+	/**
+	 * Maps label to the set of cells that contain the label. Labels that are
+	 * not contained in any cell are removed.
+	 */
+	private final ConcurrentHashMap< Long, CellSet > labelCells = new ConcurrentHashMap<>();
+
+	/**
+	 * Marks cells that have been inventoried.
+	 */
+	private final AtomicBitmap inventoried;
+
+	/**
+	 * @param grid
+	 * 		cell grid of the label image
+	 * @param unsigned
+	 * 		whether labels are unsigned values of the underlying primitive type
+	 */
+	LabelInventory( final CellGrid grid, final boolean unsigned )
+	{
+		this.grid = grid;
+		this.unsigned = unsigned;
+		numCells = Intervals.numElements( grid.getGridDimensions() );
+		inventoried = new AtomicBitmap( numCells );
+	}
+
+	public CellGrid getCellGrid()
+	{
+		return grid;
+	}
+
+	/**
+	 * Returns {@code true} if the labels of {@code cell} are known.
+	 */
+	public boolean isInventoried( final long cell )
+	{
+		return inventoried.get( cell );
+	}
+
+	/**
+	 * Returns {@code true} if all cells have been inventoried.
+	 */
+	public boolean isComplete()
+	{
+		return inventoried.nextClearBit( 0 ) < 0;
+	}
+
+	/**
+	 * Get the sorted (non-zero) labels in {@code cell}, or {@code null} if
+	 * {@code cell} has not been inventoried.
+	 */
+	public long[] labelsIn( final long cell )
+	{
+		final long[] labels = cellLabels.get( cell );
+		return labels == null ? null : labels.clone();
+	}
+
+	/**
+	 * Get the sorted labels that occur in at least one inventoried cell.
+	 */
+	public long[] labels()
+	{
+		return labelCells.keySet().stream()
+				.mapToLong( Long::longValue )
+				.sorted()
+				.toArray();
+	}
+
+	/**
+	 * Get the indices of the cells that may contain {@code label}: The cells
+	 * that are known to contain {@code label}, and the cells that have not
+	 * been inventoried yet.
+	 *
+	 * @return sorted cell indices
+	 */
+	public long[] cellsContaining( final long label )
+	{
+		final long[] known = cellsKnownToContain( label );
+		long[] result = new long[ Math.max( 16, known.length ) ];
+		int size = 0;
+		int i = 0;
+		long unknown = inventoried.nextClearBit( 0 );
+		while ( i < known.length || unknown >= 0 )
+		{
+			final long cell;
+			if ( unknown < 0 || ( i < known.length && known[ i ] < unknown ) )
+			{
+				cell = known[ i++ ];
+			}
+			else
+			{
+				cell = unknown;
+				if ( i < known.length && known[ i ] == unknown )
+					++i;
+				unknown = unknown + 1 < numCells ? inventoried.nextClearBit( unknown + 1 ) : -1;
+			}
+			if ( size == result.length )
+				result = Arrays.copyOf( result, 2 * size );
+			result[ size++ ] = cell;
+		}
+		return Arrays.copyOf( result, size );
+	}
+
+	/**
+	 * Get the indices of the inventoried cells that contain {@code label}.
+	 *
+	 * @return sorted cell indices
+	 */
+	public long[] cellsKnownToContain( final long label )
+	{
+		final CellSet cells = labelCells.get( label );
+		return cells == null ? new long[ 0 ] : cells.toArray();
+	}
+
+	/**
+	 * Get the interval covered by {@code cell} in the label image.
+	 */
+	public Interval cellInterval( final long cell )
+	{
+		final int n = grid.numDimensions();
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		grid.getCellDimensions( cell, cellMin, cellDims );
+		final long[] cellSize = new long[ n ];
+		Arrays.setAll( cellSize, d -> cellDims[ d ] );
+		return Intervals.createMinSize( concat( cellMin, cellSize ) );
+	}
+
+	/**
+	 * Save the inventory to {@code file}.
+	 * <p>
+	 * The saved inventory is only valid as long as the Imaris dataset is not
+	 * modified otherwise. Call {@link ImarisImg#persist()} before saving, to
+	 * make sure that modified cells are reflected.
+	 */
+	public void save( final Path file ) throws IOException
+	{
+		try ( final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new GZIPOutputStream( Files.newOutputStream( file ) ) ) ) )
+		{
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			writeGrid( out );
+			final Long[] cells = cellLabels.keySet().toArray( new Long[ 0 ] );
+			out.writeInt( cells.length );
+			for ( final Long cell : cells )
+			{
+				final long[] labels = cellLabels.get( cell );
+				out.writeLong( cell );
+				out.writeInt( labels.length );
+				for ( final long label : labels )
+					out.writeLong( label );
+			}
+		}
+	}
+
+	/**
+	 * Load an inventory that was {@link #save saved} earlier for the same
+	 * dataset. Cells that are already inventoried are not modified.
+	 *
+	 * @throws IOException
+	 * 		if the file cannot be read, or was saved for an image with a different cell grid.
+	 */
+	public void load( final Path file ) throws IOException
+	{
+		try ( final DataInputStream in = new DataInputStream( new BufferedInputStream( new GZIPInputStream( Files.newInputStream( file ) ) ) ) )
+		{
+			if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+				throw new IOException( "not a label inventory: " + file );
+			checkGrid( in );
+			final int numEntries = in.readInt();
+			for ( int i = 0; i < numEntries; ++i )
+			{
+				final long cell = in.readLong();
+				final long[] labels = new long[ in.readInt() ];
+				for ( int j = 0; j < labels.length; ++j )
+					labels[ j ] = in.readLong();
+				if ( cell < 0 || cell >= numCells )
+					throw new IOException( "invalid cell index " + cell + " in " + file );
+				cellLabels.computeIfAbsent( cell, k -> {
+					addCell( k, labels );
+					return labels;
+				} );
+				inventoried.set( cell );
+			}
+		}
+	}
+
+	/**
+	 * Update the inventory of {@code cell}.
+	 *
+	 * @param labels
+	 * 		{@code byte[]}, {@code short[]}, {@code int[]}, or {@code long[]} labels of the cell
+	 */
+	void update( final long cell, final Object labels )
+	{
+		final long[] current = distinctLabels( labels, unsigned );
+		cellLabels.compute( cell, ( k, previous ) -> {
+			if ( previous != null )
+				for ( final long label : previous )
+					if ( Arrays.binarySearch( current, label ) < 0 )
+						removeCell( k, label );
+			addCell( k, current );
+			return current;
+		} );
+		inventoried.set( cell );
+	}
+
+	private void addCell( final long cell, final long[] labels )
+	{
+		for ( final long label : labels )
+			labelCells.compute( label, ( l, cells ) -> {
+				final CellSet result = cells == null ? new CellSet( numCells ) : cells;
+				result.add( cell );
+				return result;
+			} );
+	}
+
+	private void removeCell( final long cell, final long label )
+	{
+		labelCells.computeIfPresent( label, ( l, cells ) -> {
+			cells.remove( cell );
+			return cells.isEmpty() ? null : cells;
+		} );
+	}
+
+	private void writeGrid( final DataOutputStream out ) throws IOException
+	{
+		final int n = grid.numDimensions();
+		out.writeInt( n );
+		for ( int d = 0; d < n; ++d )
+		{
+			out.writeLong( grid.imgDimension( d ) );
+			out.writeInt( grid.cellDimension( d ) );
+		}
+	}
+
+	private void checkGrid( final DataInputStream in ) throws IOException
+	{
+		final int n = in.readInt();
+		boolean matches = n == grid.numDimensions();
+		for ( int d = 0; d < n; ++d )
+		{
+			final long imgDimension = in.readLong();
+			final int cellDimension = in.readInt();
+			matches &= d < grid.numDimensions()
+					&& imgDimension == grid.imgDimension( d )
+					&& cellDimension == grid.cellDimension( d );
+		}
+		if ( !matches )
+			throw new IOException( "label inventory was saved for a different cell grid" );
+	}
+
+	private static long[] concat( final long[] a, final long[] b )
+	{
+		final long[] ab = Arrays.copyOf( a, a.length + b.length );
+		System.arraycopy( b, 0, ab, a.length, b.length );
+		return ab;
+	}
+
+	/**
+	 * Get the sorted distinct non-zero values in {@code labels}.
+	 * <p>
+	 * Consecutive voxels often have the same label, so only label changes are
+	 * added to a small open-addressing hash set.
+	 */
+	static long[] distinctLabels( final Object labels, final boolean unsigned )
+	{
+		final LongSet set = new LongSet();
+		long previous = 0;
+		if ( labels instanceof byte[] )
+		{
+			final int mask = unsigned ? 0xff : -1;
+			for ( final byte v : ( byte[] ) labels )
+			{
+				final long label = v & mask;
+				if ( label != previous )
+					set.add( previous = label );
+			}
+		}
+		else if ( labels instanceof short[] )
+		{
+			final int mask = unsigned ? 0xffff : -1;
+			for ( final short v : ( short[] ) labels )
+			{
+				final long label = v & mask;
+				if ( label != previous )
+					set.add( previous = label );
+			}
+		}
+		else if ( labels instanceof int[] )
+		{
+			final long mask = unsigned ? 0xffffffffL : -1L;
+			for ( final int v : ( int[] ) labels )
+			{
+				final long label = v & mask;
+				if ( label != previous )
+					set.add( previous = label );
+			}
+		}
+		else if ( labels instanceof long[] )
+		{
+			for ( final long label : ( long[] ) labels )
+				if ( label != previous )
+					set.add( previous = label );
+		}
+		else
+			throw new IllegalArgumentException();
+		final long[] result = set.toArray();
+		Arrays.sort( result );
+		return result;
+	}
+
+	/**
+	 * Set of cell indices that contain a particular label.
+	 * <p>
+	 * Most labels occur in only a few cells, so the set starts out as a sorted
+	 * array of cell indices. It is converted to an {@link AtomicBitmap} when
+	 * that is more compact, that is, when it contains more than {@link
+	 * #MAX_SPARSE_SIZE} and more than {@code 1/64} of all cells.
+	 */
+	static final class CellSet
+	{
+		/**
+		 * Maximum number of cells in the sparse representation (regardless
+		 * of the total number of cells). A bitmap segment takes as much
+		 * memory as a sparse array of this size.
+		 */
+		static final int MAX_SPARSE_SIZE = AtomicBitmap.SEGMENT_SIZE / 64;
+
+		private final long numCells;
+
+		private final long maxSparseSize;
+
+		/**
+		 * Sorted cell indices in {@code sparse[0..size)}. {@code null} if
+		 * the set is {@link #dense}.
+		 */
+		private long[] sparse = new long[ 4 ];
+
+		/**
+		 * Bitmap of cell indices. {@code null} while the set is sparse.
+		 */
+		private AtomicBitmap dense;
+
+		private int size;
+
+		CellSet( final long numCells )
+		{
+			this.numCells = numCells;
+			maxSparseSize = Math.max( MAX_SPARSE_SIZE, numCells / 64 );
+		}
+
+		synchronized void add( final long cell )
+		{
+			if ( dense != null )
+			{
+				if ( dense.set( cell ) )
+					++size;
+				return;
+			}
+
+			int i = Arrays.binarySearch( sparse, 0, size, cell );
+			if ( i >= 0 )
+				return;
+			i = -i - 1;
+			if ( size == sparse.length )
+				sparse = Arrays.copyOf( sparse, 2 * size );
+			System.arraycopy( sparse, i, sparse, i + 1, size - i );
+			sparse[ i ] = cell;
+			++size;
+
+			if ( size > maxSparseSize )
+			{
+				dense = new AtomicBitmap( numCells );
+				for ( int j = 0; j < size; ++j )
+					dense.set( sparse[ j ] );
+				sparse = null;
+			}
+		}
+
+		synchronized void remove( final long cell )
+		{
+			if ( dense != null )
+			{
+				if ( dense.clear( cell ) )
+					--size;
+				return;
+			}
+
+			final int i = Arrays.binarySearch( sparse, 0, size, cell );
+			if ( i < 0 )
+				return;
+			System.arraycopy( sparse, i + 1, sparse, i, size - i - 1 );
+			--size;
+		}
+
+		synchronized boolean isEmpty()
+		{
+			return size == 0;
+		}
+
+		synchronized boolean isDense()
+		{
+			return dense != null;
+		}
+
+		/**
+		 * Get the sorted cell indices.
+		 */
+		synchronized long[] toArray()
+		{
+			if ( dense == null )
+				return Arrays.copyOf( sparse, size );
+
+			final long[] cells = new long[ size ];
+			long cell = dense.nextSetBit( 0 );
+			for ( int i = 0; i < size; ++i )
+			{
+				cells[ i ] = cell;
+				cell = cell + 1 < numCells ? dense.nextSetBit( cell + 1 ) : -1;
+			}
+			return cells;
+		}
+	}
+
+	/**
+	 * Minimal open-addressing hash set of non-zero {@code long}s.
+	 */
+	private static final class LongSet
+	{
+		private long[] table = new long[ 16 ];
+
+		private int size;
+
+		void add( final long value )
+		{
+			if ( value == 0 )
+				return;
+			int mask = table.length - 1;
+			int i = hash( value ) & mask;
+			while ( table[ i ] != 0 )
+			{
+				if ( table[ i ] == value )
+					return;
+				i = ( i + 1 ) & mask;
+			}
+			table[ i ] = value;
+			if ( ++size * 2 > table.length )
+			{
+				final long[] old = table;
+				table = new long[ 2 * old.length ];
+				mask = table.length - 1;
+				for ( final long v : old )
+				{
+					if ( v != 0 )
+					{
+						int j = hash( v ) & mask;
+						while ( table[ j ] != 0 )
+							j = ( j + 1 ) & mask;
+						table[ j ] = v;
+					}
+				}
+			}
+		}
+
+		long[] toArray()
+		{
+			final long[] values = new long[ size ];
+			int j = 0;
+			for ( final long v : table )
+				if ( v != 0 )
+					values[ j++ ] = v;
+			return values;
+		}
+
+		private static int hash( final long value )
+		{
+			final long h = value * 0x9E3779B97F4A7C15L;
+			return ( int ) ( h ^ ( h >>> 32 ) );
+		}
+	}
+}
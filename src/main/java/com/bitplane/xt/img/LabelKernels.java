@@ -0,0 +1,556 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.img;
+
+import com.bitplane.xt.util.ArrayPool;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * Kernels for converting between the one-hot channel representation of
+ * labels on the Imaris side, and the composite integer label representation
+ * on the ImgLib2 side. (And, for {@link
+ * com.bitplane.xt.options.ImarisLabelOptions.LabelLayout#INDEXED INDEXED}
+ * label layout, between a single indexed channel and composite labels.)
+ * <p>
+ * Decoding runs channel-major over the flattened channel slices: "first
+ * non-zero channel wins" is implemented by merging channels in reverse
+ * order, so that lower channels overwrite higher ones. Voxels are processed
+ * in tiles of {@link #TILE_SIZE}. For each tile, channel values are widened
+ * into an {@code int[]} scratch array, merged into an {@code int[]} tile of
+ * labels with a branch-free mask, and finally narrowed into the output
+ * array. This keeps every inner loop monomorphic and operating on a single
+ * element width, which is what the JIT needs to auto-vectorize it.
+ *
+ * @author Tobias Pietzsch
+ */
+final class LabelKernels
+{
+	/**
+	 * Number of voxels per tile. The label and scratch tiles ({@code 2 *
+	 * TILE_SIZE} ints) should comfortably fit into L1 cache.
+	 */
+	static final int TILE_SIZE = 2048;
+
+	/**
+	 * Scratch tiles are taken from (and returned to) this pool.
+	 */
+	private static final ArrayPool pool = ArrayPool.getInstance();
+
+	/**
+	 * Decode label channels into composite labels.
+	 * <p>
+	 * For each index {@code i} in {@code [from, to)}, {@code output[outOffset
+	 * + i]} is set to {@code c + 1}, where {@code c} is the first channel
+	 * with {@code channels[c][i] != 0}, or {@code 0} if all channels are zero
+	 * at {@code i}. {@code null} elements of {@code channels} are treated as
+	 * all-zero channels.
+	 *
+	 * @param channels
+	 * 		{@code byte[]}, {@code short[]}, or {@code float[]} channel slices (from Imaris)
+	 * @param output
+	 * 		{@code byte[]}, {@code short[]}, {@code int[]}, or {@code long[]} labels (for ImgLib2)
+	 *
+	 * @return the number of non-zero channel values in {@code [from, to)},
+	 * summed over all channels. (If this is larger than the number of non-zero
+	 * labels, then some voxels were non-zero in more than one channel.)
+	 */
+	static long decode( final Object[] channels, final Object output, final int outOffset, final int from, final int to )
+	{
+		long count = 0;
+		final int[] labels = pool.ints( TILE_SIZE );
+		final int[] values = pool.ints( TILE_SIZE );
+		for ( int tileFrom = from; tileFrom < to; tileFrom += TILE_SIZE )
+		{
+			final int length = Math.min( TILE_SIZE, to - tileFrom );
+			Arrays.fill( labels, 0, length, 0 );
+			for ( int c = channels.length - 1; c >= 0; --c )
+			{
+				final Object channel = channels[ c ];
+				if ( channel == null )
+					continue;
+				widen( channel, tileFrom, values, length );
+				count += countNonZero( values, length );
+				merge( values, labels, c + 1, length );
+			}
+			narrow( labels, output, outOffset + tileFrom, length );
+		}
+		pool.release( labels );
+		pool.release( values );
+		return count;
+	}
+
+	/**
+	 * Encode composite labels into a label channel.
+	 * <p>
+	 * For each index {@code i} in {@code [0, length)}, {@code channel[i]} is
+	 * set to {@code 1} if {@code labels[srcPos + i] == label}, and to {@code
+	 * 0} otherwise.
+	 *
+	 * @param labels
+	 * 		{@code byte[]}, {@code short[]}, {@code int[]}, or {@code long[]} labels (from ImgLib2)
+	 * @param unsigned
+	 * 		whether {@code byte[]} and {@code short[]} labels are unsigned
+	 * @param channel
+	 * 		{@code byte[]}, {@code short[]}, or {@code float[]} channel slice (for Imaris)
+	 */
+	static void encode( final Object labels, final boolean unsigned, final int srcPos, final int label, final Object channel, final int length )
+	{
+		final int[] values = pool.ints( TILE_SIZE );
+		for ( int tileFrom = 0; tileFrom < length; tileFrom += TILE_SIZE )
+		{
+			final int tileLength = Math.min( TILE_SIZE, length - tileFrom );
+			widenLabels( labels, unsigned, srcPos + tileFrom, values, tileLength );
+			select( values, label, tileLength );
+			narrowChannel( values, channel, tileFrom, tileLength );
+		}
+		pool.release( values );
+	}
+
+	/**
+	 * Merge a label channel into composite labels, where they are unlabeled.
+	 * <p>
+	 * For each index {@code i} in {@code [0, length)} with {@code channel[i]
+	 * != 0}, {@code labels[outOffset + i]} is set to {@code label} if it is
+	 * {@code 0}.
+	 *
+	 * @param channel
+	 * 		{@code byte[]}, {@code short[]}, or {@code float[]} channel slice (from Imaris)
+	 * @param labels
+	 * 		{@code byte[]}, {@code short[]}, {@code int[]}, or {@code long[]} labels (for ImgLib2)
+	 *
+	 * @return the number of indices with {@code channel[i] != 0}, where
+	 * {@code labels[outOffset + i]} is neither {@code 0} nor {@code label}.
+	 */
+	static long mergeUnlabeled( final Object channel, final Object labels, final int outOffset, final int label, final int length )
+	{
+		long conflicts = 0;
+		final int[] values = pool.ints( TILE_SIZE );
+		for ( int tileFrom = 0; tileFrom < length; tileFrom += TILE_SIZE )
+		{
+			final int tileLength = Math.min( TILE_SIZE, length - tileFrom );
+			widen( channel, tileFrom, values, tileLength );
+			conflicts += fillUnlabeled( values, labels, outOffset + tileFrom, label, tileLength );
+		}
+		pool.release( values );
+		return conflicts;
+	}
+
+	/**
+	 * Decode an indexed label channel into composite labels.
+	 * <p>
+	 * For each index {@code i} in {@code [from, to)}, {@code output[outOffset
+	 * + i]} is set to {@code channel[i]}. Channel values are interpreted as
+	 * unsigned for {@code byte[]} and {@code short[]}, and truncated for
+	 * {@code float[]}.
+	 *
+	 * @param channel
+	 * 		{@code byte[]}, {@code short[]}, or {@code float[]} channel slice (from Imaris)
+	 * @param output
+	 * 		{@code byte[]}, {@code short[]}, {@code int[]}, or {@code long[]} labels (for ImgLib2)
+	 */
+	static void decodeIndexed( final Object channel, final Object output, final int outOffset, final int from, final int to )
+	{
+		final int[] labels = pool.ints( TILE_SIZE );
+		for ( int tileFrom = from; tileFrom < to; tileFrom += TILE_SIZE )
+		{
+			final int length = Math.min( TILE_SIZE, to - tileFrom );
+			widenIndexed( channel, tileFrom, labels, length );
+			narrow( labels, output, outOffset + tileFrom, length );
+		}
+		pool.release( labels );
+	}
+
+	/**
+	 * Encode composite labels into an indexed label channel.
+	 * <p>
+	 * For each index {@code i} in {@code [0, length)}, {@code channel[i]} is
+	 * set to {@code labels[srcPos + i]}.
+	 *
+	 * @param labels
+	 * 		{@code byte[]}, {@code short[]}, {@code int[]}, or {@code long[]} labels (from ImgLib2)
+	 * @param unsigned
+	 * 		whether {@code byte[]} and {@code short[]} labels are unsigned
+	 * @param channel
+	 * 		{@code byte[]}, {@code short[]}, or {@code float[]} channel slice (for Imaris)
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if a label cannot be represented by the channel type (that is, if
+	 * 		it is negative, or larger than {@link #maxIndexedLabel}).
+	 */
+	static void encodeIndexed( final Object labels, final boolean unsigned, final int srcPos, final Object channel, final int length )
+	{
+		final int maxLabel = maxIndexedLabel( channel );
+		final int[] values = pool.ints( TILE_SIZE );
+		try
+		{
+			for ( int tileFrom = 0; tileFrom < length; tileFrom += TILE_SIZE )
+			{
+				final int tileLength = Math.min( TILE_SIZE, length - tileFrom );
+				widenLabels( labels, unsigned, srcPos + tileFrom, values, tileLength );
+				for ( int i = 0; i < tileLength; ++i )
+				{
+					final int v = values[ i ];
+					if ( v < 0 || v > maxLabel )
+						throw new IllegalArgumentException( "label at index " + ( srcPos + tileFrom + i ) + " is outside of the range [0, " + maxLabel + "] that can be stored in the INDEXED label channel" );
+				}
+				narrowChannel( values, channel, tileFrom, tileLength );
+			}
+		}
+		finally
+		{
+			pool.release( values );
+		}
+	}
+
+	/**
+	 * Largest label that can be represented in an indexed {@code channel}.
+	 */
+	static int maxIndexedLabel( final Object channel )
+	{
+		if ( channel instanceof byte[] )
+			return 0xff;
+		else if ( channel instanceof short[] )
+			return 0xffff;
+		else if ( channel instanceof float[] )
+			return 1 << 24;
+		else
+			throw new IllegalArgumentException();
+	}
+
+	/**
+	 * Compute a signature of the voxel set of each label in {@code labels}.
+	 * For every label {@code l} in {@code 1..counts.length}, {@code counts[l
+	 * - 1]} is set to the number of voxels with label {@code l}, and {@code
+	 * hashes[l - 1]} to an order-independent hash of their indices. Other
+	 * values do not correspond to a channel and are ignored.
+	 * <p>
+	 * If the signature of a label is the same for two versions of a cell, the
+	 * corresponding label channel is (with very high probability) unchanged.
+	 *
+	 * @param labels
+	 * 		{@code byte[]}, {@code short[]}, {@code int[]}, or {@code long[]} labels (from ImgLib2)
+	 * @param unsigned
+	 * 		whether {@code byte[]} and {@code short[]} labels are unsigned
+	 */
+	static void signature( final Object labels, final boolean unsigned, final long[] counts, final long[] hashes )
+	{
+		final int numChannels = counts.length;
+		Arrays.fill( counts, 0 );
+		Arrays.fill( hashes, 0 );
+		final int[] values = pool.ints( TILE_SIZE );
+		final int size = Array.getLength( labels );
+		for ( int tileFrom = 0; tileFrom < size; tileFrom += TILE_SIZE )
+		{
+			final int length = Math.min( TILE_SIZE, size - tileFrom );
+			widenLabels( labels, unsigned, tileFrom, values, length );
+			for ( int i = 0; i < length; ++i )
+			{
+				final int label = values[ i ];
+				if ( label > 0 && label <= numChannels )
+				{
+					++counts[ label - 1 ];
+					hashes[ label - 1 ] += mix( tileFrom + i );
+				}
+			}
+		}
+		pool.release( values );
+	}
+
+	/**
+	 * Copy {@code length} values starting at {@code srcPos} from {@code
+	 * channel} into {@code values}. The copied values are not meaningful,
+	 * except that they are {@code 0} if and only if the channel value is
+	 * {@code 0}.
+	 */
+	private static void widen( final Object channel, final int srcPos, final int[] values, final int length )
+	{
+		if ( channel instanceof byte[] )
+		{
+			final byte[] in = ( byte[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				values[ i ] = in[ srcPos + i ];
+		}
+		else if ( channel instanceof short[] )
+		{
+			final short[] in = ( short[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				values[ i ] = in[ srcPos + i ];
+		}
+		else if ( channel instanceof float[] )
+		{
+			// shift out the sign bit, so that -0f counts as zero (and NaN as non-zero)
+			final float[] in = ( float[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				values[ i ] = Float.floatToRawIntBits( in[ srcPos + i ] ) << 1;
+		}
+		else
+			throw new IllegalArgumentException();
+	}
+
+	/**
+	 * Set {@code labels[i] = label} where {@code values[i] != 0}.
+	 */
+	private static void merge( final int[] values, final int[] labels, final int label, final int length )
+	{
+		for ( int i = 0; i < length; ++i )
+		{
+			final int v = values[ i ];
+			final int mask = ( v | -v ) >> 31; // -1 if v != 0, else 0
+			labels[ i ] = ( labels[ i ] & ~mask ) | ( label & mask );
+		}
+	}
+
+	private static int countNonZero( final int[] values, final int length )
+	{
+		int count = 0;
+		for ( int i = 0; i < length; ++i )
+		{
+			final int v = values[ i ];
+			count += ( v | -v ) >>> 31; // 1 if v != 0, else 0
+		}
+		return count;
+	}
+
+	/**
+	 * Copy {@code length} labels starting at {@code srcPos} from {@code
+	 * labels} into {@code values}. {@code byte[]} and {@code short[]} labels
+	 * are masked if {@code unsigned}, and sign-extended otherwise. Labels
+	 * that do not fit into a non-negative {@code int} (negative labels, {@code
+	 * int[]} labels of unsigned types {@code >= 2^31}, and {@code long[]}
+	 * labels {@code >= 2^31}) become negative. In particular, they never
+	 * match a valid label.
+	 */
+	private static void widenLabels( final Object labels, final boolean unsigned, final int srcPos, final int[] values, final int length )
+	{
+		if ( labels instanceof byte[] )
+		{
+			final byte[] in = ( byte[] ) labels;
+			final int mask = unsigned ? 0xff : -1;
+			for ( int i = 0; i < length; ++i )
+				values[ i ] = in[ srcPos + i ] & mask;
+		}
+		else if ( labels instanceof short[] )
+		{
+			final short[] in = ( short[] ) labels;
+			final int mask = unsigned ? 0xffff : -1;
+			for ( int i = 0; i < length; ++i )
+				values[ i ] = in[ srcPos + i ] & mask;
+		}
+		else if ( labels instanceof int[] )
+			System.arraycopy( labels, srcPos, values, 0, length );
+		else if ( labels instanceof long[] )
+		{
+			final long[] in = ( long[] ) labels;
+			for ( int i = 0; i < length; ++i )
+			{
+				final long v = in[ srcPos + i ];
+				values[ i ] = v >= 0 && v <= Integer.MAX_VALUE ? ( int ) v : -1;
+			}
+		}
+		else
+			throw new IllegalArgumentException();
+	}
+
+	/**
+	 * Copy {@code length} values starting at {@code srcPos} from an indexed
+	 * label {@code channel} into {@code values}.
+	 */
+	private static void widenIndexed( final Object channel, final int srcPos, final int[] values, final int length )
+	{
+		if ( channel instanceof byte[] )
+		{
+			final byte[] in = ( byte[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				values[ i ] = in[ srcPos + i ] & 0xff;
+		}
+		else if ( channel instanceof short[] )
+		{
+			final short[] in = ( short[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				values[ i ] = in[ srcPos + i ] & 0xffff;
+		}
+		else if ( channel instanceof float[] )
+		{
+			final float[] in = ( float[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				values[ i ] = ( int ) in[ srcPos + i ];
+		}
+		else
+			throw new IllegalArgumentException();
+	}
+
+	/**
+	 * Set {@code values[i] = 1} where {@code values[i] == label}, else {@code 0}.
+	 */
+	private static void select( final int[] values, final int label, final int length )
+	{
+		for ( int i = 0; i < length; ++i )
+		{
+			final int d = values[ i ] ^ label;
+			values[ i ] = ~( d | -d ) >>> 31; // 1 if d == 0, else 0
+		}
+	}
+
+	private static void narrowChannel( final int[] values, final Object channel, final int destPos, final int length )
+	{
+		if ( channel instanceof byte[] )
+		{
+			final byte[] out = ( byte[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				out[ destPos + i ] = ( byte ) values[ i ];
+		}
+		else if ( channel instanceof short[] )
+		{
+			final short[] out = ( short[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				out[ destPos + i ] = ( short ) values[ i ];
+		}
+		else if ( channel instanceof float[] )
+		{
+			final float[] out = ( float[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				out[ destPos + i ] = values[ i ];
+		}
+		else
+			throw new IllegalArgumentException();
+	}
+
+	/**
+	 * Set {@code labels[destPos + i] = label} where {@code values[i] != 0} and
+	 * {@code labels[destPos + i] == 0}. Returns the number of indices where
+	 * {@code values[i] != 0} and {@code labels[destPos + i]} is another label.
+	 * (Only runs when writing cells with guessed channels, so this is not
+	 * tuned like the other kernels.)
+	 */
+	private static int fillUnlabeled( final int[] values, final Object labels, final int destPos, final int label, final int length )
+	{
+		int conflicts = 0;
+		if ( labels instanceof byte[] )
+		{
+			final byte[] out = ( byte[] ) labels;
+			final byte l = ( byte ) label;
+			for ( int i = 0; i < length; ++i )
+			{
+				if ( values[ i ] == 0 )
+					continue;
+				final byte v = out[ destPos + i ];
+				if ( v == 0 )
+					out[ destPos + i ] = l;
+				else if ( v != l )
+					++conflicts;
+			}
+		}
+		else if ( labels instanceof short[] )
+		{
+			final short[] out = ( short[] ) labels;
+			final short l = ( short ) label;
+			for ( int i = 0; i < length; ++i )
+			{
+				if ( values[ i ] == 0 )
+					continue;
+				final short v = out[ destPos + i ];
+				if ( v == 0 )
+					out[ destPos + i ] = l;
+				else if ( v != l )
+					++conflicts;
+			}
+		}
+		else if ( labels instanceof int[] )
+		{
+			final int[] out = ( int[] ) labels;
+			for ( int i = 0; i < length; ++i )
+			{
+				if ( values[ i ] == 0 )
+					continue;
+				final int v = out[ destPos + i ];
+				if ( v == 0 )
+					out[ destPos + i ] = label;
+				else if ( v != label )
+					++conflicts;
+			}
+		}
+		else if ( labels instanceof long[] )
+		{
+			final long[] out = ( long[] ) labels;
+			for ( int i = 0; i < length; ++i )
+			{
+				if ( values[ i ] == 0 )
+					continue;
+				final long v = out[ destPos + i ];
+				if ( v == 0 )
+					out[ destPos + i ] = label;
+				else if ( v != label )
+					++conflicts;
+			}
+		}
+		else
+			throw new IllegalArgumentException();
+		return conflicts;
+	}
+
+	/**
+	 * SplitMix64 finalizer.
+	 */
+	private static long mix( final long index )
+	{
+		long z = index + 0x9E3779B97F4A7C15L;
+		z = ( z ^ ( z >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+		z = ( z ^ ( z >>> 27 ) ) * 0x94D049BB133111EBL;
+		return z ^ ( z >>> 31 );
+	}
+
+	private static void narrow( final int[] labels, final Object output, final int destPos, final int length )
+	{
+		if ( output instanceof byte[] )
+		{
+			final byte[] out = ( byte[] ) output;
+			for ( int i = 0; i < length; ++i )
+				out[ destPos + i ] = ( byte ) labels[ i ];
+		}
+		else if ( output instanceof short[] )
+		{
+			final short[] out = ( short[] ) output;
+			for ( int i = 0; i < length; ++i )
+				out[ destPos + i ] = ( short ) labels[ i ];
+		}
+		else if ( output instanceof int[] )
+			System.arraycopy( labels, 0, output, destPos, length );
+		else if ( output instanceof long[] )
+		{
+			final long[] out = ( long[] ) output;
+			for ( int i = 0; i < length; ++i )
+				out[ destPos + i ] = labels[ i ];
+		}
+		else
+			throw new IllegalArgumentException();
+	}
+
+	private LabelKernels() {}
+}
@@ -0,0 +1,249 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.img;
+
+import Imaris.Error;
+import Imaris.IDataSetPrx;
+import Imaris.tType;
+import com.bitplane.xt.options.ImarisLabelOptions.LabelLayout;
+import com.bitplane.xt.util.BoundedTaskExecutor;
+import com.bitplane.xt.util.GetDataSubVolume;
+import com.bitplane.xt.util.SetDataSubVolume;
+
+/**
+ * Converts label datasets between {@link LabelLayout#ONE_HOT ONE_HOT} layout
+ * (one Imaris channel per label) and {@link LabelLayout#INDEXED INDEXED}
+ * layout (label values in a single Imaris channel).
+ * <p>
+ * Conversion streams block by block: The source dataset is read in chunks that
+ * are aligned with its Imaris block size (per timepoint), each chunk is
+ * converted and written to the target dataset. Chunks are processed on {@code
+ * numThreads} threads, with at most {@code maxInFlight} chunks pending at any
+ * time.
+ * <p>
+ * Source and target dataset must have the same size in X, Y, Z, T. The
+ * target dataset is typically created with {@link
+ * com.bitplane.xt.util.ImarisUtils#createDataset ImarisUtils.createDataset}.
+ * As with {@link com.bitplane.xt.util.DatasetBlockWriter DatasetBlockWriter},
+ * the target dataset is modified directly, bypassing any {@link ImarisImg}
+ * that was created on it.
+ *
+ * @author Tobias Pietzsch
+ */
+public class LabelLayoutConverter
+{
+	private final int numThreads;
+
+	private final int maxInFlight;
+
+	/**
+	 * Create a {@code LabelLayoutConverter} using one thread per available
+	 * processor, with at most two chunks per thread in flight.
+	 */
+	public LabelLayoutConverter()
+	{
+		this( Runtime.getRuntime().availableProcessors(), 2 * Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * @param numThreads
+	 * 		how many threads to use for converting chunks
+	 * @param maxInFlight
+	 * 		maximum number of chunks that are converted at any time
+	 */
+	public LabelLayoutConverter( final int numThreads, final int maxInFlight )
+	{
+		this.numThreads = numThreads;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Convert {@code ONE_HOT} labels in {@code source} to {@code INDEXED}
+	 * labels in {@code target}, with default settings.
+	 *
+	 * @see #convertToIndexed(IDataSetPrx, IDataSetPrx)
+	 */
+	public static void toIndexed( final IDataSetPrx source, final IDataSetPrx target ) throws Error, InterruptedException
+	{
+		new LabelLayoutConverter().convertToIndexed( source, target );
+	}
+
+	/**
+	 * Convert {@code INDEXED} labels in {@code source} to {@code ONE_HOT}
+	 * labels in {@code target}, with default settings.
+	 *
+	 * @see #convertToOneHot(IDataSetPrx, IDataSetPrx)
+	 */
+	public static void toOneHot( final IDataSetPrx source, final IDataSetPrx target ) throws Error, InterruptedException
+	{
+		new LabelLayoutConverter().convertToOneHot( source, target );
+	}
+
+	/**
+	 * Convert {@code ONE_HOT} labels in {@code source} to {@code INDEXED}
+	 * labels in {@code target}.
+	 * <p>
+	 * {@code target} must have 1 channel, and its type must be able to
+	 * represent labels up to the number of channels of {@code source}. If a
+	 * voxel is non-zero in several {@code source} channels, the first channel
+	 * wins.
+	 */
+	public void convertToIndexed( final IDataSetPrx source, final IDataSetPrx target ) throws Error, InterruptedException
+	{
+		final int[] sourceDims = dimensions( source );
+		final int[] targetDims = dimensions( target );
+		checkDimensions( sourceDims, targetDims );
+		if ( targetDims[ 3 ] != 1 )
+			throw new IllegalArgumentException( "INDEXED target dataset must have 1 channel (not " + targetDims[ 3 ] + ")" );
+		final tType targetType = target.GetType();
+		final int numLabels = sourceDims[ 3 ];
+		if ( numLabels > LabelKernels.maxIndexedLabel( newArray( targetType, 0 ) ) )
+			throw new IllegalArgumentException( "target dataset type " + targetType + " cannot represent " + numLabels + " labels" );
+
+		final GetDataSubVolume get = GetDataSubVolume.forDataSet( source );
+		final SetDataSubVolume set = SetDataSubVolume.forDataSet( target, targetType );
+		convert( source, sourceDims, ( x, y, z, t, sx, sy, sz ) -> {
+			final int size = sx * sy * sz;
+			final Object[] channels = new Object[ numLabels ];
+			for ( int c = 0; c < numLabels; ++c )
+				channels[ c ] = get.get( x, y, z, c, t, 0, sx, sy, sz );
+			final int[] labels = new int[ size ];
+			LabelKernels.decode( channels, labels, 0, 0, size );
+			final Object data = newArray( targetType, size );
+			LabelKernels.encodeIndexed( labels, false, 0, data, size );
+			set.set( data, x, y, z, 0, t, sx, sy, sz );
+		} );
+	}
+
+	/**
+	 * Convert {@code INDEXED} labels in {@code source} to {@code ONE_HOT}
+	 * labels in {@code target}.
+	 * <p>
+	 * {@code source} must have 1 channel. Labels that are larger than the
+	 * number of channels of {@code target} are dropped.
+	 */
+	public void convertToOneHot( final IDataSetPrx source, final IDataSetPrx target ) throws Error, InterruptedException
+	{
+		final int[] sourceDims = dimensions( source );
+		final int[] targetDims = dimensions( target );
+		checkDimensions( sourceDims, targetDims );
+		if ( sourceDims[ 3 ] != 1 )
+			throw new IllegalArgumentException( "INDEXED source dataset must have 1 channel (not " + sourceDims[ 3 ] + ")" );
+		final tType targetType = target.GetType();
+		final int numLabels = targetDims[ 3 ];
+
+		final GetDataSubVolume get = GetDataSubVolume.forDataSet( source );
+		final SetDataSubVolume set = SetDataSubVolume.forDataSet( target, targetType );
+		convert( source, sourceDims, ( x, y, z, t, sx, sy, sz ) -> {
+			final int size = sx * sy * sz;
+			final int[] labels = new int[ size ];
+			LabelKernels.decodeIndexed( get.get( x, y, z, 0, t, 0, sx, sy, sz ), labels, 0, 0, size );
+			final Object data = newArray( targetType, size );
+			for ( int c = 0; c < numLabels; ++c )
+			{
+				LabelKernels.encode( labels, false, 0, c + 1, data, size );
+				set.set( data, x, y, z, c, t, sx, sy, sz );
+			}
+		} );
+	}
+
+	@FunctionalInterface
+	private interface ChunkConverter
+	{
+		void convert( int x, int y, int z, int t, int sx, int sy, int sz ) throws Error;
+	}
+
+	/**
+	 * Run {@code converter} for every block-aligned chunk of {@code source}.
+	 */
+	private void convert( final IDataSetPrx source, final int[] dims, final ChunkConverter converter ) throws Error, InterruptedException
+	{
+		final int[] blockSize = source.GetPyramidBlockSizes()[ 0 ];
+		final int bx = blockSize[ 0 ];
+		final int by = blockSize[ 1 ];
+		final int bz = blockSize[ 2 ];
+
+		try ( final BoundedTaskExecutor executor = new BoundedTaskExecutor( "imaris-label-converter", numThreads, maxInFlight ) )
+		{
+			for ( int t = 0; t < dims[ 4 ]; ++t )
+			{
+				for ( int z = 0; z < dims[ 2 ]; z += bz )
+				{
+					for ( int y = 0; y < dims[ 1 ]; y += by )
+					{
+						for ( int x = 0; x < dims[ 0 ]; x += bx )
+						{
+							final int ox = x;
+							final int oy = y;
+							final int oz = z;
+							final int ot = t;
+							final int sx = Math.min( bx, dims[ 0 ] - x );
+							final int sy = Math.min( by, dims[ 1 ] - y );
+							final int sz = Math.min( bz, dims[ 2 ] - z );
+							executor.submit( () -> converter.convert( ox, oy, oz, ot, sx, sy, sz ) );
+						}
+					}
+				}
+			}
+			executor.awaitCompletion( Error.class );
+		}
+	}
+
+	private static int[] dimensions( final IDataSetPrx dataset ) throws Error
+	{
+		return new int[] {
+				dataset.GetSizeX(),
+				dataset.GetSizeY(),
+				dataset.GetSizeZ(),
+				dataset.GetSizeC(),
+				dataset.GetSizeT() };
+	}
+
+	private static void checkDimensions( final int[] sourceDims, final int[] targetDims )
+	{
+		for ( final int d : new int[] { 0, 1, 2, 4 } )
+			if ( sourceDims[ d ] != targetDims[ d ] )
+				throw new IllegalArgumentException( "source and target dataset dimensions do not match" );
+	}
+
+	private static Object newArray( final tType datasetType, final int size )
+	{
+		switch ( datasetType )
+		{
+		case eTypeUInt8:
+			return new byte[ size ];
+		case eTypeUInt16:
+			return new short[ size ];
+		case eTypeFloat:
+			return new float[ size ];
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+}
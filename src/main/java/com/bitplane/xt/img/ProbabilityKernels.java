@@ -0,0 +1,221 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.img;
+
+import com.bitplane.xt.options.ImarisProbabilitiesOptions.Rounding;
+import java.util.Arrays;
+
+/**
+ * Bulk kernels for converting between probability channels on the Imaris side
+ * (UINT8, UINT16 scaled to [0, 1], or FLOAT, without background channel) and
+ * probabilities on the ImgLib2 side (FLOAT or DOUBLE, with background
+ * channel).
+ * <p>
+ * All kernels process whole contiguous slices. Every loop is specialized for
+ * one combination of input and output primitive type, and has no calls or
+ * data-dependent branches in its body, so that it is auto-vectorized by the
+ * JIT.
+ *
+ * @author Tobias Pietzsch
+ */
+final class ProbabilityKernels
+{
+	/**
+	 * Decode a probability slice from Imaris.
+	 * <p>
+	 * For each index {@code i} in {@code [0, length)}, {@code
+	 * output[destPos + i]} is set to {@code channel[srcPos + i]}, scaled from
+	 * {@code [0, 255]} or {@code [0, 65535]} to {@code [0, 1]} for {@code
+	 * byte[]} or {@code short[]} channels, respectively.
+	 *
+	 * @param channel
+	 * 		{@code byte[]}, {@code short[]}, or {@code float[]} slice (from Imaris)
+	 * @param output
+	 * 		{@code float[]} or {@code double[]} probabilities (for ImgLib2)
+	 */
+	static void decode( final Object channel, final int srcPos, final Object output, final int destPos, final int length )
+	{
+		if ( channel instanceof byte[] && output instanceof float[] )
+		{
+			final byte[] in = ( byte[] ) channel;
+			final float[] out = ( float[] ) output;
+			for ( int i = 0; i < length; ++i )
+				out[ destPos + i ] = ( 1f / 255f ) * ( in[ srcPos + i ] & 0xff );
+		}
+		else if ( channel instanceof byte[] && output instanceof double[] )
+		{
+			final byte[] in = ( byte[] ) channel;
+			final double[] out = ( double[] ) output;
+			for ( int i = 0; i < length; ++i )
+				out[ destPos + i ] = ( 1f / 255f ) * ( in[ srcPos + i ] & 0xff );
+		}
+		else if ( channel instanceof short[] && output instanceof float[] )
+		{
+			final short[] in = ( short[] ) channel;
+			final float[] out = ( float[] ) output;
+			for ( int i = 0; i < length; ++i )
+				out[ destPos + i ] = ( 1f / 65535f ) * ( in[ srcPos + i ] & 0xffff );
+		}
+		else if ( channel instanceof short[] && output instanceof double[] )
+		{
+			final short[] in = ( short[] ) channel;
+			final double[] out = ( double[] ) output;
+			for ( int i = 0; i < length; ++i )
+				out[ destPos + i ] = ( 1f / 65535f ) * ( in[ srcPos + i ] & 0xffff );
+		}
+		else if ( channel instanceof float[] && output instanceof float[] )
+		{
+			final float[] in = ( float[] ) channel;
+			final float[] out = ( float[] ) output;
+			for ( int i = 0; i < length; ++i )
+				out[ destPos + i ] = in[ srcPos + i ];
+		}
+		else if ( channel instanceof float[] && output instanceof double[] )
+		{
+			final float[] in = ( float[] ) channel;
+			final double[] out = ( double[] ) output;
+			for ( int i = 0; i < length; ++i )
+				out[ destPos + i ] = in[ srcPos + i ];
+		}
+		else
+			throw new IllegalArgumentException();
+	}
+
+	/**
+	 * Compute the background channel from the other channels.
+	 * <p>
+	 * For each index {@code i} in {@code [0, length)}, {@code
+	 * output[destPos + i]} is set to {@code 1 - sum_c output[destPos + c *
+	 * cstep + i]}, where {@code c = 1..numClasses}. This is computed
+	 * channel-major, that is, by subtracting whole channel slices from the
+	 * background slice.
+	 *
+	 * @param output
+	 * 		{@code float[]} or {@code double[]} probabilities (for ImgLib2)
+	 * @param cstep
+	 * 		offset between channel slices in {@code output}
+	 * @param numClasses
+	 * 		number of channels, excluding background
+	 */
+	static void background( final Object output, final int destPos, final int cstep, final int numClasses, final int length )
+	{
+		if ( output instanceof float[] )
+		{
+			final float[] out = ( float[] ) output;
+			Arrays.fill( out, destPos, destPos + length, 1f );
+			for ( int c = 1; c <= numClasses; ++c )
+			{
+				final int srcPos = destPos + c * cstep;
+				for ( int i = 0; i < length; ++i )
+					out[ destPos + i ] -= out[ srcPos + i ];
+			}
+		}
+		else if ( output instanceof double[] )
+		{
+			final double[] out = ( double[] ) output;
+			Arrays.fill( out, destPos, destPos + length, 1.0 );
+			for ( int c = 1; c <= numClasses; ++c )
+			{
+				final int srcPos = destPos + c * cstep;
+				for ( int i = 0; i < length; ++i )
+					out[ destPos + i ] -= out[ srcPos + i ];
+			}
+		}
+		else
+			throw new IllegalArgumentException();
+	}
+
+	/**
+	 * Encode a probability slice for Imaris.
+	 * <p>
+	 * For each index {@code i} in {@code [0, length)}, {@code channel[i]} is
+	 * set to {@code input[srcPos + i]}. For {@code byte[]} and {@code short[]}
+	 * channels, {@code [0, 1]} is scaled to {@code [0, 255]} or {@code [0,
+	 * 65535]} respectively, rounded, and clamped.
+	 *
+	 * @param input
+	 * 		{@code float[]} or {@code double[]} probabilities (from ImgLib2)
+	 * @param channel
+	 * 		{@code byte[]}, {@code short[]}, or {@code float[]} slice (for Imaris)
+	 * @param rounding
+	 * 		how to round scaled values for {@code byte[]} and {@code short[]} channels
+	 */
+	static void encode( final Object input, final int srcPos, final Object channel, final int length, final Rounding rounding )
+	{
+		// NB: values are clamped to >= 0 after rounding, so adding 0.5 and
+		// truncating is round-to-nearest for all values that survive clamping.
+		final float bias = rounding == Rounding.NEAREST ? 0.5f : 0f;
+		if ( input instanceof float[] && channel instanceof byte[] )
+		{
+			final float[] in = ( float[] ) input;
+			final byte[] out = ( byte[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				out[ i ] = ( byte ) Math.min( 255, Math.max( 0, ( int ) ( in[ srcPos + i ] * 255f + bias ) ) );
+		}
+		else if ( input instanceof float[] && channel instanceof short[] )
+		{
+			final float[] in = ( float[] ) input;
+			final short[] out = ( short[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				out[ i ] = ( short ) Math.min( 65535, Math.max( 0, ( int ) ( in[ srcPos + i ] * 65535f + bias ) ) );
+		}
+		else if ( input instanceof float[] && channel instanceof float[] )
+		{
+			final float[] in = ( float[] ) input;
+			final float[] out = ( float[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				out[ i ] = in[ srcPos + i ];
+		}
+		else if ( input instanceof double[] && channel instanceof byte[] )
+		{
+			final double[] in = ( double[] ) input;
+			final byte[] out = ( byte[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				out[ i ] = ( byte ) Math.min( 255, Math.max( 0, ( int ) ( ( float ) in[ srcPos + i ] * 255f + bias ) ) );
+		}
+		else if ( input instanceof double[] && channel instanceof short[] )
+		{
+			final double[] in = ( double[] ) input;
+			final short[] out = ( short[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				out[ i ] = ( short ) Math.min( 65535, Math.max( 0, ( int ) ( ( float ) in[ srcPos + i ] * 65535f + bias ) ) );
+		}
+		else if ( input instanceof double[] && channel instanceof float[] )
+		{
+			final double[] in = ( double[] ) input;
+			final float[] out = ( float[] ) channel;
+			for ( int i = 0; i < length; ++i )
+				out[ i ] = ( float ) in[ srcPos + i ];
+		}
+		else
+			throw new IllegalArgumentException();
+	}
+
+	private ProbabilityKernels() {}
+}
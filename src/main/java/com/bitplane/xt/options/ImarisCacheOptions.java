@@ -31,6 +31,7 @@ package com.bitplane.xt.options;
 import com.bitplane.xt.img.ImarisImg;
 import com.bitplane.xt.img.ImarisCachedCellImg;
 import com.bitplane.xt.img.ImarisCachedCellImgFactory;
+import com.bitplane.xt.util.RequestPolicy;
 import java.util.function.BiConsumer;
 import net.imglib2.cache.img.CellLoader;
 import org.scijava.optional.Options;
@@ -127,6 +128,207 @@ public interface ImarisCacheOptions< T > extends Options< T >
 		return setValue( "persistOnLoad", persistOnLoad );
 	}
 
+	/**
+	 * Specify how many arrays of evicted cells should be kept for recycling.
+	 * If this is {@code > 0}, the primitive arrays of <em>clean</em> cells
+	 * that are evicted from the memory cache are put into a bounded pool
+	 * (per array type and length), and loading new cells fills pooled arrays
+	 * instead of allocating new ones. This reduces the allocation rate and GC
+	 * pressure when many cells are loaded and evicted, e.g., when panning
+	 * through a large image.
+	 * <p>
+	 * An evicted array is only recycled after the cell's access has been
+	 * garbage-collected, so accessors (e.g., a {@code RandomAccess} or {@code
+	 * Cursor}) that are still positioned in an evicted cell are not affected.
+	 * Arrays of dirty cells are never recycled. Recycling only has an effect
+	 * for writable images with {@link
+	 * net.imglib2.cache.img.optional.AccessOptions#dirtyAccesses dirty
+	 * accesses}, and only for cells that are assembled from several Imaris
+	 * slices (i.e., cells with more than one channel or time point, and label
+	 * and probability images). This is {@code 0} (no recycling) by default.
+	 *
+	 * @param maxRecycledCellArrays
+	 * 		maximum number of evicted cell arrays (per size) to keep for
+	 * 		recycling.
+	 */
+	default T maxRecycledCellArrays( final int maxRecycledCellArrays )
+	{
+		return setValue( "maxRecycledCellArrays", maxRecycledCellArrays );
+	}
+
+	/**
+	 * Specify how many ICE connections to use for transferring blocks from/to
+	 * Imaris. With more than one connection, large transfers (e.g., persisting
+	 * modified blocks) do not block other requests queued behind them on the
+	 * same connection.
+	 * <p>
+	 * If this is {@code > 1}, one connection is reserved for loading blocks of
+	 * volatile images (for display in BigDataViewer), and all other requests
+	 * are distributed round-robin over the remaining connections. Connections
+	 * are shared by all images of the same Imaris application.
+	 * <p>
+	 * This is {@code 1} (a single connection) by default.
+	 *
+	 * @param numConnections
+	 * 		number of ICE connections to use.
+	 */
+	default T numConnections( final int numConnections )
+	{
+		return setValue( "numConnections", numConnections );
+	}
+
+	/**
+	 * Specify whether to use ICE protocol compression for transferring
+	 * blocks from/to Imaris. This is worthwhile if Imaris runs on a different
+	 * host. Label and mask data, in particular, compress very well.
+	 * <ul>
+	 * <li>{@link Compression#OFF OFF}: Never compress.</li>
+	 * <li>{@link Compression#ON ON}: Always compress requests and replies.</li>
+	 * <li>{@link Compression#AUTO AUTO}: Measure the time per voxel of
+	 * compressed and uncompressed transfers, and compress only if this is
+	 * faster. The measurement is repeated periodically, to adapt to changing
+	 * data and network conditions.</li>
+	 * </ul>
+	 * Note, that ICE uses bzip2 compression, and that compression only takes
+	 * effect if the Imaris server supports it.
+	 * <p>
+	 * This is {@code OFF} by default.
+	 *
+	 * @param compression
+	 * 		whether to compress block transfers.
+	 */
+	default T compression( final Compression compression )
+	{
+		return setValue( "compression", compression );
+	}
+
+	/**
+	 * Set a deadline for each request for loading a block from Imaris.
+	 * Requests that take longer fail with an {@code
+	 * Ice.InvocationTimeoutException} (and are retried, see {@link
+	 * #maxRequestRetries}). Requests for writing blocks to Imaris have no
+	 * deadline, because a failed write would lose the modified block.
+	 * <p>
+	 * This is {@code -1} (no deadline) by default.
+	 *
+	 * @param requestTimeoutMillis
+	 * 		deadline in milliseconds.
+	 */
+	default T requestTimeoutMillis( final int requestTimeoutMillis )
+	{
+		return setValue( "requestTimeoutMillis", requestTimeoutMillis );
+	}
+
+	/**
+	 * Specify how many times a request for loading a block is retried, if it
+	 * times out or fails with a transport error. Retries wait with
+	 * exponential backoff, starting from {@link #requestRetryBackoffMillis}.
+	 * <p>
+	 * This is {@code 0} (no retries) by default.
+	 *
+	 * @param maxRequestRetries
+	 * 		maximum number of retries.
+	 */
+	default T maxRequestRetries( final int maxRequestRetries )
+	{
+		return setValue( "maxRequestRetries", maxRequestRetries );
+	}
+
+	/**
+	 * Delay before the first retry of a failed request. The delay doubles
+	 * with every further retry.
+	 *
+	 * @param requestRetryBackoffMillis
+	 * 		delay in milliseconds (default is {@code 50}).
+	 */
+	default T requestRetryBackoffMillis( final int requestRetryBackoffMillis )
+	{
+		return setValue( "requestRetryBackoffMillis", requestRetryBackoffMillis );
+	}
+
+	/**
+	 * Issue a duplicate ("hedged") request for loading a block, if the
+	 * original request takes longer than the given percentile of recent
+	 * request latencies (e.g., {@code 0.95}). Whichever request completes
+	 * first is used. This reduces tail latency when Imaris is occasionally
+	 * slow to respond, at the cost of additional load.
+	 * <p>
+	 * The slower request is not cancelled. It occupies a thread of a bounded
+	 * pool until it completes, and no requests are hedged while all threads
+	 * are busy. Therefore, hedging should be combined with a {@link
+	 * #requestTimeoutMillis deadline}.
+	 * <p>
+	 * This is {@code 0} (no hedging) by default.
+	 *
+	 * @param hedgeRequestsAfterPercentile
+	 * 		latency percentile in {@code (0, 1)} after which to hedge.
+	 */
+	default T hedgeRequestsAfterPercentile( final double hedgeRequestsAfterPercentile )
+	{
+		return setValue( "hedgeRequestsAfterPercentile", hedgeRequestsAfterPercentile );
+	}
+
+	/**
+	 * Specify how the {@link ImarisDataset#getPlane getPlane} methods of
+	 * {@link ImarisDataset} read XY planes. For read-only datasets, this also
+	 * applies to accessors of the {@link ImarisDataset#asImgPlus()
+	 * asImgPlus()} and {@link ImarisDataset#asDataset() asDataset()} views
+	 * that are restricted to a single Z plane (e.g., IJ1 virtual stacks).
+	 * All other views ({@link ImarisDataset#asImg() asImg()}, BDV sources,
+	 * etc.) always load whole cells through the cell cache.
+	 * <ul>
+	 * <li>{@link GetPlaneMode#CELLS CELLS}: Copy the plane from the cached
+	 * image (see {@link ImarisDataset#asImg()}). This loads all cells
+	 * intersecting the plane.</li>
+	 * <li>{@link GetPlaneMode#DIRECT DIRECT}: Request exactly the plane from
+	 * Imaris, bypassing the cell cache. Recently read planes are kept in a
+	 * small cache (see {@link #getPlaneCacheSize}). When consecutive planes of
+	 * a Z-stack are requested, following planes are read ahead in one request.
+	 * Note, that modifications of a writable dataset are only visible after
+	 * they have been {@link ImarisDataset#persist() persisted}.</li>
+	 * <li>{@link GetPlaneMode#DIRECT_IF_READ_ONLY DIRECT_IF_READ_ONLY}: Use
+	 * {@code DIRECT} if the dataset is read-only and has cells with more than
+	 * one Z plane, and {@code CELLS} otherwise. This is decided once, when the
+	 * dataset is opened.</li>
+	 * </ul>
+	 * <p>
+	 * This is {@code DIRECT_IF_READ_ONLY} by default.
+	 * This option only has an effect for {@link ImarisDataset}.
+	 *
+	 * @param getPlaneMode
+	 * 		how {@code getPlane} reads XY planes.
+	 */
+	default T getPlaneMode( final GetPlaneMode getPlaneMode )
+	{
+		return setValue( "getPlaneMode", getPlaneMode );
+	}
+
+	/**
+	 * Specify how many XY planes read with {@link GetPlaneMode#DIRECT} are
+	 * cached. This also bounds how many planes are read ahead in one request.
+	 *
+	 * @param getPlaneCacheSize
+	 * 		maximum number of cached planes (default is {@code 16}).
+	 */
+	default T getPlaneCacheSize( final int getPlaneCacheSize )
+	{
+		return setValue( "getPlaneCacheSize", getPlaneCacheSize );
+	}
+
+	enum Compression
+	{
+		OFF,
+		ON,
+		AUTO
+	}
+
+	enum GetPlaneMode
+	{
+		CELLS,
+		DIRECT,
+		DIRECT_IF_READ_ONLY
+	}
+
 	interface Val extends Values
 	{
 		default void forEach( BiConsumer< String, Object > action )
@@ -135,6 +337,15 @@ public interface ImarisCacheOptions< T > extends Options< T >
 			action.accept( "maxIoQueueSize", maxIoQueueSize() );
 			action.accept( "persistOnLoad", persistOnLoad() );
 			action.accept( "initializeCellsAsDirty", initializeCellsAsDirty() );
+			action.accept( "maxRecycledCellArrays", maxRecycledCellArrays() );
+			action.accept( "numConnections", numConnections() );
+			action.accept( "compression", compression() );
+			action.accept( "requestTimeoutMillis", requestTimeoutMillis() );
+			action.accept( "maxRequestRetries", maxRequestRetries() );
+			action.accept( "requestRetryBackoffMillis", requestRetryBackoffMillis() );
+			action.accept( "hedgeRequestsAfterPercentile", hedgeRequestsAfterPercentile() );
+			action.accept( "getPlaneMode", getPlaneMode() );
+			action.accept( "getPlaneCacheSize", getPlaneCacheSize() );
 		}
 
 		default int numIoThreads()
@@ -156,5 +367,62 @@ public interface ImarisCacheOptions< T > extends Options< T >
 		{
 			return getValueOrDefault( "initializeCellsAsDirty", false );
 		}
+
+		default int maxRecycledCellArrays()
+		{
+			return getValueOrDefault( "maxRecycledCellArrays", 0 );
+		}
+
+		default int numConnections()
+		{
+			return getValueOrDefault( "numConnections", 1 );
+		}
+
+		default Compression compression()
+		{
+			return getValueOrDefault( "compression", Compression.OFF );
+		}
+
+		default int requestTimeoutMillis()
+		{
+			return getValueOrDefault( "requestTimeoutMillis", -1 );
+		}
+
+		default int maxRequestRetries()
+		{
+			return getValueOrDefault( "maxRequestRetries", 0 );
+		}
+
+		default int requestRetryBackoffMillis()
+		{
+			return getValueOrDefault( "requestRetryBackoffMillis", 50 );
+		}
+
+		default double hedgeRequestsAfterPercentile()
+		{
+			return getValueOrDefault( "hedgeRequestsAfterPercentile", 0.0 );
+		}
+
+		default GetPlaneMode getPlaneMode()
+		{
+			return getValueOrDefault( "getPlaneMode", GetPlaneMode.DIRECT_IF_READ_ONLY );
+		}
+
+		default int getPlaneCacheSize()
+		{
+			return getValueOrDefault( "getPlaneCacheSize", 16 );
+		}
+
+		/**
+		 * Deadline, retry, and hedging settings as a {@code RequestPolicy}.
+		 */
+		default RequestPolicy requestPolicy()
+		{
+			return new RequestPolicy(
+					requestTimeoutMillis(),
+					maxRequestRetries(),
+					requestRetryBackoffMillis(),
+					hedgeRequestsAfterPercentile() );
+		}
 	}
 }
@@ -0,0 +1,333 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.options;
+
+import java.util.function.BiConsumer;
+import org.scijava.optional.Options;
+import org.scijava.optional.Values;
+import com.bitplane.xt.ImarisService;
+
+/**
+ * Optional arguments that specify how {@link ImarisService} connects to the
+ * Imaris server, and how the ICE client of that connection is configured.
+ * <p>
+ * The defaults reproduce the previous hard-coded settings. For a remote Imaris
+ * it may pay off to increase the client thread pool and to set invocation
+ * timeouts, for a local Imaris the defaults are usually fine.
+ *
+ * @author Tobias Pietzsch
+ */
+public interface ImarisConnectionOptions< T > extends Options< T >
+{
+	/**
+	 * Host on which the Imaris server is running.
+	 *
+	 * @param host
+	 * 		host name or address (default is {@code null}, which uses the
+	 * 		ICE default host, i.e., the local machine).
+	 */
+	default T host( final String host )
+	{
+		return setValue( "host", host );
+	}
+
+	/**
+	 * Port on which the Imaris server is listening.
+	 *
+	 * @param port
+	 * 		port number (default is {@code 4029}).
+	 */
+	default T port( final int port )
+	{
+		return setValue( "port", port );
+	}
+
+	/**
+	 * Time window over which the default retry schedule ({@code
+	 * Ice.RetryIntervals}) is spread. If {@link #retryIntervals} are not
+	 * specified, a failed invocation is retried immediately and then after
+	 * delays of 1/25, 3/25, 5/25, 7/25, and 9/25 of this window (adding up to
+	 * the window). This is not a connect timeout, and it has no effect if
+	 * {@link #retryIntervals} are specified.
+	 *
+	 * @param serverTimeoutMillis
+	 * 		window in milliseconds (default is {@code 1000}).
+	 */
+	default T serverTimeoutMillis( final int serverTimeoutMillis )
+	{
+		return setValue( "serverTimeoutMillis", serverTimeoutMillis );
+	}
+
+	/**
+	 * Timeout for remote invocations ({@code Ice.Default.InvocationTimeout}).
+	 * If an invocation does not complete in time, it fails with an {@code
+	 * Ice.InvocationTimeoutException}.
+	 *
+	 * @param invocationTimeoutMillis
+	 * 		timeout in milliseconds (default is {@code -1}, i.e., no timeout).
+	 */
+	default T invocationTimeoutMillis( final int invocationTimeoutMillis )
+	{
+		return setValue( "invocationTimeoutMillis", invocationTimeoutMillis );
+	}
+
+	/**
+	 * Initial size of the ICE client thread pool ({@code
+	 * Ice.ThreadPool.Client.Size}). These threads dispatch replies from the
+	 * Imaris server. More threads allow more replies to be unmarshaled
+	 * concurrently, which helps when many blocks are loaded in parallel.
+	 *
+	 * @param clientThreadPoolSize
+	 * 		number of threads (default is {@code 1}).
+	 */
+	default T clientThreadPoolSize( final int clientThreadPoolSize )
+	{
+		return setValue( "clientThreadPoolSize", clientThreadPoolSize );
+	}
+
+	/**
+	 * Maximum size of the ICE client thread pool ({@code
+	 * Ice.ThreadPool.Client.SizeMax}). The pool grows up to this size on
+	 * demand.
+	 *
+	 * @param clientThreadPoolSizeMax
+	 * 		maximum number of threads (default is {@code 0}, meaning the same as
+	 * 		{@link #clientThreadPoolSize}).
+	 */
+	default T clientThreadPoolSizeMax( final int clientThreadPoolSizeMax )
+	{
+		return setValue( "clientThreadPoolSizeMax", clientThreadPoolSizeMax );
+	}
+
+	/**
+	 * Maximum size of ICE messages ({@code Ice.MessageSizeMax}), in
+	 * kilobytes. This bounds the size of a block that can be transferred in a
+	 * single call.
+	 *
+	 * @param messageSizeMaxKB
+	 * 		maximum message size in kilobytes (default is {@code 1000000000}).
+	 */
+	default T messageSizeMaxKB( final int messageSizeMaxKB )
+	{
+		return setValue( "messageSizeMaxKB", messageSizeMaxKB );
+	}
+
+	/**
+	 * Idle timeout of client connections ({@code Ice.ACM.Client.Timeout}).
+	 * Connections that are idle for this time are closed by active connection
+	 * management.
+	 *
+	 * @param acmTimeoutSeconds
+	 * 		timeout in seconds (default is {@code -1}, which uses the ICE
+	 * 		default. {@code 0} disables the timeout).
+	 */
+	default T acmTimeoutSeconds( final int acmTimeoutSeconds )
+	{
+		return setValue( "acmTimeoutSeconds", acmTimeoutSeconds );
+	}
+
+	/**
+	 * Heartbeat setting of active connection management ({@code
+	 * Ice.ACM.Client.Heartbeat}).
+	 *
+	 * @param acmHeartbeat
+	 * 		heartbeat mode (default is {@code DEFAULT}, which uses the ICE
+	 * 		default).
+	 */
+	default T acmHeartbeat( final AcmHeartbeat acmHeartbeat )
+	{
+		return setValue( "acmHeartbeat", acmHeartbeat );
+	}
+
+	/**
+	 * Retry schedule for failed invocations ({@code Ice.RetryIntervals}). An
+	 * invocation is retried once for each entry, after waiting the given
+	 * number of milliseconds. An empty array disables retries.
+	 *
+	 * @param retryIntervalsMillis
+	 * 		delays before each retry, in milliseconds (default is {@code
+	 * 		null}, which uses 6 retries spread over {@link #serverTimeoutMillis}).
+	 */
+	default T retryIntervals( final int... retryIntervalsMillis )
+	{
+		return setValue( "retryIntervals", retryIntervalsMillis );
+	}
+
+	/**
+	 * Interval for checking in the background whether known Imaris instances
+	 * are still alive. Instances that do not respond are removed, and will
+	 * be looked up again when they are next requested. Each ping times out
+	 * after the same interval, and there is at most one ping in flight per
+	 * instance.
+	 *
+	 * @param livenessProbeIntervalMillis
+	 * 		interval in milliseconds (default is {@code 5000}). If {@code ≤ 0},
+	 * 		instances are not probed.
+	 */
+	default T livenessProbeIntervalMillis( final int livenessProbeIntervalMillis )
+	{
+		return setValue( "livenessProbeIntervalMillis", livenessProbeIntervalMillis );
+	}
+
+	/**
+	 * Number of consecutive failed liveness pings after which an Imaris
+	 * instance is removed. See {@link #livenessProbeIntervalMillis}.
+	 *
+	 * @param livenessProbeFailureThreshold
+	 * 		number of consecutive failures (default is {@code 3}). Values
+	 * 		{@code < 1} are treated as {@code 1}.
+	 */
+	default T livenessProbeFailureThreshold( final int livenessProbeFailureThreshold )
+	{
+		return setValue( "livenessProbeFailureThreshold", livenessProbeFailureThreshold );
+	}
+
+	enum AcmHeartbeat
+	{
+		/**
+		 * Use the ICE default.
+		 */
+		DEFAULT( null ),
+
+		/**
+		 * Disable heartbeats.
+		 */
+		OFF( "0" ),
+
+		/**
+		 * Send a heartbeat if there is a pending incoming request.
+		 */
+		ON_DISPATCH( "1" ),
+
+		/**
+		 * Send a heartbeat if the connection is idle.
+		 */
+		ON_IDLE( "2" ),
+
+		/**
+		 * Send heartbeats at regular intervals.
+		 */
+		ALWAYS( "3" );
+
+		private final String property;
+
+		AcmHeartbeat( final String property )
+		{
+			this.property = property;
+		}
+
+		/**
+		 * Value of the {@code Ice.ACM.Client.Heartbeat} property, or {@code
+		 * null} if the ICE default should be used.
+		 */
+		public String property()
+		{
+			return property;
+		}
+	}
+
+	interface Val extends Values
+	{
+		default void forEach( BiConsumer< String, Object > action )
+		{
+			action.accept( "host", host() );
+			action.accept( "port", port() );
+			action.accept( "serverTimeoutMillis", serverTimeoutMillis() );
+			action.accept( "invocationTimeoutMillis", invocationTimeoutMillis() );
+			action.accept( "clientThreadPoolSize", clientThreadPoolSize() );
+			action.accept( "clientThreadPoolSizeMax", clientThreadPoolSizeMax() );
+			action.accept( "messageSizeMaxKB", messageSizeMaxKB() );
+			action.accept( "acmTimeoutSeconds", acmTimeoutSeconds() );
+			action.accept( "acmHeartbeat", acmHeartbeat() );
+			action.accept( "retryIntervals", retryIntervals() );
+			action.accept( "livenessProbeIntervalMillis", livenessProbeIntervalMillis() );
+			action.accept( "livenessProbeFailureThreshold", livenessProbeFailureThreshold() );
+		}
+
+		default String host()
+		{
+			return getValueOrDefault( "host", null );
+		}
+
+		default int port()
+		{
+			return getValueOrDefault( "port", 4029 );
+		}
+
+		default int serverTimeoutMillis()
+		{
+			return getValueOrDefault( "serverTimeoutMillis", 1000 );
+		}
+
+		default int invocationTimeoutMillis()
+		{
+			return getValueOrDefault( "invocationTimeoutMillis", -1 );
+		}
+
+		default int clientThreadPoolSize()
+		{
+			return getValueOrDefault( "clientThreadPoolSize", 1 );
+		}
+
+		default int clientThreadPoolSizeMax()
+		{
+			return getValueOrDefault( "clientThreadPoolSizeMax", 0 );
+		}
+
+		default int messageSizeMaxKB()
+		{
+			return getValueOrDefault( "messageSizeMaxKB", 1000000000 );
+		}
+
+		default int acmTimeoutSeconds()
+		{
+			return getValueOrDefault( "acmTimeoutSeconds", -1 );
+		}
+
+		default AcmHeartbeat acmHeartbeat()
+		{
+			return getValueOrDefault( "acmHeartbeat", AcmHeartbeat.DEFAULT );
+		}
+
+		default int[] retryIntervals()
+		{
+			return getValueOrDefault( "retryIntervals", null );
+		}
+
+		default int livenessProbeIntervalMillis()
+		{
+			return getValueOrDefault( "livenessProbeIntervalMillis", 5000 );
+		}
+
+		default int livenessProbeFailureThreshold()
+		{
+			return getValueOrDefault( "livenessProbeFailureThreshold", 3 );
+		}
+	}
+}
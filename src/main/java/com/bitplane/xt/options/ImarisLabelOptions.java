@@ -0,0 +1,126 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.options;
+
+import com.bitplane.xt.img.ImarisCachedLabelImg;
+import java.util.function.BiConsumer;
+import org.scijava.optional.Options;
+import org.scijava.optional.Values;
+
+/**
+ * Optional arguments that specify how labels of {@link ImarisCachedLabelImg}
+ * are stored in and retrieved from Imaris.
+ *
+ * @author Tobias Pietzsch
+ */
+public interface ImarisLabelOptions< T > extends Options< T >
+{
+	/**
+	 * How labels are represented in the Imaris dataset.
+	 */
+	enum LabelLayout
+	{
+		/**
+		 * Label {@code l} is represented as a non-zero voxel in channel {@code
+		 * l - 1}. A dataset with {@code N} channels can represent labels {@code
+		 * 1..N}. If a voxel is non-zero in several channels, the first
+		 * channel wins.
+		 */
+		ONE_HOT,
+
+		/**
+		 * Labels are stored as values in a single channel. A uint8 dataset can
+		 * represent labels {@code 1..255}, a uint16 dataset labels {@code
+		 * 1..65535}, a float dataset labels {@code 1..2^24}.
+		 */
+		INDEXED
+	}
+
+	/**
+	 * Specify how labels are represented in the Imaris dataset.
+	 * <p>
+	 * With {@link LabelLayout#ONE_HOT ONE_HOT} layout (the default), there is
+	 * one Imaris channel per label. This is convenient for viewing and editing
+	 * labels in Imaris, but transfer volume and memory in Imaris grow with the
+	 * number of labels. For segmentations with many labels, use {@link
+	 * LabelLayout#INDEXED INDEXED} layout, which stores labels in a single
+	 * Imaris channel.
+	 *
+	 * @param layout
+	 * 		how labels are represented in the Imaris dataset.
+	 */
+	default T labelLayout( final LabelLayout layout )
+	{
+		return setValue( "labelLayout", layout );
+	}
+
+	/**
+	 * Specify whether label channels that are known to be empty in a cell
+	 * should be skipped when loading the cell from Imaris.
+	 * <p>
+	 * Channel occupancy is recorded exactly for cells written to Imaris. For
+	 * other cells, it is seeded from a low-resolution pyramid level of the
+	 * dataset: if a channel is all zero over the cell's footprint at the
+	 * coarse level, it is assumed to be empty at full resolution. Note that
+	 * this relies on the Imaris pyramid being up-to-date, and that very small
+	 * labels might be averaged away at coarse levels. Therefore, this is
+	 * {@code false} by default. (Before a modified cell is written back,
+	 * channels that were skipped based on the pyramid are fetched and merged
+	 * into the cell, so writing never erases voxels that were not loaded.)
+	 * <p>
+	 * This option only has an effect with {@link LabelLayout#ONE_HOT ONE_HOT}
+	 * {@link #labelLayout label layout}.
+	 *
+	 * @param skipEmptyChannels
+	 * 		whether to skip fetching label channels that are empty in a cell.
+	 */
+	default T skipEmptyChannels( final boolean skipEmptyChannels )
+	{
+		return setValue( "skipEmptyChannels", skipEmptyChannels );
+	}
+
+	interface Val extends Values
+	{
+		default void forEach( BiConsumer< String, Object > action )
+		{
+			action.accept( "labelLayout", labelLayout() );
+			action.accept( "skipEmptyChannels", skipEmptyChannels() );
+		}
+
+		default LabelLayout labelLayout()
+		{
+			return getValueOrDefault( "labelLayout", LabelLayout.ONE_HOT );
+		}
+
+		default boolean skipEmptyChannels()
+		{
+			return getValueOrDefault( "skipEmptyChannels", false );
+		}
+	}
+}
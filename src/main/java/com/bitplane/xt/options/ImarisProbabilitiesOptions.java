@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.options;
+
+import com.bitplane.xt.img.ImarisCachedProbabilitiesImg;
+import java.util.function.BiConsumer;
+import org.scijava.optional.Options;
+import org.scijava.optional.Values;
+
+/**
+ * Optional arguments that specify how probabilities of {@link
+ * ImarisCachedProbabilitiesImg} are stored in and transferred to Imaris.
+ *
+ * @author Tobias Pietzsch
+ */
+public interface ImarisProbabilitiesOptions< T > extends Options< T >
+{
+	/**
+	 * Imaris dataset type used to store probabilities.
+	 */
+	enum Quantization
+	{
+		/**
+		 * Probabilities are stored as FLOAT.
+		 */
+		NONE,
+
+		/**
+		 * Probabilities are stored as UINT8, with {@code [0, 1]} scaled to
+		 * {@code [0, 255]}.
+		 */
+		UINT8,
+
+		/**
+		 * Probabilities are stored as UINT16, with {@code [0, 1]} scaled to
+		 * {@code [0, 65535]}.
+		 */
+		UINT16
+	}
+
+	/**
+	 * How probabilities are rounded when quantized to UINT8 or UINT16.
+	 */
+	enum Rounding
+	{
+		/**
+		 * Round towards zero. The quantization error is at most one step
+		 * ({@code 1/255} or {@code 1/65535}).
+		 */
+		TRUNCATE,
+
+		/**
+		 * Round to nearest. The quantization error is at most half a step
+		 * ({@code 0.5/255} or {@code 0.5/65535}).
+		 */
+		NEAREST
+	}
+
+	/**
+	 * Specify the Imaris dataset type for storing probabilities in newly
+	 * created datasets.
+	 * <p>
+	 * Probabilities are always FLOAT or DOUBLE on the ImgLib2 side. Storing
+	 * them as UINT8 or UINT16 in Imaris reduces the transfer volume by 4x or
+	 * 2x, respectively, at the cost of a {@link #probabilityRounding
+	 * quantization error}. For classifier outputs, UINT8 is usually precise
+	 * enough.
+	 * <p>
+	 * This only has an effect when the Imaris dataset is created by the
+	 * factory. Existing datasets are used with the type they have.
+	 *
+	 * @param quantization
+	 * 		Imaris dataset type for storing probabilities.
+	 */
+	default T probabilityQuantization( final Quantization quantization )
+	{
+		return setValue( "probabilityQuantization", quantization );
+	}
+
+	/**
+	 * Specify how probabilities are rounded when storing to UINT8 or UINT16
+	 * Imaris datasets. This is {@link Rounding#TRUNCATE TRUNCATE} by default.
+	 *
+	 * @param rounding
+	 * 		how probabilities are rounded when quantized.
+	 */
+	default T probabilityRounding( final Rounding rounding )
+	{
+		return setValue( "probabilityRounding", rounding );
+	}
+
+	interface Val extends Values
+	{
+		default void forEach( BiConsumer< String, Object > action )
+		{
+			action.accept( "probabilityQuantization", probabilityQuantization() );
+			action.accept( "probabilityRounding", probabilityRounding() );
+		}
+
+		default Quantization probabilityQuantization()
+		{
+			return getValueOrDefault( "probabilityQuantization", Quantization.NONE );
+		}
+
+		default Rounding probabilityRounding()
+		{
+			return getValueOrDefault( "probabilityRounding", Rounding.TRUNCATE );
+		}
+	}
+}
@@ -0,0 +1,540 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free pool of temporary primitive (and {@code Object}) arrays.
+ * <p>
+ * Arrays are pooled by exact length ("size class"), because they are passed
+ * to Imaris, which expects arrays of exactly the sub-volume size. For a
+ * uniform cell grid, there are only a few distinct sizes (full cells, and
+ * truncated cells at the image border). Each size class holds up to a fixed
+ * number of arrays, and there is a fixed maximum number of size classes per
+ * array type. If a size class is full, released arrays are dropped. If there
+ * are no more free size classes, the least recently used size class (and the
+ * arrays it holds) is replaced by the new one.
+ * <p>
+ * The total size of pooled arrays is bounded by {@code maxBytes}. If
+ * releasing an array would exceed this bound, arrays of the least recently
+ * used other size classes are evicted. If that is not enough, the released
+ * array is dropped.
+ * <p>
+ * Taking and releasing arrays does not block. Except for new arrays (if the
+ * pool is empty) and new size classes, it does not allocate.
+ * <p>
+ * The pool counts how many arrays were allocated and how many were reused, so
+ * that it can be verified that steady-state cell loading and writing creates
+ * almost no garbage beyond the cell payload itself.
+ *
+ * @author Tobias Pietzsch
+ */
+public final class ArrayPool
+{
+	private static final ArrayPool instance = new ArrayPool( 32, 32, Runtime.getRuntime().maxMemory() / 32 );
+
+	/**
+	 * Get the shared {@code ArrayPool}. It keeps at most 1/32 of the maximum
+	 * heap size in pooled arrays.
+	 */
+	public static ArrayPool getInstance()
+	{
+		return instance;
+	}
+
+	private static final int BYTE = 0;
+
+	private static final int SHORT = 1;
+
+	private static final int INT = 2;
+
+	private static final int LONG = 3;
+
+	private static final int FLOAT = 4;
+
+	private static final int DOUBLE = 5;
+
+	private static final int OBJECT = 6;
+
+	private static final int NUM_TYPES = 7;
+
+	/**
+	 * Size in bytes of array elements, indexed by {@code BYTE}, {@code SHORT}, etc.
+	 * (For {@code Object[]}, this is assumed to be the size of a compressed reference.)
+	 */
+	private static final int[] ELEMENT_BYTES = { 1, 2, 4, 8, 4, 8, 4 };
+
+	private static final class SizeClass
+	{
+		final int length;
+
+		final long arrayBytes;
+
+		final AtomicReferenceArray< Object > slots;
+
+		/**
+		 * Number of arrays currently in {@code slots}.
+		 */
+		final AtomicInteger size = new AtomicInteger();
+
+		/**
+		 * Value of {@link #clock} when an array was last taken from or
+		 * released to this size class.
+		 */
+		volatile long lastUsed;
+
+		/**
+		 * Set when this size class has been removed from the pool. Arrays
+		 * that are released into it concurrently are taken out again.
+		 */
+		volatile boolean retired;
+
+		SizeClass( final int length, final long arrayBytes, final int numSlots )
+		{
+			this.length = length;
+			this.arrayBytes = arrayBytes;
+			slots = new AtomicReferenceArray<>( numSlots );
+		}
+	}
+
+	/**
+	 * Size classes per array type, indexed by {@code BYTE}, {@code SHORT}, etc.
+	 */
+	private final AtomicReferenceArray< SizeClass >[] classes;
+
+	private final int slotsPerClass;
+
+	private final long maxBytes;
+
+	/**
+	 * Total size in bytes of pooled arrays (including space reserved by
+	 * concurrent {@link #release} calls).
+	 */
+	private final AtomicLong pooledBytes = new AtomicLong();
+
+	/**
+	 * Incremented whenever a size class is used, for finding the least
+	 * recently used size class.
+	 */
+	private final AtomicLong clock = new AtomicLong();
+
+	private final LongAdder allocations = new LongAdder();
+
+	private final LongAdder allocatedBytes = new LongAdder();
+
+	private final LongAdder reuses = new LongAdder();
+
+	/**
+	 * Create a new {@code ArrayPool}, without bound on the total size of
+	 * pooled arrays.
+	 *
+	 * @param slotsPerClass
+	 * 		maximum number of arrays pooled per size class.
+	 * @param maxClasses
+	 * 		maximum number of size classes per array type.
+	 */
+	public ArrayPool( final int slotsPerClass, final int maxClasses )
+	{
+		this( slotsPerClass, maxClasses, Long.MAX_VALUE );
+	}
+
+	/**
+	 * Create a new {@code ArrayPool}.
+	 *
+	 * @param slotsPerClass
+	 * 		maximum number of arrays pooled per size class.
+	 * @param maxClasses
+	 * 		maximum number of size classes per array type.
+	 * @param maxBytes
+	 * 		maximum total size in bytes of pooled arrays.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public ArrayPool( final int slotsPerClass, final int maxClasses, final long maxBytes )
+	{
+		this.slotsPerClass = slotsPerClass;
+		this.maxBytes = maxBytes;
+		classes = new AtomicReferenceArray[ NUM_TYPES ];
+		for ( int i = 0; i < NUM_TYPES; ++i )
+			classes[ i ] = new AtomicReferenceArray<>( maxClasses );
+	}
+
+	public byte[] bytes( final int length )
+	{
+		return ( byte[] ) take( BYTE, length );
+	}
+
+	public short[] shorts( final int length )
+	{
+		return ( short[] ) take( SHORT, length );
+	}
+
+	public int[] ints( final int length )
+	{
+		return ( int[] ) take( INT, length );
+	}
+
+	public long[] longs( final int length )
+	{
+		return ( long[] ) take( LONG, length );
+	}
+
+	public float[] floats( final int length )
+	{
+		return ( float[] ) take( FLOAT, length );
+	}
+
+	public double[] doubles( final int length )
+	{
+		return ( double[] ) take( DOUBLE, length );
+	}
+
+	public Object[] objects( final int length )
+	{
+		return ( Object[] ) take( OBJECT, length );
+	}
+
+	/**
+	 * Return an array to the pool. The array must not be used by the caller
+	 * afterwards. {@code Object[]} arrays are cleared, such that they do not
+	 * keep their elements alive. Contents of primitive arrays are not cleared
+	 * (arrays taken from the pool have arbitrary contents).
+	 *
+	 * @param array
+	 * 		an array of any type supported by this pool, or {@code null}
+	 * 		(which is ignored).
+	 */
+	public void release( final Object array )
+	{
+		if ( array == null )
+			return;
+		final int type = typeOf( array );
+		if ( type == OBJECT )
+			Arrays.fill( ( Object[] ) array, null );
+		final int length = Array.getLength( array );
+		final long bytes = ( long ) length * ELEMENT_BYTES[ type ];
+		if ( bytes > maxBytes )
+			return;
+		final SizeClass sizeClass = sizeClassForRelease( type, length, bytes );
+		if ( sizeClass == null || !reserve( sizeClass ) )
+			return;
+		final AtomicReferenceArray< Object > slots = sizeClass.slots;
+		for ( int i = 0; i < slotsPerClass; ++i )
+		{
+			if ( slots.get( i ) == null && slots.compareAndSet( i, null, array ) )
+			{
+				sizeClass.size.incrementAndGet();
+				// If the size class was retired concurrently, retire() may
+				// have missed the array. Then take it out again.
+				if ( sizeClass.retired && slots.compareAndSet( i, array, null ) )
+					removed( sizeClass );
+				return;
+			}
+		}
+		pooledBytes.addAndGet( -bytes );
+	}
+
+	/**
+	 * Get the number of arrays that were allocated (because no array of the
+	 * requested type and size was available in the pool).
+	 */
+	public long getAllocationCount()
+	{
+		return allocations.sum();
+	}
+
+	/**
+	 * Get the total size in bytes of arrays that were allocated.
+	 */
+	public long getAllocatedBytes()
+	{
+		return allocatedBytes.sum();
+	}
+
+	/**
+	 * Get the number of arrays that were taken from the pool (instead of
+	 * being allocated).
+	 */
+	public long getReuseCount()
+	{
+		return reuses.sum();
+	}
+
+	/**
+	 * Get the total size in bytes of the arrays currently in the pool.
+	 */
+	public long getPooledBytes()
+	{
+		return pooledBytes.get();
+	}
+
+	/**
+	 * Reset allocation and reuse counters.
+	 */
+	public void resetCounters()
+	{
+		allocations.reset();
+		allocatedBytes.reset();
+		reuses.reset();
+	}
+
+	/**
+	 * Remove all pooled arrays and size classes.
+	 */
+	public void clear()
+	{
+		for ( final AtomicReferenceArray< SizeClass > typeClasses : classes )
+		{
+			for ( int i = 0; i < typeClasses.length(); ++i )
+			{
+				final SizeClass sizeClass = typeClasses.getAndSet( i, null );
+				if ( sizeClass != null )
+					retire( sizeClass );
+			}
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ArrayPool{allocations=" + getAllocationCount() + ", allocatedBytes=" + getAllocatedBytes() + ", reuses=" + getReuseCount() + ", pooledBytes=" + getPooledBytes() + "}";
+	}
+
+	private Object take( final int type, final int length )
+	{
+		final SizeClass sizeClass = findSizeClass( type, length );
+		if ( sizeClass != null && sizeClass.size.get() > 0 )
+		{
+			final AtomicReferenceArray< Object > slots = sizeClass.slots;
+			for ( int i = 0; i < slotsPerClass; ++i )
+			{
+				if ( slots.get( i ) != null )
+				{
+					final Object array = slots.getAndSet( i, null );
+					if ( array != null )
+					{
+						removed( sizeClass );
+						sizeClass.lastUsed = clock.incrementAndGet();
+						reuses.increment();
+						return array;
+					}
+				}
+			}
+		}
+		allocations.increment();
+		allocatedBytes.add( ( long ) length * ELEMENT_BYTES[ type ] );
+		return newArray( type, length );
+	}
+
+	/**
+	 * Find the size class for the given array {@code type} and {@code length}.
+	 * Returns {@code null}, if there is no such size class.
+	 */
+	private SizeClass findSizeClass( final int type, final int length )
+	{
+		final AtomicReferenceArray< SizeClass > typeClasses = classes[ type ];
+		for ( int i = 0; i < typeClasses.length(); ++i )
+		{
+			final SizeClass sizeClass = typeClasses.get( i );
+			if ( sizeClass != null && sizeClass.length == length )
+				return sizeClass;
+		}
+		return null;
+	}
+
+	/**
+	 * Find the size class for the given array {@code type} and {@code length},
+	 * adding it if necessary. If there is no free space for adding it, the
+	 * least recently used size class is replaced. Returns {@code null}, if
+	 * this fails because of concurrent modification.
+	 */
+	private SizeClass sizeClassForRelease( final int type, final int length, final long arrayBytes )
+	{
+		final AtomicReferenceArray< SizeClass > typeClasses = classes[ type ];
+		int lruIndex = -1;
+		SizeClass lru = null;
+		for ( int i = 0; i < typeClasses.length(); ++i )
+		{
+			SizeClass sizeClass = typeClasses.get( i );
+			if ( sizeClass == null )
+			{
+				final SizeClass added = new SizeClass( length, arrayBytes, slotsPerClass );
+				if ( typeClasses.compareAndSet( i, null, added ) )
+				{
+					added.lastUsed = clock.incrementAndGet();
+					return added;
+				}
+				// another thread added a size class at i concurrently
+				sizeClass = typeClasses.get( i );
+				if ( sizeClass == null )
+					continue;
+			}
+			if ( sizeClass.length == length )
+			{
+				sizeClass.lastUsed = clock.incrementAndGet();
+				return sizeClass;
+			}
+			if ( lru == null || sizeClass.lastUsed < lru.lastUsed )
+			{
+				lru = sizeClass;
+				lruIndex = i;
+			}
+		}
+		if ( lru == null )
+			return null;
+		final SizeClass added = new SizeClass( length, arrayBytes, slotsPerClass );
+		if ( !typeClasses.compareAndSet( lruIndex, lru, added ) )
+			return null;
+		retire( lru );
+		added.lastUsed = clock.incrementAndGet();
+		return added;
+	}
+
+	/**
+	 * Reserve space for an array of {@code sizeClass} in the {@code maxBytes}
+	 * budget, evicting arrays of other size classes if necessary. Returns
+	 * {@code false} if there is not enough space.
+	 */
+	private boolean reserve( final SizeClass sizeClass )
+	{
+		final long bytes = sizeClass.arrayBytes;
+		while ( true )
+		{
+			final long current = pooledBytes.get();
+			if ( current + bytes <= maxBytes )
+			{
+				if ( pooledBytes.compareAndSet( current, current + bytes ) )
+					return true;
+			}
+			else if ( !evictOne( sizeClass ) )
+				return false;
+		}
+	}
+
+	/**
+	 * Remove one array from the least recently used non-empty size class
+	 * other than {@code keep}. Returns {@code false} if there is no such size
+	 * class.
+	 */
+	private boolean evictOne( final SizeClass keep )
+	{
+		SizeClass lru = null;
+		for ( final AtomicReferenceArray< SizeClass > typeClasses : classes )
+		{
+			for ( int i = 0; i < typeClasses.length(); ++i )
+			{
+				final SizeClass sizeClass = typeClasses.get( i );
+				if ( sizeClass != null && sizeClass != keep && sizeClass.size.get() > 0
+						&& ( lru == null || sizeClass.lastUsed < lru.lastUsed ) )
+					lru = sizeClass;
+			}
+		}
+		if ( lru == null )
+			return false;
+		final AtomicReferenceArray< Object > slots = lru.slots;
+		for ( int i = 0; i < slotsPerClass; ++i )
+		{
+			if ( slots.get( i ) != null && slots.getAndSet( i, null ) != null )
+			{
+				removed( lru );
+				break;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Mark a size class that has been removed from the pool as retired, and
+	 * drop its arrays.
+	 */
+	private void retire( final SizeClass sizeClass )
+	{
+		sizeClass.retired = true;
+		final AtomicReferenceArray< Object > slots = sizeClass.slots;
+		for ( int i = 0; i < slotsPerClass; ++i )
+			if ( slots.get( i ) != null && slots.getAndSet( i, null ) != null )
+				removed( sizeClass );
+	}
+
+	/**
+	 * Account for an array that was taken out of {@code sizeClass}.
+	 */
+	private void removed( final SizeClass sizeClass )
+	{
+		sizeClass.size.decrementAndGet();
+		pooledBytes.addAndGet( -sizeClass.arrayBytes );
+	}
+
+	private static int typeOf( final Object array )
+	{
+		if ( array instanceof byte[] )
+			return BYTE;
+		else if ( array instanceof short[] )
+			return SHORT;
+		else if ( array instanceof int[] )
+			return INT;
+		else if ( array instanceof long[] )
+			return LONG;
+		else if ( array instanceof float[] )
+			return FLOAT;
+		else if ( array instanceof double[] )
+			return DOUBLE;
+		else if ( array.getClass() == Object[].class )
+			return OBJECT;
+		else
+			throw new IllegalArgumentException();
+	}
+
+	private static Object newArray( final int type, final int length )
+	{
+		switch ( type )
+		{
+		case BYTE:
+			return new byte[ length ];
+		case SHORT:
+			return new short[ length ];
+		case INT:
+			return new int[ length ];
+		case LONG:
+			return new long[ length ];
+		case FLOAT:
+			return new float[ length ];
+		case DOUBLE:
+			return new double[ length ];
+		case OBJECT:
+		default:
+			return new Object[ length ];
+		}
+	}
+}
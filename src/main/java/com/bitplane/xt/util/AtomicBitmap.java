@@ -0,0 +1,253 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-size, lock-free bitmap that can be read and modified concurrently by
+ * multiple threads.
+ * <p>
+ * Bits are stored in segments of {@value #SEGMENT_SIZE} bits which are
+ * allocated lazily, when the first bit in the segment is set. This is used to
+ * track per-cell state (for example, whether a cell has been written to
+ * Imaris) for cell grids with many millions of cells, at a cost of 1 bit per
+ * cell for the parts of the grid that have been touched.
+ *
+ * @author Tobias Pietzsch
+ */
+public final class AtomicBitmap
+{
+	private static final int SEGMENT_BITS = 16;
+
+	/**
+	 * Number of bits per segment.
+	 */
+	public static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private static final int WORDS_PER_SEGMENT = SEGMENT_SIZE >>> 6;
+
+	private final long size;
+
+	private final AtomicReferenceArray< AtomicLongArray > segments;
+
+	/**
+	 * Create a bitmap with {@code size} bits, all initially cleared.
+	 */
+	public AtomicBitmap( final long size )
+	{
+		if ( size < 0 )
+			throw new IllegalArgumentException( "size must be ≥ 0" );
+		final long numSegments = ( size + SEGMENT_SIZE - 1 ) >>> SEGMENT_BITS;
+		if ( numSegments > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "size too large" );
+		this.size = size;
+		segments = new AtomicReferenceArray<>( ( int ) numSegments );
+	}
+
+	/**
+	 * Get the number of bits in this bitmap.
+	 */
+	public long size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns {@code true} if the bit at {@code index} is set.
+	 */
+	public boolean get( final long index )
+	{
+		checkIndex( index );
+		final AtomicLongArray segment = segments.get( ( int ) ( index >>> SEGMENT_BITS ) );
+		if ( segment == null )
+			return false;
+		final int bit = ( int ) ( index & SEGMENT_MASK );
+		return ( segment.get( bit >>> 6 ) & ( 1L << bit ) ) != 0;
+	}
+
+	/**
+	 * Set the bit at {@code index}.
+	 *
+	 * @return {@code true} if the bit was changed by this call (that is, it
+	 * was not set before).
+	 */
+	public boolean set( final long index )
+	{
+		checkIndex( index );
+		final AtomicLongArray segment = getOrCreateSegment( ( int ) ( index >>> SEGMENT_BITS ) );
+		final int bit = ( int ) ( index & SEGMENT_MASK );
+		final int word = bit >>> 6;
+		final long mask = 1L << bit;
+		while ( true )
+		{
+			final long current = segment.get( word );
+			if ( ( current & mask ) != 0 )
+				return false;
+			if ( segment.compareAndSet( word, current, current | mask ) )
+				return true;
+		}
+	}
+
+	/**
+	 * Clear the bit at {@code index}.
+	 *
+	 * @return {@code true} if the bit was changed by this call (that is, it
+	 * was set before).
+	 */
+	public boolean clear( final long index )
+	{
+		checkIndex( index );
+		final AtomicLongArray segment = segments.get( ( int ) ( index >>> SEGMENT_BITS ) );
+		if ( segment == null )
+			return false;
+		final int bit = ( int ) ( index & SEGMENT_MASK );
+		final int word = bit >>> 6;
+		final long mask = 1L << bit;
+		while ( true )
+		{
+			final long current = segment.get( word );
+			if ( ( current & mask ) == 0 )
+				return false;
+			if ( segment.compareAndSet( word, current, current & ~mask ) )
+				return true;
+		}
+	}
+
+	/**
+	 * Set or clear the bit at {@code index}, depending on {@code value}.
+	 *
+	 * @return {@code true} if the bit was changed by this call.
+	 */
+	public boolean set( final long index, final boolean value )
+	{
+		return value ? set( index ) : clear( index );
+	}
+
+	/**
+	 * Clear all bits, releasing the memory of all segments.
+	 * <p>
+	 * Note that bits that are set concurrently to this call may or may not be
+	 * cleared.
+	 */
+	public void clearAll()
+	{
+		for ( int i = 0; i < segments.length(); ++i )
+			segments.set( i, null );
+	}
+
+	/**
+	 * Get the number of set bits. Note that the result is only exact if there
+	 * are no concurrent modifications.
+	 */
+	public long cardinality()
+	{
+		long count = 0;
+		for ( int i = 0; i < segments.length(); ++i )
+		{
+			final AtomicLongArray segment = segments.get( i );
+			if ( segment != null )
+				for ( int w = 0; w < WORDS_PER_SEGMENT; ++w )
+					count += Long.bitCount( segment.get( w ) );
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the index of the first set bit at or after {@code fromIndex}, or
+	 * {@code -1} if there is no such bit.
+	 */
+	public long nextSetBit( final long fromIndex )
+	{
+		return next( fromIndex, false );
+	}
+
+	/**
+	 * Returns the index of the first cleared bit at or after {@code
+	 * fromIndex}, or {@code -1} if there is no such bit.
+	 */
+	public long nextClearBit( final long fromIndex )
+	{
+		return next( fromIndex, true );
+	}
+
+	private long next( final long fromIndex, final boolean clear )
+	{
+		if ( fromIndex < 0 )
+			throw new IndexOutOfBoundsException( "fromIndex " + fromIndex + " < 0" );
+		long index = fromIndex;
+		while ( index < size )
+		{
+			final int s = ( int ) ( index >>> SEGMENT_BITS );
+			final AtomicLongArray segment = segments.get( s );
+			if ( segment == null )
+			{
+				if ( clear )
+					return index;
+			}
+			else
+			{
+				final int bit = ( int ) ( index & SEGMENT_MASK );
+				int w = bit >>> 6;
+				long word = ( clear ? ~segment.get( w ) : segment.get( w ) ) & ( -1L << bit );
+				while ( true )
+				{
+					if ( word != 0 )
+					{
+						final long next = ( ( long ) s << SEGMENT_BITS ) + ( ( long ) w << 6 ) + Long.numberOfTrailingZeros( word );
+						return next < size ? next : -1;
+					}
+					if ( ++w == WORDS_PER_SEGMENT )
+						break;
+					word = clear ? ~segment.get( w ) : segment.get( w );
+				}
+			}
+			index = ( long ) ( s + 1 ) << SEGMENT_BITS;
+		}
+		return -1;
+	}
+
+	private AtomicLongArray getOrCreateSegment( final int i )
+	{
+		final AtomicLongArray segment = segments.get( i );
+		if ( segment != null )
+			return segment;
+		final AtomicLongArray created = new AtomicLongArray( WORDS_PER_SEGMENT );
+		return segments.compareAndSet( i, null, created ) ? created : segments.get( i );
+	}
+
+	private void checkIndex( final long index )
+	{
+		if ( index < 0 || index >= size )
+			throw new IndexOutOfBoundsException( "index " + index + " out of bounds for size " + size );
+	}
+}
@@ -0,0 +1,247 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs tasks on a fixed number of threads, with at most {@code maxInFlight}
+ * tasks queued or running at any time. {@link #submit} blocks when this limit
+ * is reached (backpressure), so producers cannot run ahead of the workers by
+ * more than a bounded amount of memory.
+ * <p>
+ * The first {@code Throwable} thrown by any task is recorded. After that, no
+ * more tasks are started, and the {@code Throwable} is rethrown by {@link
+ * #awaitCompletion}.
+ * <p>
+ * {@link #close} waits for the worker threads to terminate. If it is called
+ * while tasks are still pending (because a task failed, or the producer did
+ * not reach {@link #awaitCompletion}), pending tasks are cancelled.
+ *
+ * @author Tobias Pietzsch
+ */
+public class BoundedTaskExecutor implements AutoCloseable
+{
+	@FunctionalInterface
+	public interface Task
+	{
+		void run() throws Exception;
+	}
+
+	private final ExecutorService executor;
+
+	private final int maxInFlight;
+
+	private final Semaphore permits;
+
+	private final AtomicReference< Throwable > failure = new AtomicReference<>();
+
+	private volatile boolean cancelled;
+
+	/**
+	 * @param name
+	 * 		prefix for worker thread names
+	 * @param numThreads
+	 * 		number of worker threads
+	 * @param maxInFlight
+	 * 		maximum number of tasks that are queued or running at any time
+	 */
+	public BoundedTaskExecutor( final String name, final int numThreads, final int maxInFlight )
+	{
+		if ( numThreads < 1 || maxInFlight < 1 )
+			throw new IllegalArgumentException( "numThreads and maxInFlight must be ≥ 1" );
+		this.maxInFlight = maxInFlight;
+		permits = new Semaphore( maxInFlight );
+		executor = Executors.newFixedThreadPool( numThreads, threadFactory( name ) );
+	}
+
+	/**
+	 * Submit a task for execution. Blocks until there is room in the queue.
+	 * If a previously submitted task failed, {@code task} is not run. The
+	 * failure is reported by {@link #awaitCompletion}.
+	 *
+	 * @throws InterruptedException
+	 * 		if interrupted while waiting for room in the queue.
+	 */
+	public void submit( final Task task ) throws InterruptedException
+	{
+		if ( failure.get() != null )
+			return;
+		permits.acquire();
+		try
+		{
+			executor.execute( () -> {
+				try
+				{
+					if ( failure.get() == null && !cancelled )
+						task.run();
+				}
+				catch ( final Throwable t )
+				{
+					failure.compareAndSet( null, t );
+				}
+				finally
+				{
+					permits.release();
+				}
+			} );
+		}
+		catch ( final RuntimeException e )
+		{
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Wait until all submitted tasks have completed, and rethrow the first
+	 * failure, if any.
+	 *
+	 * @throws Exception
+	 * 		the exception thrown by the first failed task, if any.
+	 */
+	public void awaitCompletion() throws Exception
+	{
+		awaitCompletion( Exception.class );
+	}
+
+	/**
+	 * Wait until all submitted tasks have completed, and rethrow the first
+	 * failure, if any.
+	 * <p>
+	 * Unchecked exceptions and errors are rethrown as is. Checked exceptions
+	 * are rethrown if they are an instance of {@code exceptionType}, and
+	 * wrapped in a {@code RuntimeException} otherwise.
+	 *
+	 * @param exceptionType
+	 * 		checked exception type that may be thrown by the tasks
+	 *
+	 * @throws E
+	 * 		the exception thrown by the first failed task, if any.
+	 * @throws InterruptedException
+	 * 		if interrupted while waiting.
+	 */
+	public < E extends Exception > void awaitCompletion( final Class< E > exceptionType ) throws E, InterruptedException
+	{
+		awaitCompletion( exceptionType, exceptionType );
+	}
+
+	/**
+	 * Wait until all submitted tasks have completed, and rethrow the first
+	 * failure, if any.
+	 * <p>
+	 * Unchecked exceptions and errors are rethrown as is. Checked exceptions
+	 * are rethrown if they are an instance of {@code exceptionType1} or {@code
+	 * exceptionType2}, and wrapped in a {@code RuntimeException} otherwise.
+	 *
+	 * @param exceptionType1
+	 * 		checked exception type that may be thrown by the tasks
+	 * @param exceptionType2
+	 * 		another checked exception type that may be thrown by the tasks
+	 *
+	 * @throws E1
+	 * 		the exception thrown by the first failed task, if any.
+	 * @throws E2
+	 * 		the exception thrown by the first failed task, if any.
+	 * @throws InterruptedException
+	 * 		if interrupted while waiting.
+	 */
+	public < E1 extends Exception, E2 extends Exception > void awaitCompletion( final Class< E1 > exceptionType1, final Class< E2 > exceptionType2 ) throws E1, E2, InterruptedException
+	{
+		permits.acquire( maxInFlight );
+		permits.release( maxInFlight );
+
+		final Throwable t = failure.get();
+		if ( t == null )
+			return;
+		if ( t instanceof Error )
+			throw ( Error ) t;
+		if ( t instanceof RuntimeException )
+			throw ( RuntimeException ) t;
+		if ( exceptionType1.isInstance( t ) )
+			throw exceptionType1.cast( t );
+		if ( exceptionType2.isInstance( t ) )
+			throw exceptionType2.cast( t );
+		throw new RuntimeException( t );
+	}
+
+	/**
+	 * Shut down the worker threads and wait for them to terminate.
+	 * <p>
+	 * If tasks are still pending, they are cancelled: Queued tasks are not
+	 * started, and running tasks are interrupted. If the calling thread is
+	 * interrupted while waiting, running tasks are interrupted as well, and
+	 * the interrupt status of the calling thread is restored.
+	 */
+	@Override
+	public void close()
+	{
+		if ( permits.availablePermits() < maxInFlight )
+		{
+			cancelled = true;
+			executor.shutdownNow();
+		}
+		else
+			executor.shutdown();
+
+		boolean interrupted = false;
+		while ( true )
+		{
+			try
+			{
+				if ( executor.awaitTermination( 1, TimeUnit.MINUTES ) )
+					break;
+			}
+			catch ( final InterruptedException e )
+			{
+				interrupted = true;
+				cancelled = true;
+				executor.shutdownNow();
+			}
+		}
+		if ( interrupted )
+			Thread.currentThread().interrupt();
+	}
+
+	private static ThreadFactory threadFactory( final String name )
+	{
+		final AtomicInteger threadNumber = new AtomicInteger( 1 );
+		return r -> {
+			final Thread thread = new Thread( r, name + "-" + threadNumber.getAndIncrement() );
+			thread.setDaemon( true );
+			return thread;
+		};
+	}
+}
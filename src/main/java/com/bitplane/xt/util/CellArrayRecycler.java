@@ -0,0 +1,245 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import net.imglib2.Dirty;
+import net.imglib2.cache.CacheRemover;
+import net.imglib2.cache.IoSync;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+
+/**
+ * A {@link CacheRemover} that puts the primitive arrays of evicted
+ * <em>clean</em> cells into an {@link ArrayPool} for recycling, and passes
+ * evicted dirty cells on to another {@code CacheRemover}.
+ * <p>
+ * The {@code CellArrayRecycler} should be put between the in-memory cache and
+ * the {@link IoSync}, i.e., {@code cache.withRemover( recycler )} where the
+ * recycler wraps the {@code IoSync}. Clean cells are then never handed to the
+ * {@code IoSync}, so the {@code IoSync} cannot resurrect a cell whose array is
+ * already recycled.
+ * <p>
+ * Accessors (e.g., cursors, or volatile accesses held by a viewer) may still
+ * use an evicted cell. Therefore, the array of an evicted cell is not put
+ * into the pool right away. Instead, it is kept (softly referenced) until the
+ * cell's access object has been garbage-collected, i.e., until nothing can
+ * read or write the array through the access anymore. Arrays of collected
+ * accesses are put into the pool on subsequent evictions. Code that holds on
+ * to the {@link ArrayDataAccess#getCurrentStorageArray() storage array}
+ * without holding on to the access must not be used with recycling.
+ *
+ * @param <K>
+ * 		key type
+ * @param <V>
+ * 		value type
+ * @param <A>
+ * 		access type
+ *
+ * @author Tobias Pietzsch
+ */
+public class CellArrayRecycler< K, V, A extends Dirty > implements CacheRemover< K, V, A >
+{
+	/**
+	 * Maximum number of distinct cell array sizes that are recycled. For a
+	 * uniform cell grid, there are only a few distinct sizes (full cells, and
+	 * truncated cells at the image border).
+	 */
+	private static final int MAX_SIZE_CLASSES = 16;
+
+	/**
+	 * Create an {@link ArrayPool} for recycling cell arrays.
+	 *
+	 * @param maxRecycledCellArrays
+	 * 		maximum number of cell arrays (per size) to keep for recycling.
+	 *
+	 * @return a new {@code ArrayPool}, or {@code null} if {@code
+	 * maxRecycledCellArrays <= 0}.
+	 */
+	public static ArrayPool createPool( final int maxRecycledCellArrays )
+	{
+		return maxRecycledCellArrays > 0 ? new ArrayPool( maxRecycledCellArrays, MAX_SIZE_CLASSES ) : null;
+	}
+
+	private final CacheRemover< K, V, A > remover;
+
+	private final ArrayPool pool;
+
+	private final Consumer< K > onRecycle;
+
+	private final Predicate< K > recyclable;
+
+	/**
+	 * Enqueues {@link PendingArray}s when their access is garbage-collected.
+	 */
+	private final ReferenceQueue< A > collected = new ReferenceQueue<>();
+
+	/**
+	 * Keeps {@link PendingArray}s reachable until they are enqueued.
+	 */
+	private final Set< PendingArray< A > > pending = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param remover
+	 * 		handles removal of dirty cells (typically an {@link IoSync}).
+	 * @param pool
+	 * 		clean cell arrays are put into this pool.
+	 */
+	public CellArrayRecycler( final CacheRemover< K, V, A > remover, final ArrayPool pool )
+	{
+		this( remover, pool, null, null );
+	}
+
+	/**
+	 * @param remover
+	 * 		handles removal of dirty cells (typically an {@link IoSync}).
+	 * @param pool
+	 * 		clean cell arrays are put into this pool.
+	 * @param onRecycle
+	 * 		is called with the key of every clean cell that is recycled (or
+	 * 		{@code null}). Use this for cleaning up per-cell state that would
+	 * 		otherwise be cleaned up by {@code remover.onRemoval()}.
+	 */
+	public CellArrayRecycler( final CacheRemover< K, V, A > remover, final ArrayPool pool, final Consumer< K > onRecycle )
+	{
+		this( remover, pool, onRecycle, null );
+	}
+
+	/**
+	 * @param remover
+	 * 		handles removal of dirty cells (typically an {@link IoSync}).
+	 * @param pool
+	 * 		clean cell arrays are put into this pool.
+	 * @param onRecycle
+	 * 		is called with the key of every clean cell that is recycled (or
+	 * 		{@code null}). Use this for cleaning up per-cell state that would
+	 * 		otherwise be cleaned up by {@code remover.onRemoval()}.
+	 * @param recyclable
+	 * 		tests whether the array of the cell with a given key should be
+	 * 		recycled (or {@code null}, meaning all cells). This should be
+	 * 		{@code true} only for cells whose arrays are taken from {@code
+	 * 		pool} when loading. Other cells are passed on to {@code remover}.
+	 */
+	public CellArrayRecycler( final CacheRemover< K, V, A > remover, final ArrayPool pool, final Consumer< K > onRecycle, final Predicate< K > recyclable )
+	{
+		this.remover = remover;
+		this.pool = pool;
+		this.onRecycle = onRecycle;
+		this.recyclable = recyclable;
+	}
+
+	@Override
+	public void onRemoval( final K key, final A valueData )
+	{
+		releaseCollected();
+		if ( !valueData.isDirty() && valueData instanceof ArrayDataAccess && ( recyclable == null || recyclable.test( key ) ) )
+		{
+			if ( onRecycle != null )
+				onRecycle.accept( key );
+			final Object array = ( ( ArrayDataAccess< ? > ) valueData ).getCurrentStorageArray();
+			pending.add( new PendingArray<>( valueData, array, collected ) );
+		}
+		else
+			remover.onRemoval( key, valueData );
+	}
+
+	/**
+	 * Put the arrays of evicted cells whose access has been
+	 * garbage-collected into the pool.
+	 */
+	private void releaseCollected()
+	{
+		PendingArray< ? > ref;
+		while ( ( ref = ( PendingArray< ? > ) collected.poll() ) != null )
+		{
+			pending.remove( ref );
+			final Object array = ref.array.get();
+			if ( array != null )
+				pool.release( array );
+		}
+	}
+
+	/**
+	 * Weak reference to the access of an evicted cell, and soft reference to
+	 * its storage array. (The array can be garbage-collected under memory
+	 * pressure while waiting for the access to be collected.)
+	 */
+	private static final class PendingArray< A > extends WeakReference< A >
+	{
+		final SoftReference< Object > array;
+
+		PendingArray( final A access, final Object array, final ReferenceQueue< ? super A > queue )
+		{
+			super( access, queue );
+			this.array = new SoftReference<>( array );
+		}
+	}
+
+	@Override
+	public CompletableFuture< Void > persist( final K key, final A valueData )
+	{
+		return remover.persist( key, valueData );
+	}
+
+	@Override
+	public A extract( final V value )
+	{
+		return remover.extract( value );
+	}
+
+	@Override
+	public V reconstruct( final K key, final A valueData )
+	{
+		return remover.reconstruct( key, valueData );
+	}
+
+	@Override
+	public void invalidate( final K key )
+	{
+		remover.invalidate( key );
+	}
+
+	@Override
+	public void invalidateIf( final long parallelismThreshold, final Predicate< K > condition )
+	{
+		remover.invalidateIf( parallelismThreshold, condition );
+	}
+
+	@Override
+	public void invalidateAll( final long parallelismThreshold )
+	{
+		remover.invalidateAll( parallelismThreshold );
+	}
+}
@@ -0,0 +1,222 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import net.imglib2.img.cell.CellGrid;
+
+/**
+ * Maps cell indices of a {@link CellGrid} to cell intervals in ImgLib2 space
+ * and to sub-volumes in Imaris space, by direct index arithmetic (without
+ * allocating temporary arrays).
+ * <p>
+ * A sub-volume in Imaris space is represented as a "region" {@code int[10]}
+ * array {@code {ox, oy, oz, oc, ot, sx, sy, sz, sc, st}} of offsets and
+ * sizes along Imaris X, Y, Z, C, T axes. Imaris axes that are not present in
+ * the ImgLib2 image have offset 0 and size 1.
+ *
+ * @author Tobias Pietzsch
+ */
+public final class CellGeometry
+{
+	/**
+	 * Length of a region array {@code {ox, oy, oz, oc, ot, sx, sy, sz, sc, st}}.
+	 */
+	public static final int REGION_SIZE = 10;
+
+	private final int n;
+
+	private final long[] gridDimensions;
+
+	private final int[] cellDimensions;
+
+	/**
+	 * Size of the last (potentially truncated) cell along each dimension.
+	 */
+	private final int[] lastCellDimensions;
+
+	/**
+	 * Maps Imaris dimension indices to imglib2 dimension indices.
+	 * {@code -1} for Imaris dimensions that are not present in the image.
+	 */
+	private final int[] mapDimensions;
+
+	/**
+	 * Maps imglib2 dimension indices to Imaris dimension indices.
+	 */
+	private final int[] invMapDimensions;
+
+	/**
+	 * @param grid
+	 * 		the cell grid (in ImgLib2 space)
+	 * @param mapDimensions
+	 * 		maps Imaris dimension indices to imglib2 dimension indices.
+	 * 		If {@code i} is dimension index from Imaris (0..4 means X,Y,Z,C,T)
+	 * 		then {@code mapDimensions[i]} is the corresponding dimension in {@code Img}.
+	 * 		For {@code Img} dimensions with size=1 are skipped.
+	 * 		E.g., for a X,Y,C image {@code mapDimensions = {0,1,-1,2,-1}}.
+	 */
+	public CellGeometry( final CellGrid grid, final int[] mapDimensions )
+	{
+		n = grid.numDimensions();
+		gridDimensions = grid.getGridDimensions();
+		cellDimensions = new int[ n ];
+		lastCellDimensions = new int[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			cellDimensions[ d ] = grid.cellDimension( d );
+			lastCellDimensions[ d ] = ( int ) ( grid.imgDimension( d ) - ( gridDimensions[ d ] - 1 ) * cellDimensions[ d ] );
+		}
+		this.mapDimensions = mapDimensions.clone();
+		invMapDimensions = MapDimensions.invertMapDimensions( mapDimensions );
+		if ( invMapDimensions.length != n )
+			throw new IllegalArgumentException( "mapDimensions does not match grid dimensions" );
+	}
+
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	/**
+	 * Get the interval of the cell with the given flattened {@code index}.
+	 *
+	 * @param index
+	 * 		flattened grid coordinates of the cell
+	 * @param cellMin
+	 * 		minimum of the cell in pixel coordinates is stored here
+	 * @param cellDims
+	 * 		dimensions of the cell is stored here
+	 */
+	public void cellInterval( final long index, final long[] cellMin, final int[] cellDims )
+	{
+		long remaining = index;
+		for ( int d = 0; d < n; ++d )
+		{
+			final long g = remaining % gridDimensions[ d ];
+			remaining /= gridDimensions[ d ];
+			cellMin[ d ] = g * cellDimensions[ d ];
+			cellDims[ d ] = g == gridDimensions[ d ] - 1 ? lastCellDimensions[ d ] : cellDimensions[ d ];
+		}
+	}
+
+	/**
+	 * Get the Imaris sub-volume of the cell with the given flattened {@code
+	 * index}.
+	 *
+	 * @param index
+	 * 		flattened grid coordinates of the cell
+	 * @param region
+	 * 		{@code {ox, oy, oz, oc, ot, sx, sy, sz, sc, st}} is stored here
+	 */
+	public void imarisRegion( final long index, final int[] region )
+	{
+		long remaining = index;
+		for ( int d = 0; d < n; ++d )
+		{
+			final long g = remaining % gridDimensions[ d ];
+			remaining /= gridDimensions[ d ];
+			final int i = invMapDimensions[ d ];
+			region[ i ] = ( int ) ( g * cellDimensions[ d ] );
+			region[ 5 + i ] = g == gridDimensions[ d ] - 1 ? lastCellDimensions[ d ] : cellDimensions[ d ];
+		}
+		fillMissing( region );
+	}
+
+	/**
+	 * Whether the Imaris sub-volume of the cell with the given flattened
+	 * {@code index} spans more than one channel or time point.
+	 *
+	 * @param index
+	 * 		flattened grid coordinates of the cell
+	 */
+	public boolean isMultiSlice( final long index )
+	{
+		long remaining = index;
+		for ( int d = 0; d < n; ++d )
+		{
+			final long g = remaining % gridDimensions[ d ];
+			remaining /= gridDimensions[ d ];
+			final int i = invMapDimensions[ d ];
+			if ( i == 3 || i == 4 )
+			{
+				final int size = g == gridDimensions[ d ] - 1 ? lastCellDimensions[ d ] : cellDimensions[ d ];
+				if ( size > 1 )
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether the Imaris sub-volume of any cell spans more than one channel
+	 * or time point.
+	 */
+	public boolean hasMultiSliceCells()
+	{
+		for ( int i = 3; i < 5; ++i )
+		{
+			final int d = mapDimensions[ i ];
+			if ( d >= 0 && cellDimensions[ d ] > 1 && ( gridDimensions[ d ] > 1 || lastCellDimensions[ d ] > 1 ) )
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Get the Imaris sub-volume of the given cell interval.
+	 *
+	 * @param cellMin
+	 * 		minimum of the cell in pixel coordinates
+	 * @param cellDims
+	 * 		dimensions of the cell
+	 * @param region
+	 * 		{@code {ox, oy, oz, oc, ot, sx, sy, sz, sc, st}} is stored here
+	 */
+	public void imarisRegion( final long[] cellMin, final int[] cellDims, final int[] region )
+	{
+		for ( int i = 0; i < 5; ++i )
+		{
+			final int d = mapDimensions[ i ];
+			region[ i ] = d < 0 ? 0 : ( int ) cellMin[ d ];
+			region[ 5 + i ] = d < 0 ? 1 : cellDims[ d ];
+		}
+	}
+
+	private void fillMissing( final int[] region )
+	{
+		for ( int i = 0; i < 5; ++i )
+		{
+			if ( mapDimensions[ i ] < 0 )
+			{
+				region[ i ] = 0;
+				region[ 5 + i ] = 1;
+			}
+		}
+	}
+}
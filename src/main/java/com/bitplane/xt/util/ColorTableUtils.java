@@ -55,7 +55,7 @@ public final class ColorTableUtils
 	public static ColorTable8 createChannelColorTable( final IDataSetPrx dataset, final int channel ) throws Error
 	{
 		final cColorTable vColorTable = dataset.GetChannelColorTable( channel );
-		if ( vColorTable != null && vColorTable.mColorRGB.length > 0 )
+		if ( hasColorTable( vColorTable ) )
 			return createColorTableFrom( vColorTable );
 		else
 		{
@@ -64,13 +64,35 @@ public final class ColorTableUtils
 		}
 	}
 
+	/**
+	 * Create an imglib2 {@code ColorTable8} from previously fetched channel
+	 * colors. If {@code vColorTable} is non-empty, translate it. Otherwise,
+	 * construct a ramp colortable from the base color {@code rgba}.
+	 *
+	 * @param vColorTable the channel colortable as returned by {@code GetChannelColorTable} (may be {@code null})
+	 * @param rgba the channel base color as returned by {@code GetChannelColorRGBA}
+	 */
+	public static ColorTable8 createChannelColorTable( final cColorTable vColorTable, final int rgba )
+	{
+		return hasColorTable( vColorTable )
+				? createColorTableFrom( vColorTable )
+				: createColorTableFrom( rgba );
+	}
+
 	/**
 	 * Get the base color of the given {@code channel} of {@code dataset} as an
 	 * imglib2 {@code ARGBType}.
 	 */
 	public static ARGBType getChannelColor( final IDataSetPrx dataset, final int channel ) throws Error
 	{
-		final int rgba = dataset.GetChannelColorRGBA( channel );
+		return toARGBType( dataset.GetChannelColorRGBA( channel ) );
+	}
+
+	/**
+	 * Convert a channel base color as encoded by Imaris to an imglib2 {@code ARGBType}.
+	 */
+	public static ARGBType toARGBType( final int rgba )
+	{
 		final int r = rgba & 0xff;
 		final int g = ( rgba >> 8 ) & 0xff;
 		final int b = ( rgba >> 16 ) & 0xff;
@@ -86,17 +108,36 @@ public final class ColorTableUtils
 	{
 		final double typeMin = dataset.GetChannelRangeMin( channel );
 		final double typeMax = dataset.GetChannelRangeMax( channel );
-
 		final cColorTable vColorTable = dataset.GetChannelColorTable( channel );
-		if ( vColorTable != null && vColorTable.mColorRGB.length > 0 )
+		final int rgba = hasColorTable( vColorTable ) ? 0 : dataset.GetChannelColorRGBA( channel );
+		return createChannelConverterToARGB( type, typeMin, typeMax, vColorTable, rgba );
+	}
+
+	/**
+	 * Construct a converter with display range and color set up from
+	 * previously fetched channel settings.
+	 *
+	 * @param typeMin the channel display range min, as returned by {@code GetChannelRangeMin}
+	 * @param typeMax the channel display range max, as returned by {@code GetChannelRangeMax}
+	 * @param vColorTable the channel colortable as returned by {@code GetChannelColorTable} (may be {@code null})
+	 * @param rgba the channel base color as returned by {@code GetChannelColorRGBA}
+	 */
+	public static < T extends NumericType< T > & RealType< T > > Converter< T, ARGBType > createChannelConverterToARGB(
+			final T type,
+			final double typeMin,
+			final double typeMax,
+			final cColorTable vColorTable,
+			final int rgba )
+	{
+		if ( hasColorTable( vColorTable ) )
 		{
 			final int[] lut = new int[ vColorTable.mColorRGB.length ];
 			final int alpha = ( 255 - UnsignedByteType.getUnsignedByte( vColorTable.mAlpha ) ) << 24;
 			Arrays.setAll( lut, i -> {
-				final int rgba = vColorTable.mColorRGB[ i ];
-				final int r = rgba & 0xff;
-				final int g = ( rgba >> 8 ) & 0xff;
-				final int b = ( rgba >> 16 ) & 0xff;
+				final int rgb = vColorTable.mColorRGB[ i ];
+				final int r = rgb & 0xff;
+				final int g = ( rgb >> 8 ) & 0xff;
+				final int b = ( rgb >> 16 ) & 0xff;
 				return ARGBType.rgba( r, g, b, alpha );
 			} );
 			return new ColorTableConverter<>( typeMin, typeMax, lut );
@@ -104,11 +145,16 @@ public final class ColorTableUtils
 		else
 		{
 			final RealARGBColorConverter< T > converter = RealARGBColorConverter.create( type, typeMin, typeMax );
-			converter.setColor( getChannelColor( dataset, channel ) );
+			converter.setColor( toARGBType( rgba ) );
 			return converter;
 		}
 	}
 
+	private static boolean hasColorTable( final cColorTable vColorTable )
+	{
+		return vColorTable != null && vColorTable.mColorRGB.length > 0;
+	}
+
 
 	/**
 	 * Construct a ramp colortable from the given base color.
@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides per request whether to use the compressed or uncompressed proxy,
+ * for {@link com.bitplane.xt.options.ImarisCacheOptions.Compression#AUTO
+ * Compression.AUTO}.
+ * <p>
+ * The end-to-end time per voxel of both variants is tracked as an
+ * exponential moving average. Initially, requests alternate between the two
+ * variants. After that, the faster variant is used, except that every {@link
+ * #REPROBE_INTERVAL}th request probes the slower one, so that the decision
+ * follows changes in data (compressibility) and network conditions.
+ *
+ * @author Tobias Pietzsch
+ */
+final class CompressionSelector
+{
+	/**
+	 * Number of initial requests (alternating between variants).
+	 */
+	private static final int NUM_INITIAL_PROBES = 16;
+
+	private static final int REPROBE_INTERVAL = 64;
+
+	/**
+	 * Weight of the newest sample in the moving average.
+	 */
+	private static final double ALPHA = 0.25;
+
+	private final AtomicLong numRequests = new AtomicLong();
+
+	/**
+	 * Moving average of nanoseconds per voxel, for uncompressed ({@code [0]})
+	 * and compressed ({@code [1]}) requests. {@code NaN} if there are no
+	 * samples yet.
+	 */
+	private final double[] nanosPerVoxel = { Double.NaN, Double.NaN };
+
+	private volatile boolean preferCompressed = false;
+
+	/**
+	 * Whether the next request should use compression.
+	 */
+	boolean useCompression()
+	{
+		final long i = numRequests.getAndIncrement();
+		if ( i < NUM_INITIAL_PROBES )
+			return ( i & 1 ) == 1;
+		final boolean prefer = preferCompressed;
+		return ( i % REPROBE_INTERVAL == 0 ) != prefer;
+	}
+
+	/**
+	 * Record the duration of a completed request.
+	 *
+	 * @param compressed
+	 * 		whether the request used compression
+	 * @param nanos
+	 * 		duration of the request
+	 * @param numVoxels
+	 * 		number of voxels transferred
+	 */
+	synchronized void record( final boolean compressed, final long nanos, final long numVoxels )
+	{
+		if ( numVoxels <= 0 )
+			return;
+		final int i = compressed ? 1 : 0;
+		final double sample = ( double ) nanos / numVoxels;
+		final double avg = nanosPerVoxel[ i ];
+		nanosPerVoxel[ i ] = Double.isNaN( avg ) ? sample : avg + ALPHA * ( sample - avg );
+		if ( !Double.isNaN( nanosPerVoxel[ 0 ] ) && !Double.isNaN( nanosPerVoxel[ 1 ] ) )
+			preferCompressed = nanosPerVoxel[ 1 ] < nanosPerVoxel[ 0 ];
+	}
+
+	/**
+	 * Whether compression is currently preferred.
+	 */
+	boolean preferCompressed()
+	{
+		return preferCompressed;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "CompressionSelector{" +
+				"nanosPerVoxel=[" + nanosPerVoxel[ 0 ] + ", " + nanosPerVoxel[ 1 ] + "]" +
+				", preferCompressed=" + preferCompressed +
+				'}';
+	}
+}
@@ -0,0 +1,312 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import Imaris.IDataSetPrx;
+import Imaris.IDataSetPrxHelper;
+import com.bitplane.xt.options.ImarisCacheOptions.Compression;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.imglib2.cache.CacheLoader;
+
+/**
+ * A set of {@code IDataSetPrx} proxies for the same dataset, each bound to a
+ * separate ICE connection (by a distinct {@code ice_connectionId}).
+ * <p>
+ * By default, all traffic to Imaris goes over a single connection, so a
+ * large transfer (e.g., persisting modified blocks) delays every request
+ * queued behind it. With {@code numConnections > 1}, the first connection is
+ * reserved for the {@link Lane#INTERACTIVE INTERACTIVE} lane, which is used
+ * by loads that are issued for volatile (BigDataViewer) images. All other
+ * requests use the {@link Lane#BULK BULK} lane, and are distributed
+ * round-robin over the remaining connections.
+ * <p>
+ * The lane is a property of the calling thread, see {@link
+ * #interactive(CacheLoader)} and {@link #callInLane}. Connection IDs are the
+ * same for all datasets, so the connections are shared by all datasets of an
+ * Imaris application.
+ * <p>
+ * Optionally, proxies use ICE protocol compression. With {@link
+ * Compression#AUTO}, both compressed and uncompressed proxies are kept, and
+ * {@link GetDataSubVolume#forConnectionLanes} / {@link
+ * SetDataSubVolume#forConnectionLanes} choose per request whichever is
+ * faster.
+ *
+ * @author Tobias Pietzsch
+ */
+public final class ConnectionLanes
+{
+	public enum Lane
+	{
+		/**
+		 * Latency-sensitive requests, e.g., loading blocks for display.
+		 */
+		INTERACTIVE,
+
+		/**
+		 * Everything else, e.g., loading blocks for processing, persisting
+		 * modified blocks.
+		 */
+		BULK
+	}
+
+	private static final String CONNECTION_ID_PREFIX = "imglib2-imaris-";
+
+	private static final ThreadLocal< Lane > currentLane = ThreadLocal.withInitial( () -> Lane.BULK );
+
+	private final IDataSetPrx[] proxies;
+
+	/**
+	 * Variants of {@link #proxies} with the invocation timeout of the {@link
+	 * #requestPolicy}, used for reading. (Writes are not retried, so they
+	 * must not time out.) This is {@link #proxies} if there is no timeout.
+	 */
+	private final IDataSetPrx[] readProxies;
+
+	/**
+	 * Compressed variants of {@link #proxies}, for {@link Compression#AUTO}.
+	 * Otherwise {@code null}.
+	 */
+	private final IDataSetPrx[] compressedProxies;
+
+	/**
+	 * Compressed variants of {@link #readProxies}, for {@link
+	 * Compression#AUTO}. Otherwise {@code null}.
+	 */
+	private final IDataSetPrx[] compressedReadProxies;
+
+	private final RequestPolicy requestPolicy;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	private ConnectionLanes(
+			final IDataSetPrx[] proxies,
+			final IDataSetPrx[] readProxies,
+			final IDataSetPrx[] compressedProxies,
+			final IDataSetPrx[] compressedReadProxies,
+			final RequestPolicy requestPolicy )
+	{
+		this.proxies = proxies;
+		this.readProxies = readProxies;
+		this.compressedProxies = compressedProxies;
+		this.compressedReadProxies = compressedReadProxies;
+		this.requestPolicy = requestPolicy;
+	}
+
+	/**
+	 * Use only {@code dataset} (with its default connection) for all lanes.
+	 */
+	public static ConnectionLanes single( final IDataSetPrx dataset )
+	{
+		final IDataSetPrx[] proxies = { dataset };
+		return new ConnectionLanes( proxies, proxies, null, null, RequestPolicy.DEFAULT );
+	}
+
+	/**
+	 * Create {@code numConnections} proxies for {@code dataset}. If {@code
+	 * numConnections ≤ 1}, this is equivalent to {@link #single}.
+	 */
+	public static ConnectionLanes create( final IDataSetPrx dataset, final int numConnections )
+	{
+		return create( dataset, numConnections, Compression.OFF );
+	}
+
+	/**
+	 * Create {@code numConnections} proxies for {@code dataset}, using ICE
+	 * protocol compression as specified.
+	 */
+	public static ConnectionLanes create( final IDataSetPrx dataset, final int numConnections, final Compression compression )
+	{
+		return create( dataset, numConnections, compression, RequestPolicy.DEFAULT );
+	}
+
+	/**
+	 * Create {@code numConnections} proxies for {@code dataset}, using ICE
+	 * protocol compression as specified. If {@code requestPolicy} {@link
+	 * RequestPolicy#hasTimeout() has a timeout}, it is set as the invocation
+	 * timeout of the proxies used for reading (see {@link #getForReading}).
+	 */
+	public static ConnectionLanes create( final IDataSetPrx dataset, final int numConnections, final Compression compression, final RequestPolicy requestPolicy )
+	{
+		final IDataSetPrx[] proxies = new IDataSetPrx[ Math.max( 1, numConnections ) ];
+		if ( numConnections <= 1 )
+			proxies[ 0 ] = dataset;
+		else
+		{
+			proxies[ 0 ] = IDataSetPrxHelper.uncheckedCast( dataset.ice_connectionId( CONNECTION_ID_PREFIX + "interactive" ) );
+			for ( int i = 1; i < numConnections; ++i )
+				proxies[ i ] = IDataSetPrxHelper.uncheckedCast( dataset.ice_connectionId( CONNECTION_ID_PREFIX + "bulk-" + i ) );
+		}
+
+		final IDataSetPrx[] readProxies;
+		if ( requestPolicy.hasTimeout() )
+		{
+			readProxies = new IDataSetPrx[ proxies.length ];
+			for ( int i = 0; i < proxies.length; ++i )
+				readProxies[ i ] = IDataSetPrxHelper.uncheckedCast( proxies[ i ].ice_invocationTimeout( requestPolicy.timeoutMillis() ) );
+		}
+		else
+			readProxies = proxies;
+
+		switch ( compression )
+		{
+		case ON:
+			return new ConnectionLanes( compressed( proxies ), compressed( readProxies ), null, null, requestPolicy );
+		case AUTO:
+			return new ConnectionLanes( proxies, readProxies, compressed( proxies ), compressed( readProxies ), requestPolicy );
+		case OFF:
+		default:
+			return new ConnectionLanes( proxies, readProxies, null, null, requestPolicy );
+		}
+	}
+
+	private static IDataSetPrx[] compressed( final IDataSetPrx[] proxies )
+	{
+		final IDataSetPrx[] compressed = new IDataSetPrx[ proxies.length ];
+		for ( int i = 0; i < proxies.length; ++i )
+			compressed[ i ] = IDataSetPrxHelper.uncheckedCast( proxies[ i ].ice_compress( true ) );
+		return compressed;
+	}
+
+	public int numConnections()
+	{
+		return proxies.length;
+	}
+
+	/**
+	 * Get the proxy with index {@code i}, where {@code 0 ≤ i < numConnections()}.
+	 * This proxy has no invocation timeout, and is used for writing.
+	 */
+	public IDataSetPrx get( final int i )
+	{
+		return proxies[ i ];
+	}
+
+	/**
+	 * Get the proxy with index {@code i} for reading. This has the invocation
+	 * timeout of the {@link #getRequestPolicy() request policy}, if any.
+	 */
+	public IDataSetPrx getForReading( final int i )
+	{
+		return readProxies[ i ];
+	}
+
+	/**
+	 * Get the deadline, retry, and hedging settings for requests.
+	 */
+	public RequestPolicy getRequestPolicy()
+	{
+		return requestPolicy;
+	}
+
+	/**
+	 * Whether compression is chosen adaptively per request ({@link
+	 * Compression#AUTO}). If so, {@link #getCompressed} provides the
+	 * compressed variants of the proxies.
+	 */
+	public boolean isAdaptiveCompression()
+	{
+		return compressedProxies != null;
+	}
+
+	/**
+	 * Get the compressed variant of the proxy with index {@code i}. This is
+	 * only available if {@link #isAdaptiveCompression()}.
+	 */
+	public IDataSetPrx getCompressed( final int i )
+	{
+		return compressedProxies[ i ];
+	}
+
+	/**
+	 * Get the compressed variant of the proxy with index {@code i} for
+	 * reading. This is only available if {@link #isAdaptiveCompression()}.
+	 */
+	public IDataSetPrx getCompressedForReading( final int i )
+	{
+		return compressedReadProxies[ i ];
+	}
+
+	/**
+	 * Get the proxy to use for the next request of the calling thread.
+	 */
+	public IDataSetPrx get()
+	{
+		return proxies[ index() ];
+	}
+
+	/**
+	 * Get the index of the proxy to use for the next request of the calling
+	 * thread. This is {@code 0} for the {@code INTERACTIVE} lane, and cycles
+	 * through {@code 1 ... numConnections()-1} for the {@code BULK} lane.
+	 */
+	public int index()
+	{
+		final int n = proxies.length;
+		if ( n == 1 || currentLane.get() == Lane.INTERACTIVE )
+			return 0;
+		return 1 + ( next.getAndIncrement() & Integer.MAX_VALUE ) % ( n - 1 );
+	}
+
+	/**
+	 * Wrap {@code loader} such that requests issued while loading use the
+	 * {@link Lane#INTERACTIVE INTERACTIVE} lane.
+	 */
+	public static < K, V > CacheLoader< K, V > interactive( final CacheLoader< K, V > loader )
+	{
+		return key -> callInLane( Lane.INTERACTIVE, () -> loader.get( key ) );
+	}
+
+	/**
+	 * Get the lane of the calling thread.
+	 */
+	public static Lane currentLane()
+	{
+		return currentLane.get();
+	}
+
+	/**
+	 * Call {@code task} on the calling thread, with requests issued by {@code
+	 * task} using the given {@code lane}. This is used to carry the lane of a
+	 * request over to another thread.
+	 */
+	public static < V > V callInLane( final Lane lane, final Callable< V > task ) throws Exception
+	{
+		final Lane previous = currentLane.get();
+		currentLane.set( lane );
+		try
+		{
+			return task.call();
+		}
+		finally
+		{
+			currentLane.set( previous );
+		}
+	}
+}
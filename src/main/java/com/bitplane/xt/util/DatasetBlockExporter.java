@@ -0,0 +1,299 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import Imaris.Error;
+import Imaris.IDataSetPrx;
+import Imaris.tType;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports an Imaris dataset into a local directory of compressed chunks,
+ * bypassing the ImgLib2 cache.
+ * <p>
+ * Blocks are read with {@code GetPyramidData...} calls that are aligned with
+ * the Imaris block size of each resolution level (one call per block, channel,
+ * and timepoint). Reading, encoding, and writing of blocks run on {@code
+ * numThreads} threads, with at most {@code maxInFlight} blocks pending at any
+ * time. Because the cache is not involved, an export does not evict the
+ * working set of {@link com.bitplane.xt.ImarisDataset ImarisDataset}s that are
+ * open on the same dataset.
+ * <p>
+ * The output uses the <a href="https://github.com/saalfeldlab/n5">N5</a>
+ * directory layout: each exported resolution level {@code l} is a 5D dataset
+ * {@code s<l>} with axes {@code X,Y,Z,C,T}, and block size {@code {bx, by,
+ * bz, 1, 1}}. Levels {@code l>0} carry a {@code downsamplingFactors}
+ * attribute (relative to level 0). Each chunk can be stored raw or
+ * gzip-compressed.
+ *
+ * @author Tobias Pietzsch
+ */
+public class DatasetBlockExporter
+{
+	public enum Compression
+	{
+		RAW,
+		GZIP
+	}
+
+	private final IDataSetPrx dataset;
+
+	private final tType datasetType;
+
+	private final int sc;
+
+	private final int st;
+
+	/**
+	 * {@code pyramidSizes[level]} is {@code {sx, sy, sz}} at resolution {@code level}.
+	 */
+	private final int[][] pyramidSizes;
+
+	/**
+	 * {@code pyramidBlockSizes[level]} is {@code {bx, by, bz}} at resolution {@code level}.
+	 */
+	private final int[][] pyramidBlockSizes;
+
+	private final int numThreads;
+
+	private final int maxInFlight;
+
+	/**
+	 * Create a {@code DatasetBlockExporter} using one thread per available
+	 * processor, with at most two blocks per thread in flight.
+	 */
+	public DatasetBlockExporter( final IDataSetPrx dataset ) throws Error
+	{
+		this( dataset, Runtime.getRuntime().availableProcessors(), 2 * Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * @param dataset
+	 * 		the Imaris dataset to export
+	 * @param numThreads
+	 * 		how many threads to use for reading and writing blocks
+	 * @param maxInFlight
+	 * 		maximum number of blocks that are read or written at any time
+	 */
+	public DatasetBlockExporter( final IDataSetPrx dataset, final int numThreads, final int maxInFlight ) throws Error
+	{
+		this.dataset = dataset;
+		datasetType = dataset.GetType();
+		sc = dataset.GetSizeC();
+		st = dataset.GetSizeT();
+		pyramidSizes = dataset.GetPyramidSizes();
+		pyramidBlockSizes = dataset.GetPyramidBlockSizes();
+		this.numThreads = numThreads;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Export all resolution levels of {@code dataset} into {@code directory}
+	 * with default settings.
+	 */
+	public static void export( final IDataSetPrx dataset, final Path directory, final Compression compression ) throws Error, IOException, InterruptedException
+	{
+		new DatasetBlockExporter( dataset ).export( directory, compression );
+	}
+
+	/**
+	 * Get the number of resolution levels of the dataset.
+	 */
+	public int numResolutions()
+	{
+		return pyramidSizes.length;
+	}
+
+	/**
+	 * Export all resolution levels into {@code directory}.
+	 */
+	public void export( final Path directory, final Compression compression ) throws Error, IOException, InterruptedException
+	{
+		final int[] levels = new int[ numResolutions() ];
+		Arrays.setAll( levels, i -> i );
+		export( directory, compression, levels );
+	}
+
+	/**
+	 * Export the specified resolution {@code levels} into {@code directory}.
+	 */
+	public void export( final Path directory, final Compression compression, final int... levels ) throws Error, IOException, InterruptedException
+	{
+		Files.createDirectories( directory );
+		writeAttributes( directory, "{\"n5\":\"2.5.0\"}" );
+
+		final GetDataSubVolume slice = GetDataSubVolume.forDataSet( dataset, datasetType );
+		try ( final BoundedTaskExecutor executor = new BoundedTaskExecutor( "imaris-block-exporter", numThreads, maxInFlight ) )
+		{
+			for ( final int level : levels )
+			{
+				final Path levelDirectory = directory.resolve( "s" + level );
+				Files.createDirectories( levelDirectory );
+				writeAttributes( levelDirectory, levelAttributes( level, compression ) );
+
+				final int[] size = pyramidSizes[ level ];
+				final int[] block = pyramidBlockSizes[ level ];
+				for ( int t = 0; t < st; ++t )
+				{
+					for ( int c = 0; c < sc; ++c )
+					{
+						for ( int z = 0; z < size[ 2 ]; z += block[ 2 ] )
+						{
+							for ( int y = 0; y < size[ 1 ]; y += block[ 1 ] )
+							{
+								for ( int x = 0; x < size[ 0 ]; x += block[ 0 ] )
+								{
+									final int ox = x, oy = y, oz = z, oc = c, ot = t;
+									final int sx = Math.min( block[ 0 ], size[ 0 ] - x );
+									final int sy = Math.min( block[ 1 ], size[ 1 ] - y );
+									final int sz = Math.min( block[ 2 ], size[ 2 ] - z );
+									final Path file = levelDirectory
+											.resolve( Integer.toString( ox / block[ 0 ] ) )
+											.resolve( Integer.toString( oy / block[ 1 ] ) )
+											.resolve( Integer.toString( oz / block[ 2 ] ) )
+											.resolve( Integer.toString( oc ) )
+											.resolve( Integer.toString( ot ) );
+									executor.submit( () -> {
+										final Object data = slice.get( ox, oy, oz, oc, ot, level, sx, sy, sz );
+										writeBlock( file, new int[] { sx, sy, sz, 1, 1 }, data, compression );
+									} );
+								}
+							}
+						}
+					}
+				}
+			}
+			executor.awaitCompletion( Error.class, IOException.class );
+		}
+	}
+
+	private String levelAttributes( final int level, final Compression compression )
+	{
+		final int[] size = pyramidSizes[ level ];
+		final int[] block = pyramidBlockSizes[ level ];
+		final StringBuilder sb = new StringBuilder( "{" );
+		sb.append( "\"dimensions\":[" ).append( size[ 0 ] ).append( ',' ).append( size[ 1 ] ).append( ',' ).append( size[ 2 ] )
+				.append( ',' ).append( sc ).append( ',' ).append( st ).append( "]," );
+		sb.append( "\"blockSize\":[" ).append( block[ 0 ] ).append( ',' ).append( block[ 1 ] ).append( ',' ).append( block[ 2 ] )
+				.append( ",1,1]," );
+		sb.append( "\"dataType\":\"" ).append( dataTypeName( datasetType ) ).append( "\"," );
+		sb.append( "\"compression\":" ).append( compression == Compression.GZIP
+				? "{\"type\":\"gzip\",\"level\":-1}"
+				: "{\"type\":\"raw\"}" );
+		if ( level > 0 )
+		{
+			sb.append( ",\"downsamplingFactors\":[" );
+			for ( int d = 0; d < 3; ++d )
+				sb.append( ( double ) pyramidSizes[ 0 ][ d ] / size[ d ] ).append( ',' );
+			sb.append( "1.0,1.0]" );
+		}
+		sb.append( "}" );
+		return sb.toString();
+	}
+
+	private static String dataTypeName( final tType datasetType )
+	{
+		switch ( datasetType )
+		{
+		case eTypeUInt8:
+			return "uint8";
+		case eTypeUInt16:
+			return "uint16";
+		case eTypeFloat:
+			return "float32";
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	private static void writeAttributes( final Path directory, final String json ) throws IOException
+	{
+		Files.write( directory.resolve( "attributes.json" ), json.getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	/**
+	 * Write a block in N5 default block format: a header with the block size,
+	 * followed by the (optionally compressed) big-endian data.
+	 */
+	private static void writeBlock( final Path file, final int[] blockSize, final Object data, final Compression compression ) throws IOException
+	{
+		Files.createDirectories( file.getParent() );
+		try ( final OutputStream out = new BufferedOutputStream( Files.newOutputStream( file ) ) )
+		{
+			final DataOutputStream header = new DataOutputStream( out );
+			header.writeShort( 0 ); // mode: default
+			header.writeShort( blockSize.length );
+			for ( final int s : blockSize )
+				header.writeInt( s );
+			header.flush();
+
+			final byte[] bytes = toBigEndianBytes( data );
+			if ( compression == Compression.GZIP )
+			{
+				final GZIPOutputStream gzip = new GZIPOutputStream( out );
+				gzip.write( bytes );
+				gzip.finish();
+			}
+			else
+				out.write( bytes );
+		}
+	}
+
+	private static byte[] toBigEndianBytes( final Object data )
+	{
+		if ( data instanceof byte[] )
+			return ( byte[] ) data;
+		else if ( data instanceof short[] )
+		{
+			final short[] shorts = ( short[] ) data;
+			final ByteBuffer buffer = ByteBuffer.allocate( 2 * shorts.length ).order( ByteOrder.BIG_ENDIAN );
+			buffer.asShortBuffer().put( shorts );
+			return buffer.array();
+		}
+		else if ( data instanceof float[] )
+		{
+			final float[] floats = ( float[] ) data;
+			final ByteBuffer buffer = ByteBuffer.allocate( 4 * floats.length ).order( ByteOrder.BIG_ENDIAN );
+			buffer.asFloatBuffer().put( floats );
+			return buffer.array();
+		}
+		else
+			throw new IllegalArgumentException();
+	}
+}
@@ -0,0 +1,225 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import Imaris.Error;
+import Imaris.IDataSetPrx;
+import Imaris.tType;
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Copies a {@code RandomAccessibleInterval} into an Imaris dataset, bypassing
+ * the ImgLib2 cache.
+ * <p>
+ * The source is traversed in chunks that are aligned with the Imaris block
+ * size (per channel and timepoint). Each chunk is converted directly into the
+ * flattened primitive array expected by {@code SetDataSubVolumeAs1DArray...},
+ * and sent to Imaris. Conversion and transfer of chunks run on {@code
+ * numThreads} threads. At most {@code maxInFlight} chunks are pending at any
+ * time, which bounds the memory used for buffering.
+ * <p>
+ * Typical use is to populate a newly created dataset:
+ * <pre>{@code
+ * IDataSetPrx dataset = ImarisUtils.createDataset( app.getIApplicationPrx(), eTypeUInt16, sx, sy, sz, sc, st );
+ * DatasetBlockWriter.write( img, dataset );
+ * ImarisDataset< ? > ds = new ImarisDataset<>( context, dataset );
+ * }</pre>
+ * Note, that the dataset is modified directly. Any {@link
+ * com.bitplane.xt.ImarisDataset ImarisDataset} or {@link
+ * com.bitplane.xt.img.ImarisImg ImarisImg} that was created on the dataset
+ * before will not see the written data if it has already cached the
+ * respective blocks (or, for newly created datasets, assumes blocks to be
+ * empty).
+ *
+ * @author Tobias Pietzsch
+ */
+public class DatasetBlockWriter
+{
+	private final IDataSetPrx dataset;
+
+	private final tType datasetType;
+
+	/**
+	 * Size of the dataset {@code {sx, sy, sz, sc, st}}.
+	 */
+	private final int[] imarisDims;
+
+	/**
+	 * Imaris block size {@code {bx, by, bz}} of the full resolution level.
+	 */
+	private final int[] blockSize;
+
+	private final int numThreads;
+
+	private final int maxInFlight;
+
+	/**
+	 * Create a {@code DatasetBlockWriter} using one thread per available
+	 * processor, with at most two chunks per thread in flight.
+	 */
+	public DatasetBlockWriter( final IDataSetPrx dataset ) throws Error
+	{
+		this( dataset, Runtime.getRuntime().availableProcessors(), 2 * Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * @param dataset
+	 * 		the Imaris dataset to write to
+	 * @param numThreads
+	 * 		how many threads to use for converting and sending chunks
+	 * @param maxInFlight
+	 * 		maximum number of chunks that are converted or sent at any time
+	 */
+	public DatasetBlockWriter( final IDataSetPrx dataset, final int numThreads, final int maxInFlight ) throws Error
+	{
+		this.dataset = dataset;
+		datasetType = dataset.GetType();
+		imarisDims = new int[] {
+				dataset.GetSizeX(),
+				dataset.GetSizeY(),
+				dataset.GetSizeZ(),
+				dataset.GetSizeC(),
+				dataset.GetSizeT() };
+		blockSize = dataset.GetPyramidBlockSizes()[ 0 ];
+		this.numThreads = numThreads;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Copy {@code source} into {@code dataset} with default settings.
+	 *
+	 * @see #write(RandomAccessibleInterval)
+	 */
+	public static < T extends RealType< T > > void write( final RandomAccessibleInterval< T > source, final IDataSetPrx dataset ) throws Error, InterruptedException
+	{
+		new DatasetBlockWriter( dataset ).write( source );
+	}
+
+	/**
+	 * Copy {@code source} into the dataset.
+	 * <p>
+	 * {@code source} dimensions and dataset dimensions must match. (But {@code
+	 * source} is allowed to strip dimensions with extent 1.) Values are
+	 * rounded and clamped to the range of the dataset type, if necessary.
+	 */
+	public < T extends RealType< T > > void write( final RandomAccessibleInterval< T > source ) throws Error, InterruptedException
+	{
+		final RandomAccessibleInterval< T > img = Views.zeroMin( source );
+		final int n = img.numDimensions();
+		final int[] mapDimensions = MapDimensions.createMapDimensions( imarisDims, Intervals.dimensionsAsLongArray( img ) );
+		final SetDataSubVolume slice = SetDataSubVolume.forDataSet( dataset, datasetType );
+
+		final int bx = blockSize[ 0 ];
+		final int by = blockSize[ 1 ];
+		final int bz = blockSize[ 2 ];
+
+		try ( final BoundedTaskExecutor executor = new BoundedTaskExecutor( "imaris-block-writer", numThreads, maxInFlight ) )
+		{
+			for ( int t = 0; t < imarisDims[ 4 ]; ++t )
+			{
+				for ( int c = 0; c < imarisDims[ 3 ]; ++c )
+				{
+					for ( int z = 0; z < imarisDims[ 2 ]; z += bz )
+					{
+						for ( int y = 0; y < imarisDims[ 1 ]; y += by )
+						{
+							for ( int x = 0; x < imarisDims[ 0 ]; x += bx )
+							{
+								final int[] o = { x, y, z, c, t };
+								final int[] s = {
+										Math.min( bx, imarisDims[ 0 ] - x ),
+										Math.min( by, imarisDims[ 1 ] - y ),
+										Math.min( bz, imarisDims[ 2 ] - z ),
+										1,
+										1 };
+								executor.submit( () -> {
+									final long[] min = new long[ n ];
+									final long[] max = new long[ n ];
+									for ( int i = 0; i < 5; ++i )
+									{
+										final int d = mapDimensions[ i ];
+										if ( d >= 0 )
+										{
+											min[ d ] = o[ i ];
+											max[ d ] = o[ i ] + s[ i ] - 1;
+										}
+									}
+									final IterableInterval< T > chunk = Views.flatIterable( Views.interval( img, min, max ) );
+									final Object data = toArray( chunk, s[ 0 ] * s[ 1 ] * s[ 2 ], datasetType );
+									slice.set( data, o[ 0 ], o[ 1 ], o[ 2 ], o[ 3 ], o[ 4 ], s[ 0 ], s[ 1 ], s[ 2 ] );
+								} );
+							}
+						}
+					}
+				}
+			}
+			executor.awaitCompletion( Error.class );
+		}
+	}
+
+	/**
+	 * Copy {@code chunk} (in flat iteration order) into a new primitive array
+	 * matching {@code datasetType}.
+	 */
+	private static < T extends RealType< T > > Object toArray( final IterableInterval< T > chunk, final int size, final tType datasetType )
+	{
+		final Cursor< T > in = chunk.cursor();
+		switch ( datasetType )
+		{
+		case eTypeUInt8:
+		{
+			final byte[] data = new byte[ size ];
+			for ( int i = 0; i < size; ++i )
+				data[ i ] = ( byte ) Math.min( 255, Math.max( 0, Math.round( in.next().getRealFloat() ) ) );
+			return data;
+		}
+		case eTypeUInt16:
+		{
+			final short[] data = new short[ size ];
+			for ( int i = 0; i < size; ++i )
+				data[ i ] = ( short ) Math.min( 65535, Math.max( 0, Math.round( in.next().getRealFloat() ) ) );
+			return data;
+		}
+		case eTypeFloat:
+		{
+			final float[] data = new float[ size ];
+			for ( int i = 0; i < size; ++i )
+				data[ i ] = in.next().getRealFloat();
+			return data;
+		}
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+}
@@ -84,4 +84,35 @@ public interface GetDataSubVolume
 			throw new IllegalArgumentException();
 		}
 	}
+
+	/**
+	 * Get a {@code GetDataSubVolume} that sends each request over the
+	 * connection selected by {@link ConnectionLanes#index()}. With adaptive
+	 * compression, each request uses either the compressed or uncompressed
+	 * proxy, whichever is currently faster per voxel.
+	 */
+	static GetDataSubVolume forConnectionLanes( final ConnectionLanes lanes, final tType datasetType )
+	{
+		final int n = lanes.numConnections();
+		if ( n == 1 && !lanes.isAdaptiveCompression() )
+			return forDataSet( lanes.getForReading( 0 ), datasetType );
+
+		final GetDataSubVolume[] slices = new GetDataSubVolume[ n ];
+		for ( int i = 0; i < n; ++i )
+			slices[ i ] = forDataSet( lanes.getForReading( i ), datasetType );
+		if ( !lanes.isAdaptiveCompression() )
+			return ( ox, oy, oz, oc, ot, r, sx, sy, sz ) -> slices[ lanes.index() ].get( ox, oy, oz, oc, ot, r, sx, sy, sz );
+
+		final GetDataSubVolume[] compressed = new GetDataSubVolume[ n ];
+		for ( int i = 0; i < n; ++i )
+			compressed[ i ] = forDataSet( lanes.getCompressedForReading( i ), datasetType );
+		final CompressionSelector selector = new CompressionSelector();
+		return ( ox, oy, oz, oc, ot, r, sx, sy, sz ) -> {
+			final boolean compress = selector.useCompression();
+			final long t0 = System.nanoTime();
+			final Object result = ( compress ? compressed : slices )[ lanes.index() ].get( ox, oy, oz, oc, ot, r, sx, sy, sz );
+			selector.record( compress, System.nanoTime() - t0, ( long ) sx * sy * sz );
+			return result;
+		};
+	}
 }
@@ -57,6 +57,41 @@ public class ImarisDirtyLoaderRemover< A extends Dirty > extends ImarisLoaderRem
 		super( dataset, mapDimensions, grid, backingLoader, persistOnLoad, true );
 	}
 
+	/**
+	 * @param cellArrayPool
+	 * 		if not {@code null}, cell arrays are taken from this pool where
+	 * 		possible. See {@link CellArrayRecycler}.
+	 */
+	public ImarisDirtyLoaderRemover(
+			final IDataSetPrx dataset,
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< A > > backingLoader,
+			final boolean persistOnLoad,
+			final ArrayPool cellArrayPool ) throws Error
+	{
+		super( dataset, mapDimensions, grid, backingLoader, persistOnLoad, true, cellArrayPool );
+	}
+
+	/**
+	 * @param lanes
+	 * 		proxies of the dataset, each request is sent over the connection
+	 * 		selected by {@link ConnectionLanes#index()}.
+	 * @param cellArrayPool
+	 * 		if not {@code null}, cell arrays are taken from this pool where
+	 * 		possible. See {@link CellArrayRecycler}.
+	 */
+	public ImarisDirtyLoaderRemover(
+			final ConnectionLanes lanes,
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< A > > backingLoader,
+			final boolean persistOnLoad,
+			final ArrayPool cellArrayPool ) throws Error
+	{
+		super( lanes, mapDimensions, grid, backingLoader, persistOnLoad, true, cellArrayPool );
+	}
+
 	@Override
 	public void onRemoval( final Long key, final A valueData )
 	{
@@ -55,6 +55,17 @@ public class ImarisLoader< A > implements CacheRemover< Long, Cell< A >, A >, Ca
 
 	protected final int n;
 
+	/**
+	 * Maps cell indices to cell intervals and Imaris sub-volumes.
+	 */
+	protected final CellGeometry geometry;
+
+	/**
+	 * Per-thread {@link CellGeometry#REGION_SIZE region} array, re-used for
+	 * every cell that is loaded or written.
+	 */
+	protected final ThreadLocal< int[] > region = ThreadLocal.withInitial( () -> new int[ CellGeometry.REGION_SIZE ] );
+
 	private final int level;
 
 	private final PixelSource< A > volatileArraySource;
@@ -89,23 +100,97 @@ public class ImarisLoader< A > implements CacheRemover< Long, Cell< A >, A >, Ca
 			final CellGrid grid,
 			final int level,
 			final boolean withDirtyFlag ) throws Error
+	{
+		this( dataset, mapDimensions, grid, level, withDirtyFlag, null );
+	}
+
+	/**
+	 * @param cellArrayPool
+	 * 		if not {@code null}, cell arrays are taken from this pool (e.g.,
+	 * 		recycled arrays of evicted cells) where possible.
+	 */
+	protected ImarisLoader(
+			final IDataSetPrx dataset,
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final int level,
+			final boolean withDirtyFlag,
+			final ArrayPool cellArrayPool ) throws Error
+	{
+		this( ConnectionLanes.single( dataset ), mapDimensions, grid, level, withDirtyFlag, cellArrayPool );
+	}
+
+	/**
+	 * @param lanes
+	 * 		proxies of the dataset, each request is sent over the connection
+	 * 		selected by {@link ConnectionLanes#index()}.
+	 */
+	public ImarisLoader(
+			final ConnectionLanes lanes,
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final int level ) throws Error
+	{
+		this( lanes, mapDimensions, grid, level, false, null );
+	}
+
+	/**
+	 * @param lanes
+	 * 		proxies of the dataset, each request is sent over the connection
+	 * 		selected by {@link ConnectionLanes#index()}.
+	 * @param cellArrayPool
+	 * 		if not {@code null}, cell arrays are taken from this pool (e.g.,
+	 * 		recycled arrays of evicted cells) where possible.
+	 */
+	protected ImarisLoader(
+			final ConnectionLanes lanes,
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final int level,
+			final boolean withDirtyFlag,
+			final ArrayPool cellArrayPool ) throws Error
 	{
 		this.grid = grid;
 		n = grid.numDimensions();
+		geometry = new CellGeometry( grid, mapDimensions );
 		this.level = level;
-		volatileArraySource = PixelSource.volatileArraySource( dataset, dataset.GetType(), mapDimensions, withDirtyFlag );
+		volatileArraySource = PixelSource.volatileArraySource( lanes, lanes.get( 0 ).GetType(), withDirtyFlag, cellArrayPool );
+	}
+
+	/**
+	 * Whether cells of the given {@code grid} are (at least partly) assembled
+	 * from several Imaris slices, that is, whether cell arrays can be taken
+	 * from a {@code cellArrayPool} at all. Single-slice cells use the array
+	 * received from Imaris directly.
+	 *
+	 * @param mapDimensions
+	 * 		maps Imaris dimension indices to imglib2 dimension indices.
+	 * @param grid
+	 * 		the cell grid
+	 */
+	public static boolean assemblesCells( final int[] mapDimensions, final CellGrid grid )
+	{
+		return new CellGeometry( grid, mapDimensions ).hasMultiSliceCells();
+	}
+
+	/**
+	 * Whether the array of the cell with the given flattened {@code index} is
+	 * assembled from several Imaris slices (and therefore taken from the
+	 * {@code cellArrayPool}, if there is one).
+	 */
+	public boolean isAssembled( final long index )
+	{
+		return geometry.isMultiSlice( index );
 	}
 
 	@Override
 	public Cell< A > get( final Long key ) throws Exception
 	{
-		final long[] cellMin = new long[ n ];
-		final int[] cellDims = new int[ n ];
-		grid.getCellDimensions( key, cellMin, cellDims );
-		return new Cell<>(
-				cellDims,
-				cellMin,
-				volatileArraySource.get( level, cellMin, cellDims ) );
+		final long index = key;
+		final int[] region = this.region.get();
+		geometry.imarisRegion( index, region );
+		final A data = volatileArraySource.get( level, region );
+		return reconstruct( key, data );
 	}
 
 	@Override
@@ -117,10 +202,10 @@ public class ImarisLoader< A > implements CacheRemover< Long, Cell< A >, A >, Ca
 	@Override
 	public Cell< A > reconstruct( final Long key, final A valueData )
 	{
-		final long index = key;
+		// NB: cellMin and cellDims are kept by the Cell
 		final long[] cellMin = new long[ n ];
 		final int[] cellDims = new int[ n ];
-		grid.getCellDimensions( index, cellMin, cellDims );
+		geometry.cellInterval( key, cellMin, cellDims );
 		return new Cell<>( cellDims, cellMin, valueData );
 	}
 
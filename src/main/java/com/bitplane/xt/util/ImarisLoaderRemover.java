@@ -30,14 +30,13 @@ package com.bitplane.xt.util;
 
 import Imaris.Error;
 import Imaris.IDataSetPrx;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import net.imglib2.cache.CacheLoader;
 import net.imglib2.cache.CacheRemover;
 import net.imglib2.cache.IoSync;
 import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Intervals;
 
 /**
  * Basic {@link CacheLoader}/{@link CacheRemover} for writing/reading cells
@@ -73,17 +72,14 @@ public class ImarisLoaderRemover< A > extends ImarisLoader< A >
 	private final boolean persistOnLoad;
 
 	/**
-	 * Contains the keys that have been stored to Imaris (via {@link #onRemoval}).
-	 * If a key is present in this set, the corresponding Cell is loaded from Imaris.
+	 * Marks the keys that have been stored to Imaris (via {@link #onRemoval}).
+	 * If the bit for a key is set, the corresponding Cell is loaded from Imaris.
 	 * Otherwise, it is obtained from the {@code backingLoader}.
 	 * <p>
 	 * If there is no {@code backingLoader}, this is {@code null}, and all Cells
 	 * are loaded from Imaris.
 	 */
-	// TODO
-	//  This should be eventually replaced by something with a smaller memory footprint,
-	//  for example a BitSet. But then we need to take care of concurrency ourselves, so...
-	private final Set< Long > written;
+	private final AtomicBitmap written;
 
 	/**
 	 * TODO
@@ -111,6 +107,21 @@ public class ImarisLoaderRemover< A > extends ImarisLoader< A >
 		this( dataset, mapDimensions, grid, backingLoader, persistOnLoad, false );
 	}
 
+	/**
+	 * @param lanes
+	 * 		proxies of the dataset, each request is sent over the connection
+	 * 		selected by {@link ConnectionLanes#index()}.
+	 */
+	public ImarisLoaderRemover(
+			final ConnectionLanes lanes,
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< A > > backingLoader,
+			final boolean persistOnLoad ) throws Error
+	{
+		this( lanes, mapDimensions, grid, backingLoader, persistOnLoad, false, null );
+	}
+
 	protected ImarisLoaderRemover(
 			final IDataSetPrx dataset,
 			final int[] mapDimensions,
@@ -119,17 +130,46 @@ public class ImarisLoaderRemover< A > extends ImarisLoader< A >
 			final boolean persistOnLoad,
 			final boolean withDirtyFlag ) throws Error
 	{
-		super( dataset, mapDimensions, grid, 0, withDirtyFlag );
+		this( dataset, mapDimensions, grid, backingLoader, persistOnLoad, withDirtyFlag, null );
+	}
+
+	protected ImarisLoaderRemover(
+			final IDataSetPrx dataset,
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< A > > backingLoader,
+			final boolean persistOnLoad,
+			final boolean withDirtyFlag,
+			final ArrayPool cellArrayPool ) throws Error
+	{
+		this( ConnectionLanes.single( dataset ), mapDimensions, grid, backingLoader, persistOnLoad, withDirtyFlag, cellArrayPool );
+	}
+
+	/**
+	 * @param lanes
+	 * 		proxies of the dataset, each request is sent over the connection
+	 * 		selected by {@link ConnectionLanes#index()}.
+	 */
+	protected ImarisLoaderRemover(
+			final ConnectionLanes lanes,
+			final int[] mapDimensions,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< A > > backingLoader,
+			final boolean persistOnLoad,
+			final boolean withDirtyFlag,
+			final ArrayPool cellArrayPool ) throws Error
+	{
+		super( lanes, mapDimensions, grid, 0, withDirtyFlag, cellArrayPool );
 		this.backingLoader = backingLoader;
 		this.persistOnLoad = persistOnLoad;
-		volatileArraySink = PixelSink.volatileArraySink( dataset, dataset.GetType(), mapDimensions );
-		written = backingLoader == null ? null : ConcurrentHashMap.newKeySet();
+		volatileArraySink = PixelSink.volatileArraySink( lanes, lanes.get( 0 ).GetType() );
+		written = backingLoader == null ? null : new AtomicBitmap( Intervals.numElements( grid.getGridDimensions() ) );
 	}
 
 	@Override
 	public Cell< A > get( final Long key ) throws Exception
 	{
-		if ( written == null || written.contains( key ) )
+		if ( written == null || written.get( key ) )
 			return super.get( key );
 		else
 		{
@@ -149,14 +189,13 @@ public class ImarisLoaderRemover< A > extends ImarisLoader< A >
 	private void onRemovalImp( final Long key, final A valueData )
 	{
 		final long index = key;
-		final long[] cellMin = new long[ n ];
-		final int[] cellDims = new int[ n ];
-		grid.getCellDimensions( index, cellMin, cellDims );
+		final int[] region = this.region.get();
+		geometry.imarisRegion( index, region );
 		try
 		{
-			volatileArraySink.put( valueData, cellMin, cellDims );
+			volatileArraySink.put( valueData, region );
 			if ( written != null )
-				written.add( key );
+				written.set( index );
 		}
 		catch ( Error error )
 		{
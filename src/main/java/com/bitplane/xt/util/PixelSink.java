@@ -34,8 +34,6 @@ import Imaris.tType;
 import java.util.function.IntFunction;
 import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
 
-import static com.bitplane.xt.util.MapDimensions.selectIntervalDimension;
-
 /**
  * Writing {@code ArrayDataAccess} as Imaris blocks
  *
@@ -61,63 +59,85 @@ public interface PixelSink< A >
 	 *
 	 * @param data
 	 *  	{@code byte[]}, {@code short[]}, {@code float[]}, depending on dataset type.
-	 * @param min
-	 * 		minimum of interval in {@code Img} space.
-	 * 		Will be augmented to 5D if necessary.
-	 * @param size
-	 * 		size of interval in {@code Img} space.
-	 * 		Will be augmented to 5D if necessary.
+	 * @param region
+	 * 		sub-volume in Imaris space, {@code {ox, oy, oz, oc, ot, sx, sy,
+	 * 		sz, sc, st}} (see {@link CellGeometry}).
 	 */
-	void put( A data, long[] min, int[] size ) throws Error;
+	void put( A data, int[] region ) throws Error;
 
 
 	/**
-	 * TODO
+	 * Create a {@code PixelSink} that writes volatile (or plain) array
+	 * accesses to {@code dataset}, on a single connection.
+	 * <p>
+	 * Single-channel, single-timepoint regions are sent as is. For other
+	 * regions, the data is split into one request per channel and timepoint.
+	 *
+	 * @param dataset
+	 * 		the Imaris dataset to write to
+	 * @param datasetType
+	 * 		pixel type of the dataset
 	 */
 	static < A > PixelSink< A > volatileArraySink(
 			final IDataSetPrx dataset,
-			final tType datasetType,
-			final int[] mapDimensions )
+			final tType datasetType )
+	{
+		return volatileArraySink( ConnectionLanes.single( dataset ), datasetType );
+	}
+
+	/**
+	 * Create a {@code PixelSink} that writes volatile (or plain) array
+	 * accesses to the dataset of {@code lanes}.
+	 * <p>
+	 * Single-channel, single-timepoint regions are sent as is. For other
+	 * regions, the data is split into one request per channel and timepoint,
+	 * using temporary arrays from the shared {@link ArrayPool}.
+	 *
+	 * @param lanes
+	 * 		proxies of the dataset, each request is sent over the connection
+	 * 		selected by {@link ConnectionLanes#index()}.
+	 * @param datasetType
+	 * 		pixel type of the dataset
+	 */
+	static < A > PixelSink< A > volatileArraySink(
+			final ConnectionLanes lanes,
+			final tType datasetType )
 	{
-		final SetDataSubVolume slice = SetDataSubVolume.forDataSet( dataset, datasetType );
+		final SetDataSubVolume slice = SetDataSubVolume.forConnectionLanes( lanes, datasetType );
 
+		// temporary slice arrays are taken from (and returned to) the pool
+		final ArrayPool pool = ArrayPool.getInstance();
 		final IntFunction< Object > creator;
 		switch ( datasetType )
 		{
 		case eTypeUInt8:
-			creator = byte[]::new;
+			creator = pool::bytes;
 			break;
 		case eTypeUInt16:
-			creator = short[]::new;
+			creator = pool::shorts;
 			break;
 		case eTypeFloat:
-			creator = float[]::new;
+			creator = pool::floats;
 			break;
 		default:
 			throw new IllegalArgumentException();
 		}
 
-		final MapDimensions.SelectIntervalDimension x = selectIntervalDimension( mapDimensions[ 0 ] );
-		final MapDimensions.SelectIntervalDimension y = selectIntervalDimension( mapDimensions[ 1 ] );
-		final MapDimensions.SelectIntervalDimension z = selectIntervalDimension( mapDimensions[ 2 ] );
-		final MapDimensions.SelectIntervalDimension c = selectIntervalDimension( mapDimensions[ 3 ] );
-		final MapDimensions.SelectIntervalDimension t = selectIntervalDimension( mapDimensions[ 4 ] );
-
-		return ( access, min, size ) ->
+		return ( access, region ) ->
 		{
 			final Object data = ( ( ArrayDataAccess ) access ).getCurrentStorageArray();
 
-			final int ox = x.min( min );
-			final int oy = y.min( min );
-			final int oz = z.min( min );
-			final int oc = c.min( min );
-			final int ot = t.min( min );
+			final int ox = region[ 0 ];
+			final int oy = region[ 1 ];
+			final int oz = region[ 2 ];
+			final int oc = region[ 3 ];
+			final int ot = region[ 4 ];
 
-			final int sx = x.size( size );
-			final int sy = y.size( size );
-			final int sz = z.size( size );
-			final int sc = c.size( size );
-			final int st = t.size( size );
+			final int sx = region[ 5 ];
+			final int sy = region[ 6 ];
+			final int sz = region[ 7 ];
+			final int sc = region[ 8 ];
+			final int st = region[ 9 ];
 
 			if ( sc == 1 && st == 1 )
 				slice.set( data, ox, oy, oz, oc, ot, sx, sy, sz );
@@ -125,15 +145,22 @@ public interface PixelSink< A >
 			{
 				final int slicelength = sx * sy * sz;
 				final Object slicedata = creator.apply( slicelength );
-				for ( int dt = 0; dt < st; ++dt )
+				try
 				{
-					for ( int dc = 0; dc < sc; ++dc )
+					for ( int dt = 0; dt < st; ++dt )
 					{
-						final int srcpos = ( dt * sc + dc ) * slicelength;
-						System.arraycopy( data, srcpos, slicedata, 0, slicelength );
-						slice.set( slicedata, ox, oy, oz, oc + dc, ot + dt, sx, sy, sz );
+						for ( int dc = 0; dc < sc; ++dc )
+						{
+							final int srcpos = ( dt * sc + dc ) * slicelength;
+							System.arraycopy( data, srcpos, slicedata, 0, slicelength );
+							slice.set( slicedata, ox, oy, oz, oc + dc, ot + dt, sx, sy, sz );
+						}
 					}
 				}
+				finally
+				{
+					pool.release( slicedata );
+				}
 			}
 		};
 	}
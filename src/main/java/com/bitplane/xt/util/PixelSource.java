@@ -31,7 +31,6 @@ package com.bitplane.xt.util;
 import Imaris.Error;
 import Imaris.IDataSetPrx;
 import Imaris.tType;
-import com.bitplane.xt.util.MapDimensions.SelectIntervalDimension;
 import java.util.function.IntFunction;
 import net.imglib2.img.basictypeaccess.volatiles.array.DirtyVolatileByteArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.DirtyVolatileFloatArray;
@@ -40,8 +39,6 @@ import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
 
-import static com.bitplane.xt.util.MapDimensions.selectIntervalDimension;
-
 /**
  * Reading Imaris blocks as primitive arrays
  *
@@ -67,72 +64,108 @@ public interface PixelSource< A >
 	 *
 	 * @param level
 	 * 		resolution level (0 is full resolution).
-	 * @param min
-	 * 		minimum of interval in {@code Img} space.
-	 * 		Will be augmented to 5D if necessary.
-	 * @param size
-	 * 		size of interval in {@code Img} space.
-	 * 		Will be augmented to 5D if necessary.
+	 * @param region
+	 * 		sub-volume in Imaris space, {@code {ox, oy, oz, oc, ot, sx, sy,
+	 * 		sz, sc, st}} (see {@link CellGeometry}).
 	 *
 	 * @return the flattened data array.
 	 */
-	A get( int level, long[] min, int[] size ) throws Error;
+	A get( int level, int[] region ) throws Error;
 
 
 	/**
-	 * TODO
+	 * Create a {@code PixelSource} that reads primitive arrays from {@code
+	 * dataset}, on a single connection.
 	 *
+	 * @param dataset
+	 * 		the Imaris dataset to read from
+	 * @param datasetType
+	 * 		pixel type of the dataset
+	 *
+	 * @return source of {@code byte[]}, {@code short[]}, or {@code float[]},
+	 * depending on {@code datasetType}.
+	 */
+	static PixelSource< ? > primitiveArraySource( final IDataSetPrx dataset, final tType datasetType )
+	{
+		return primitiveArraySource( dataset, datasetType, null );
+	}
+
+	/**
+	 * Create a {@code PixelSource} that reads primitive arrays from {@code
+	 * dataset}, on a single connection.
 	 *
 	 * @param dataset
+	 * 		the Imaris dataset to read from
 	 * @param datasetType
-	 * @param mapDimensions
-	 * 		maps Imaris dimension indices to imglib2 dimension indices.
-	 * 		If {@code i} is dimension index from Imaris (0..4 means
-	 * 		X,Y,Z,C,T) then {@code mapDimensions[i]} is the corresponding
-	 * 		dimension in {@code Img}. For {@code Img} dimensions with size=1
-	 * 		are skipped. E.g., for a X,Y,C image {@code mapDimensions =
-	 *  	{0,1,-1,2,-1}}.
+	 * 		pixel type of the dataset
+	 * @param cellArrayPool
+	 * 		if not {@code null}, multi-channel arrays are taken from this pool
+	 * 		(e.g., recycled arrays of evicted cells) instead of being allocated.
 	 *
-	 * @return
+	 * @return source of {@code byte[]}, {@code short[]}, or {@code float[]},
+	 * depending on {@code datasetType}.
 	 */
-	static PixelSource< ? > primitiveArraySource( final IDataSetPrx dataset, final tType datasetType, final int[] mapDimensions )
+	static PixelSource< ? > primitiveArraySource( final IDataSetPrx dataset, final tType datasetType, final ArrayPool cellArrayPool )
 	{
-		final GetDataSubVolume slice = GetDataSubVolume.forDataSet( dataset, datasetType );
+		return primitiveArraySource( ConnectionLanes.single( dataset ), datasetType, cellArrayPool );
+	}
+
+	/**
+	 * Create a {@code PixelSource} that reads primitive arrays from the
+	 * dataset of {@code lanes}.
+	 * <p>
+	 * Single-channel, single-timepoint regions are read with one request.
+	 * Other regions are read with one request per channel and timepoint, and
+	 * assembled into one array. Requests are retried (and hedged) according
+	 * to the {@link ConnectionLanes#getRequestPolicy() request policy} of
+	 * {@code lanes}.
+	 *
+	 * @param lanes
+	 * 		proxies of the dataset, each request is sent over the connection
+	 * 		selected by {@link ConnectionLanes#index()}.
+	 * @param datasetType
+	 * 		pixel type of the dataset
+	 * @param cellArrayPool
+	 * 		if not {@code null}, multi-channel arrays are taken from this pool
+	 * 		(e.g., recycled arrays of evicted cells) instead of being allocated.
+	 *
+	 * @return source of {@code byte[]}, {@code short[]}, or {@code float[]},
+	 * depending on {@code datasetType}.
+	 */
+	static PixelSource< ? > primitiveArraySource( final ConnectionLanes lanes, final tType datasetType, final ArrayPool cellArrayPool )
+	{
+		final GetDataSubVolume slice = ResilientGetDataSubVolume.wrap(
+				GetDataSubVolume.forConnectionLanes( lanes, datasetType ),
+				lanes.getRequestPolicy() );
 
 		final IntFunction< Object > creator;
 		switch ( datasetType )
 		{
 		case eTypeUInt8:
-			creator = byte[]::new;
+			creator = cellArrayPool == null ? byte[]::new : cellArrayPool::bytes;
 			break;
 		case eTypeUInt16:
-			creator = short[]::new;
+			creator = cellArrayPool == null ? short[]::new : cellArrayPool::shorts;
 			break;
 		case eTypeFloat:
-			creator = float[]::new;
+			creator = cellArrayPool == null ? float[]::new : cellArrayPool::floats;
 			break;
 		default:
 			throw new IllegalArgumentException();
 		}
 
-		final SelectIntervalDimension x = selectIntervalDimension( mapDimensions[ 0 ] );
-		final SelectIntervalDimension y = selectIntervalDimension( mapDimensions[ 1 ] );
-		final SelectIntervalDimension z = selectIntervalDimension( mapDimensions[ 2 ] );
-		final SelectIntervalDimension c = selectIntervalDimension( mapDimensions[ 3 ] );
-		final SelectIntervalDimension t = selectIntervalDimension( mapDimensions[ 4 ] );
+		return ( r, region ) -> {
+			final int ox = region[ 0 ];
+			final int oy = region[ 1 ];
+			final int oz = region[ 2 ];
+			final int oc = region[ 3 ];
+			final int ot = region[ 4 ];
 
-		return ( r, min, size ) -> {
-			final int ox = x.min( min );
-			final int oy = y.min( min );
-			final int oz = z.min( min );
-			final int oc = c.min( min );
-			final int ot = t.min( min );
-
-			final int sx = x.size( size );
-			final int sy = y.size( size );
-			final int sz = z.size( size );
-			final int sc = c.size( size );
-			final int st = t.size( size );
+			final int sx = region[ 5 ];
+			final int sy = region[ 6 ];
+			final int sz = region[ 7 ];
+			final int sc = region[ 8 ];
+			final int st = region[ 9 ];
 
 			if ( sc == 1 && st == 1 )
 				return slice.get( ox, oy, oz, oc, ot, r, sx, sy, sz );
@@ -155,39 +188,79 @@ public interface PixelSource< A >
 	}
 
 	/**
-	 * TODO
-	 *
+	 * Create a {@code PixelSource} that reads volatile array accesses from
+	 * {@code dataset}, on a single connection. The accesses are valid.
 	 *
 	 * @param dataset
+	 * 		the Imaris dataset to read from
 	 * @param datasetType
-	 * @param mapDimensions
-	 * 		maps Imaris dimension indices to imglib2 dimension indices.
-	 * 		If {@code i} is dimension index from Imaris (0..4 means
-	 * 		X,Y,Z,C,T) then {@code mapDimensions[i]} is the corresponding
-	 * 		dimension in {@code Img}. For {@code Img} dimensions with size=1
-	 * 		are skipped. E.g., for a X,Y,C image {@code mapDimensions =
-	 *  	{0,1,-1,2,-1}}.
+	 * 		pixel type of the dataset
 	 * @param withDirtyFlag
+	 * 		whether to create {@code DirtyVolatile*Array} accesses (instead of
+	 * 		{@code Volatile*Array})
 	 * @param <A>
-	 * @return
+	 * 		access type, corresponding to {@code datasetType} and {@code
+	 * 		withDirtyFlag}
 	 */
 	static < A > PixelSource< A > volatileArraySource(
 			final IDataSetPrx dataset,
 			final tType datasetType,
-			final int[] mapDimensions,
 			final boolean withDirtyFlag )
 	{
-		final PixelSource< ? > pixels = primitiveArraySource(dataset, datasetType, mapDimensions );
+		return volatileArraySource( dataset, datasetType, withDirtyFlag, null );
+	}
+
+	/**
+	 * Create a {@code PixelSource} that reads volatile array accesses from
+	 * {@code dataset}, on a single connection. The accesses are valid.
+	 *
+	 * @param cellArrayPool
+	 * 		if not {@code null}, multi-channel arrays are taken from this pool
+	 * 		(e.g., recycled arrays of evicted cells) instead of being allocated.
+	 *
+	 * @see #volatileArraySource(IDataSetPrx, tType, boolean)
+	 */
+	static < A > PixelSource< A > volatileArraySource(
+			final IDataSetPrx dataset,
+			final tType datasetType,
+			final boolean withDirtyFlag,
+			final ArrayPool cellArrayPool )
+	{
+		return volatileArraySource( ConnectionLanes.single( dataset ), datasetType, withDirtyFlag, cellArrayPool );
+	}
+
+	/**
+	 * Create a {@code PixelSource} that reads volatile array accesses from
+	 * the dataset of {@code lanes}. The accesses are valid. See {@link
+	 * #primitiveArraySource(ConnectionLanes, tType, ArrayPool)} for how
+	 * requests are sent.
+	 *
+	 * @param lanes
+	 * 		proxies of the dataset, each request is sent over the connection
+	 * 		selected by {@link ConnectionLanes#index()}.
+	 * @param cellArrayPool
+	 * 		if not {@code null}, multi-channel arrays are taken from this pool
+	 * 		(e.g., recycled arrays of evicted cells) instead of being allocated.
+	 *
+	 * @see #volatileArraySource(IDataSetPrx, tType, boolean)
+	 */
+	static < A > PixelSource< A > volatileArraySource(
+			final ConnectionLanes lanes,
+			final tType datasetType,
+			final boolean withDirtyFlag,
+			final ArrayPool cellArrayPool )
+	{
+		final PixelSource< ? > pixels = primitiveArraySource( lanes, datasetType, cellArrayPool );
 		if ( withDirtyFlag )
 		{
 			switch ( datasetType )
 			{
 			case eTypeUInt8:
-				return ( r, min, size ) -> ( A ) new DirtyVolatileByteArray( ( byte[] ) ( pixels.get( r, min, size ) ), true );
+				return ( r, region ) -> ( A ) new DirtyVolatileByteArray( ( byte[] ) ( pixels.get( r, region ) ), true );
 			case eTypeUInt16:
-				return ( r, min, size ) -> ( A ) new DirtyVolatileShortArray( ( short[] ) ( pixels.get( r, min, size ) ), true );
+				return ( r, region ) -> ( A ) new DirtyVolatileShortArray( ( short[] ) ( pixels.get( r, region ) ), true );
 			case eTypeFloat:
-				return ( r, min, size ) -> ( A ) new DirtyVolatileFloatArray( ( float[] ) ( pixels.get( r, min, size ) ), true );
+				return ( r, region ) -> ( A ) new DirtyVolatileFloatArray( ( float[] ) ( pixels.get( r, region ) ), true );
 			default:
 				throw new IllegalArgumentException();
 			}
@@ -197,11 +270,11 @@ public interface PixelSource< A >
 			switch ( datasetType )
 			{
 			case eTypeUInt8:
-				return ( r, min, size ) -> ( A ) new VolatileByteArray( ( byte[] ) ( pixels.get( r, min, size ) ), true );
+				return ( r, region ) -> ( A ) new VolatileByteArray( ( byte[] ) ( pixels.get( r, region ) ), true );
 			case eTypeUInt16:
-				return ( r, min, size ) -> ( A ) new VolatileShortArray( ( short[] ) ( pixels.get( r, min, size ) ), true );
+				return ( r, region ) -> ( A ) new VolatileShortArray( ( short[] ) ( pixels.get( r, region ) ), true );
 			case eTypeFloat:
-				return ( r, min, size ) -> ( A ) new VolatileFloatArray( ( float[] ) ( pixels.get( r, min, size ) ), true );
+				return ( r, region ) -> ( A ) new VolatileFloatArray( ( float[] ) ( pixels.get( r, region ) ), true );
 			default:
 				throw new IllegalArgumentException();
 			}
@@ -0,0 +1,259 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import Imaris.Error;
+import Imaris.tType;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads whole XY planes (at full resolution) from Imaris, bypassing the cell
+ * cache. Each plane is fetched with exactly one {@link GetDataSubVolume}
+ * request, instead of loading all (3D) cells that intersect the plane.
+ * <p>
+ * Recently read planes are kept in a small LRU cache. When consecutive planes
+ * of the same channel and timepoint are requested (that is, a Z-stack is
+ * traversed plane by plane), the following planes are read ahead in one
+ * batched request.
+ *
+ * @author Tobias Pietzsch
+ */
+public class PlaneReader
+{
+	/**
+	 * Number of consecutive plane requests after which to start reading ahead.
+	 */
+	private static final int READ_AHEAD_THRESHOLD = 2;
+
+	/**
+	 * Maximum number of voxels transferred in one batched request.
+	 */
+	private static final int MAX_BATCH_VOXELS = 1 << 26;
+
+	private final GetDataSubVolume slice;
+
+	private final int sx;
+
+	private final int sy;
+
+	private final int sz;
+
+	private final int sc;
+
+	private final int st;
+
+	private final int maxReadAhead;
+
+	private final int cacheSize;
+
+	/**
+	 * LRU cache of planes, in access order. Guarded by {@code this}.
+	 */
+	private final LinkedHashMap< PlaneKey, Object > planes;
+
+	/**
+	 * Z of the last requested plane, and the number of consecutive planes
+	 * requested in the same direction, per channel and timepoint.
+	 * Guarded by {@code this}.
+	 */
+	private final int[] lastZ;
+
+	private final int[] run;
+
+	/**
+	 * @param lanes
+	 * 		proxies of the dataset, each request is sent over the connection
+	 * 		selected by {@link ConnectionLanes#index()}.
+	 * @param datasetType
+	 * 		pixel type of the dataset
+	 * @param imarisDimensions
+	 * 		full resolution size of the dataset {@code {sx, sy, sz, sc, st}}
+	 * @param maxReadAhead
+	 * 		maximum number of planes to read in one batched request when
+	 * 		traversing a Z-stack. {@code 1} disables reading ahead.
+	 * @param cacheSize
+	 * 		maximum number of planes to keep in the cache.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if an XY plane of the dataset does not fit into one array.
+	 */
+	public PlaneReader( final ConnectionLanes lanes, final tType datasetType, final int[] imarisDimensions, final int maxReadAhead, final int cacheSize )
+	{
+		slice = ResilientGetDataSubVolume.wrap(
+				GetDataSubVolume.forConnectionLanes( lanes, datasetType ),
+				lanes.getRequestPolicy() );
+		sx = imarisDimensions[ 0 ];
+		sy = imarisDimensions[ 1 ];
+		sz = imarisDimensions[ 2 ];
+		sc = imarisDimensions[ 3 ];
+		st = imarisDimensions[ 4 ];
+		final long planeSize = ( long ) sx * sy;
+		if ( planeSize > Integer.MAX_VALUE - 8 )
+			throw new IllegalArgumentException( "XY plane of " + sx + " x " + sy + " voxels does not fit into one array" );
+		this.maxReadAhead = Math.max( 1, Math.min( Math.min( maxReadAhead, cacheSize ), ( int ) ( MAX_BATCH_VOXELS / planeSize ) ) );
+		this.cacheSize = cacheSize;
+		planes = new LinkedHashMap< PlaneKey, Object >( 16, 0.75f, true )
+		{
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< PlaneKey, Object > eldest )
+			{
+				return size() > PlaneReader.this.cacheSize;
+			}
+		};
+		lastZ = new int[ sc * st ];
+		Arrays.fill( lastZ, -2 );
+		run = new int[ sc * st ];
+	}
+
+	/**
+	 * Get XY plane {@code z} of channel {@code c} and timepoint {@code t}.
+	 *
+	 * @return {@code byte[]}, {@code short[]}, {@code float[]}, depending on
+	 * dataset type. The array is shared with the cache and must not be
+	 * modified.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 * 		if {@code z}, {@code c}, or {@code t} is outside the dataset.
+	 */
+	public Object getPlane( final int z, final int c, final int t ) throws Error
+	{
+		if ( z < 0 || z >= sz || c < 0 || c >= sc || t < 0 || t >= st )
+			throw new IndexOutOfBoundsException( "plane (z=" + z + ", c=" + c + ", t=" + t + ") out of bounds for size (" + sz + ", " + sc + ", " + st + ")" );
+		final PlaneKey key = new PlaneKey( z, c, t );
+		final int direction;
+		synchronized ( this )
+		{
+			direction = recordRequest( z, c, t );
+			final Object plane = planes.get( key );
+			if ( plane != null )
+				return plane;
+		}
+
+		final int n = direction == 0
+				? 1
+				: Math.min( maxReadAhead, direction > 0 ? sz - z : z + 1 );
+		if ( n == 1 )
+		{
+			final Object plane = slice.get( 0, 0, z, c, t, 0, sx, sy, 1 );
+			synchronized ( this )
+			{
+				planes.put( key, plane );
+			}
+			return plane;
+		}
+
+		// read n planes starting at z (in the direction of traversal) in one request
+		final int oz = direction > 0 ? z : z - n + 1;
+		final Object data = slice.get( 0, 0, oz, c, t, 0, sx, sy, n );
+		final int planeSize = sx * sy;
+		Object requested = null;
+		synchronized ( this )
+		{
+			for ( int i = 0; i < n; ++i )
+			{
+				final Object plane = Array.newInstance( data.getClass().getComponentType(), planeSize );
+				System.arraycopy( data, i * planeSize, plane, 0, planeSize );
+				planes.put( new PlaneKey( oz + i, c, t ), plane );
+				if ( oz + i == z )
+					requested = plane;
+			}
+			// make sure the requested plane is most recently used
+			planes.get( key );
+		}
+		return requested;
+	}
+
+	/**
+	 * Remove all planes from the cache.
+	 */
+	public synchronized void invalidate()
+	{
+		planes.clear();
+	}
+
+	/**
+	 * Record a request for plane {@code z} of channel {@code c} and timepoint
+	 * {@code t}, and determine whether a Z-stack is being traversed.
+	 *
+	 * @return {@code +1} or {@code -1} if planes should be read ahead in
+	 * positive or negative Z direction, {@code 0} otherwise.
+	 */
+	private int recordRequest( final int z, final int c, final int t )
+	{
+		final int i = t * sc + c;
+		final int dz = z - lastZ[ i ];
+		if ( dz == 1 || dz == -1 )
+			run[ i ] = ( run[ i ] * dz > 0 ) ? run[ i ] + dz : dz;
+		else if ( dz != 0 )
+			run[ i ] = 0;
+		lastZ[ i ] = z;
+		if ( maxReadAhead > 1 && Math.abs( run[ i ] ) >= READ_AHEAD_THRESHOLD )
+			return Integer.signum( run[ i ] );
+		return 0;
+	}
+
+	private static final class PlaneKey
+	{
+		private final int z;
+
+		private final int c;
+
+		private final int t;
+
+		private final int hashcode;
+
+		PlaneKey( final int z, final int c, final int t )
+		{
+			this.z = z;
+			this.c = c;
+			this.t = t;
+			hashcode = 31 * ( 31 * z + c ) + t;
+		}
+
+		@Override
+		public boolean equals( final Object other )
+		{
+			if ( this == other )
+				return true;
+			if ( !( other instanceof PlaneKey ) )
+				return false;
+			final PlaneKey that = ( PlaneKey ) other;
+			return z == that.z && c == that.c && t == that.t;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashcode;
+		}
+	}
+}
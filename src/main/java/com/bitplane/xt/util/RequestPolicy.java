@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+/**
+ * Deadline, retry, and hedging settings for read requests to Imaris. (Writes
+ * are not subject to deadlines, retries, or hedging.)
+ *
+ * @author Tobias Pietzsch
+ * @see ResilientGetDataSubVolume
+ */
+public final class RequestPolicy
+{
+	/**
+	 * No deadline, no retries, no hedging.
+	 */
+	public static final RequestPolicy DEFAULT = new RequestPolicy( -1, 0, 0, 0 );
+
+	private final int timeoutMillis;
+
+	private final int maxRetries;
+
+	private final int retryBackoffMillis;
+
+	private final double hedgePercentile;
+
+	/**
+	 * @param timeoutMillis
+	 * 		deadline for each attempt, in milliseconds. If {@code ≤ 0}, there
+	 * 		is no deadline.
+	 * @param maxRetries
+	 * 		how many times a failed or timed-out attempt is retried.
+	 * @param retryBackoffMillis
+	 * 		delay before the first retry, in milliseconds. The delay is doubled
+	 * 		for each further retry.
+	 * @param hedgePercentile
+	 * 		if in {@code (0, 1)}, a duplicate request is issued when a request
+	 * 		takes longer than this percentile of recent request latencies.
+	 * 		Otherwise, requests are not hedged.
+	 */
+	public RequestPolicy( final int timeoutMillis, final int maxRetries, final int retryBackoffMillis, final double hedgePercentile )
+	{
+		this.timeoutMillis = timeoutMillis;
+		this.maxRetries = Math.max( 0, maxRetries );
+		this.retryBackoffMillis = Math.max( 0, retryBackoffMillis );
+		this.hedgePercentile = hedgePercentile;
+	}
+
+	public int timeoutMillis()
+	{
+		return timeoutMillis;
+	}
+
+	public boolean hasTimeout()
+	{
+		return timeoutMillis > 0;
+	}
+
+	public int maxRetries()
+	{
+		return maxRetries;
+	}
+
+	public int retryBackoffMillis()
+	{
+		return retryBackoffMillis;
+	}
+
+	public double hedgePercentile()
+	{
+		return hedgePercentile;
+	}
+
+	public boolean isHedged()
+	{
+		return hedgePercentile > 0 && hedgePercentile < 1;
+	}
+
+	/**
+	 * Whether none of deadline, retries, or hedging is enabled.
+	 */
+	public boolean isDefault()
+	{
+		return !hasTimeout() && maxRetries == 0 && !isHedged();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "RequestPolicy{timeoutMillis=" + timeoutMillis +
+				", maxRetries=" + maxRetries +
+				", retryBackoffMillis=" + retryBackoffMillis +
+				", hedgePercentile=" + hedgePercentile + "}";
+	}
+}
@@ -0,0 +1,343 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import Imaris.Error;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decorates a {@link GetDataSubVolume} with bounded retries and optional
+ * hedged requests, according to a {@link RequestPolicy}.
+ * <p>
+ * Per-attempt deadlines are enforced by ICE, through the invocation timeout
+ * of the proxies (see {@link ConnectionLanes#create(Imaris.IDataSetPrx, int,
+ * com.bitplane.xt.options.ImarisCacheOptions.Compression, RequestPolicy)}).
+ * Attempts that time out or fail with a transport error are retried after an
+ * exponentially increasing delay. Other errors are not retried. If the
+ * calling thread is interrupted while waiting for an attempt or a retry, an
+ * {@code Ice.OperationInterruptedException} is thrown.
+ * <p>
+ * With hedging, each attempt is run asynchronously. If it does not complete
+ * within the {@link RequestPolicy#hedgePercentile() percentile} of recent
+ * latencies, a duplicate request is issued, and whichever completes first
+ * is used. (Reading is idempotent, so this is safe.) Asynchronous attempts
+ * run in a bounded thread pool, with the {@link ConnectionLanes.Lane lane} of
+ * the calling thread. The losing attempt is not cancelled, so hedging should
+ * be combined with a {@link RequestPolicy#timeoutMillis() timeout}.
+ * <p>
+ * Outcomes are counted in {@link TransferMetrics}.
+ *
+ * @author Tobias Pietzsch
+ */
+public class ResilientGetDataSubVolume implements GetDataSubVolume
+{
+	/**
+	 * Number of recent latencies used to estimate the hedging threshold.
+	 */
+	private static final int WINDOW = 128;
+
+	/**
+	 * Minimum number of latency samples before requests are hedged.
+	 */
+	private static final int MIN_SAMPLES = 32;
+
+	/**
+	 * The hedging threshold is re-estimated every {@code UPDATE_INTERVAL} samples.
+	 */
+	private static final int UPDATE_INTERVAL = 16;
+
+	private static final int MAX_BACKOFF_MILLIS = 10000;
+
+	/**
+	 * Maximum number of threads for asynchronous attempts, shared by all
+	 * instances. Attempts that lose against their hedge are not cancelled
+	 * (ICE invocations cannot be), so they keep a thread busy until they
+	 * complete or hit the invocation timeout. If all threads are busy,
+	 * requests are not hedged.
+	 */
+	private static final int MAX_ASYNC_THREADS = 32;
+
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			0, MAX_ASYNC_THREADS,
+			60, TimeUnit.SECONDS,
+			new SynchronousQueue<>(),
+			r -> {
+				final Thread thread = new Thread( r, "imaris-hedged-request" );
+				thread.setDaemon( true );
+				return thread;
+			} );
+
+	private final GetDataSubVolume delegate;
+
+	private final RequestPolicy policy;
+
+	private final TransferMetrics metrics;
+
+	private final AtomicLongArray latencies = new AtomicLongArray( WINDOW );
+
+	private final AtomicLong numSamples = new AtomicLong();
+
+	private volatile long hedgeThresholdNanos = Long.MAX_VALUE;
+
+	public ResilientGetDataSubVolume( final GetDataSubVolume delegate, final RequestPolicy policy, final TransferMetrics metrics )
+	{
+		this.delegate = delegate;
+		this.policy = policy;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Decorate {@code slice} according to {@code policy}. If {@code policy} is
+	 * the {@link RequestPolicy#isDefault() default}, {@code slice} is returned
+	 * as is.
+	 */
+	public static GetDataSubVolume wrap( final GetDataSubVolume slice, final RequestPolicy policy )
+	{
+		return policy.isDefault()
+				? slice
+				: new ResilientGetDataSubVolume( slice, policy, TransferMetrics.getInstance() );
+	}
+
+	@Override
+	public Object get( final int ox, final int oy, final int oz, final int oc, final int ot, final int r, final int sx, final int sy, final int sz ) throws Error
+	{
+		final long start = System.nanoTime();
+		for ( int attempt = 0;; ++attempt )
+		{
+			try
+			{
+				final Object result = policy.isHedged()
+						? getHedged( ox, oy, oz, oc, ot, r, sx, sy, sz )
+						: getTimed( ox, oy, oz, oc, ot, r, sx, sy, sz );
+				metrics.request( System.nanoTime() - start );
+				return result;
+			}
+			catch ( final Ice.TimeoutException | Ice.SocketException e )
+			{
+				if ( e instanceof Ice.TimeoutException )
+					metrics.timeout();
+				if ( attempt >= policy.maxRetries() )
+				{
+					metrics.failure();
+					throw e;
+				}
+			}
+			catch ( final Error | RuntimeException e )
+			{
+				metrics.failure();
+				throw e;
+			}
+			metrics.retry();
+			backoff( attempt );
+		}
+	}
+
+	/**
+	 * Single attempt, recording its latency.
+	 */
+	private Object getTimed( final int ox, final int oy, final int oz, final int oc, final int ot, final int r, final int sx, final int sy, final int sz ) throws Error
+	{
+		final long t0 = System.nanoTime();
+		final Object result = delegate.get( ox, oy, oz, oc, ot, r, sx, sy, sz );
+		recordLatency( System.nanoTime() - t0 );
+		return result;
+	}
+
+	/**
+	 * Single attempt, hedged by a duplicate request if it takes longer than
+	 * {@link #hedgeThresholdNanos}.
+	 */
+	private Object getHedged( final int ox, final int oy, final int oz, final int oc, final int ot, final int r, final int sx, final int sy, final int sz ) throws Error
+	{
+		final long threshold = hedgeThresholdNanos;
+		if ( threshold == Long.MAX_VALUE )
+			return getTimed( ox, oy, oz, oc, ot, r, sx, sy, sz );
+
+		final CompletableFuture< Object > primary;
+		try
+		{
+			primary = getAsync( ox, oy, oz, oc, ot, r, sx, sy, sz );
+		}
+		catch ( final RejectedExecutionException e )
+		{
+			// all async threads are busy: don't hedge
+			return getTimed( ox, oy, oz, oc, ot, r, sx, sy, sz );
+		}
+
+		try
+		{
+			try
+			{
+				return primary.get( threshold, TimeUnit.NANOSECONDS );
+			}
+			catch ( final TimeoutException e )
+			{
+				// fall through to hedging
+			}
+
+			final CompletableFuture< Object > hedge;
+			try
+			{
+				hedge = getAsync( ox, oy, oz, oc, ot, r, sx, sy, sz );
+			}
+			catch ( final RejectedExecutionException e )
+			{
+				// all async threads are busy: wait for the primary attempt
+				return primary.get();
+			}
+			metrics.hedgedRequest();
+			final CompletableFuture< Object > first = new CompletableFuture<>();
+			final AtomicInteger numFailed = new AtomicInteger();
+			primary.whenComplete( ( result, t ) -> {
+				if ( t == null )
+					first.complete( result );
+				else if ( numFailed.incrementAndGet() == 2 )
+					first.completeExceptionally( t );
+			} );
+			hedge.whenComplete( ( result, t ) -> {
+				if ( t == null )
+				{
+					if ( first.complete( result ) )
+						metrics.hedgeWin();
+				}
+				else if ( numFailed.incrementAndGet() == 2 )
+					first.completeExceptionally( t );
+			} );
+			return first.get();
+		}
+		catch ( final ExecutionException | CompletionException e )
+		{
+			throw rethrow( e );
+		}
+		catch ( final InterruptedException e )
+		{
+			throw interrupted( e );
+		}
+	}
+
+	/**
+	 * Run a single attempt on the {@link #executor}. The {@link
+	 * ConnectionLanes.Lane lane} of the calling thread is used for the
+	 * attempt, so that, e.g., hedged loads for BigDataViewer stay on the
+	 * {@code INTERACTIVE} connection.
+	 *
+	 * @throws RejectedExecutionException
+	 * 		if all threads of the {@link #executor} are busy
+	 */
+	private CompletableFuture< Object > getAsync( final int ox, final int oy, final int oz, final int oc, final int ot, final int r, final int sx, final int sy, final int sz )
+	{
+		final ConnectionLanes.Lane lane = ConnectionLanes.currentLane();
+		return CompletableFuture.supplyAsync( () -> {
+			try
+			{
+				return ConnectionLanes.callInLane( lane, () -> getTimed( ox, oy, oz, oc, ot, r, sx, sy, sz ) );
+			}
+			catch ( final Exception e )
+			{
+				throw new CompletionException( e );
+			}
+		}, executor );
+	}
+
+	/**
+	 * Rethrow the cause of an asynchronous failure.
+	 */
+	private static RuntimeException rethrow( final Throwable t ) throws Error
+	{
+		Throwable cause = t;
+		while ( ( cause instanceof ExecutionException || cause instanceof CompletionException ) && cause.getCause() != null )
+			cause = cause.getCause();
+		if ( cause instanceof Error )
+			throw ( Error ) cause;
+		if ( cause instanceof RuntimeException )
+			throw ( RuntimeException ) cause;
+		if ( cause instanceof java.lang.Error )
+			throw ( java.lang.Error ) cause;
+		// getTimed() only throws Imaris.Error, so this is not expected to happen
+		throw new IllegalStateException( "unexpected exception in asynchronous request", cause );
+	}
+
+	/**
+	 * Restore the interrupt status of the current thread, and return an
+	 * {@code Ice.OperationInterruptedException}, like ICE does when a thread
+	 * is interrupted during an invocation. Callers thus only need to handle
+	 * the exceptions that the undecorated proxy would throw.
+	 */
+	private static Ice.OperationInterruptedException interrupted( final InterruptedException e )
+	{
+		Thread.currentThread().interrupt();
+		final Ice.OperationInterruptedException ex = new Ice.OperationInterruptedException();
+		ex.initCause( e );
+		return ex;
+	}
+
+	private void backoff( final int attempt )
+	{
+		final long delay = Math.min( ( long ) policy.retryBackoffMillis() << Math.min( attempt, 16 ), MAX_BACKOFF_MILLIS );
+		if ( delay <= 0 )
+			return;
+		try
+		{
+			Thread.sleep( delay );
+		}
+		catch ( final InterruptedException e )
+		{
+			throw interrupted( e );
+		}
+	}
+
+	private void recordLatency( final long nanos )
+	{
+		final long n = numSamples.incrementAndGet();
+		latencies.set( ( int ) ( ( n - 1 ) % WINDOW ), nanos );
+		if ( policy.isHedged() && n >= MIN_SAMPLES && n % UPDATE_INTERVAL == 0 )
+			updateHedgeThreshold( ( int ) Math.min( n, WINDOW ) );
+	}
+
+	private void updateHedgeThreshold( final int n )
+	{
+		final long[] values = new long[ n ];
+		for ( int i = 0; i < n; ++i )
+			values[ i ] = latencies.get( i );
+		Arrays.sort( values );
+		final int i = Math.min( n - 1, Math.max( 0, ( int ) Math.ceil( policy.hedgePercentile() * n ) - 1 ) );
+		hedgeThresholdNanos = values[ i ];
+	}
+}
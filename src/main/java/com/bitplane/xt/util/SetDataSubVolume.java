@@ -87,4 +87,34 @@ public interface SetDataSubVolume
 			throw new IllegalArgumentException();
 		}
 	}
+
+	/**
+	 * Get a {@code SetDataSubVolume} that sends each request over the
+	 * connection selected by {@link ConnectionLanes#index()}. With adaptive
+	 * compression, each request uses either the compressed or uncompressed
+	 * proxy, whichever is currently faster per voxel.
+	 */
+	static SetDataSubVolume forConnectionLanes( final ConnectionLanes lanes, final tType datasetType )
+	{
+		final int n = lanes.numConnections();
+		if ( n == 1 && !lanes.isAdaptiveCompression() )
+			return forDataSet( lanes.get( 0 ), datasetType );
+
+		final SetDataSubVolume[] slices = new SetDataSubVolume[ n ];
+		for ( int i = 0; i < n; ++i )
+			slices[ i ] = forDataSet( lanes.get( i ), datasetType );
+		if ( !lanes.isAdaptiveCompression() )
+			return ( data, ox, oy, oz, oc, ot, sx, sy, sz ) -> slices[ lanes.index() ].set( data, ox, oy, oz, oc, ot, sx, sy, sz );
+
+		final SetDataSubVolume[] compressed = new SetDataSubVolume[ n ];
+		for ( int i = 0; i < n; ++i )
+			compressed[ i ] = forDataSet( lanes.getCompressed( i ), datasetType );
+		final CompressionSelector selector = new CompressionSelector();
+		return ( data, ox, oy, oz, oc, ot, sx, sy, sz ) -> {
+			final boolean compress = selector.useCompression();
+			final long t0 = System.nanoTime();
+			( compress ? compressed : slices )[ lanes.index() ].set( data, ox, oy, oz, oc, ot, sx, sy, sz );
+			selector.record( compress, System.nanoTime() - t0, ( long ) sx * sy * sz );
+		};
+	}
 }
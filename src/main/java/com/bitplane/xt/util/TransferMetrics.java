@@ -0,0 +1,183 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for block transfers from Imaris: number and latency of requests,
+ * timeouts, retries, failures, and hedged requests.
+ * <p>
+ * Requests that are made with a non-default {@link RequestPolicy} are
+ * counted in the shared instance ({@link #getInstance()}).
+ *
+ * @author Tobias Pietzsch
+ */
+public final class TransferMetrics
+{
+	private static final TransferMetrics instance = new TransferMetrics();
+
+	/**
+	 * Get the shared {@code TransferMetrics}.
+	 */
+	public static TransferMetrics getInstance()
+	{
+		return instance;
+	}
+
+	private final LongAdder requests = new LongAdder();
+
+	private final LongAdder latencyNanos = new LongAdder();
+
+	private final LongAdder timeouts = new LongAdder();
+
+	private final LongAdder retries = new LongAdder();
+
+	private final LongAdder failures = new LongAdder();
+
+	private final LongAdder hedgedRequests = new LongAdder();
+
+	private final LongAdder hedgeWins = new LongAdder();
+
+	/**
+	 * Get the number of requests that completed successfully.
+	 */
+	public long getRequestCount()
+	{
+		return requests.sum();
+	}
+
+	/**
+	 * Get the mean end-to-end latency (including retries and hedging) of
+	 * successful requests, in milliseconds.
+	 */
+	public double getMeanLatencyMillis()
+	{
+		final long n = requests.sum();
+		return n == 0 ? 0 : latencyNanos.sum() / 1e6 / n;
+	}
+
+	/**
+	 * Get the number of attempts that exceeded their deadline.
+	 */
+	public long getTimeoutCount()
+	{
+		return timeouts.sum();
+	}
+
+	/**
+	 * Get the number of retried attempts.
+	 */
+	public long getRetryCount()
+	{
+		return retries.sum();
+	}
+
+	/**
+	 * Get the number of requests that failed after all retries.
+	 */
+	public long getFailureCount()
+	{
+		return failures.sum();
+	}
+
+	/**
+	 * Get the number of duplicate (hedged) requests that were issued.
+	 */
+	public long getHedgedRequestCount()
+	{
+		return hedgedRequests.sum();
+	}
+
+	/**
+	 * Get the number of hedged requests that completed before the original
+	 * request.
+	 */
+	public long getHedgeWinCount()
+	{
+		return hedgeWins.sum();
+	}
+
+	/**
+	 * Reset all counters.
+	 */
+	public void resetCounters()
+	{
+		requests.reset();
+		latencyNanos.reset();
+		timeouts.reset();
+		retries.reset();
+		failures.reset();
+		hedgedRequests.reset();
+		hedgeWins.reset();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "TransferMetrics{requests=" + getRequestCount() +
+				", meanLatencyMillis=" + getMeanLatencyMillis() +
+				", timeouts=" + getTimeoutCount() +
+				", retries=" + getRetryCount() +
+				", failures=" + getFailureCount() +
+				", hedgedRequests=" + getHedgedRequestCount() +
+				", hedgeWins=" + getHedgeWinCount() + "}";
+	}
+
+	void request( final long nanos )
+	{
+		requests.increment();
+		latencyNanos.add( nanos );
+	}
+
+	void timeout()
+	{
+		timeouts.increment();
+	}
+
+	void retry()
+	{
+		retries.increment();
+	}
+
+	void failure()
+	{
+		failures.increment();
+	}
+
+	void hedgedRequest()
+	{
+		hedgedRequests.increment();
+	}
+
+	void hedgeWin()
+	{
+		hedgeWins.increment();
+	}
+}
@@ -0,0 +1,70 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.examples.advanced;
+
+import com.bitplane.xt.ImarisApplication;
+import com.bitplane.xt.ImarisDataset;
+import com.bitplane.xt.ImarisService;
+import com.bitplane.xt.ImarisServiceOptions;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.view.Views;
+import org.scijava.Context;
+
+/**
+ * Connect to a (possibly remote) Imaris with tuned ICE client settings, and
+ * measure how long it takes to load all blocks of the current dataset.
+ * Run with different settings to compare throughput.
+ */
+public class ExampleConnectionOptions
+{
+	public static void main( String[] args )
+	{
+		final Context context = new Context();
+		final ImarisService imaris = context.getService( ImarisService.class );
+		imaris.setConnectionOptions( ImarisServiceOptions.options()
+				.host( args.length > 0 ? args[ 0 ] : null )
+				.port( 4029 )
+				.clientThreadPoolSize( 4 )
+				.clientThreadPoolSizeMax( 8 )
+				.invocationTimeoutMillis( 60000 ) );
+		final ImarisApplication app = imaris.getApplication();
+		final ImarisDataset< ? > dataset = app.getDataset();
+
+		final long t0 = System.currentTimeMillis();
+		long numBytes = 0;
+		final int bitsPerPixel = dataset.getType().getBitsPerPixel();
+		for ( final Cell< ? > cell : Views.flatIterable( dataset.asImg().getCells() ) )
+			numBytes += cell.size() * bitsPerPixel / 8;
+		final long t1 = System.currentTimeMillis();
+		System.out.println( String.format( "loaded %d bytes in %d ms", numBytes, t1 - t0 ) );
+
+		imaris.disconnect();
+		context.dispose();
+	}
+}
@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.img;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Micro-benchmark comparing label decoding with {@link LabelKernels} against
+ * the previous voxel-major decoding (per voxel, loop over channels until the
+ * first non-zero one, through virtual {@code get}/{@code set} calls).
+ * <p>
+ * Decodes a 64x64x64 cell with 8 uint8 label channels into {@code int[]}
+ * labels, at varying label densities. Run with
+ * {@code java -cp ... com.bitplane.xt.img.LabelDecodingBenchmark}.
+ *
+ * @author Tobias Pietzsch
+ */
+public class LabelDecodingBenchmark
+{
+	private static final int CELL_SIZE = 64 * 64 * 64;
+
+	private static final int NUM_CHANNELS = 8;
+
+	private static final int WARMUP_ITERATIONS = 200;
+
+	private static final int ITERATIONS = 500;
+
+	public static void main( final String[] args )
+	{
+		for ( final double density : new double[] { 0.01, 0.1, 0.5, 1.0 } )
+		{
+			final Object[] channels = randomOneHot( density, new Random( 1 ) );
+
+			final int[] expected = new int[ CELL_SIZE ];
+			final int[] actual = new int[ CELL_SIZE ];
+			decodeVoxelMajor( channels, expected );
+			LabelKernels.decode( channels, actual, 0, 0, CELL_SIZE );
+			if ( !Arrays.equals( expected, actual ) )
+				throw new AssertionError( "LabelKernels.decode() result differs from reference" );
+
+			final double tVoxelMajor = time( () -> decodeVoxelMajor( channels, expected ) );
+			final double tKernels = time( () -> LabelKernels.decode( channels, actual, 0, 0, CELL_SIZE ) );
+			System.out.println( String.format(
+					"density = %4.2f:  voxel-major %8.3f ms,  channel-major %8.3f ms,  speedup %5.2fx",
+					density, tVoxelMajor, tKernels, tVoxelMajor / tKernels ) );
+		}
+	}
+
+	/**
+	 * Make one-hot channels where a voxel is labeled with probability
+	 * {@code density}, with a uniformly chosen label.
+	 */
+	private static Object[] randomOneHot( final double density, final Random random )
+	{
+		final byte[][] channels = new byte[ NUM_CHANNELS ][ CELL_SIZE ];
+		for ( int i = 0; i < CELL_SIZE; ++i )
+			if ( random.nextDouble() < density )
+				channels[ random.nextInt( NUM_CHANNELS ) ][ i ] = 1;
+		return channels;
+	}
+
+	/**
+	 * Returns average time per iteration in milliseconds.
+	 */
+	private static double time( final Runnable decode )
+	{
+		for ( int i = 0; i < WARMUP_ITERATIONS; ++i )
+			decode.run();
+		final long t0 = System.nanoTime();
+		for ( int i = 0; i < ITERATIONS; ++i )
+			decode.run();
+		final long t1 = System.nanoTime();
+		return ( t1 - t0 ) / 1e6 / ITERATIONS;
+	}
+
+	// -------------------------------------------------------------------
+	//  Reference: voxel-major decoding, as previously in ImarisLabelCache
+	// -------------------------------------------------------------------
+
+	private interface GetLabel
+	{
+		int get( final int index );
+	}
+
+	private interface SetLabel
+	{
+		void set( final int index, final int label );
+	}
+
+	private static void decodeVoxelMajor( final Object[] slicedata, final int[] data )
+	{
+		final GetLabel input = new GetChannelLabelByte( slicedata );
+		final SetLabel output = ( index, label ) -> data[ index ] = label;
+		for ( int i = 0; i < CELL_SIZE; ++i )
+			output.set( i, input.get( i ) );
+	}
+
+	static class GetChannelLabelByte implements GetLabel
+	{
+		private final byte[][] channels;
+
+		private final int numChannels;
+
+		GetChannelLabelByte( final Object[] input )
+		{
+			numChannels = input.length;
+			channels = new byte[ numChannels ][];
+			for ( int c = 0; c < numChannels; ++c )
+				channels[ c ] = ( byte[] ) input[ c ];
+		}
+
+		@Override
+		public int get( final int index )
+		{
+			for ( int c = 0; c < numChannels; ++c )
+				if ( channels[ c ][ index ] != 0 )
+					return c + 1;
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.img;
+
+import java.util.TreeSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the sparse and dense representations of {@link LabelInventory.CellSet}.
+ *
+ * @author Tobias Pietzsch
+ */
+public class LabelInventoryCellSetTest
+{
+	@Test
+	public void testSparse()
+	{
+		final LabelInventory.CellSet cells = new LabelInventory.CellSet( 1000 );
+		assertTrue( cells.isEmpty() );
+		cells.add( 17 );
+		cells.add( 3 );
+		cells.add( 999 );
+		cells.add( 17 );
+		assertArrayEquals( new long[] { 3, 17, 999 }, cells.toArray() );
+		cells.remove( 17 );
+		cells.remove( 18 );
+		assertArrayEquals( new long[] { 3, 999 }, cells.toArray() );
+		cells.remove( 3 );
+		cells.remove( 999 );
+		assertTrue( cells.isEmpty() );
+		assertFalse( cells.isDense() );
+	}
+
+	@Test
+	public void testUpgradeToDense()
+	{
+		final long numCells = 1L << 20;
+		final LabelInventory.CellSet cells = new LabelInventory.CellSet( numCells );
+		final TreeSet< Long > expected = new TreeSet<>();
+		final int n = ( int ) ( numCells / 64 ) + 1;
+		for ( int i = 0; i < n; ++i )
+		{
+			final long cell = ( i * 7919L ) % numCells;
+			cells.add( cell );
+			expected.add( cell );
+			assertTrue( cells.isDense() == ( expected.size() > numCells / 64 ) );
+		}
+		assertArrayEquals( expected.stream().mapToLong( Long::longValue ).toArray(), cells.toArray() );
+
+		for ( int i = 0; i < n; i += 2 )
+		{
+			final long cell = ( i * 7919L ) % numCells;
+			cells.remove( cell );
+			expected.remove( cell );
+		}
+		assertArrayEquals( expected.stream().mapToLong( Long::longValue ).toArray(), cells.toArray() );
+		assertFalse( cells.isEmpty() );
+	}
+}
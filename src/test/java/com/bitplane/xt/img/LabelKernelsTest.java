@@ -0,0 +1,230 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.img;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Round trips of composite labels through {@link LabelKernels} encoding and
+ * decoding, for all label and channel types.
+ *
+ * @author Tobias Pietzsch
+ */
+public class LabelKernelsTest
+{
+	@Test
+	public void indexedUnsignedByteLabels()
+	{
+		final byte[] labels = new byte[ 256 ];
+		for ( int i = 0; i < labels.length; ++i )
+			labels[ i ] = ( byte ) i;
+
+		final byte[] channel = new byte[ labels.length ];
+		LabelKernels.encodeIndexed( labels, true, 0, channel, labels.length );
+		assertEquals( 255, channel[ 255 ] & 0xff );
+
+		final byte[] decoded = new byte[ labels.length ];
+		LabelKernels.decodeIndexed( channel, decoded, 0, 0, labels.length );
+		assertArrayEquals( labels, decoded );
+	}
+
+	@Test
+	public void indexedUnsignedShortLabels()
+	{
+		final short[] labels = new short[ 65536 ];
+		for ( int i = 0; i < labels.length; ++i )
+			labels[ i ] = ( short ) i;
+
+		final short[] channel = new short[ labels.length ];
+		LabelKernels.encodeIndexed( labels, true, 0, channel, labels.length );
+		assertEquals( 65535, channel[ 65535 ] & 0xffff );
+
+		final short[] decoded = new short[ labels.length ];
+		LabelKernels.decodeIndexed( channel, decoded, 0, 0, labels.length );
+		assertArrayEquals( labels, decoded );
+	}
+
+	@Test
+	public void indexedIntLabels()
+	{
+		final int[] labels = { 0, 1, 255, 256, 65535, 65536, 1 << 24 };
+
+		final float[] channel = new float[ labels.length ];
+		LabelKernels.encodeIndexed( labels, false, 0, channel, labels.length );
+
+		final int[] decoded = new int[ labels.length ];
+		LabelKernels.decodeIndexed( channel, decoded, 0, 0, labels.length );
+		assertArrayEquals( labels, decoded );
+	}
+
+	@Test
+	public void indexedLongLabels()
+	{
+		final long[] labels = { 0, 1, 255, 256, 65535, 65536, 1 << 24 };
+
+		final float[] channel = new float[ labels.length ];
+		LabelKernels.encodeIndexed( labels, false, 0, channel, labels.length );
+
+		final long[] decoded = new long[ labels.length ];
+		LabelKernels.decodeIndexed( channel, decoded, 0, 0, labels.length );
+		assertArrayEquals( labels, decoded );
+	}
+
+	@Test
+	public void indexedWithOffset()
+	{
+		final short[] labels = new short[ 3 * LabelKernels.TILE_SIZE ];
+		for ( int i = 0; i < labels.length; ++i )
+			labels[ i ] = ( short ) ( i % 40000 );
+
+		final int srcPos = LabelKernels.TILE_SIZE + 17;
+		final int length = labels.length - srcPos;
+		final short[] channel = new short[ length ];
+		LabelKernels.encodeIndexed( labels, true, srcPos, channel, length );
+
+		final short[] decoded = new short[ labels.length ];
+		LabelKernels.decodeIndexed( channel, decoded, srcPos, 0, length );
+		for ( int i = 0; i < length; ++i )
+			assertEquals( labels[ srcPos + i ], decoded[ srcPos + i ] );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void indexedLabelTooLargeForChannel()
+	{
+		final short[] labels = { 1, 300 };
+		LabelKernels.encodeIndexed( labels, true, 0, new byte[ 2 ], 2 );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void indexedNegativeSignedLabel()
+	{
+		final byte[] labels = { 1, -1 };
+		LabelKernels.encodeIndexed( labels, false, 0, new byte[ 2 ], 2 );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void indexedLongLabelOutOfIntRange()
+	{
+		final long[] labels = { ( 1L << 32 ) + 1 };
+		LabelKernels.encodeIndexed( labels, false, 0, new float[ 1 ], 1 );
+	}
+
+	@Test
+	public void oneHotUnsignedByteLabels()
+	{
+		final int numChannels = 255;
+		final byte[] labels = new byte[ 256 ];
+		for ( int i = 0; i < labels.length; ++i )
+			labels[ i ] = ( byte ) i;
+
+		final Object[] channels = new Object[ numChannels ];
+		for ( int c = 0; c < numChannels; ++c )
+		{
+			final byte[] channel = new byte[ labels.length ];
+			LabelKernels.encode( labels, true, 0, c + 1, channel, labels.length );
+			channels[ c ] = channel;
+		}
+		assertEquals( 1, ( ( byte[] ) channels[ 199 ] )[ 200 ] );
+
+		final byte[] decoded = new byte[ labels.length ];
+		final long count = LabelKernels.decode( channels, decoded, 0, 0, labels.length );
+		assertEquals( numChannels, count );
+		assertArrayEquals( labels, decoded );
+	}
+
+	@Test
+	public void oneHotUnsignedShortLabels()
+	{
+		final short[] labels = { 0, 1, 2, ( short ) 40000 };
+		final int label = 40000;
+
+		final float[] channel = new float[ labels.length ];
+		LabelKernels.encode( labels, true, 0, label, channel, labels.length );
+		assertArrayEquals( new float[] { 0, 0, 0, 1 }, channel, 0 );
+
+		LabelKernels.encode( labels, false, 0, label, channel, labels.length );
+		assertArrayEquals( new float[] { 0, 0, 0, 0 }, channel, 0 );
+	}
+
+	@Test
+	public void oneHotLongLabelsAreNotTruncated()
+	{
+		final long[] labels = { 1, ( 1L << 32 ) + 1 };
+
+		final short[] channel = new short[ labels.length ];
+		LabelKernels.encode( labels, false, 0, 1, channel, labels.length );
+		assertArrayEquals( new short[] { 1, 0 }, channel );
+	}
+
+	@Test
+	public void signatureOfUnsignedLabels()
+	{
+		final byte[] labels = { 0, ( byte ) 200, ( byte ) 200, 1 };
+		final long[] counts = new long[ 200 ];
+		final long[] hashes = new long[ 200 ];
+
+		LabelKernels.signature( labels, true, counts, hashes );
+		assertEquals( 1, counts[ 0 ] );
+		assertEquals( 2, counts[ 199 ] );
+
+		LabelKernels.signature( labels, false, counts, hashes );
+		assertEquals( 1, counts[ 0 ] );
+		assertEquals( 0, counts[ 199 ] );
+	}
+
+	@Test
+	public void mergeUnlabeledKeepsOtherLabels()
+	{
+		// channel of label 3, merged at offset 2
+		final short[] channel = { 0, 1, 1, 1, 0 };
+		final int[] labels = { 9, 9, 0, 0, 3, 2, 0 };
+
+		final long conflicts = LabelKernels.mergeUnlabeled( channel, labels, 2, 3, channel.length );
+		assertArrayEquals( new int[] { 9, 9, 0, 3, 3, 2, 0 }, labels );
+		assertEquals( 1, conflicts );
+	}
+
+	@Test
+	public void mergeUnlabeledUnsignedByteLabels()
+	{
+		final float[] channel = new float[ 3 * LabelKernels.TILE_SIZE ];
+		channel[ 0 ] = 1;
+		channel[ channel.length - 1 ] = 1;
+		final byte[] labels = new byte[ channel.length ];
+
+		final long conflicts = LabelKernels.mergeUnlabeled( channel, labels, 0, 200, channel.length );
+		assertEquals( 200, labels[ 0 ] & 0xff );
+		assertEquals( 200, labels[ labels.length - 1 ] & 0xff );
+		assertEquals( 0, labels[ 1 ] );
+		assertEquals( 0, conflicts );
+	}
+}
@@ -0,0 +1,198 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests reuse and bounds of {@link ArrayPool}.
+ *
+ * @author Tobias Pietzsch
+ */
+public class ArrayPoolTest
+{
+	@Test
+	public void testReuse()
+	{
+		final ArrayPool pool = new ArrayPool( 4, 4 );
+		final float[] a = pool.floats( 100 );
+		assertEquals( 100, a.length );
+		assertEquals( 1, pool.getAllocationCount() );
+		assertEquals( 400, pool.getAllocatedBytes() );
+
+		pool.release( a );
+		assertSame( a, pool.floats( 100 ) );
+		assertEquals( 1, pool.getReuseCount() );
+
+		// different length or type is not reused
+		pool.release( a );
+		assertNotSame( a, pool.floats( 101 ) );
+		assertEquals( 100, pool.ints( 100 ).length );
+		assertEquals( 3, pool.getAllocationCount() );
+		assertSame( a, pool.floats( 100 ) );
+
+		pool.resetCounters();
+		assertEquals( 0, pool.getAllocationCount() );
+		assertEquals( 0, pool.getAllocatedBytes() );
+		assertEquals( 0, pool.getReuseCount() );
+	}
+
+	@Test
+	public void testAllTypes()
+	{
+		final ArrayPool pool = new ArrayPool( 1, 1 );
+		final Object[] arrays = {
+				pool.bytes( 3 ),
+				pool.shorts( 3 ),
+				pool.ints( 3 ),
+				pool.longs( 3 ),
+				pool.floats( 3 ),
+				pool.doubles( 3 ),
+				pool.objects( 3 ) };
+		for ( final Object array : arrays )
+			pool.release( array );
+		assertSame( arrays[ 0 ], pool.bytes( 3 ) );
+		assertSame( arrays[ 1 ], pool.shorts( 3 ) );
+		assertSame( arrays[ 2 ], pool.ints( 3 ) );
+		assertSame( arrays[ 3 ], pool.longs( 3 ) );
+		assertSame( arrays[ 4 ], pool.floats( 3 ) );
+		assertSame( arrays[ 5 ], pool.doubles( 3 ) );
+		assertSame( arrays[ 6 ], pool.objects( 3 ) );
+		assertEquals( 7, pool.getReuseCount() );
+	}
+
+	@Test
+	public void testObjectArraysAreCleared()
+	{
+		final ArrayPool pool = new ArrayPool( 1, 1 );
+		final Object[] array = pool.objects( 2 );
+		array[ 0 ] = "a";
+		array[ 1 ] = "b";
+		pool.release( array );
+		assertNull( array[ 0 ] );
+		assertNull( array[ 1 ] );
+	}
+
+	@Test
+	public void testFullSizeClassDropsArrays()
+	{
+		final ArrayPool pool = new ArrayPool( 2, 4 );
+		final byte[] a = pool.bytes( 10 );
+		final byte[] b = pool.bytes( 10 );
+		final byte[] c = pool.bytes( 10 );
+		pool.release( a );
+		pool.release( b );
+		pool.release( c ); // dropped
+		pool.bytes( 10 );
+		pool.bytes( 10 );
+		assertEquals( 2, pool.getReuseCount() );
+		pool.bytes( 10 );
+		assertEquals( 4, pool.getAllocationCount() );
+	}
+
+	@Test
+	public void testMaxClassesReplacesLeastRecentlyUsed()
+	{
+		final ArrayPool pool = new ArrayPool( 4, 2 );
+		final short[] a = pool.shorts( 1 );
+		final short[] b = pool.shorts( 2 );
+		final short[] c = pool.shorts( 3 );
+		pool.release( a );
+		pool.release( b );
+		assertSame( b, pool.shorts( 2 ) );
+		pool.release( b );
+		pool.release( c ); // replaces the size class of a
+		assertEquals( 4 + 6, pool.getPooledBytes() ); // a was dropped
+		assertNotSame( a, pool.shorts( 1 ) );
+		assertSame( b, pool.shorts( 2 ) );
+		assertSame( c, pool.shorts( 3 ) );
+	}
+
+	@Test
+	public void testMaxBytesEvictsLeastRecentlyUsed()
+	{
+		final ArrayPool pool = new ArrayPool( 4, 4, 100 );
+		final byte[] a = pool.bytes( 40 );
+		final byte[] b = pool.bytes( 50 );
+		final byte[] c = pool.bytes( 30 );
+		final byte[] d = pool.bytes( 200 );
+		pool.release( a );
+		pool.release( b );
+		assertEquals( 90, pool.getPooledBytes() );
+		pool.release( c ); // evicts a
+		assertEquals( 80, pool.getPooledBytes() );
+		pool.release( d ); // larger than maxBytes, dropped
+		assertEquals( 80, pool.getPooledBytes() );
+		assertNotSame( a, pool.bytes( 40 ) );
+		assertSame( b, pool.bytes( 50 ) );
+		assertSame( c, pool.bytes( 30 ) );
+		assertEquals( 0, pool.getPooledBytes() );
+	}
+
+	@Test
+	public void testMaxBytesDoesNotEvictOwnSizeClass()
+	{
+		final ArrayPool pool = new ArrayPool( 4, 4, 100 );
+		final long[] a = pool.longs( 10 );
+		final long[] b = pool.longs( 10 );
+		pool.release( a );
+		pool.release( b ); // dropped
+		assertEquals( 80, pool.getPooledBytes() );
+		assertSame( a, pool.longs( 10 ) );
+		assertNotSame( b, pool.longs( 10 ) );
+	}
+
+	@Test
+	public void testClear()
+	{
+		final ArrayPool pool = new ArrayPool( 4, 4 );
+		final double[] a = pool.doubles( 5 );
+		pool.release( a );
+		pool.clear();
+		assertEquals( 0, pool.getPooledBytes() );
+		assertNotSame( a, pool.doubles( 5 ) );
+	}
+
+	@Test
+	public void testReleaseNull()
+	{
+		new ArrayPool( 1, 1 ).release( null );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testUnsupportedType()
+	{
+		new ArrayPool( 1, 1 ).release( new String[ 1 ] );
+	}
+}
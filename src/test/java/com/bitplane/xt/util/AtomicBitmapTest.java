@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link AtomicBitmap} against {@link BitSet}, and tests concurrent
+ * modification.
+ *
+ * @author Tobias Pietzsch
+ */
+public class AtomicBitmapTest
+{
+	@Test
+	public void testSetClear()
+	{
+		final AtomicBitmap bitmap = new AtomicBitmap( 100 );
+		assertEquals( 100, bitmap.size() );
+		assertFalse( bitmap.get( 42 ) );
+		assertTrue( bitmap.set( 42 ) );
+		assertFalse( bitmap.set( 42 ) );
+		assertTrue( bitmap.get( 42 ) );
+		assertTrue( bitmap.clear( 42 ) );
+		assertFalse( bitmap.clear( 42 ) );
+		assertFalse( bitmap.get( 42 ) );
+		assertTrue( bitmap.set( 99, true ) );
+		assertTrue( bitmap.set( 99, false ) );
+		assertEquals( 0, bitmap.cardinality() );
+	}
+
+	@Test
+	public void testAgainstBitSet()
+	{
+		// not a multiple of the segment size, spanning several segments
+		final int size = 3 * AtomicBitmap.SEGMENT_SIZE + 1234;
+		final AtomicBitmap bitmap = new AtomicBitmap( size );
+		final BitSet expected = new BitSet( size );
+		final Random random = new Random( 1 );
+		for ( int i = 0; i < 20000; ++i )
+		{
+			final int index = random.nextInt( size );
+			final boolean value = random.nextInt( 3 ) != 0;
+			assertEquals( expected.get( index ) != value, bitmap.set( index, value ) );
+			expected.set( index, value );
+		}
+		// segment boundaries
+		for ( final int index : new int[] { 0, AtomicBitmap.SEGMENT_SIZE - 1, AtomicBitmap.SEGMENT_SIZE, size - 1 } )
+		{
+			bitmap.set( index );
+			expected.set( index );
+		}
+
+		assertEquals( expected.cardinality(), bitmap.cardinality() );
+		for ( int i = 0; i < size; ++i )
+		{
+			assertEquals( expected.get( i ), bitmap.get( i ) );
+			final int nextSet = expected.nextSetBit( i );
+			final int nextClear = expected.nextClearBit( i );
+			assertEquals( nextSet, bitmap.nextSetBit( i ) );
+			assertEquals( nextClear < size ? nextClear : -1, bitmap.nextClearBit( i ) );
+		}
+		assertEquals( -1, bitmap.nextSetBit( size ) );
+		assertEquals( -1, bitmap.nextClearBit( size ) );
+
+		bitmap.clearAll();
+		assertEquals( 0, bitmap.cardinality() );
+		assertEquals( -1, bitmap.nextSetBit( 0 ) );
+		assertEquals( 0, bitmap.nextClearBit( 0 ) );
+	}
+
+	@Test
+	public void testEmptySegments()
+	{
+		final AtomicBitmap bitmap = new AtomicBitmap( 5L * AtomicBitmap.SEGMENT_SIZE );
+		final long index = 4L * AtomicBitmap.SEGMENT_SIZE + 17;
+		bitmap.set( index );
+		assertEquals( index, bitmap.nextSetBit( 0 ) );
+		assertEquals( 0, bitmap.nextClearBit( 0 ) );
+		assertEquals( index + 1, bitmap.nextClearBit( index ) );
+	}
+
+	@Test( expected = IndexOutOfBoundsException.class )
+	public void testOutOfBounds()
+	{
+		new AtomicBitmap( 10 ).set( 10 );
+	}
+
+	@Test
+	public void testConcurrentSet() throws Exception
+	{
+		final int size = 4 * AtomicBitmap.SEGMENT_SIZE;
+		final AtomicBitmap bitmap = new AtomicBitmap( size );
+		final AtomicLong changed = new AtomicLong();
+		final int numThreads = 8;
+		final ExecutorService executor = Executors.newFixedThreadPool( numThreads );
+		try
+		{
+			final List< Future< ? > > futures = new ArrayList<>();
+			for ( int t = 0; t < numThreads; ++t )
+			{
+				// all threads set all bits, in different orders
+				final int offset = t * 7919;
+				futures.add( executor.submit( () -> {
+					for ( int i = 0; i < size; ++i )
+						if ( bitmap.set( ( i + offset ) % size ) )
+							changed.incrementAndGet();
+				} ) );
+			}
+			for ( final Future< ? > future : futures )
+				future.get();
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		// each bit was changed by exactly one thread
+		assertEquals( size, changed.get() );
+		assertEquals( size, bitmap.cardinality() );
+		assertEquals( -1, bitmap.nextClearBit( 0 ) );
+	}
+}
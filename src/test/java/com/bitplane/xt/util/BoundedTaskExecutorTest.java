@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests failure propagation and shutdown of {@link BoundedTaskExecutor}.
+ *
+ * @author Tobias Pietzsch
+ */
+public class BoundedTaskExecutorTest
+{
+	@Test
+	public void testRunsAllTasks() throws Exception
+	{
+		final AtomicInteger count = new AtomicInteger();
+		try ( final BoundedTaskExecutor executor = new BoundedTaskExecutor( "test", 4, 8 ) )
+		{
+			for ( int i = 0; i < 1000; ++i )
+				executor.submit( count::incrementAndGet );
+			executor.awaitCompletion( IOException.class );
+		}
+		assertEquals( 1000, count.get() );
+	}
+
+	@Test
+	public void testRethrowsDeclaredException() throws Exception
+	{
+		final IOException failure = new IOException();
+		try ( final BoundedTaskExecutor executor = new BoundedTaskExecutor( "test", 2, 4 ) )
+		{
+			executor.submit( () -> {
+				throw failure;
+			} );
+			executor.awaitCompletion( TimeoutException.class, IOException.class );
+			fail();
+		}
+		catch ( final IOException e )
+		{
+			assertSame( failure, e );
+		}
+	}
+
+	@Test
+	public void testWrapsUndeclaredException() throws Exception
+	{
+		final IOException failure = new IOException();
+		try ( final BoundedTaskExecutor executor = new BoundedTaskExecutor( "test", 2, 4 ) )
+		{
+			executor.submit( () -> {
+				throw failure;
+			} );
+			executor.awaitCompletion( TimeoutException.class );
+			fail();
+		}
+		catch ( final RuntimeException e )
+		{
+			assertSame( failure, e.getCause() );
+		}
+	}
+
+	@Test
+	public void testRethrowsError() throws Exception
+	{
+		final AssertionError failure = new AssertionError();
+		try ( final BoundedTaskExecutor executor = new BoundedTaskExecutor( "test", 2, 4 ) )
+		{
+			executor.submit( () -> {
+				throw failure;
+			} );
+			executor.awaitCompletion( IOException.class );
+			fail();
+		}
+		catch ( final AssertionError e )
+		{
+			assertSame( failure, e );
+		}
+	}
+
+	@Test
+	public void testSkipsTasksAfterFailure() throws Exception
+	{
+		final AtomicInteger count = new AtomicInteger();
+		try ( final BoundedTaskExecutor executor = new BoundedTaskExecutor( "test", 1, 4 ) )
+		{
+			executor.submit( () -> {
+				throw new IOException();
+			} );
+			for ( int i = 0; i < 100; ++i )
+				executor.submit( count::incrementAndGet );
+			executor.awaitCompletion( IOException.class );
+			fail();
+		}
+		catch ( final IOException e )
+		{
+			assertEquals( 0, count.get() );
+		}
+	}
+
+	@Test
+	public void testCloseCancelsPendingTasks() throws Exception
+	{
+		final CountDownLatch started = new CountDownLatch( 1 );
+		final AtomicInteger count = new AtomicInteger();
+		final BoundedTaskExecutor executor = new BoundedTaskExecutor( "test", 1, 4 );
+		executor.submit( () -> {
+			started.countDown();
+			Thread.sleep( 60000 );
+		} );
+		for ( int i = 0; i < 3; ++i )
+			executor.submit( count::incrementAndGet );
+		started.await();
+		final long t0 = System.currentTimeMillis();
+		executor.close();
+		assertTrue( System.currentTimeMillis() - t0 < 10000 );
+		assertEquals( 0, count.get() );
+	}
+}
@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * Expose the Imaris XT interface as an ImageJ2 service backed by ImgLib2.
+ * %%
+ * Copyright (C) 2019 - 2021 Bitplane AG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package com.bitplane.xt.util;
+
+import net.imglib2.img.cell.CellGrid;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link CellGeometry} cell intervals against {@link
+ * CellGrid#getCellDimensions}, for grids with truncated border cells.
+ *
+ * @author Tobias Pietzsch
+ */
+public class CellGeometryTest
+{
+	@Test
+	public void testXYZ()
+	{
+		check( new long[] { 100, 70, 9 }, new int[] { 32, 32, 4 }, new int[] { 0, 1, 2, -1, -1 } );
+	}
+
+	@Test
+	public void testXYC()
+	{
+		check( new long[] { 100, 70, 3 }, new int[] { 32, 32, 1 }, new int[] { 0, 1, -1, 2, -1 } );
+	}
+
+	@Test
+	public void testXYZCT()
+	{
+		check( new long[] { 50, 40, 9, 2, 3 }, new int[] { 16, 16, 4, 2, 1 }, new int[] { 0, 1, 2, 3, 4 } );
+	}
+
+	@Test
+	public void testXYCZ()
+	{
+		// C and Z flipped in imglib2 space
+		check( new long[] { 33, 17, 2, 5 }, new int[] { 8, 8, 2, 2 }, new int[] { 0, 1, 3, 2, -1 } );
+	}
+
+	@Test
+	public void testXYCTruncatedChannels()
+	{
+		// last channel cell has a single channel
+		check( new long[] { 20, 10, 3 }, new int[] { 8, 8, 2 }, new int[] { 0, 1, -1, 2, -1 } );
+	}
+
+	@Test
+	public void testBorderCell()
+	{
+		final CellGrid grid = new CellGrid( new long[] { 100, 70, 3 }, new int[] { 32, 32, 1 } );
+		final CellGeometry geometry = new CellGeometry( grid, new int[] { 0, 1, -1, 2, -1 } );
+		final int[] region = new int[ CellGeometry.REGION_SIZE ];
+		// last cell: grid position (3, 2, 2)
+		geometry.imarisRegion( 4 * 3 * 3 - 1, region );
+		assertArrayEquals( new int[] { 96, 64, 0, 2, 0, 4, 6, 1, 1, 1 }, region );
+	}
+
+	private static void check( final long[] dimensions, final int[] cellDimensions, final int[] mapDimensions )
+	{
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final CellGeometry geometry = new CellGeometry( grid, mapDimensions );
+		final int n = dimensions.length;
+		assertEquals( n, geometry.numDimensions() );
+
+		long numCells = 1;
+		for ( final long g : grid.getGridDimensions() )
+			numCells *= g;
+
+		final long[] expectedMin = new long[ n ];
+		final int[] expectedDims = new int[ n ];
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		final int[] region = new int[ CellGeometry.REGION_SIZE ];
+		final int[] expectedRegion = new int[ CellGeometry.REGION_SIZE ];
+		boolean truncated = false;
+		boolean multiSlice = false;
+		for ( long index = 0; index < numCells; ++index )
+		{
+			grid.getCellDimensions( index, expectedMin, expectedDims );
+			geometry.cellInterval( index, cellMin, cellDims );
+			assertArrayEquals( "cell " + index, expectedMin, cellMin );
+			assertArrayEquals( "cell " + index, expectedDims, cellDims );
+
+			for ( int i = 0; i < 5; ++i )
+			{
+				final int d = mapDimensions[ i ];
+				expectedRegion[ i ] = d < 0 ? 0 : ( int ) expectedMin[ d ];
+				expectedRegion[ 5 + i ] = d < 0 ? 1 : expectedDims[ d ];
+			}
+			geometry.imarisRegion( index, region );
+			assertArrayEquals( "cell " + index, expectedRegion, region );
+			geometry.imarisRegion( expectedMin, expectedDims, region );
+			assertArrayEquals( "cell " + index, expectedRegion, region );
+
+			final boolean expectedMultiSlice = expectedRegion[ 8 ] > 1 || expectedRegion[ 9 ] > 1;
+			assertEquals( "cell " + index, expectedMultiSlice, geometry.isMultiSlice( index ) );
+			multiSlice |= expectedMultiSlice;
+
+			for ( int d = 0; d < n; ++d )
+				truncated |= expectedDims[ d ] < cellDimensions[ d ];
+		}
+		assertTrue( "grid has no truncated border cells", truncated );
+		assertEquals( multiSlice, geometry.hasMultiSliceCells() );
+	}
+}